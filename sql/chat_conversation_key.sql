@@ -0,0 +1,8 @@
+-- 已有数据库升级：私聊消息增加与方向无关的会话键，按 (conversation_key, id) 索引分页
+alter table chat
+    add column conversation_key varchar(41) null comment '私聊会话键 较小用户id:较大用户id' after team_id,
+    add index idx_conversation_key_id (conversation_key, id);
+
+-- 历史消息由应用启动后按id分段回填，完成后 Redis 键 findfriend:chat:conversation-backfill 为 done，
+-- 之后私聊记录不再使用下面的索引，可以删除
+-- alter table chat drop index idx_from_id_to_id_id;
@@ -0,0 +1,5 @@
+-- 已有数据库升级：聊天记录按id倒序分页，大厅、队伍、私聊各走一条索引范围扫描
+alter table chat
+    add index idx_chat_type_id (chat_type, id),
+    add index idx_team_id_id (team_id, id),
+    add index idx_from_id_to_id_id (from_id, to_id, id);
@@ -55,7 +55,11 @@ create table if not exists chat
     create_time datetime default CURRENT_TIMESTAMP null comment '创建时间',
     update_time datetime default CURRENT_TIMESTAMP null,
     team_id     bigint                                  null,
-    is_delete   tinyint  default 0                 null
+    conversation_key varchar(41)                        null comment '私聊会话键 较小用户id:较大用户id',
+    is_delete   tinyint  default 0                 null,
+    index idx_chat_type_id (chat_type, id),
+    index idx_team_id_id (team_id, id),
+    index idx_conversation_key_id (conversation_key, id)
 )
     comment '聊天消息表' row_format = COMPACT;
 
@@ -148,6 +152,7 @@ create table if not exists team
     description varchar(1024)                      null comment '描述',
     cover_image varchar(255)                       null comment '封面图片',
     max_num     int      default 1                 not null comment '最大人数',
+    join_num    int      default 0                 not null comment '已加入人数',
     expire_time datetime                           null comment '过期时间',
     user_id     bigint                             null comment '用户id',
     status      int      default 0                 not null comment '0 - 公开，1 - 私有，2 - 加密',
@@ -190,7 +195,9 @@ create table if not exists user_team
     join_time   datetime                           null comment '加入时间',
     create_time datetime default CURRENT_TIMESTAMP null comment '创建时间',
     update_time datetime default CURRENT_TIMESTAMP null on update CURRENT_TIMESTAMP,
-    is_delete   tinyint  default 0                 not null comment '是否删除'
+    is_delete   tinyint  default 0                 not null comment '是否删除',
+    active      tinyint as (if(is_delete = 0, 1, null)) virtual comment '未删除时为 1，已删除的关系不参与唯一约束',
+    unique key uk_user_id_team_id (user_id, team_id, active)
 )
     comment '用户队伍关系' charset = utf8
                            row_format = COMPACT;
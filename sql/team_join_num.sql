@@ -0,0 +1,6 @@
+-- 已有数据库升级：队伍增加已加入人数列并按关系表回填
+alter table team
+    add column join_num int default 0 not null comment '已加入人数' after max_num;
+
+update team t
+set t.join_num = (select count(*) from user_team ut where ut.team_id = t.id and ut.is_delete = 0);
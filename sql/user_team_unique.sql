@@ -0,0 +1,18 @@
+-- 已有数据库升级：用户队伍关系增加唯一约束，同一用户在同一队伍中只有一条未删除的关系
+-- 先逻辑删除重复的关系（保留最早的一条），再按关系表重新统计已加入人数
+update user_team ut
+    join (select user_id, team_id, min(id) as keep_id
+          from user_team
+          where is_delete = 0
+          group by user_id, team_id
+          having count(*) > 1) d on ut.user_id = d.user_id and ut.team_id = d.team_id
+set ut.is_delete = 1
+where ut.is_delete = 0
+  and ut.id <> d.keep_id;
+
+update team t
+set t.join_num = (select count(*) from user_team ut where ut.team_id = t.id and ut.is_delete = 0);
+
+alter table user_team
+    add column active tinyint as (if(is_delete = 0, 1, null)) virtual comment '未删除时为 1，已删除的关系不参与唯一约束',
+    add unique key uk_user_id_team_id (user_id, team_id, active);
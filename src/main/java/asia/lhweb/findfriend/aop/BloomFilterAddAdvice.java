@@ -1,7 +1,8 @@
 package asia.lhweb.findfriend.aop;
 
 
-import cn.hutool.bloomfilter.BloomFilter;
+import asia.lhweb.findfriend.model.enums.BloomFilterEnum;
+import asia.lhweb.findfriend.service.BloomFilterService;
 import lombok.extern.log4j.Log4j2;
 import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.annotation.After;
@@ -12,10 +13,6 @@ import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
 
-import static asia.lhweb.findfriend.constants.BloomFilterConstants.BLOG_BLOOM_PREFIX;
-import static asia.lhweb.findfriend.constants.BloomFilterConstants.TEAM_BLOOM_PREFIX;
-import static asia.lhweb.findfriend.constants.BloomFilterConstants.USER_BLOOM_PREFIX;
-
 /**
  * 布隆过滤器添加通知
  *
@@ -29,7 +26,7 @@ import static asia.lhweb.findfriend.constants.BloomFilterConstants.USER_BLOOM_PR
 public class BloomFilterAddAdvice {
 
     @Resource
-    private BloomFilter bloomFilter;
+    private BloomFilterService bloomFilterService;
 
     /**
      * 之后插入用户
@@ -40,7 +37,7 @@ public class BloomFilterAddAdvice {
     public void afterInsertUser(JoinPoint joinPoint) {
         Object[] args = joinPoint.getArgs();
         log.info("add userId " + args[1] + " to BloomFilter");
-        bloomFilter.add(USER_BLOOM_PREFIX + args[1]);
+        bloomFilterService.add(BloomFilterEnum.USER, (Long) args[1]);
     }
 
     /**
@@ -51,7 +48,7 @@ public class BloomFilterAddAdvice {
     @AfterReturning(value = "execution(long asia.lhweb.findfriend.service.impl.TeamServiceImpl.addTeam(..))", returning = "ret")
     public void afterAddTeam(Object ret) {
         log.info("add teamId " + ret + " to BloomFilter");
-        bloomFilter.add(TEAM_BLOOM_PREFIX + ret);
+        bloomFilterService.add(BloomFilterEnum.TEAM, (Long) ret);
     }
 
     /**
@@ -62,6 +59,6 @@ public class BloomFilterAddAdvice {
     @AfterReturning(value = "execution(* asia.lhweb.findfriend.service.impl.BlogServiceImpl.addBlog(..))", returning = "ret")
     public void afterAddBlog(Object ret) {
         log.info("add blogId " + ret + " to BloomFilter");
-        bloomFilter.add(BLOG_BLOOM_PREFIX + ret);
+        bloomFilterService.add(BloomFilterEnum.BLOG, (Long) ret);
     }
 }
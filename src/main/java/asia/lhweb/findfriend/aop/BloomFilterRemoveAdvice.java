@@ -0,0 +1,71 @@
+package asia.lhweb.findfriend.aop;
+
+
+import asia.lhweb.findfriend.model.enums.BloomFilterEnum;
+import asia.lhweb.findfriend.service.BloomFilterService;
+import lombok.extern.log4j.Log4j2;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.List;
+
+import static asia.lhweb.findfriend.utils.TransactionUtils.afterCommit;
+
+/**
+ * 布隆过滤器删除通知
+ * 事务提交后才移除，回滚时队伍、博客仍在，不能被过滤器拦截；最后一人退出解散队伍时由 quitTeam 自行移除
+ *
+ * @author 罗汉
+ * @date 2024/05/08
+ */
+@Component
+@Aspect
+@ConditionalOnProperty(prefix = "super", name = "enable-bloom-filter", havingValue = "true")
+@Log4j2
+public class BloomFilterRemoveAdvice {
+
+    @Resource
+    private BloomFilterService bloomFilterService;
+
+    /**
+     * 删除队伍后
+     *
+     * @param joinPoint 连接点
+     */
+    @AfterReturning("execution(* asia.lhweb.findfriend.service.impl.TeamServiceImpl.deleteTeam(..))")
+    public void afterDeleteTeam(JoinPoint joinPoint) {
+        Object[] args = joinPoint.getArgs();
+        log.info("remove teamId " + args[0] + " from BloomFilter");
+        afterCommit(() -> bloomFilterService.remove(BloomFilterEnum.TEAM, (Long) args[0]));
+    }
+
+    /**
+     * 批量解散到期队伍后
+     *
+     * @param teamIds 已解散的队伍id
+     */
+    @AfterReturning(value = "execution(* asia.lhweb.findfriend.service.impl.TeamServiceImpl.disbandTeams(..))",
+            returning = "teamIds")
+    public void afterDisbandTeams(List<Long> teamIds) {
+        for (Long teamId : teamIds) {
+            log.info("remove teamId " + teamId + " from BloomFilter");
+            afterCommit(() -> bloomFilterService.remove(BloomFilterEnum.TEAM, teamId));
+        }
+    }
+
+    /**
+     * 删除博客后
+     *
+     * @param joinPoint 连接点
+     */
+    @AfterReturning("execution(* asia.lhweb.findfriend.service.impl.BlogServiceImpl.deleteBlog(..))")
+    public void afterDeleteBlog(JoinPoint joinPoint) {
+        Object[] args = joinPoint.getArgs();
+        log.info("remove blogId " + args[0] + " from BloomFilter");
+        afterCommit(() -> bloomFilterService.remove(BloomFilterEnum.BLOG, (Long) args[0]));
+    }
+}
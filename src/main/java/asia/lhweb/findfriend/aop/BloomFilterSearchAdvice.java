@@ -2,9 +2,10 @@ package asia.lhweb.findfriend.aop;
 
 
 import asia.lhweb.findfriend.exception.BusinessException;
-import cn.hutool.bloomfilter.BloomFilter;
-import lombok.extern.log4j.Log4j2;
 import asia.lhweb.findfriend.common.ErrorCode;
+import asia.lhweb.findfriend.model.enums.BloomFilterEnum;
+import asia.lhweb.findfriend.service.BloomFilterService;
+import lombok.extern.log4j.Log4j2;
 import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Before;
@@ -13,10 +14,6 @@ import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
 
-import static asia.lhweb.findfriend.constants.BloomFilterConstants.BLOG_BLOOM_PREFIX;
-import static asia.lhweb.findfriend.constants.BloomFilterConstants.TEAM_BLOOM_PREFIX;
-import static asia.lhweb.findfriend.constants.BloomFilterConstants.USER_BLOOM_PREFIX;
-
 /**
  * 布隆过滤器搜索通知
  *
@@ -29,7 +26,7 @@ import static asia.lhweb.findfriend.constants.BloomFilterConstants.USER_BLOOM_PR
 @Log4j2
 public class BloomFilterSearchAdvice {
     @Resource
-    private BloomFilter bloomFilter;
+    private BloomFilterService bloomFilterService;
 
 
     /**
@@ -40,7 +37,7 @@ public class BloomFilterSearchAdvice {
     @Before("execution(* asia.lhweb.findfriend.controller.UserController.getUserById(..))")
     public void findUserById(JoinPoint joinPoint) {
         Object[] args = joinPoint.getArgs();
-        boolean contains = bloomFilter.contains(USER_BLOOM_PREFIX + args[0]);
+        boolean contains = bloomFilterService.contains(BloomFilterEnum.USER, (Long) args[0]);
         if (!contains) {
             log.error("没有在 BloomFilter 中找到该 userId");
             throw new BusinessException(ErrorCode.PARAMS_ERROR, "没有找到该用户");
@@ -55,7 +52,7 @@ public class BloomFilterSearchAdvice {
     @Before("execution(* asia.lhweb.findfriend.controller.TeamController.getTeamById(..))")
     public void findTeamById(JoinPoint joinPoint) {
         Object[] args = joinPoint.getArgs();
-        boolean contains = bloomFilter.contains(TEAM_BLOOM_PREFIX + args[0]);
+        boolean contains = bloomFilterService.contains(BloomFilterEnum.TEAM, (Long) args[0]);
         if (!contains) {
             log.error("没有在 BloomFilter 中找到该 teamId");
             throw new BusinessException(ErrorCode.PARAMS_ERROR, "没有找到该队伍");
@@ -70,7 +67,7 @@ public class BloomFilterSearchAdvice {
     @Before("execution(* asia.lhweb.findfriend.controller.TeamController.getTeamMemberById(..))")
     public void findTeamMemberById(JoinPoint joinPoint) {
         Object[] args = joinPoint.getArgs();
-        boolean contains = bloomFilter.contains(TEAM_BLOOM_PREFIX + args[0]);
+        boolean contains = bloomFilterService.contains(BloomFilterEnum.TEAM, (Long) args[0]);
         if (!contains) {
             log.error("没有在 BloomFilter 中找到该 teamId");
             throw new BusinessException(ErrorCode.PARAMS_ERROR, "没有找到该队伍");
@@ -85,7 +82,7 @@ public class BloomFilterSearchAdvice {
     @Before("execution(* asia.lhweb.findfriend.controller.BlogController.getBlogById(..))")
     public void findBlogById(JoinPoint joinPoint) {
         Object[] args = joinPoint.getArgs();
-        boolean contains = bloomFilter.contains(BLOG_BLOOM_PREFIX + args[0]);
+        boolean contains = bloomFilterService.contains(BloomFilterEnum.BLOG, (Long) args[0]);
         if (!contains) {
             log.error("没有在 BloomFilter 中找到该 blogId");
             throw new BusinessException(ErrorCode.PARAMS_ERROR, "没有找到该博文");
@@ -6,9 +6,15 @@ import javax.servlet.ServletRequestEvent;
 import javax.servlet.ServletRequestListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
+import javax.websocket.Extension;
 import javax.websocket.HandshakeResponse;
 import javax.websocket.server.HandshakeRequest;
 import javax.websocket.server.ServerEndpointConfig;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static asia.lhweb.findfriend.constants.ChatConstant.PERMESSAGE_DEFLATE;
 
 /**
  * http会话配置
@@ -47,4 +53,23 @@ public class HttpSessionConfig extends ServerEndpointConfig.Configurator impleme
         }
         super.modifyHandshake(sec, request, response);
     }
+
+    /**
+     * 协商扩展，只启用 permessage-deflate，压缩聊天消息中重复的键名和用户资料
+     *
+     * @param installed 容器支持的扩展
+     * @param requested 客户端请求的扩展
+     * @return {@link List}<{@link Extension}>
+     */
+    @Override
+    public List<Extension> getNegotiatedExtensions(List<Extension> installed, List<Extension> requested) {
+        boolean supported = installed.stream().anyMatch(extension -> PERMESSAGE_DEFLATE.equals(extension.getName()));
+        if (!supported) {
+            return Collections.emptyList();
+        }
+        // 保留客户端的参数，由容器按参数协商窗口大小等
+        return requested.stream()
+                .filter(extension -> PERMESSAGE_DEFLATE.equals(extension.getName()))
+                .collect(Collectors.toList());
+    }
 }
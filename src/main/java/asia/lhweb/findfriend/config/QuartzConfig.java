@@ -1,6 +1,12 @@
 package asia.lhweb.findfriend.config;
 
+import asia.lhweb.findfriend.jobs.ArchiveChat;
+import asia.lhweb.findfriend.jobs.BloomFilterCompaction;
 import asia.lhweb.findfriend.jobs.DisbandExpiredTeam;
+import asia.lhweb.findfriend.jobs.RebuildTeamRecommendIndex;
+import asia.lhweb.findfriend.jobs.ReconcileTeamMemberNum;
+import asia.lhweb.findfriend.jobs.SaveBloomFilterSnapshot;
+import asia.lhweb.findfriend.jobs.SweepStaleCache;
 import asia.lhweb.findfriend.jobs.UserRecommendationCache;
 
 import asia.lhweb.findfriend.properties.FindFriendProperties;
@@ -43,7 +49,7 @@ public class QuartzConfig {
      */
     @Bean
     public Trigger disbandExpireTeamTrigger() {
-        CronScheduleBuilder cronScheduleBuilder = CronScheduleBuilder.cronSchedule(findFriendProperties.getJob());
+        CronScheduleBuilder cronScheduleBuilder = CronScheduleBuilder.cronSchedule(findFriendProperties.getDisbandExpiredTeamJob());
         if (findFriendProperties.isEnableAutoDisbandment()) {
             return TriggerBuilder.newTrigger()
                     .forJob(disbandExpireTeamJobDetail())
@@ -79,4 +85,154 @@ public class QuartzConfig {
             return null;
         }
     }
+
+    /**
+     * 布隆过滤器压缩工作细节
+     *
+     * @return {@link JobDetail}
+     */
+    @Bean
+    public JobDetail bloomFilterCompactionJobDetail() {
+        return JobBuilder.newJob(BloomFilterCompaction.class).storeDurably().build();
+    }
+
+    /**
+     * 布隆过滤器压缩触发
+     *
+     * @return {@link Trigger}
+     */
+    @Bean
+    public Trigger bloomFilterCompactionTrigger() {
+        CronScheduleBuilder cronScheduleBuilder = CronScheduleBuilder.cronSchedule(findFriendProperties.getBloomFilterCompactionJob());
+        if (findFriendProperties.isEnableBloomFilter()) {
+            return TriggerBuilder.newTrigger()
+                    .forJob(bloomFilterCompactionJobDetail())
+                    .withSchedule(cronScheduleBuilder).build();
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * 布隆过滤器快照工作细节
+     *
+     * @return {@link JobDetail}
+     */
+    @Bean
+    public JobDetail bloomFilterSnapshotJobDetail() {
+        return JobBuilder.newJob(SaveBloomFilterSnapshot.class).storeDurably().build();
+    }
+
+    /**
+     * 布隆过滤器快照触发
+     *
+     * @return {@link Trigger}
+     */
+    @Bean
+    public Trigger bloomFilterSnapshotTrigger() {
+        CronScheduleBuilder cronScheduleBuilder = CronScheduleBuilder.cronSchedule(findFriendProperties.getBloomFilterSnapshotJob());
+        if (findFriendProperties.isEnableBloomFilter()) {
+            return TriggerBuilder.newTrigger()
+                    .forJob(bloomFilterSnapshotJobDetail())
+                    .withSchedule(cronScheduleBuilder).build();
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * 回收旧版本缓存工作细节
+     *
+     * @return {@link JobDetail}
+     */
+    @Bean
+    public JobDetail sweepStaleCacheJobDetail() {
+        return JobBuilder.newJob(SweepStaleCache.class).storeDurably().build();
+    }
+
+    /**
+     * 回收旧版本缓存触发
+     *
+     * @return {@link Trigger}
+     */
+    @Bean
+    public Trigger sweepStaleCacheTrigger() {
+        CronScheduleBuilder cronScheduleBuilder = CronScheduleBuilder.cronSchedule(findFriendProperties.getCacheSweepJob());
+        return TriggerBuilder.newTrigger()
+                .forJob(sweepStaleCacheJobDetail())
+                .withSchedule(cronScheduleBuilder).build();
+    }
+
+    /**
+     * 校正队伍人数工作细节
+     *
+     * @return {@link JobDetail}
+     */
+    @Bean
+    public JobDetail reconcileTeamMemberNumJobDetail() {
+        return JobBuilder.newJob(ReconcileTeamMemberNum.class).storeDurably().build();
+    }
+
+    /**
+     * 校正队伍人数触发
+     *
+     * @return {@link Trigger}
+     */
+    @Bean
+    public Trigger reconcileTeamMemberNumTrigger() {
+        CronScheduleBuilder cronScheduleBuilder = CronScheduleBuilder.cronSchedule(findFriendProperties.getTeamMemberNumReconcileJob());
+        return TriggerBuilder.newTrigger()
+                .forJob(reconcileTeamMemberNumJobDetail())
+                .withSchedule(cronScheduleBuilder).build();
+    }
+
+    /**
+     * 归档聊天记录工作细节
+     *
+     * @return {@link JobDetail}
+     */
+    @Bean
+    public JobDetail archiveChatJobDetail() {
+        return JobBuilder.newJob(ArchiveChat.class).storeDurably().build();
+    }
+
+    /**
+     * 归档聊天记录触发
+     *
+     * @return {@link Trigger}
+     */
+    @Bean
+    public Trigger archiveChatTrigger() {
+        CronScheduleBuilder cronScheduleBuilder = CronScheduleBuilder.cronSchedule(findFriendProperties.getChatArchiveJob());
+        return TriggerBuilder.newTrigger()
+                .forJob(archiveChatJobDetail())
+                .withSchedule(cronScheduleBuilder).build();
+    }
+
+    /**
+     * 重新构建队伍推荐索引工作细节
+     *
+     * @return {@link JobDetail}
+     */
+    @Bean
+    public JobDetail rebuildTeamRecommendIndexJobDetail() {
+        return JobBuilder.newJob(RebuildTeamRecommendIndex.class).storeDurably().build();
+    }
+
+    /**
+     * 重新构建队伍推荐索引触发
+     *
+     * @return {@link Trigger}
+     */
+    @Bean
+    public Trigger rebuildTeamRecommendIndexTrigger() {
+        CronScheduleBuilder cronScheduleBuilder = CronScheduleBuilder.cronSchedule(findFriendProperties.getTeamRecommendIndexRebuildJob());
+        if (findFriendProperties.isEnableTeamRecommendIndex()) {
+            return TriggerBuilder.newTrigger()
+                    .forJob(rebuildTeamRecommendIndexJobDetail())
+                    .withSchedule(cronScheduleBuilder).build();
+        } else {
+            return null;
+        }
+    }
 }
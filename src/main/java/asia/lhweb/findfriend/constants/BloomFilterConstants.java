@@ -12,30 +12,30 @@ public final class BloomFilterConstants {
     }
 
     /**
-     * 用户布隆前缀
+     * 用户布隆过滤器键
      */
-    public static final String USER_BLOOM_PREFIX = "super:user:id:";
+    public static final String USER_BLOOM_KEY = "super:bloom:user";
     /**
-     * 队伍布隆前缀
+     * 队伍布隆过滤器键
      */
-    public static final String TEAM_BLOOM_PREFIX = "super:team:id:";
+    public static final String TEAM_BLOOM_KEY = "super:bloom:team";
     /**
-     * 博客布隆前缀
+     * 博客布隆过滤器键
      */
-    public static final String BLOG_BLOOM_PREFIX = "super:blog:id:";
+    public static final String BLOG_BLOOM_KEY = "super:bloom:blog";
 
     /**
-     * 预先打开的最大包含记录
+     * 布隆过滤器参数键后缀
      */
-    public static final int PRE_OPENED_MAXIMUM_INCLUSION_RECORD = 2000;
+    public static final String BLOOM_CONFIG_SUFFIX = ":config";
 
     /**
-     * 预期包含记录
+     * 计数布隆过滤器重建时的影子键后缀
      */
-    public static final int EXPECTED_INCLUSION_RECORD = 1000;
+    public static final String BLOOM_SHADOW_SUFFIX = ":shadow";
 
     /**
-     * 散列函数数
+     * 初始化时每批加载的 id 数量
      */
-    public static final int HASH_FUNCTION_NUMBER = 2;
+    public static final int BLOOM_INIT_BATCH_SIZE = 1000;
 }
@@ -27,17 +27,92 @@ public final class ChatConstant {
     public static final int HALL_CHAT = 3;
 
     /**
-     * 缓存聊天大厅
+     * 聊天记录默认每页条数
      */
-    public static final String CACHE_CHAT_HALL = "supper:chat:chat_records:chat_hall";
+    public static final int CHAT_HISTORY_PAGE_SIZE = 20;
 
     /**
-     * 缓存私人聊天
+     * 聊天记录每页最大条数
      */
-    public static final String CACHE_CHAT_PRIVATE = "super:chat:chat_records:chat_private:";
+    public static final int CHAT_HISTORY_MAX_PAGE_SIZE = 100;
 
     /**
-     * 缓存聊天团队
+     * 在线用户默认每页条数
      */
-    public static final String CACHE_CHAT_TEAM = "super:chat:chat_records:chat_team:";
+    public static final int CHAT_ONLINE_PAGE_SIZE = 50;
+
+    /**
+     * 在线用户每页最大条数
+     */
+    public static final int CHAT_ONLINE_MAX_PAGE_SIZE = 200;
+
+    /**
+     * 等待发布到其他节点的消息最大数量，超过后丢弃
+     */
+    public static final int CHAT_BUS_QUEUE_CAPACITY = 10000;
+
+    /**
+     * 每次发布最多合并的消息数
+     */
+    public static final int CHAT_BUS_BATCH_SIZE = 128;
+
+    /**
+     * 精简协议，握手时通过 Sec-WebSocket-Protocol 协商
+     */
+    public static final String COMPACT_PROTOCOL = "findfriend.compact.v1";
+
+    /**
+     * 合并发送时每帧最多包含的消息数
+     */
+    public static final int CHAT_BATCH_MAX_MESSAGES = 64;
+
+    /**
+     * 握手时请求合并发送的参数，值为 1 或 true
+     */
+    public static final String CHAT_BATCH_PARAM = "batch";
+
+    /**
+     * 消息压缩扩展
+     */
+    public static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+    /**
+     * 每个连接待发送消息的最大数量
+     */
+    public static final int SESSION_SEND_QUEUE_CAPACITY = 256;
+
+    /**
+     * 单条消息异步发送的超时时间（毫秒），超时视为发送失败并断开
+     */
+    public static final long SESSION_SEND_TIMEOUT = 10000;
+
+    /**
+     * 队列已满且持续没有发送进展的时间（毫秒），超过后断开慢连接
+     */
+    public static final long SLOW_CONSUMER_TIMEOUT = 5000;
+
+    /**
+     * 连接空闲多久（毫秒）后服务端发送心跳 ping
+     */
+    public static final long CHAT_HEARTBEAT_INTERVAL = 30000;
+
+    /**
+     * 连接空闲多久（毫秒）后视为已断开并清理，期间至少发送过两次心跳
+     */
+    public static final long CHAT_IDLE_TIMEOUT = 75000;
+
+    /**
+     * 空闲检查时间轮每格的时长（毫秒）
+     */
+    public static final long CHAT_WHEEL_TICK = 1000;
+
+    /**
+     * 空闲检查时间轮的格数，必须是 2 的幂
+     */
+    public static final int CHAT_WHEEL_SIZE = 128;
+
+    /**
+     * 心跳和关闭连接等阻塞发送的超时时间（毫秒），避免半开连接长时间占用心跳线程
+     */
+    public static final long CHAT_BLOCKING_SEND_TIMEOUT = 2000;
 }
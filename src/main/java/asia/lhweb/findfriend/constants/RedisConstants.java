@@ -62,6 +62,147 @@ public final class RedisConstants {
      */
     public static final String USER_RECOMMEND_KEY = "findfriend:recommend:";
 
+    /**
+     * 队伍名额（hash，max 为最大人数）
+     */
+    public static final String TEAM_SEAT_KEY = "findfriend:team:seat:";
+    /**
+     * 已占用名额的成员（set）
+     */
+    public static final String TEAM_SEAT_MEMBER_KEY = "findfriend:team:seat:member:";
+    /**
+     * 用户已加入的队伍（set）
+     */
+    public static final String USER_JOINED_TEAM_KEY = "findfriend:user:team:";
+    /**
+     * 名额状态过期时间（秒）
+     */
+    public static final long TEAM_SEAT_TTL = 24 * 60 * 60;
+    /**
+     * 用户队伍关系缓存
+     */
+    public static final String USER_MEMBERSHIP_KEY = "findfriend:user:membership";
+    /**
+     * 用户队伍关系缓存每条记录的过期时间（秒），清除标记同样到期删除
+     */
+    public static final long USER_MEMBERSHIP_TTL = 30 * 60;
+    /**
+     * 公开队伍列表页缓存
+     */
+    public static final String TEAM_PAGE_KEY = "findfriend:team:page:";
+    /**
+     * 队伍所在的缓存页（set）
+     */
+    public static final String TEAM_PAGE_INDEX_KEY = "findfriend:team:page:index:";
+    /**
+     * 公开队伍列表页缓存代数
+     */
+    public static final String TEAM_PAGE_GENERATION_KEY = "findfriend:team:page:generation";
+    /**
+     * 公开队伍列表页缓存时间（秒），同时限制到期队伍在缓存中的停留时间
+     */
+    public static final long TEAM_PAGE_TTL = 5 * 60;
+    /**
+     * 缓存的公开队伍列表页数
+     */
+    public static final int TEAM_PAGE_CACHE_MAX_PAGES = 5;
+    /**
+     * 队伍到期队列（zset，分值为到期时间）
+     */
+    public static final String TEAM_EXPIRE_KEY = "findfriend:team:expire";
+    /**
+     * 到期队伍取出后的租约时间（毫秒）
+     */
+    public static final long TEAM_EXPIRE_CLAIM_TTL = 5 * 60 * 1000L;
+    /**
+     * 每批解散的到期队伍数
+     */
+    public static final int TEAM_EXPIRE_BATCH_SIZE = 100;
+    /**
+     * 每次定时任务最多解散的批数
+     */
+    public static final int TEAM_EXPIRE_MAX_BATCHES = 10;
+    /**
+     * 缓存命名空间版本号键
+     */
+    public static final String CACHE_VERSION_KEY = "findfriend:cache:version:";
+    /**
+     * 缓存命名空间版本号本地缓存时间（毫秒）
+     */
+    public static final long CACHE_VERSION_LOCAL_TTL = 1000;
+    /**
+     * 回收旧版本缓存时每批 SCAN/UNLINK 的键数量
+     */
+    public static final int CACHE_SWEEP_BATCH_SIZE = 100;
+    /**
+     * 聊天消息id计数器键
+     */
+    public static final String CHAT_ID_KEY = "findfriend:chat:id";
+    /**
+     * 私聊会话键回填进度，值为已回填到的消息id，全部完成后为 done
+     */
+    public static final String CHAT_CONVERSATION_BACKFILL_KEY = "findfriend:chat:conversation-backfill";
+    /**
+     * 待写入数据库的聊天消息流
+     */
+    public static final String CHAT_STREAM_KEY = "findfriend:chat:stream";
+    /**
+     * 聊天消息流的消费组
+     */
+    public static final String CHAT_STREAM_GROUP = "chat-writer";
+    /**
+     * 每批写入数据库的最大消息数
+     */
+    public static final int CHAT_FLUSH_BATCH_SIZE = 200;
+    /**
+     * 消息在缓冲中最多等待的时间（毫秒），到时即使未满一批也写入
+     */
+    public static final long CHAT_FLUSH_INTERVAL = 500;
+    /**
+     * 其他节点未确认的消息空闲超过该时间（毫秒）后由本节点接管
+     */
+    public static final long CHAT_CLAIM_IDLE = 60 * 1000L;
+    /**
+     * 会话最近消息有序集合键前缀，后接 hall、team:{队伍id} 或 private:{较小用户id}:{较大用户id}
+     */
+    public static final String CHAT_RECENT_KEY = "findfriend:chat:recent:";
+    /**
+     * 每个会话保留的最近消息数，不小于聊天记录每页最大条数
+     */
+    public static final int CHAT_RECENT_SIZE = 100;
+    /**
+     * 会话最近消息的过期时间（秒），每次追加时续期
+     */
+    public static final long CHAT_RECENT_TTL = 3 * 24 * 60 * 60;
+    /**
+     * 在线用户有序集合键前缀，后接 hall 或 team:{队伍id}，成员和分数都是用户id
+     */
+    public static final String CHAT_PRESENCE_KEY = "findfriend:chat:presence:";
+    /**
+     * 在线用户最近一次心跳时间，成员为 {范围}|{用户id}|{节点id}，分数为毫秒时间戳
+     */
+    public static final String CHAT_PRESENCE_SEEN_KEY = "findfriend:chat:presence:seen";
+    /**
+     * 用户在某范围有连接的节点集合键前缀，后接 {范围}:{用户id}，所有节点都离开后集合自动删除
+     */
+    public static final String CHAT_PRESENCE_NODES_KEY = "findfriend:chat:presence:nodes:";
+    /**
+     * 各节点刷新本节点在线用户心跳的间隔（毫秒）
+     */
+    public static final long CHAT_PRESENCE_HEARTBEAT = 30 * 1000L;
+    /**
+     * 超过该时间（毫秒）没有心跳的在线用户视为所在节点已宕机，从在线集合中移除
+     */
+    public static final long CHAT_PRESENCE_TTL = 90 * 1000L;
+    /**
+     * 用户未读计数哈希键前缀，后接用户id；私聊字段为未读条数，大厅和队伍字段为已读到的会话序号
+     */
+    public static final String CHAT_UNREAD_KEY = "findfriend:chat:unread:";
+    /**
+     * 大厅和队伍会话的消息序号哈希，字段为 hall 或 team:{队伍id}
+     */
+    public static final String CHAT_UNREAD_SEQ_KEY = "findfriend:chat:unread-seq";
+
     /**
      * 最小缓存随机时间
      */
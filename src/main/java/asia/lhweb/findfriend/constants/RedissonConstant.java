@@ -30,6 +30,54 @@ public final class RedissonConstant {
      * 评论点赞锁
      */
     public static final String COMMENTS_LIKE_LOCK = "super:comments:like:lock:";
+    /**
+     * 布隆过滤器初始化锁
+     */
+    public static final String BLOOM_FILTER_INIT_LOCK = "super:bloom:init:lock";
+    /**
+     * 布隆过滤器压缩锁
+     */
+    public static final String BLOOM_FILTER_COMPACTION_LOCK = "super:bloom:compaction:lock";
+    /**
+     * 回收旧版本缓存锁
+     */
+    public static final String CACHE_SWEEP_LOCK = "super:cache:sweep:lock";
+    /**
+     * 校正队伍人数锁
+     */
+    public static final String TEAM_MEMBER_NUM_RECONCILE_LOCK = "super:team:member:num:reconcile:lock";
+    /**
+     * 回填私聊会话键锁
+     */
+    public static final String CHAT_CONVERSATION_BACKFILL_LOCK = "super:chat:conversation:backfill:lock";
+    /**
+     * 归档聊天记录锁
+     */
+    public static final String CHAT_ARCHIVE_LOCK = "super:chat:archive:lock";
+    /**
+     * 队伍搜索索引变更主题
+     */
+    public static final String TEAM_SEARCH_INDEX_TOPIC = "super:team:search:index:topic";
+    /**
+     * 队伍推荐索引变更主题
+     */
+    public static final String TEAM_RECOMMEND_INDEX_TOPIC = "super:team:recommend:index:topic";
+    /**
+     * 聊天连接身份失效主题
+     */
+    public static final String CHAT_IDENTITY_TOPIC = "super:chat:identity:topic";
+    /**
+     * 大厅消息主题，所有节点订阅
+     */
+    public static final String CHAT_BUS_HALL_TOPIC = "super:chat:bus:hall";
+    /**
+     * 队伍房间消息主题前缀，后接队伍id，本节点有该房间的连接时订阅
+     */
+    public static final String CHAT_BUS_ROOM_TOPIC = "super:chat:bus:room:";
+    /**
+     * 用户消息主题前缀，后接用户id，本节点有该用户的大厅连接时订阅
+     */
+    public static final String CHAT_BUS_USER_TOPIC = "super:chat:bus:user:";
     /**
      * 默认等待时间
      */
@@ -40,4 +40,9 @@ public final class TeamConstants {
      * 队伍卡片显示已加入队员头像的最大数量
      */
     public static final int MAXIMUM_JOINED_USER_AVATAR_NUM = 3;
+
+    /**
+     * 队伍画像取成员标签中出现最多的标签数量
+     */
+    public static final int TEAM_PROFILE_TAG_NUM = 10;
 }
@@ -10,20 +10,30 @@ import asia.lhweb.findfriend.common.BaseResponse;
 import asia.lhweb.findfriend.common.ErrorCode;
 import asia.lhweb.findfriend.common.ResultUtils;
 import asia.lhweb.findfriend.model.domain.User;
+import asia.lhweb.findfriend.model.request.ChatReadRequest;
 import asia.lhweb.findfriend.model.request.ChatRequest;
 import asia.lhweb.findfriend.model.vo.ChatMessageVO;
+import asia.lhweb.findfriend.model.vo.ChatSendStatsVO;
+import asia.lhweb.findfriend.model.vo.ChatSessionStatsVO;
+import asia.lhweb.findfriend.model.vo.ChatUnreadVO;
+import asia.lhweb.findfriend.model.vo.OnlineUserPageVO;
 import asia.lhweb.findfriend.service.ChatService;
 import asia.lhweb.findfriend.service.UserService;
+import asia.lhweb.findfriend.ws.ChatSendStats;
+import asia.lhweb.findfriend.ws.SessionIdleWheel;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpServletRequest;
 import java.util.List;
 
+import static asia.lhweb.findfriend.constants.UserConstants.ADMIN_ROLE;
+
 /**
  * 聊天控制器
  *
@@ -46,6 +56,18 @@ public class ChatController {
     @Resource
     private UserService userService;
 
+    /**
+     * 聊天发送统计
+     */
+    @Resource
+    private ChatSendStats chatSendStats;
+
+    /**
+     * 连接空闲检查
+     */
+    @Resource
+    private SessionIdleWheel sessionIdleWheel;
+
     /**
      * 私聊
      *
@@ -103,19 +125,124 @@ public class ChatController {
     /**
      * 大厅聊天
      *
-     * @param request 请求
+     * @param chatRequest 聊天请求，只用到分页参数
+     * @param request     请求
      * @return {@link BaseResponse}<{@link List}<{@link ChatMessageVO}>>
      */
     @GetMapping("/hallChat")
     @ApiOperation(value = "获取大厅聊天")
     @ApiImplicitParams(
-            {@ApiImplicitParam(name = "request", value = "request请求")})
-    public BaseResponse<List<ChatMessageVO>> getHallChat(HttpServletRequest request) {
+            {@ApiImplicitParam(name = "chatRequest",
+                    value = "聊天请求"),
+                    @ApiImplicitParam(name = "request", value = "request请求")})
+    public BaseResponse<List<ChatMessageVO>> getHallChat(ChatRequest chatRequest, HttpServletRequest request) {
         User loginUser = userService.getLoginUser(request);
         if (loginUser == null) {
             throw new BusinessException(ErrorCode.NOT_LOGIN);
         }
-        List<ChatMessageVO> hallChat = chatService.getHallChat(ChatConstant.HALL_CHAT, loginUser);
+        List<ChatMessageVO> hallChat = chatService.getHallChat(chatRequest, ChatConstant.HALL_CHAT, loginUser);
         return ResultUtils.success(hallChat);
     }
+
+    /**
+     * 在线用户
+     *
+     * @param teamId   队伍id，大厅为空
+     * @param cursor   上一页的游标，第一页为 0
+     * @param pageSize 每页条数
+     * @param request  请求
+     * @return {@link BaseResponse}<{@link OnlineUserPageVO}>
+     */
+    @GetMapping("/online")
+    @ApiOperation(value = "获取在线用户")
+    @ApiImplicitParams(
+            {@ApiImplicitParam(name = "teamId", value = "队伍id，大厅不传"),
+                    @ApiImplicitParam(name = "cursor", value = "上一页的游标，第一页为0"),
+                    @ApiImplicitParam(name = "pageSize", value = "每页条数"),
+                    @ApiImplicitParam(name = "request", value = "request请求")})
+    public BaseResponse<OnlineUserPageVO> listOnlineUsers(@RequestParam(required = false) Long teamId,
+                                                          @RequestParam(defaultValue = "0") long cursor,
+                                                          @RequestParam(required = false) Integer pageSize,
+                                                          HttpServletRequest request) {
+        User loginUser = userService.getLoginUser(request);
+        if (loginUser == null) {
+            throw new BusinessException(ErrorCode.NOT_LOGIN);
+        }
+        return ResultUtils.success(chatService.listOnlineUsers(teamId, cursor, pageSize, loginUser));
+    }
+
+    /**
+     * 全部会话的未读数
+     *
+     * @param request 请求
+     * @return {@link BaseResponse}<{@link List}<{@link ChatUnreadVO}>>
+     */
+    @GetMapping("/unread")
+    @ApiOperation(value = "获取未读数")
+    @ApiImplicitParams({@ApiImplicitParam(name = "request", value = "request请求")})
+    public BaseResponse<List<ChatUnreadVO>> listUnread(HttpServletRequest request) {
+        User loginUser = userService.getLoginUser(request);
+        if (loginUser == null) {
+            throw new BusinessException(ErrorCode.NOT_LOGIN);
+        }
+        return ResultUtils.success(chatService.listUnread(loginUser));
+    }
+
+    /**
+     * 会话已读，未读数清零
+     *
+     * @param chatReadRequest 已读请求
+     * @param request         请求
+     * @return {@link BaseResponse}<{@link Boolean}>
+     */
+    @PostMapping("/read")
+    @ApiOperation(value = "会话已读")
+    @ApiImplicitParams(
+            {@ApiImplicitParam(name = "chatReadRequest", value = "已读请求"),
+                    @ApiImplicitParam(name = "request", value = "request请求")})
+    public BaseResponse<Boolean> markRead(@RequestBody ChatReadRequest chatReadRequest, HttpServletRequest request) {
+        if (chatReadRequest == null) {
+            throw new BusinessException(ErrorCode.PARAMS_ERROR);
+        }
+        User loginUser = userService.getLoginUser(request);
+        if (loginUser == null) {
+            throw new BusinessException(ErrorCode.NOT_LOGIN);
+        }
+        chatService.markRead(chatReadRequest, loginUser);
+        return ResultUtils.success(true);
+    }
+
+    /**
+     * 本节点的聊天发送统计
+     *
+     * @param request 请求
+     * @return {@link BaseResponse}<{@link ChatSendStatsVO}>
+     */
+    @GetMapping("/stats")
+    @ApiOperation(value = "获取聊天发送统计")
+    @ApiImplicitParams({@ApiImplicitParam(name = "request", value = "request请求")})
+    public BaseResponse<ChatSendStatsVO> getSendStats(HttpServletRequest request) {
+        User loginUser = userService.getLoginUser(request);
+        if (loginUser == null || !loginUser.getRole().equals(ADMIN_ROLE)) {
+            throw new BusinessException(ErrorCode.NO_AUTH, "无权限");
+        }
+        return ResultUtils.success(chatSendStats.snapshot());
+    }
+
+    /**
+     * 本节点的聊天连接统计
+     *
+     * @param request 请求
+     * @return {@link BaseResponse}<{@link ChatSessionStatsVO}>
+     */
+    @GetMapping("/sessionStats")
+    @ApiOperation(value = "获取聊天连接统计")
+    @ApiImplicitParams({@ApiImplicitParam(name = "request", value = "request请求")})
+    public BaseResponse<ChatSessionStatsVO> getSessionStats(HttpServletRequest request) {
+        User loginUser = userService.getLoginUser(request);
+        if (loginUser == null || !loginUser.getRole().equals(ADMIN_ROLE)) {
+            throw new BusinessException(ErrorCode.NO_AUTH, "无权限");
+        }
+        return ResultUtils.success(sessionIdleWheel.snapshot());
+    }
 }
@@ -9,6 +9,8 @@ import asia.lhweb.findfriend.common.ErrorCode;
 import asia.lhweb.findfriend.common.ResultUtils;
 import asia.lhweb.findfriend.exception.BusinessException;
 import asia.lhweb.findfriend.model.domain.User;
+import asia.lhweb.findfriend.model.vo.BloomFilterStatsVO;
+import asia.lhweb.findfriend.service.BloomFilterService;
 import asia.lhweb.findfriend.service.ConfigService;
 import asia.lhweb.findfriend.service.UserService;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -47,6 +49,12 @@ public class ConfigController {
     @Resource
     private ConfigService configService;
 
+    /**
+     * 布隆过滤器服务
+     */
+    @Resource
+    private BloomFilterService bloomFilterService;
+
     /**
      * 获取通知
      *
@@ -136,4 +144,22 @@ public class ConfigController {
         configService.removeUrl(url);
         return ResultUtils.success(true);
     }
+
+    /**
+     * 获取布隆过滤器统计
+     *
+     * @param request 请求
+     * @return {@link BaseResponse}<{@link List}<{@link BloomFilterStatsVO}>>
+     */
+    @GetMapping("/bloom")
+    @ApiOperation(value = "获取布隆过滤器统计")
+    @ApiImplicitParams(
+            {@ApiImplicitParam(name = "request", value = "request请求")})
+    public BaseResponse<List<BloomFilterStatsVO>> getBloomFilterStats(HttpServletRequest request) {
+        User loginUser = userService.getLoginUser(request);
+        if (loginUser == null || !loginUser.getRole().equals(ADMIN_ROLE)) {
+            throw new BusinessException(ErrorCode.NO_AUTH, "无权限");
+        }
+        return ResultUtils.success(bloomFilterService.getStats());
+    }
 }
@@ -2,7 +2,6 @@ package asia.lhweb.findfriend.controller;
 
 import asia.lhweb.findfriend.exception.BusinessException;
 import cn.hutool.core.bean.BeanUtil;
-import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiImplicitParam;
@@ -14,7 +13,6 @@ import asia.lhweb.findfriend.common.ErrorCode;
 import asia.lhweb.findfriend.common.ResultUtils;
 import asia.lhweb.findfriend.model.domain.Team;
 import asia.lhweb.findfriend.model.domain.User;
-import asia.lhweb.findfriend.model.domain.UserTeam;
 import asia.lhweb.findfriend.model.request.DeleteRequest;
 import asia.lhweb.findfriend.model.request.TeamAddRequest;
 import asia.lhweb.findfriend.model.request.TeamCoverUpdateRequest;
@@ -27,7 +25,6 @@ import asia.lhweb.findfriend.model.vo.TeamVO;
 import asia.lhweb.findfriend.model.vo.UserVO;
 import asia.lhweb.findfriend.service.TeamService;
 import asia.lhweb.findfriend.service.UserService;
-import asia.lhweb.findfriend.service.UserTeamService;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -38,11 +35,7 @@ import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpServletRequest;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * 队伍控制器
@@ -67,12 +60,6 @@ public class TeamController {
     @Resource
     private UserService userService;
 
-    /**
-     * 用户团队服务
-     */
-    @Resource
-    private UserTeamService userTeamService;
-
     /**
      * 加入团队
      *
@@ -166,10 +153,10 @@ public class TeamController {
             throw new BusinessException(ErrorCode.PARAMS_ERROR);
         }
         User loginUser = userService.getLoginUser(request);
-        Page<TeamVO> teamVoPage = teamService.listTeams(currentPage, teamQueryRequest, userService.isAdmin(loginUser));
-        Page<TeamVO> teamVoPageWithAvatar = teamService.getJoinedUserAvatar(teamVoPage);
-        Page<TeamVO> finalPage = getTeamHasJoinNum(teamVoPageWithAvatar);
-        return getUserJoinedList(loginUser, finalPage);
+        Long loginUserId = loginUser == null ? null : loginUser.getId();
+        Page<TeamVO> teamVoPage = teamService.listTeams(currentPage, teamQueryRequest, userService.isAdmin(loginUser),
+                loginUserId);
+        return ResultUtils.success(teamVoPage);
     }
 
     /**
@@ -246,6 +233,29 @@ public class TeamController {
         return ResultUtils.success(true);
     }
 
+    /**
+     * 推荐队伍
+     *
+     * @param currentPage 当前页面
+     * @param request     请求
+     * @return {@link BaseResponse}<{@link Page}<{@link TeamVO}>>
+     */
+    @GetMapping("/recommend")
+    @ApiOperation(value = "按标签推荐队伍")
+    @ApiImplicitParams({@ApiImplicitParam(name = "currentPage", value = "当前页"),
+            @ApiImplicitParam(name = "request", value = "request请求")})
+    public BaseResponse<Page<TeamVO>> recommendTeams(long currentPage, HttpServletRequest request) {
+        if (currentPage <= 0) {
+            throw new BusinessException(ErrorCode.PARAMS_ERROR);
+        }
+        User loginUser = userService.getLoginUser(request);
+        if (loginUser == null) {
+            throw new BusinessException(ErrorCode.NOT_LOGIN);
+        }
+        Page<TeamVO> teamVOPage = teamService.recommendTeams(currentPage, loginUser);
+        return ResultUtils.success(teamVOPage);
+    }
+
     /**
      * 我创建团队名单
      *
@@ -270,8 +280,7 @@ public class TeamController {
         }
         teamQuery.setUserId(loginUser.getId());
         Page<TeamVO> teamVOPage = teamService.listMyCreate(currentPage, loginUser.getId());
-        Page<TeamVO> finalPage = getTeamHasJoinNum(teamVOPage);
-        return getUserJoinedList(loginUser, finalPage);
+        return ResultUtils.success(teamVOPage);
     }
 
     /**
@@ -296,19 +305,13 @@ public class TeamController {
         if (loginUser == null) {
             throw new BusinessException(ErrorCode.NOT_LOGIN);
         }
-        LambdaQueryWrapper<UserTeam> userTeamLambdaQueryWrapper = new LambdaQueryWrapper<>();
-        userTeamLambdaQueryWrapper.eq(UserTeam::getUserId, loginUser.getId());
-        List<UserTeam> userTeamList = userTeamService.list(userTeamLambdaQueryWrapper);
-        Map<Long, List<UserTeam>> listMap = userTeamList.stream()
-                .collect(Collectors.groupingBy(UserTeam::getTeamId));
-        List<Long> idList = new ArrayList<>(listMap.keySet());
+        List<Long> idList = teamService.listJoinedTeamIds(loginUser.getId());
         if (idList.isEmpty()) {
             return ResultUtils.success(new Page<>());
         }
         teamQuery.setIdList(idList);
-        Page<TeamVO> teamVOPage = teamService.listMyJoin(currentPage, teamQuery);
-        Page<TeamVO> finalPage = getTeamHasJoinNum(teamVOPage);
-        return getUserJoinedList(loginUser, finalPage);
+        Page<TeamVO> teamVOPage = teamService.listMyJoin(currentPage, teamQuery, loginUser.getId());
+        return ResultUtils.success(teamVOPage);
     }
 
     /**
@@ -404,46 +407,4 @@ public class TeamController {
         teamService.kickOut(teamId, userId, loginUser.getId(), admin);
         return ResultUtils.success("ok");
     }
-
-    /**
-     * 获取已加入的用户
-     *
-     * @param loginUser 登录用户
-     * @param teamPage  团队页面
-     * @return {@link BaseResponse}<{@link Page}<{@link TeamVO}>>
-     */
-    private BaseResponse<Page<TeamVO>> getUserJoinedList(User loginUser, Page<TeamVO> teamPage) {
-        try {
-            List<TeamVO> teamList = teamPage.getRecords();
-            List<Long> teamIdList = teamList.stream().map(TeamVO::getId).collect(Collectors.toList());
-            //判断当前用户已加入的队伍
-            LambdaQueryWrapper<UserTeam> userTeamLambdaQueryWrapper = new LambdaQueryWrapper<>();
-            userTeamLambdaQueryWrapper.eq(UserTeam::getUserId, loginUser.getId()).in(UserTeam::getTeamId, teamIdList);
-            //用户已加入的队伍
-            List<UserTeam> userTeamList = userTeamService.list(userTeamLambdaQueryWrapper);
-            Set<Long> joinedTeamIdList = userTeamList.stream().map(UserTeam::getTeamId).collect(Collectors.toSet());
-            teamList.forEach(team -> team.setHasJoin(joinedTeamIdList.contains(team.getId())));
-            teamPage.setRecords(teamList);
-        } catch (Exception ignored) {
-        }
-        return ResultUtils.success(teamPage);
-    }
-
-    /**
-     * 获取队伍已加入人数
-     *
-     * @param teamVOPage teamVoPage
-     * @return {@link Page}<{@link TeamVO}>
-     */
-    private Page<TeamVO> getTeamHasJoinNum(Page<TeamVO> teamVOPage) {
-        List<TeamVO> teamList = teamVOPage.getRecords();
-        teamList.forEach((team) -> {
-            LambdaQueryWrapper<UserTeam> userTeamLambdaQueryWrapper = new LambdaQueryWrapper<>();
-            userTeamLambdaQueryWrapper.eq(UserTeam::getTeamId, team.getId());
-            long hasJoinNum = userTeamService.count(userTeamLambdaQueryWrapper);
-            team.setHasJoinNum(hasJoinNum);
-        });
-        teamVOPage.setRecords(teamList);
-        return teamVOPage;
-    }
 }
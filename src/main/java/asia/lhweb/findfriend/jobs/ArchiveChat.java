@@ -0,0 +1,65 @@
+package asia.lhweb.findfriend.jobs;
+
+import asia.lhweb.findfriend.service.impl.ChatArchive;
+import lombok.extern.log4j.Log4j2;
+import org.quartz.JobExecutionContext;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.scheduling.quartz.QuartzJobBean;
+import reactor.util.annotation.NonNull;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static asia.lhweb.findfriend.constants.RedissonConstant.CHAT_ARCHIVE_LOCK;
+import static asia.lhweb.findfriend.constants.RedissonConstant.DEFAULT_LEASE_TIME;
+import static asia.lhweb.findfriend.constants.RedissonConstant.DEFAULT_WAIT_TIME;
+
+/**
+ * 归档聊天记录
+ *
+ * @author 罗汉
+ * @date 2024/05/28
+ */
+@Log4j2
+public class ArchiveChat extends QuartzJobBean {
+    /**
+     * redisson客户
+     */
+    @Resource
+    private RedissonClient redissonClient;
+
+    /**
+     * 聊天记录归档
+     */
+    @Resource
+    private ChatArchive chatArchive;
+
+    /**
+     * 执行内部
+     *
+     * @param context 上下文
+     */
+    @Override
+    protected void executeInternal(@NonNull JobExecutionContext context) {
+        RLock lock = redissonClient.getLock(CHAT_ARCHIVE_LOCK);
+        try {
+            if (lock.tryLock(DEFAULT_WAIT_TIME, DEFAULT_LEASE_TIME, TimeUnit.SECONDS)) {
+                long begin = System.currentTimeMillis();
+                long archived = chatArchive.archive();
+                long end = System.currentTimeMillis();
+                log.info("归档聊天记录结束，归档 " + archived + " 条，耗时" + (end - begin));
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            log.error("归档聊天记录失败，下次继续", e);
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                log.info("unLock: " + Thread.currentThread().getId());
+                lock.unlock();
+            }
+        }
+    }
+}
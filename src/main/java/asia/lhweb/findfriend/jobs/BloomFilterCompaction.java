@@ -0,0 +1,64 @@
+package asia.lhweb.findfriend.jobs;
+
+import asia.lhweb.findfriend.service.BloomFilterService;
+import lombok.extern.log4j.Log4j2;
+import org.quartz.JobExecutionContext;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.scheduling.quartz.QuartzJobBean;
+import reactor.util.annotation.NonNull;
+
+import javax.annotation.Resource;
+import java.util.concurrent.TimeUnit;
+
+import static asia.lhweb.findfriend.constants.RedissonConstant.BLOOM_FILTER_COMPACTION_LOCK;
+import static asia.lhweb.findfriend.constants.RedissonConstant.DEFAULT_LEASE_TIME;
+import static asia.lhweb.findfriend.constants.RedissonConstant.DEFAULT_WAIT_TIME;
+
+/**
+ * 布隆过滤器压缩
+ * 按数据库重建计数布隆过滤器，清理饱和计数器和漏删留下的残留
+ *
+ * @author 罗汉
+ * @date 2024/05/08
+ */
+@Log4j2
+public class BloomFilterCompaction extends QuartzJobBean {
+    /**
+     * redisson客户
+     */
+    @Resource
+    private RedissonClient redissonClient;
+
+    /**
+     * 布隆过滤器服务
+     */
+    @Resource
+    private BloomFilterService bloomFilterService;
+
+    /**
+     * 执行内部
+     *
+     * @param context 上下文
+     */
+    @Override
+    protected void executeInternal(@NonNull JobExecutionContext context) {
+        RLock lock = redissonClient.getLock(BLOOM_FILTER_COMPACTION_LOCK);
+        try {
+            if (lock.tryLock(DEFAULT_WAIT_TIME, DEFAULT_LEASE_TIME, TimeUnit.SECONDS)) {
+                log.info("开始压缩布隆过滤器");
+                long begin = System.currentTimeMillis();
+                bloomFilterService.compact();
+                long end = System.currentTimeMillis();
+                log.info("压缩布隆过滤器结束，耗时" + (end - begin));
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                log.info("unLock: " + Thread.currentThread().getId());
+                lock.unlock();
+            }
+        }
+    }
+}
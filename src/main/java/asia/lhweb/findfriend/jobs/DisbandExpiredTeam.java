@@ -1,8 +1,8 @@
 package asia.lhweb.findfriend.jobs;
 
-import lombok.extern.log4j.Log4j2;
-import asia.lhweb.findfriend.model.domain.Team;
 import asia.lhweb.findfriend.service.TeamService;
+import asia.lhweb.findfriend.service.impl.TeamExpiryQueue;
+import lombok.extern.log4j.Log4j2;
 import org.quartz.JobExecutionContext;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
@@ -10,19 +10,18 @@ import org.springframework.scheduling.quartz.QuartzJobBean;
 import reactor.util.annotation.NonNull;
 
 import javax.annotation.Resource;
-import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.util.Date;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
+import static asia.lhweb.findfriend.constants.RedisConstants.TEAM_EXPIRE_BATCH_SIZE;
+import static asia.lhweb.findfriend.constants.RedisConstants.TEAM_EXPIRE_MAX_BATCHES;
 import static asia.lhweb.findfriend.constants.RedissonConstant.DEFAULT_LEASE_TIME;
 import static asia.lhweb.findfriend.constants.RedissonConstant.DEFAULT_WAIT_TIME;
 import static asia.lhweb.findfriend.constants.RedissonConstant.DISBAND_EXPIRED_TEAM_LOCK;
 
 /**
  * 解散过期团队
+ * 只从到期队列取出已到期的队伍，每次最多处理 {@link asia.lhweb.findfriend.constants.RedisConstants#TEAM_EXPIRE_MAX_BATCHES} 批，剩余的留给下一次
  *
  * @author 罗汉
  * @date 2023/07/28
@@ -41,6 +40,12 @@ public class DisbandExpiredTeam extends QuartzJobBean {
     @Resource
     private TeamService teamService;
 
+    /**
+     * 队伍到期队列
+     */
+    @Resource
+    private TeamExpiryQueue teamExpiryQueue;
+
     /**
      * 执行内部
      *
@@ -50,24 +55,25 @@ public class DisbandExpiredTeam extends QuartzJobBean {
     protected void executeInternal(@NonNull JobExecutionContext context) {
         RLock lock = redissonClient.getLock(DISBAND_EXPIRED_TEAM_LOCK);
         try {
-            if (lock.tryLock(DEFAULT_WAIT_TIME, DEFAULT_LEASE_TIME, TimeUnit.MICROSECONDS)) {
-                log.info("开始删除过期队伍");
+            if (lock.tryLock(DEFAULT_WAIT_TIME, DEFAULT_LEASE_TIME, TimeUnit.SECONDS)) {
                 long begin = System.currentTimeMillis();
-                List<Team> teamList = teamService.list();
-                ZoneId zoneId = ZoneId.systemDefault();
-                for (Team team : teamList) {
-                    Date time = team.getExpireTime();
-                    if (time == null) {
-                        continue;
+                long count = 0;
+                for (int i = 0; i < TEAM_EXPIRE_MAX_BATCHES; i++) {
+                    TeamExpiryQueue.Claim claim = teamExpiryQueue.claim(System.currentTimeMillis(), TEAM_EXPIRE_BATCH_SIZE);
+                    if (claim == null) {
+                        break;
                     }
-                    Instant instant = time.toInstant();
-                    LocalDateTime expireTime = LocalDateTime.ofInstant(instant, zoneId);
-                    if (LocalDateTime.now().isAfter(expireTime)) {
-                        teamService.deleteTeam(team.getId(), null, true);
+                    List<Long> disbandedIdList = teamService.disbandTeams(claim.getTeamIds());
+                    teamExpiryQueue.ack(claim);
+                    count += disbandedIdList.size();
+                    if (claim.getTeamIds().size() < TEAM_EXPIRE_BATCH_SIZE) {
+                        break;
                     }
                 }
-                long end = System.currentTimeMillis();
-                log.info("删除过期队伍结束，耗时" + (end - begin));
+                if (count > 0) {
+                    long end = System.currentTimeMillis();
+                    log.info("解散过期队伍 " + count + " 个，耗时" + (end - begin));
+                }
             }
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
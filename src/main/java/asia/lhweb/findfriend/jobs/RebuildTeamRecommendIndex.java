@@ -0,0 +1,38 @@
+package asia.lhweb.findfriend.jobs;
+
+import asia.lhweb.findfriend.service.impl.TeamRecommendIndex;
+import lombok.extern.log4j.Log4j2;
+import org.quartz.JobExecutionContext;
+import org.springframework.scheduling.quartz.QuartzJobBean;
+import reactor.util.annotation.NonNull;
+
+import javax.annotation.Resource;
+
+/**
+ * 重新构建队伍推荐索引
+ * 索引在每个节点的内存中，各节点各自构建，不加锁
+ *
+ * @author 罗汉
+ * @date 2024/05/29
+ */
+@Log4j2
+public class RebuildTeamRecommendIndex extends QuartzJobBean {
+    /**
+     * 队伍推荐索引
+     */
+    @Resource
+    private TeamRecommendIndex teamRecommendIndex;
+
+    /**
+     * 执行内部
+     *
+     * @param context 上下文
+     */
+    @Override
+    protected void executeInternal(@NonNull JobExecutionContext context) {
+        long begin = System.currentTimeMillis();
+        teamRecommendIndex.build();
+        long end = System.currentTimeMillis();
+        log.info("重新构建队伍推荐索引结束，耗时" + (end - begin));
+    }
+}
@@ -0,0 +1,62 @@
+package asia.lhweb.findfriend.jobs;
+
+import asia.lhweb.findfriend.service.impl.TeamMemberCounter;
+import lombok.extern.log4j.Log4j2;
+import org.quartz.JobExecutionContext;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.scheduling.quartz.QuartzJobBean;
+import reactor.util.annotation.NonNull;
+
+import javax.annotation.Resource;
+import java.util.concurrent.TimeUnit;
+
+import static asia.lhweb.findfriend.constants.RedissonConstant.DEFAULT_LEASE_TIME;
+import static asia.lhweb.findfriend.constants.RedissonConstant.DEFAULT_WAIT_TIME;
+import static asia.lhweb.findfriend.constants.RedissonConstant.TEAM_MEMBER_NUM_RECONCILE_LOCK;
+
+/**
+ * 校正队伍人数
+ *
+ * @author 罗汉
+ * @date 2024/05/15
+ */
+@Log4j2
+public class ReconcileTeamMemberNum extends QuartzJobBean {
+    /**
+     * redisson客户
+     */
+    @Resource
+    private RedissonClient redissonClient;
+
+    /**
+     * 队伍人数计数器
+     */
+    @Resource
+    private TeamMemberCounter teamMemberCounter;
+
+    /**
+     * 执行内部
+     *
+     * @param context 上下文
+     */
+    @Override
+    protected void executeInternal(@NonNull JobExecutionContext context) {
+        RLock lock = redissonClient.getLock(TEAM_MEMBER_NUM_RECONCILE_LOCK);
+        try {
+            if (lock.tryLock(DEFAULT_WAIT_TIME, DEFAULT_LEASE_TIME, TimeUnit.SECONDS)) {
+                long begin = System.currentTimeMillis();
+                long repaired = teamMemberCounter.reconcile();
+                long end = System.currentTimeMillis();
+                log.info("校正队伍人数结束，修正 " + repaired + " 个队伍，耗时" + (end - begin));
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                log.info("unLock: " + Thread.currentThread().getId());
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package asia.lhweb.findfriend.jobs;
+
+import asia.lhweb.findfriend.service.BloomFilterService;
+import lombok.extern.log4j.Log4j2;
+import org.quartz.JobExecutionContext;
+import org.springframework.scheduling.quartz.QuartzJobBean;
+import reactor.util.annotation.NonNull;
+
+import javax.annotation.Resource;
+
+/**
+ * 保存布隆过滤器快照
+ * 每个节点保存到本地，Redis 数据丢失后重启时可直接恢复
+ *
+ * @author 罗汉
+ * @date 2024/05/10
+ */
+@Log4j2
+public class SaveBloomFilterSnapshot extends QuartzJobBean {
+    /**
+     * 布隆过滤器服务
+     */
+    @Resource
+    private BloomFilterService bloomFilterService;
+
+    /**
+     * 执行内部
+     *
+     * @param context 上下文
+     */
+    @Override
+    protected void executeInternal(@NonNull JobExecutionContext context) {
+        long begin = System.currentTimeMillis();
+        bloomFilterService.snapshot();
+        long end = System.currentTimeMillis();
+        log.info("保存布隆过滤器快照结束，耗时" + (end - begin));
+    }
+}
@@ -0,0 +1,68 @@
+package asia.lhweb.findfriend.jobs;
+
+import asia.lhweb.findfriend.model.enums.CacheNamespaceEnum;
+import asia.lhweb.findfriend.service.CacheNamespaceService;
+import lombok.extern.log4j.Log4j2;
+import org.quartz.JobExecutionContext;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.scheduling.quartz.QuartzJobBean;
+import reactor.util.annotation.NonNull;
+
+import javax.annotation.Resource;
+import java.util.concurrent.TimeUnit;
+
+import static asia.lhweb.findfriend.constants.RedissonConstant.CACHE_SWEEP_LOCK;
+import static asia.lhweb.findfriend.constants.RedissonConstant.DEFAULT_LEASE_TIME;
+import static asia.lhweb.findfriend.constants.RedissonConstant.DEFAULT_WAIT_TIME;
+
+/**
+ * 回收旧版本缓存
+ *
+ * @author 罗汉
+ * @date 2024/05/12
+ */
+@Log4j2
+public class SweepStaleCache extends QuartzJobBean {
+    /**
+     * redisson客户
+     */
+    @Resource
+    private RedissonClient redissonClient;
+
+    /**
+     * 缓存命名空间服务
+     */
+    @Resource
+    private CacheNamespaceService cacheNamespaceService;
+
+    /**
+     * 执行内部
+     *
+     * @param context 上下文
+     */
+    @Override
+    protected void executeInternal(@NonNull JobExecutionContext context) {
+        RLock lock = redissonClient.getLock(CACHE_SWEEP_LOCK);
+        try {
+            if (lock.tryLock(DEFAULT_WAIT_TIME, DEFAULT_LEASE_TIME, TimeUnit.SECONDS)) {
+                long begin = System.currentTimeMillis();
+                for (CacheNamespaceEnum namespace : CacheNamespaceEnum.values()) {
+                    long count = cacheNamespaceService.sweep(namespace);
+                    if (count > 0) {
+                        log.info("回收" + namespace.getText() + "旧版本缓存 " + count + " 个");
+                    }
+                }
+                long end = System.currentTimeMillis();
+                log.info("回收旧版本缓存结束，耗时" + (end - begin));
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                log.info("unLock: " + Thread.currentThread().getId());
+                lock.unlock();
+            }
+        }
+    }
+}
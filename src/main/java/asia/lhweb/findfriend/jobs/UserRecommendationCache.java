@@ -1,10 +1,12 @@
 package asia.lhweb.findfriend.jobs;
 
+import asia.lhweb.findfriend.model.enums.CacheNamespaceEnum;
 import asia.lhweb.findfriend.model.vo.UserVO;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.google.gson.Gson;
 import lombok.extern.log4j.Log4j2;
 import asia.lhweb.findfriend.model.domain.User;
+import asia.lhweb.findfriend.service.CacheNamespaceService;
 import asia.lhweb.findfriend.service.FollowService;
 import asia.lhweb.findfriend.service.UserService;
 import org.quartz.JobExecutionContext;
@@ -18,7 +20,6 @@ import javax.annotation.Resource;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
-import static asia.lhweb.findfriend.constants.RedisConstants.USER_RECOMMEND_KEY;
 import static asia.lhweb.findfriend.constants.RedissonConstant.DEFAULT_LEASE_TIME;
 import static asia.lhweb.findfriend.constants.RedissonConstant.DEFAULT_WAIT_TIME;
 import static asia.lhweb.findfriend.constants.RedissonConstant.USER_RECOMMEND_LOCK;
@@ -56,6 +57,12 @@ public class UserRecommendationCache extends QuartzJobBean {
     @Resource
     private FollowService followService;
 
+    /**
+     * 缓存命名空间服务
+     */
+    @Resource
+    private CacheNamespaceService cacheNamespaceService;
+
     /**
      * 执行内部
      *
@@ -77,7 +84,7 @@ public class UserRecommendationCache extends QuartzJobBean {
                         Page<UserVO> userVoPage = userService.matchUser(i, user);
                         Gson gson = new Gson();
                         String userVoPageStr = gson.toJson(userVoPage);
-                        String key = USER_RECOMMEND_KEY + user.getId() + ":" + i;
+                        String key = cacheNamespaceService.key(CacheNamespaceEnum.RECOMMEND, user.getId() + ":" + i);
                         stringRedisTemplate.opsForValue().set(key, userVoPageStr);
                     }
                 }
@@ -1,32 +1,17 @@
 package asia.lhweb.findfriend.listener;
 
-import asia.lhweb.findfriend.model.domain.Blog;
-import asia.lhweb.findfriend.model.domain.Team;
-import asia.lhweb.findfriend.model.domain.User;
+import asia.lhweb.findfriend.model.enums.CacheNamespaceEnum;
 import asia.lhweb.findfriend.properties.FindFriendProperties;
-import asia.lhweb.findfriend.service.BlogService;
-import asia.lhweb.findfriend.service.TeamService;
-import asia.lhweb.findfriend.service.UserService;
-import cn.hutool.bloomfilter.BitSetBloomFilter;
-import cn.hutool.bloomfilter.BloomFilter;
-import cn.hutool.bloomfilter.BloomFilterUtil;
+import asia.lhweb.findfriend.service.BloomFilterService;
+import asia.lhweb.findfriend.service.CacheNamespaceService;
+import asia.lhweb.findfriend.service.impl.TeamExpiryQueue;
+import asia.lhweb.findfriend.service.impl.TeamRecommendIndex;
+import asia.lhweb.findfriend.service.impl.TeamSearchIndex;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.boot.CommandLineRunner;
-import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.StringRedisTemplate;
 
 import javax.annotation.Resource;
-import java.util.List;
-import java.util.Set;
-
-import static asia.lhweb.findfriend.constants.BloomFilterConstants.BLOG_BLOOM_PREFIX;
-import static asia.lhweb.findfriend.constants.BloomFilterConstants.EXPECTED_INCLUSION_RECORD;
-import static asia.lhweb.findfriend.constants.BloomFilterConstants.HASH_FUNCTION_NUMBER;
-import static asia.lhweb.findfriend.constants.BloomFilterConstants.PRE_OPENED_MAXIMUM_INCLUSION_RECORD;
-import static asia.lhweb.findfriend.constants.BloomFilterConstants.TEAM_BLOOM_PREFIX;
-import static asia.lhweb.findfriend.constants.BloomFilterConstants.USER_BLOOM_PREFIX;
-import static asia.lhweb.findfriend.constants.RedisConstants.USER_RECOMMEND_KEY;
 
 /**
  * 启动侦听器
@@ -39,19 +24,22 @@ import static asia.lhweb.findfriend.constants.RedisConstants.USER_RECOMMEND_KEY;
 public class StartupListener implements CommandLineRunner {
 
     @Resource
-    private UserService userService;
+    private BloomFilterService bloomFilterService;
 
     @Resource
-    private TeamService teamService;
+    private FindFriendProperties findFriendProperties;
 
     @Resource
-    private BlogService blogService;
+    private CacheNamespaceService cacheNamespaceService;
 
     @Resource
-    private FindFriendProperties findFriendProperties;
+    private TeamSearchIndex teamSearchIndex;
+
+    @Resource
+    private TeamExpiryQueue teamExpiryQueue;
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private TeamRecommendIndex teamRecommendIndex;
 
     /**
      * 启动
@@ -68,6 +56,26 @@ public class StartupListener implements CommandLineRunner {
             String cost = end - begin + " ms";
             log.info("BloomFilter initialed in " + cost);
         }
+        if (findFriendProperties.isEnableTeamSearchIndex()) {
+            long begin = System.currentTimeMillis();
+            log.info("Starting build team search index......");
+            teamSearchIndex.build();
+            long end = System.currentTimeMillis();
+            String cost = end - begin + " ms";
+            log.info("Team search index built in " + cost);
+        }
+        if (findFriendProperties.isEnableTeamRecommendIndex()) {
+            long begin = System.currentTimeMillis();
+            log.info("Starting build team recommend index......");
+            teamRecommendIndex.build();
+            long end = System.currentTimeMillis();
+            String cost = end - begin + " ms";
+            log.info("Team recommend index built in " + cost);
+        }
+        if (findFriendProperties.isEnableAutoDisbandment()) {
+            // 到期队列为空时（首次升级或 Redis 数据丢失）从数据库补录
+            teamExpiryQueue.backfill();
+        }
         if (!findFriendProperties.isEnableCache()) {
             long begin = System.currentTimeMillis();
             log.info("Starting delete cache from redis......");
@@ -81,41 +89,16 @@ public class StartupListener implements CommandLineRunner {
 
     /**
      * 删除原有缓存
+     * 只切换命名空间版本，旧版本的键由定时任务分批回收
      */
-    @Bean
     public void deleteCache() {
-        String key = USER_RECOMMEND_KEY + "*";
-        Set<String> keys = stringRedisTemplate.keys(key);
-        if (!(keys == null || keys.isEmpty())) {
-            stringRedisTemplate.delete(keys);
-        }
+        cacheNamespaceService.purge(CacheNamespaceEnum.RECOMMEND);
     }
 
     /**
      * 初始化布隆过滤器
-     *
-     * @return {@link BloomFilter}
      */
-    @Bean
-    public BloomFilter initBloomFilter() {
-        BitSetBloomFilter bloomFilter = BloomFilterUtil.createBitSet(
-                PRE_OPENED_MAXIMUM_INCLUSION_RECORD,
-                EXPECTED_INCLUSION_RECORD,
-                HASH_FUNCTION_NUMBER
-        );
-        List<User> userList = userService.list(null);
-        for (User user : userList) {
-            bloomFilter.add(USER_BLOOM_PREFIX + user.getId());
-        }
-        List<Team> teamList = teamService.list(null);
-        for (Team team : teamList) {
-            bloomFilter.add(TEAM_BLOOM_PREFIX + team.getId());
-        }
-
-        List<Blog> blogList = blogService.list(null);
-        for (Blog blog : blogList) {
-            bloomFilter.add(BLOG_BLOOM_PREFIX + blog.getId());
-        }
-        return bloomFilter;
+    public void initBloomFilter() {
+        bloomFilterService.init();
     }
 }
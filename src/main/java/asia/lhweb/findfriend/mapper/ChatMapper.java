@@ -3,6 +3,10 @@ package asia.lhweb.findfriend.mapper;
 import asia.lhweb.findfriend.model.domain.Chat;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
 
 /**
 * @author 罗汉
@@ -13,6 +17,111 @@ import org.apache.ibatis.annotations.Mapper;
 
 public interface ChatMapper extends BaseMapper<Chat> {
 
+    /**
+     * 批量插入，id已存在的忽略（重放时重复写入）
+     *
+     * @param chatList 聊天列表，id已分配
+     * @return 插入条数
+     */
+    int insertIgnoreBatch(@Param("chatList") List<Chat> chatList);
+
+    /**
+     * 最大id，包括已逻辑删除的消息
+     *
+     * @return {@link Long}，表为空时为空
+     */
+    Long selectMaxId();
+
+    /**
+     * 按id查询已写入的消息，包括已逻辑删除的消息，用于核对重复写入
+     *
+     * @param ids 消息id
+     * @return {@link List}<{@link Chat}>
+     */
+    List<Chat> selectWrittenByIds(@Param("ids") Collection<Long> ids);
+
+    /**
+     * 按id顺序取一批消息用于归档，包括已逻辑删除的消息
+     *
+     * @param afterId 起始id（不含）
+     * @param limit   条数
+     * @return {@link List}<{@link Chat}>
+     */
+    List<Chat> selectArchiveBatch(@Param("afterId") long afterId, @Param("limit") int limit);
+
+    /**
+     * 物理删除已归档的消息
+     *
+     * @param ids 消息id
+     * @return 删除条数
+     */
+    int deleteArchived(@Param("ids") Collection<Long> ids);
+
+    /**
+     * 按id倒序查询大厅消息
+     *
+     * @param chatType 聊天类型
+     * @param beforeId 只查询id小于该值的消息，为空时从最新一条开始
+     * @param limit    条数
+     * @return {@link List}<{@link Chat}>
+     */
+    List<Chat> selectHallBefore(@Param("chatType") int chatType,
+                                @Param("beforeId") Long beforeId,
+                                @Param("limit") int limit);
+
+    /**
+     * 按id倒序查询队伍消息
+     *
+     * @param teamId   队伍id
+     * @param chatType 聊天类型
+     * @param beforeId 只查询id小于该值的消息，为空时从最新一条开始
+     * @param limit    条数
+     * @return {@link List}<{@link Chat}>
+     */
+    List<Chat> selectTeamBefore(@Param("teamId") long teamId,
+                                @Param("chatType") int chatType,
+                                @Param("beforeId") Long beforeId,
+                                @Param("limit") int limit);
+
+    /**
+     * 按id倒序查询私聊会话的消息
+     *
+     * @param conversationKey 会话键
+     * @param beforeId        只查询id小于该值的消息，为空时从最新一条开始
+     * @param limit           条数
+     * @return {@link List}<{@link Chat}>
+     */
+    List<Chat> selectConversationBefore(@Param("conversationKey") String conversationKey,
+                                        @Param("beforeId") Long beforeId,
+                                        @Param("limit") int limit);
+
+    /**
+     * 回填一段id范围内私聊消息的会话键
+     *
+     * @param afterId  起始id（不含）
+     * @param untilId  结束id（含）
+     * @param chatType 私聊类型
+     * @return 更新条数
+     */
+    int backfillConversationKey(@Param("afterId") long afterId,
+                                @Param("untilId") long untilId,
+                                @Param("chatType") int chatType);
+
+    /**
+     * 按id倒序查询两人之间的私聊消息，会话键回填完成前使用
+     *
+     * @param userId   用户id
+     * @param toId     对方id
+     * @param chatType 聊天类型
+     * @param beforeId 只查询id小于该值的消息，为空时从最新一条开始
+     * @param limit    条数
+     * @return {@link List}<{@link Chat}>
+     */
+    List<Chat> selectPrivateBefore(@Param("userId") long userId,
+                                   @Param("toId") long toId,
+                                   @Param("chatType") int chatType,
+                                   @Param("beforeId") Long beforeId,
+                                   @Param("limit") int limit);
 }
 
 
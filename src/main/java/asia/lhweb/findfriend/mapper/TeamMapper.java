@@ -4,6 +4,7 @@ package asia.lhweb.findfriend.mapper;
 import asia.lhweb.findfriend.model.domain.Team;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 
 /**
 * @author 罗汉
@@ -14,6 +15,29 @@ import org.apache.ibatis.annotations.Mapper;
 
 public interface TeamMapper extends BaseMapper<Team> {
 
+    /**
+     * 已加入人数加一，队伍已满时不更新
+     *
+     * @param teamId 队伍id
+     * @return 更新行数
+     */
+    int incrementJoinNum(@Param("teamId") long teamId);
+
+    /**
+     * 已加入人数减一
+     *
+     * @param teamId 队伍id
+     * @return 更新行数
+     */
+    int decrementJoinNum(@Param("teamId") long teamId);
+
+    /**
+     * 按关系表重新统计已加入人数，统计与更新在同一条语句中完成
+     *
+     * @param teamId 队伍id
+     * @return 更新行数
+     */
+    int recountJoinNum(@Param("teamId") long teamId);
 }
 
 
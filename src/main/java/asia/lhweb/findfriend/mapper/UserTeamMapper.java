@@ -1,8 +1,13 @@
 package asia.lhweb.findfriend.mapper;
 
 import asia.lhweb.findfriend.model.domain.UserTeam;
+import asia.lhweb.findfriend.model.vo.TeamMemberSummaryVO;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
 
 /**
 * @author 罗汉
@@ -13,6 +18,22 @@ import org.apache.ibatis.annotations.Mapper;
 
 public interface UserTeamMapper extends BaseMapper<UserTeam> {
 
+    /**
+     * 一次查询多个队伍的已加入人数和最早加入的成员
+     *
+     * @param teamIds 队伍id
+     * @param limit   每个队伍返回的成员数量
+     * @return {@link List}<{@link TeamMemberSummaryVO}>
+     */
+    List<TeamMemberSummaryVO> listMemberSummary(@Param("teamIds") Collection<Long> teamIds, @Param("limit") int limit);
+
+    /**
+     * 一次查询多个队伍的已加入人数
+     *
+     * @param teamIds 队伍id
+     * @return {@link List}<{@link TeamMemberSummaryVO}>
+     */
+    List<TeamMemberSummaryVO> countMembers(@Param("teamIds") Collection<Long> teamIds);
 }
 
 
@@ -72,6 +72,12 @@ public class Chat implements Serializable {
     @ApiModelProperty(value = "队伍id")
     private Long teamId;
 
+    /**
+     * 私聊会话键 {较小用户id}:{较大用户id}，与方向无关，其他聊天为空
+     */
+    @ApiModelProperty(value = "私聊会话键")
+    private String conversationKey;
+
     /**
      * 逻辑删除
      */
@@ -53,6 +53,12 @@ public class Team implements Serializable {
     @ApiModelProperty(value = "最大人数")
     private Integer maxNum;
 
+    /**
+     * 已加入人数，随加入、退出、踢出在同一事务中更新
+     */
+    @ApiModelProperty(value = "已加入人数")
+    private Integer joinNum;
+
     /**
      * 过期时间
      */
@@ -0,0 +1,81 @@
+package asia.lhweb.findfriend.model.enums;
+
+import static asia.lhweb.findfriend.constants.BloomFilterConstants.BLOG_BLOOM_KEY;
+import static asia.lhweb.findfriend.constants.BloomFilterConstants.TEAM_BLOOM_KEY;
+import static asia.lhweb.findfriend.constants.BloomFilterConstants.USER_BLOOM_KEY;
+
+/**
+ * 布隆过滤器枚举
+ *
+ * @author 罗汉
+ * @date 2024/05/06
+ */
+public enum BloomFilterEnum {
+    /**
+     * 用户
+     */
+    USER(USER_BLOOM_KEY, "用户", false),
+    /**
+     * 队伍
+     */
+    TEAM(TEAM_BLOOM_KEY, "队伍", true),
+    /**
+     * 博客
+     */
+    BLOG(BLOG_BLOOM_KEY, "博客", true);
+
+    /**
+     * Redis 键
+     */
+    private final String key;
+
+    /**
+     * 文本
+     */
+    private final String text;
+
+    /**
+     * 是否会被删除（使用计数布隆过滤器）
+     */
+    private final boolean deletable;
+
+    /**
+     * 布隆过滤器枚举
+     *
+     * @param key       Redis 键
+     * @param text      文本
+     * @param deletable 是否会被删除
+     */
+    BloomFilterEnum(String key, String text, boolean deletable) {
+        this.key = key;
+        this.text = text;
+        this.deletable = deletable;
+    }
+
+    /**
+     * 获取 Redis 键
+     *
+     * @return {@link String}
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * 得到文本
+     *
+     * @return {@link String}
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * 是否会被删除
+     *
+     * @return boolean
+     */
+    public boolean isDeletable() {
+        return deletable;
+    }
+}
@@ -0,0 +1,60 @@
+package asia.lhweb.findfriend.model.enums;
+
+import static asia.lhweb.findfriend.constants.RedisConstants.BLOG_FEED_KEY;
+import static asia.lhweb.findfriend.constants.RedisConstants.USER_RECOMMEND_KEY;
+
+/**
+ * 缓存命名空间枚举
+ *
+ * @author 罗汉
+ * @date 2024/05/12
+ */
+public enum CacheNamespaceEnum {
+    /**
+     * 用户推荐
+     */
+    RECOMMEND(USER_RECOMMEND_KEY, "用户推荐"),
+    /**
+     * 博客推送
+     */
+    FEED(BLOG_FEED_KEY, "博客推送");
+
+    /**
+     * 键前缀
+     */
+    private final String prefix;
+
+    /**
+     * 文本
+     */
+    private final String text;
+
+    /**
+     * 缓存命名空间枚举
+     *
+     * @param prefix 键前缀
+     * @param text   文本
+     */
+    CacheNamespaceEnum(String prefix, String text) {
+        this.prefix = prefix;
+        this.text = text;
+    }
+
+    /**
+     * 获取键前缀
+     *
+     * @return {@link String}
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * 得到文本
+     *
+     * @return {@link String}
+     */
+    public String getText() {
+        return text;
+    }
+}
@@ -0,0 +1,37 @@
+package asia.lhweb.findfriend.model.request;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 聊天已读请求
+ *
+ * @author 罗汉
+ * @date 2024/05/28
+ */
+@Data
+@ApiModel(value = "聊天已读")
+public class ChatReadRequest implements Serializable {
+    private static final long serialVersionUID = 5243910870356187245L;
+
+    /**
+     * 聊天类型 1私聊 2队伍 3大厅
+     */
+    @ApiModelProperty(value = "聊天类型")
+    private Integer chatType;
+
+    /**
+     * 队伍id，队伍聊天时必填
+     */
+    @ApiModelProperty(value = "队伍id")
+    private Long teamId;
+
+    /**
+     * 对方id，私聊时必填
+     */
+    @ApiModelProperty(value = "对方id")
+    private Long toId;
+}
@@ -32,4 +32,16 @@ public class ChatRequest implements Serializable {
     @ApiModelProperty(value = "接收消息id")
     private Long toId;
 
+    /**
+     * 只查询id小于该值的消息，为空时查询最新一页
+     */
+    @ApiModelProperty(value = "上一页最早一条消息的id")
+    private Long beforeId;
+
+    /**
+     * 每页条数
+     */
+    @ApiModelProperty(value = "每页条数")
+    private Integer pageSize;
+
 }
@@ -0,0 +1,79 @@
+package asia.lhweb.findfriend.model.vo;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 布隆过滤器统计vo
+ *
+ * @author 罗汉
+ * @date 2024/05/06
+ */
+@Data
+@ApiModel(value = "布隆过滤器统计返回")
+public class BloomFilterStatsVO implements Serializable {
+    private static final long serialVersionUID = -3164387254217431075L;
+
+    /**
+     * 名称
+     */
+    @ApiModelProperty(value = "名称")
+    private String name;
+
+    /**
+     * Redis 键
+     */
+    @ApiModelProperty(value = "Redis 键")
+    private String key;
+
+    /**
+     * 预期元素数量
+     */
+    @ApiModelProperty(value = "预期元素数量")
+    private long expectedInsertions;
+
+    /**
+     * 期望误判率
+     */
+    @ApiModelProperty(value = "期望误判率")
+    private double falseProbability;
+
+    /**
+     * 位数组大小
+     */
+    @ApiModelProperty(value = "位数组大小")
+    private long size;
+
+    /**
+     * 散列次数
+     */
+    @ApiModelProperty(value = "散列次数")
+    private int hashIterations;
+
+    /**
+     * 已置位数量
+     */
+    @ApiModelProperty(value = "已置位数量")
+    private long bitCount;
+
+    /**
+     * 填充率
+     */
+    @ApiModelProperty(value = "填充率")
+    private double fillRatio;
+
+    /**
+     * 估算元素数量
+     */
+    @ApiModelProperty(value = "估算元素数量")
+    private long approximateCount;
+
+    /**
+     * 估算当前误判率
+     */
+    @ApiModelProperty(value = "估算当前误判率")
+    private double estimatedFalseProbability;
+}
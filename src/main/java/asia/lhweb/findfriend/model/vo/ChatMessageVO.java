@@ -19,6 +19,11 @@ public class ChatMessageVO implements Serializable {
      * 串行版本uid
      */
     private static final long serialVersionUID = -4722378360550337925L;
+    /**
+     * 消息id
+     */
+    @ApiModelProperty(value = "消息id")
+    private Long id;
     /**
      * 形式用户
      */
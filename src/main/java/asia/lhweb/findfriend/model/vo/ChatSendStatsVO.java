@@ -0,0 +1,44 @@
+package asia.lhweb.findfriend.model.vo;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * 聊天发送统计vo
+ *
+ * @author 罗汉
+ * @date 2024/05/27
+ */
+@Data
+@ApiModel(value = "聊天发送统计返回")
+public class ChatSendStatsVO implements Serializable {
+    private static final long serialVersionUID = 6829471377021450153L;
+
+    /**
+     * 本节点启动以来发送的帧数
+     */
+    @ApiModelProperty(value = "发送的帧数")
+    private long frames;
+
+    /**
+     * 本节点启动以来发送的消息数
+     */
+    @ApiModelProperty(value = "发送的消息数")
+    private long messages;
+
+    /**
+     * 平均每帧的消息数
+     */
+    @ApiModelProperty(value = "平均每帧的消息数")
+    private double averageBatchSize;
+
+    /**
+     * 每帧消息数的分布，区间 => 帧数
+     */
+    @ApiModelProperty(value = "每帧消息数的分布")
+    private Map<String, Long> batchSizes;
+}
@@ -0,0 +1,37 @@
+package asia.lhweb.findfriend.model.vo;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 聊天连接统计vo
+ *
+ * @author 罗汉
+ * @date 2024/05/28
+ */
+@Data
+@ApiModel(value = "聊天连接统计返回")
+public class ChatSessionStatsVO implements Serializable {
+    private static final long serialVersionUID = -3470185329457168294L;
+
+    /**
+     * 本节点当前跟踪的连接数
+     */
+    @ApiModelProperty(value = "当前连接数")
+    private long liveSessions;
+
+    /**
+     * 本节点启动以来发送的心跳数
+     */
+    @ApiModelProperty(value = "发送的心跳数")
+    private long heartbeats;
+
+    /**
+     * 本节点启动以来因空闲超时清理的连接数
+     */
+    @ApiModelProperty(value = "空闲超时清理的连接数")
+    private long evictions;
+}
@@ -0,0 +1,43 @@
+package asia.lhweb.findfriend.model.vo;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 会话未读数vo
+ *
+ * @author 罗汉
+ * @date 2024/05/28
+ */
+@Data
+@ApiModel(value = "会话未读数返回")
+public class ChatUnreadVO implements Serializable {
+    private static final long serialVersionUID = -1858427360915734205L;
+
+    /**
+     * 聊天类型 1私聊 2队伍 3大厅
+     */
+    @ApiModelProperty(value = "聊天类型")
+    private Integer chatType;
+
+    /**
+     * 队伍id，队伍聊天时有值
+     */
+    @ApiModelProperty(value = "队伍id")
+    private Long teamId;
+
+    /**
+     * 对方id，私聊时有值
+     */
+    @ApiModelProperty(value = "对方id")
+    private Long toId;
+
+    /**
+     * 未读条数
+     */
+    @ApiModelProperty(value = "未读条数")
+    private Long unread;
+}
@@ -0,0 +1,38 @@
+package asia.lhweb.findfriend.model.vo;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 在线用户分页
+ *
+ * @author 罗汉
+ * @date 2024/05/26
+ */
+@Data
+@ApiModel(value = "在线用户分页")
+public class OnlineUserPageVO implements Serializable {
+    private static final long serialVersionUID = 5127349902815532447L;
+
+    /**
+     * 在线总人数
+     */
+    @ApiModelProperty(value = "在线总人数")
+    private Long total;
+
+    /**
+     * 按用户id升序的一页在线用户
+     */
+    @ApiModelProperty(value = "在线用户")
+    private List<WebSocketVO> users;
+
+    /**
+     * 下一页的游标，没有下一页时为空
+     */
+    @ApiModelProperty(value = "下一页的游标")
+    private Long cursor;
+}
@@ -0,0 +1,47 @@
+package asia.lhweb.findfriend.model.vo;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 上下线通知
+ *
+ * @author 罗汉
+ * @date 2024/05/26
+ */
+@Data
+@ApiModel(value = "上下线通知")
+public class PresenceVO implements Serializable {
+    private static final long serialVersionUID = -3307861125826476128L;
+
+    /**
+     * 上线
+     */
+    public static final String JOIN = "join";
+
+    /**
+     * 下线
+     */
+    public static final String LEAVE = "leave";
+
+    /**
+     * join 或 leave
+     */
+    @ApiModelProperty(value = "join 或 leave")
+    private String presence;
+
+    /**
+     * 队伍id，大厅为空
+     */
+    @ApiModelProperty(value = "队伍id")
+    private Long teamId;
+
+    /**
+     * 用户，下线时只有id
+     */
+    @ApiModelProperty(value = "用户")
+    private WebSocketVO user;
+}
@@ -0,0 +1,31 @@
+package asia.lhweb.findfriend.model.vo;
+
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 队伍成员概要
+ *
+ * @author 罗汉
+ * @date 2024/05/14
+ */
+@Data
+public class TeamMemberSummaryVO implements Serializable {
+    private static final long serialVersionUID = 2874315527130961584L;
+
+    /**
+     * 队伍id
+     */
+    private Long teamId;
+
+    /**
+     * 已加入人数
+     */
+    private Long memberNum;
+
+    /**
+     * 最早加入的若干成员id，逗号分隔
+     */
+    private String firstUserIds;
+}
@@ -0,0 +1,51 @@
+package asia.lhweb.findfriend.model.vo;
+
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.Set;
+
+/**
+ * 用户的队伍关系
+ *
+ * @author 罗汉
+ * @date 2024/05/19
+ */
+@Data
+public class UserTeamMembershipVO implements Serializable {
+    private static final long serialVersionUID = -3105238346927618405L;
+
+    /**
+     * 已加入（含创建）的队伍id
+     */
+    private Set<Long> joinedTeamIds;
+
+    /**
+     * 创建的队伍数
+     */
+    private Long createdNum;
+
+    /**
+     * 清除标记，非空时记录已失效，需从数据库重新装载；每次清除取不同的值
+     */
+    private String tombstone;
+
+    /**
+     * 已加入的队伍数
+     *
+     * @return long
+     */
+    public long getJoinedNum() {
+        return joinedTeamIds == null ? 0 : joinedTeamIds.size();
+    }
+
+    /**
+     * 是否已加入
+     *
+     * @param teamId 队伍id
+     * @return boolean
+     */
+    public boolean hasJoined(Long teamId) {
+        return joinedTeamIds != null && joinedTeamIds.contains(teamId);
+    }
+}
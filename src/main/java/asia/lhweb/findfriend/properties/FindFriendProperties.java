@@ -22,11 +22,51 @@ public class FindFriendProperties {
      */
     private String job = "0 0 0 * * ? *";
 
+    /**
+     * 启用队伍搜索索引
+     */
+    private boolean enableTeamSearchIndex = true;
+
+    /**
+     * 启用队伍推荐索引
+     */
+    private boolean enableTeamRecommendIndex = true;
+
+    /**
+     * 聊天消息合并发送的时间窗口（毫秒），只对握手时请求合并发送的连接生效，0 为不合并
+     */
+    private long chatBatchWindow = 15;
+
     /**
      * 启用布隆过滤器
      */
     private boolean enableBloomFilter = false;
 
+    /**
+     * 布隆过滤器预期元素数量（每类数据一个过滤器）
+     */
+    private long bloomFilterExpectedInsertions = 100000;
+
+    /**
+     * 布隆过滤器期望误判率
+     */
+    private double bloomFilterFalseProbability = 0.01;
+
+    /**
+     * 布隆过滤器按数据库重建的定时任务（清理计数器溢出和漏删的残留）
+     */
+    private String bloomFilterCompactionJob = "0 30 3 * * ? *";
+
+    /**
+     * 布隆过滤器快照目录
+     */
+    private String bloomFilterSnapshotDir = "bloom";
+
+    /**
+     * 布隆过滤器保存快照的定时任务
+     */
+    private String bloomFilterSnapshotJob = "0 0/10 * * * ? *";
+
     /**
      * 使用真实短信服务
      */
@@ -42,6 +82,41 @@ public class FindFriendProperties {
      */
     private boolean enableCache = true;
 
+    /**
+     * 回收旧版本缓存的定时任务
+     */
+    private String cacheSweepJob = "0 15 * * * ? *";
+
+    /**
+     * 聊天归档目录，多个节点时应为共享存储
+     */
+    private String chatArchiveDir = "chat-archive";
+
+    /**
+     * 聊天记录在数据库中保留的天数，更早的移入归档
+     */
+    private int chatArchiveRetentionDays = 180;
+
+    /**
+     * 归档聊天记录的定时任务
+     */
+    private String chatArchiveJob = "0 30 3 * * ? *";
+
+    /**
+     * 校正队伍人数的定时任务
+     */
+    private String teamMemberNumReconcileJob = "0 45 4 * * ? *";
+
+    /**
+     * 各节点重新构建队伍推荐索引的定时任务，修正错过通知的队伍
+     */
+    private String teamRecommendIndexRebuildJob = "0 0 5 * * ? *";
+
+    /**
+     * 解散到期队伍的定时任务，只处理到期队列中已到期的队伍，可以频繁执行
+     */
+    private String disbandExpiredTeamJob = "0 * * * * ? *";
+
     /**
      * 启用自动解散到期队伍（定时任务）
      */
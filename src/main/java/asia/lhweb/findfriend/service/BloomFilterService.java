@@ -0,0 +1,63 @@
+package asia.lhweb.findfriend.service;
+
+import asia.lhweb.findfriend.model.enums.BloomFilterEnum;
+import asia.lhweb.findfriend.model.vo.BloomFilterStatsVO;
+
+import java.util.List;
+
+/**
+ * 布隆过滤器服务
+ *
+ * @author 罗汉
+ * @date 2024/05/06
+ */
+public interface BloomFilterService {
+
+    /**
+     * 初始化布隆过滤器
+     * 按配置的容量和误判率创建，已由其他节点创建且参数一致时直接复用，Redis 中不存在时优先从本地快照恢复
+     */
+    void init();
+
+    /**
+     * 补齐水位线之后新增的 id 并保存本地快照
+     */
+    void snapshot();
+
+    /**
+     * 添加
+     *
+     * @param type 过滤器类型
+     * @param id   id
+     */
+    void add(BloomFilterEnum type, long id);
+
+    /**
+     * 删除，只对可删除的类型生效
+     *
+     * @param type 过滤器类型
+     * @param id   id
+     */
+    void remove(BloomFilterEnum type, long id);
+
+    /**
+     * 按数据库重建可删除类型的过滤器，清理溢出计数器和漏删的残留
+     */
+    void compact();
+
+    /**
+     * 是否可能存在
+     *
+     * @param type 过滤器类型
+     * @param id   id
+     * @return boolean
+     */
+    boolean contains(BloomFilterEnum type, long id);
+
+    /**
+     * 获取统计信息
+     *
+     * @return {@link List}<{@link BloomFilterStatsVO}>
+     */
+    List<BloomFilterStatsVO> getStats();
+}
@@ -0,0 +1,46 @@
+package asia.lhweb.findfriend.service;
+
+import asia.lhweb.findfriend.model.enums.CacheNamespaceEnum;
+
+/**
+ * 缓存命名空间服务
+ * 键格式为 前缀 + v{版本号}: + 业务键（版本号为 0 时没有版本段），清空命名空间只需版本号加一，旧版本的键由后台任务分批回收
+ *
+ * @author 罗汉
+ * @date 2024/05/12
+ */
+public interface CacheNamespaceService {
+
+    /**
+     * 生成当前版本的键
+     *
+     * @param namespace 命名空间
+     * @param key       业务键
+     * @return {@link String}
+     */
+    String key(CacheNamespaceEnum namespace, String key);
+
+    /**
+     * 当前版本号
+     *
+     * @param namespace 命名空间
+     * @return long
+     */
+    long version(CacheNamespaceEnum namespace);
+
+    /**
+     * 清空命名空间，O(1)
+     *
+     * @param namespace 命名空间
+     * @return 新版本号
+     */
+    long purge(CacheNamespaceEnum namespace);
+
+    /**
+     * 使用 SCAN 遍历命名空间，分批 UNLINK 非当前版本的键
+     *
+     * @param namespace 命名空间
+     * @return 回收的键数量
+     */
+    long sweep(CacheNamespaceEnum namespace);
+}
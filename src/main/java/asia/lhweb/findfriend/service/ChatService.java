@@ -2,8 +2,11 @@ package asia.lhweb.findfriend.service;
 
 import asia.lhweb.findfriend.model.domain.Chat;
 import asia.lhweb.findfriend.model.domain.User;
+import asia.lhweb.findfriend.model.request.ChatReadRequest;
 import asia.lhweb.findfriend.model.request.ChatRequest;
 import asia.lhweb.findfriend.model.vo.ChatMessageVO;
+import asia.lhweb.findfriend.model.vo.ChatUnreadVO;
+import asia.lhweb.findfriend.model.vo.OnlineUserPageVO;
 import com.baomidou.mybatisplus.extension.service.IService;
 
 import java.util.Date;
@@ -28,24 +31,6 @@ public interface ChatService extends IService<Chat> {
      */
     List<ChatMessageVO> getPrivateChat(ChatRequest chatRequest, int chatType, User loginUser);
 
-    /**
-     * 获取缓存
-     *
-     * @param redisKey redis键
-     * @param id       id
-     * @return {@link List}<{@link ChatMessageVO}>
-     */
-    List<ChatMessageVO> getCache(String redisKey, String id);
-
-    /**
-     * 保存缓存
-     *
-     * @param redisKey       redis键
-     * @param id             id
-     * @param chatMessageVos 聊天消息vos
-     */
-    void saveCache(String redisKey, String id, List<ChatMessageVO> chatMessageVos);
-
     /**
      * 聊天结果
      *
@@ -58,14 +43,6 @@ public interface ChatService extends IService<Chat> {
      */
     ChatMessageVO chatResult(Long userId, Long toId, String text, Integer chatType, Date createTime);
 
-    /**
-     * 删除密钥
-     *
-     * @param key 钥匙
-     * @param id  id
-     */
-    void deleteKey(String key, String id);
-
     /**
      * 获取团队聊天
      *
@@ -79,9 +56,37 @@ public interface ChatService extends IService<Chat> {
     /**
      * 获得大厅聊天
      *
-     * @param chatType  聊天类型
-     * @param loginUser 登录用户
+     * @param chatRequest 聊天请求
+     * @param chatType    聊天类型
+     * @param loginUser   登录用户
      * @return {@link List}<{@link ChatMessageVO}>
      */
-    List<ChatMessageVO> getHallChat(int chatType, User loginUser);
+    List<ChatMessageVO> getHallChat(ChatRequest chatRequest, int chatType, User loginUser);
+
+    /**
+     * 在线用户快照
+     *
+     * @param teamId    队伍id，大厅为空
+     * @param cursor    上一页的游标，第一页为 0
+     * @param pageSize  每页条数
+     * @param loginUser 登录用户
+     * @return {@link OnlineUserPageVO}
+     */
+    OnlineUserPageVO listOnlineUsers(Long teamId, long cursor, Integer pageSize, User loginUser);
+
+    /**
+     * 全部会话的未读数
+     *
+     * @param loginUser 登录用户
+     * @return {@link List}<{@link ChatUnreadVO}>
+     */
+    List<ChatUnreadVO> listUnread(User loginUser);
+
+    /**
+     * 会话已读
+     *
+     * @param chatReadRequest 已读请求
+     * @param loginUser       登录用户
+     */
+    void markRead(ChatReadRequest chatReadRequest, User loginUser);
 }
@@ -14,6 +14,7 @@ import asia.lhweb.findfriend.model.request.TeamQuitRequest;
 import asia.lhweb.findfriend.model.request.TeamUpdateRequest;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -42,9 +43,10 @@ public interface TeamService extends IService<Team> {
      * @param currentPage 当前页码
      * @param teamQuery   团队查询
      * @param isAdmin     是否为管理员
+     * @param loginUserId 登录用户id，未登录为空
      * @return {@link Page}<{@link TeamVO}>
      */
-    Page<TeamVO> listTeams(long currentPage, TeamQueryRequest teamQuery, boolean isAdmin);
+    Page<TeamVO> listTeams(long currentPage, TeamQueryRequest teamQuery, boolean isAdmin, Long loginUserId);
 
     /**
      * 更新团队
@@ -84,6 +86,14 @@ public interface TeamService extends IService<Team> {
      */
     boolean deleteTeam(long id, User loginUser, boolean isAdmin);
 
+    /**
+     * 批量解散已到期的队伍，未到期的重新登记到期时间
+     *
+     * @param teamIds 队伍id
+     * @return 已解散的队伍id
+     */
+    List<Long> disbandTeams(Collection<Long> teamIds);
+
     /**
      * 获得团队
      *
@@ -98,9 +108,18 @@ public interface TeamService extends IService<Team> {
      *
      * @param currentPage 当前页码
      * @param teamQuery   团队查询
+     * @param loginUserId 登录用户id
      * @return {@link Page}<{@link TeamVO}>
      */
-    Page<TeamVO> listMyJoin(long currentPage, TeamQueryRequest teamQuery);
+    Page<TeamVO> listMyJoin(long currentPage, TeamQueryRequest teamQuery, Long loginUserId);
+
+    /**
+     * 用户已加入（含创建）的队伍id
+     *
+     * @param userId 用户id
+     * @return {@link List}<{@link Long}>
+     */
+    List<Long> listJoinedTeamIds(long userId);
 
     /**
      * 获取团队成员
@@ -148,11 +167,12 @@ public interface TeamService extends IService<Team> {
     Page<TeamVO> listMyCreate(long currentPage, Long userId);
 
     /**
-     * 获取已加入队员头像
+     * 按标签相似度推荐可加入的公开队伍
      *
-     * @param teamVoPage 团队vo分页
+     * @param currentPage 当前页码
+     * @param loginUser   登录用户
      * @return {@link Page}<{@link TeamVO}>
      */
-    Page<TeamVO> getJoinedUserAvatar(Page<TeamVO> teamVoPage);
+    Page<TeamVO> recommendTeams(long currentPage, User loginUser);
 
 }
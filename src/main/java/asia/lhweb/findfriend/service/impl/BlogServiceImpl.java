@@ -6,6 +6,7 @@ import asia.lhweb.findfriend.constants.RedissonConstant;
 import asia.lhweb.findfriend.constants.SystemConstants;
 import asia.lhweb.findfriend.exception.BusinessException;
 import asia.lhweb.findfriend.mapper.BlogMapper;
+import asia.lhweb.findfriend.model.enums.CacheNamespaceEnum;
 import asia.lhweb.findfriend.model.enums.MessageTypeEnum;
 import asia.lhweb.findfriend.model.request.BlogAddRequest;
 import asia.lhweb.findfriend.model.request.BlogUpdateRequest;
@@ -24,6 +25,7 @@ import asia.lhweb.findfriend.model.domain.Message;
 import asia.lhweb.findfriend.model.domain.User;
 import asia.lhweb.findfriend.service.BlogLikeService;
 import asia.lhweb.findfriend.service.BlogService;
+import asia.lhweb.findfriend.service.CacheNamespaceService;
 import asia.lhweb.findfriend.service.FollowService;
 import asia.lhweb.findfriend.service.MessageService;
 import asia.lhweb.findfriend.service.UserService;
@@ -66,6 +68,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog>
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheNamespaceService cacheNamespaceService;
+
     @Resource
     private RedissonClient redissonClient;
 
@@ -113,7 +118,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog>
             List<UserVO> userVOList = followService.listFans(loginUser.getId());
             if (!userVOList.isEmpty()) {
                 for (UserVO userVO : userVOList) {
-                    String key = RedisConstants.BLOG_FEED_KEY + userVO.getId();
+                    String key = cacheNamespaceService.key(CacheNamespaceEnum.FEED, String.valueOf(userVO.getId()));
                     stringRedisTemplate.opsForZSet().add(key, blog.getId().toString(), System.currentTimeMillis());
                     String likeNumKey = RedisConstants.MESSAGE_BLOG_NUM_KEY + userVO.getId();
                     Boolean hasKey = stringRedisTemplate.hasKey(likeNumKey);
@@ -304,11 +309,14 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog>
 
     @Override
     public void deleteBlog(Long blogId, Long userId, boolean isAdmin) {
+        Blog blog = this.getById(blogId);
+        if (blog == null) {
+            throw new BusinessException(ErrorCode.NULL_ERROR, "博客不存在");
+        }
         if (isAdmin) {
             this.removeById(blogId);
             return;
         }
-        Blog blog = this.getById(blogId);
         if (!userId.equals(blog.getUserId())) {
             throw new BusinessException(ErrorCode.NO_AUTH);
         }
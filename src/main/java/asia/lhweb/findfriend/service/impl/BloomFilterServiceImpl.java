@@ -0,0 +1,405 @@
+package asia.lhweb.findfriend.service.impl;
+
+import asia.lhweb.findfriend.model.domain.Blog;
+import asia.lhweb.findfriend.model.domain.Team;
+import asia.lhweb.findfriend.model.domain.User;
+import asia.lhweb.findfriend.model.enums.BloomFilterEnum;
+import asia.lhweb.findfriend.model.vo.BloomFilterStatsVO;
+import asia.lhweb.findfriend.properties.FindFriendProperties;
+import asia.lhweb.findfriend.service.BlogService;
+import asia.lhweb.findfriend.service.BloomFilterService;
+import asia.lhweb.findfriend.service.TeamService;
+import asia.lhweb.findfriend.service.UserService;
+import asia.lhweb.findfriend.utils.BloomFilterSnapshot;
+import asia.lhweb.findfriend.utils.RedisBloomFilter;
+import asia.lhweb.findfriend.utils.RedisCountingBloomFilter;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.toolkit.support.SFunction;
+import com.baomidou.mybatisplus.extension.service.IService;
+import lombok.extern.log4j.Log4j2;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static asia.lhweb.findfriend.constants.BloomFilterConstants.BLOOM_INIT_BATCH_SIZE;
+import static asia.lhweb.findfriend.constants.RedissonConstant.BLOOM_FILTER_INIT_LOCK;
+
+/**
+ * 布隆过滤器服务实现
+ * 过滤器保存在 Redis 中，新增数据时任一节点写入即对所有节点可见
+ * 队伍、博客会被删除，使用计数布隆过滤器，删除时同步移除
+ *
+ * @author 罗汉
+ * @date 2024/05/06
+ */
+@Service
+@Log4j2
+public class BloomFilterServiceImpl implements BloomFilterService {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private FindFriendProperties findFriendProperties;
+
+    @Resource
+    private UserService userService;
+
+    @Resource
+    private TeamService teamService;
+
+    @Resource
+    private BlogService blogService;
+
+    /**
+     * 各类型过滤器
+     */
+    private final Map<BloomFilterEnum, RedisBloomFilter> filters = new EnumMap<>(BloomFilterEnum.class);
+
+    /**
+     * 创建过滤器对象
+     */
+    @PostConstruct
+    public void createFilters() {
+        for (BloomFilterEnum type : BloomFilterEnum.values()) {
+            RedisBloomFilter filter = type.isDeletable()
+                    ? new RedisCountingBloomFilter(stringRedisTemplate, type.getKey())
+                    : new RedisBloomFilter(stringRedisTemplate, type.getKey());
+            filters.put(type, filter);
+        }
+    }
+
+    /**
+     * 初始化布隆过滤器
+     */
+    @Override
+    public void init() {
+        RLock lock = redissonClient.getLock(BLOOM_FILTER_INIT_LOCK);
+        lock.lock();
+        try {
+            for (BloomFilterEnum type : BloomFilterEnum.values()) {
+                initFilter(type);
+            }
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 初始化单个过滤器
+     * 依次尝试：复用 Redis 中的过滤器、从本地快照恢复、全量重建；前两种只需补齐水位线之后的 id
+     *
+     * @param type 过滤器类型
+     */
+    private void initFilter(BloomFilterEnum type) {
+        RedisBloomFilter filter = filters.get(type);
+        long expectedInsertions = findFriendProperties.getBloomFilterExpectedInsertions();
+        double falseProbability = findFriendProperties.getBloomFilterFalseProbability();
+        if (filter.load()) {
+            boolean sameConfig = filter.isSameType()
+                    && filter.getExpectedInsertions() == expectedInsertions
+                    && Double.compare(filter.getFalseProbability(), falseProbability) == 0;
+            if (sameConfig && filter.isReady()) {
+                long count = catchUp(type, filter);
+                log.info(type.getText() + " BloomFilter 已存在，直接复用，补齐 " + count + " 条");
+                return;
+            }
+            log.info(type.getText() + " BloomFilter 参数变更或未完成装载，重新创建");
+            filter.delete();
+        } else if (restoreSnapshot(type, filter, expectedInsertions, falseProbability)) {
+            long count = catchUp(type, filter);
+            filter.markReady();
+            log.info(type.getText() + " BloomFilter 已从快照恢复，补齐 " + count + " 条");
+            return;
+        }
+        filter.tryInit(expectedInsertions, falseProbability);
+        long count = catchUp(type, filter);
+        filter.markReady();
+        log.info(type.getText() + " BloomFilter 装载 " + count + " 条，位数组大小 " + filter.getSize()
+                + "，散列次数 " + filter.getHashIterations());
+        if (count > expectedInsertions) {
+            log.warn(type.getText() + " BloomFilter 元素数量已超过预期容量，请调大 super.bloom-filter-expected-insertions");
+        }
+    }
+
+    /**
+     * 从本地快照恢复
+     *
+     * @param type               过滤器类型
+     * @param filter             过滤器
+     * @param expectedInsertions 预期元素数量
+     * @param falseProbability   期望误判率
+     * @return 是否已恢复
+     */
+    private boolean restoreSnapshot(BloomFilterEnum type, RedisBloomFilter filter,
+                                    long expectedInsertions, double falseProbability) {
+        try {
+            BloomFilterSnapshot snapshot = BloomFilterSnapshot.load(getSnapshotFile(type));
+            if (snapshot == null || !snapshot.matches(filter.getFilterType(), expectedInsertions, falseProbability)) {
+                return false;
+            }
+            snapshot.restoreTo(filter);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.warn(type.getText() + " BloomFilter 快照读取失败，重新创建", e);
+            filter.delete();
+            return false;
+        }
+    }
+
+    /**
+     * 只装载水位线之后的 id，每批装载后推进水位线
+     * 新增时已推进水位线，这里只补齐未经新增通知写入的 id（如通知失败或当时未启用过滤器）
+     *
+     * @param type   过滤器类型
+     * @param filter 过滤器
+     * @return long
+     */
+    private long catchUp(BloomFilterEnum type, RedisBloomFilter filter) {
+        return fill(type, filter.getWatermark(), idList -> {
+            filter.add(idList);
+            filter.advanceWatermark(idList.get(idList.size() - 1));
+        });
+    }
+
+    /**
+     * 补齐新增 id 并保存快照
+     * 关闭时和定时任务中执行，其他节点正在初始化时跳过
+     */
+    @Override
+    public void snapshot() {
+        RLock lock = redissonClient.getLock(BLOOM_FILTER_INIT_LOCK);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            for (BloomFilterEnum type : BloomFilterEnum.values()) {
+                RedisBloomFilter filter = getFilter(type);
+                if (filter == null || !filter.isReady()) {
+                    continue;
+                }
+                try {
+                    catchUp(type, filter);
+                    BloomFilterSnapshot.save(filter, getSnapshotFile(type));
+                } catch (IOException e) {
+                    log.error(type.getText() + " BloomFilter 快照保存失败", e);
+                }
+            }
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 关闭前保存快照
+     */
+    @PreDestroy
+    public void saveOnShutdown() {
+        if (findFriendProperties.isEnableBloomFilter()) {
+            snapshot();
+        }
+    }
+
+    /**
+     * 快照文件
+     *
+     * @param type 过滤器类型
+     * @return {@link Path}
+     */
+    private Path getSnapshotFile(BloomFilterEnum type) {
+        return Paths.get(findFriendProperties.getBloomFilterSnapshotDir(), type.name().toLowerCase() + ".bloom");
+    }
+
+    /**
+     * 从数据库装载 id
+     *
+     * @param type   过滤器类型
+     * @param fromId 从大于该 id 的数据开始
+     * @param sink   每批 id 的写入方式
+     * @return long
+     */
+    private long fill(BloomFilterEnum type, long fromId, Consumer<List<Long>> sink) {
+        switch (type) {
+            case USER:
+                return fill(fromId, sink, userService, User::getId);
+            case TEAM:
+                return fill(fromId, sink, teamService, Team::getId);
+            case BLOG:
+                return fill(fromId, sink, blogService, Blog::getId);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 按 id 分批只查询 id 列并写入过滤器
+     *
+     * @param fromId   从大于该 id 的数据开始
+     * @param sink     每批 id 的写入方式
+     * @param service  服务
+     * @param idColumn id列
+     * @param <T>      实体类型
+     * @return long
+     */
+    private <T> long fill(long fromId, Consumer<List<Long>> sink, IService<T> service, SFunction<T, Long> idColumn) {
+        long count = 0;
+        long lastId = fromId;
+        while (true) {
+            LambdaQueryWrapper<T> queryWrapper = new LambdaQueryWrapper<>();
+            queryWrapper.select(idColumn)
+                    .gt(idColumn, lastId)
+                    .orderByAsc(idColumn)
+                    .last("limit " + BLOOM_INIT_BATCH_SIZE);
+            List<Long> idList = service.listObjs(queryWrapper, id -> Long.parseLong(String.valueOf(id)));
+            if (idList.isEmpty()) {
+                break;
+            }
+            sink.accept(idList);
+            count += idList.size();
+            lastId = idList.get(idList.size() - 1);
+            if (idList.size() < BLOOM_INIT_BATCH_SIZE) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 添加，同时推进水位线
+     * 计数过滤器重复添加会重复计数，删除一次后仍判为存在，补齐时不能再次添加已写入的 id
+     *
+     * @param type 过滤器类型
+     * @param id   id
+     */
+    @Override
+    public void add(BloomFilterEnum type, long id) {
+        RedisBloomFilter filter = getFilter(type);
+        if (filter == null) {
+            return;
+        }
+        filter.add(id);
+        filter.advanceWatermark(id);
+    }
+
+    /**
+     * 删除
+     *
+     * @param type 过滤器类型
+     * @param id   id
+     */
+    @Override
+    public void remove(BloomFilterEnum type, long id) {
+        RedisBloomFilter filter = getFilter(type);
+        if (!(filter instanceof RedisCountingBloomFilter)) {
+            return;
+        }
+        ((RedisCountingBloomFilter) filter).remove(id);
+    }
+
+    /**
+     * 按数据库重建可删除类型的过滤器
+     * 重建期间新增、删除同时写入影子计数器，重建完成后影子原子替换正式数据，期间查询不受影响
+     */
+    @Override
+    public void compact() {
+        for (BloomFilterEnum type : BloomFilterEnum.values()) {
+            RedisBloomFilter filter = filters.get(type);
+            // 重建前按 Redis 中的最新参数计算位下标
+            if (!(filter instanceof RedisCountingBloomFilter) || !filter.load() || !filter.isSameType()) {
+                continue;
+            }
+            RedisCountingBloomFilter countingFilter = (RedisCountingBloomFilter) filter;
+            long before = countingFilter.count();
+            AtomicLong lastId = new AtomicLong();
+            countingFilter.beginRebuild();
+            fill(type, 0, idList -> {
+                countingFilter.fillShadow(idList);
+                lastId.set(idList.get(idList.size() - 1));
+            });
+            long after = countingFilter.finishRebuild();
+            countingFilter.advanceWatermark(lastId.get());
+            log.info(type.getText() + " BloomFilter 压缩完成，元素数量 " + before + " -> " + after);
+        }
+    }
+
+    /**
+     * 是否可能存在
+     * 过滤器尚未创建或未完成装载时放行，避免误拦截
+     *
+     * @param type 过滤器类型
+     * @param id   id
+     * @return boolean
+     */
+    @Override
+    public boolean contains(BloomFilterEnum type, long id) {
+        RedisBloomFilter filter = getFilter(type);
+        if (filter == null) {
+            return true;
+        }
+        return filter.contains(id);
+    }
+
+    /**
+     * 获取统计信息
+     *
+     * @return {@link List}<{@link BloomFilterStatsVO}>
+     */
+    @Override
+    public List<BloomFilterStatsVO> getStats() {
+        List<BloomFilterStatsVO> statsList = new ArrayList<>();
+        for (BloomFilterEnum type : BloomFilterEnum.values()) {
+            RedisBloomFilter filter = getFilter(type);
+            BloomFilterStatsVO stats = new BloomFilterStatsVO();
+            stats.setName(type.getText());
+            stats.setKey(type.getKey());
+            if (filter != null) {
+                double fillRatio = filter.fillRatio();
+                stats.setExpectedInsertions(filter.getExpectedInsertions());
+                stats.setFalseProbability(filter.getFalseProbability());
+                stats.setSize(filter.getSize());
+                stats.setHashIterations(filter.getHashIterations());
+                stats.setBitCount(filter.bitCount());
+                stats.setFillRatio(fillRatio);
+                stats.setEstimatedFalseProbability(Math.pow(fillRatio, filter.getHashIterations()));
+                stats.setApproximateCount(filter.approximateCount());
+            }
+            statsList.add(stats);
+        }
+        return statsList;
+    }
+
+    /**
+     * 获取已创建的过滤器，本节点未加载参数时从 Redis 读取
+     *
+     * @param type 过滤器类型
+     * @return {@link RedisBloomFilter}
+     */
+    private RedisBloomFilter getFilter(BloomFilterEnum type) {
+        RedisBloomFilter filter = filters.get(type);
+        if (!filter.isInitialized() && !filter.load()) {
+            return null;
+        }
+        return filter;
+    }
+}
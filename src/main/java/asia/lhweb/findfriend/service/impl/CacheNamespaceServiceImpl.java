@@ -0,0 +1,155 @@
+package asia.lhweb.findfriend.service.impl;
+
+import asia.lhweb.findfriend.model.enums.CacheNamespaceEnum;
+import asia.lhweb.findfriend.service.CacheNamespaceService;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static asia.lhweb.findfriend.constants.RedisConstants.CACHE_SWEEP_BATCH_SIZE;
+import static asia.lhweb.findfriend.constants.RedisConstants.CACHE_VERSION_KEY;
+import static asia.lhweb.findfriend.constants.RedisConstants.CACHE_VERSION_LOCAL_TTL;
+
+/**
+ * 缓存命名空间服务实现
+ * 版本号在本地缓存 {@link asia.lhweb.findfriend.constants.RedisConstants#CACHE_VERSION_LOCAL_TTL} 毫秒，其他节点清空后最迟在该时间后切换到新版本
+ *
+ * @author 罗汉
+ * @date 2024/05/12
+ */
+@Service
+@Log4j2
+public class CacheNamespaceServiceImpl implements CacheNamespaceService {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 本地版本号缓存
+     */
+    private final Map<CacheNamespaceEnum, LocalVersion> localVersions = new EnumMap<>(CacheNamespaceEnum.class);
+
+    @Override
+    public String key(CacheNamespaceEnum namespace, String key) {
+        return versionPrefix(namespace, version(namespace)) + key;
+    }
+
+    @Override
+    public long version(CacheNamespaceEnum namespace) {
+        LocalVersion localVersion;
+        synchronized (localVersions) {
+            localVersion = localVersions.get(namespace);
+        }
+        long now = System.currentTimeMillis();
+        if (localVersion != null && now - localVersion.loadedAt < CACHE_VERSION_LOCAL_TTL) {
+            return localVersion.version;
+        }
+        String value = stringRedisTemplate.opsForValue().get(CACHE_VERSION_KEY + namespace.name().toLowerCase());
+        long version = value == null ? 0 : Long.parseLong(value);
+        cacheVersion(namespace, version, now);
+        return version;
+    }
+
+    @Override
+    public long purge(CacheNamespaceEnum namespace) {
+        Long version = stringRedisTemplate.opsForValue().increment(CACHE_VERSION_KEY + namespace.name().toLowerCase());
+        long current = version == null ? 0 : version;
+        cacheVersion(namespace, current, System.currentTimeMillis());
+        log.info(namespace.getText() + "缓存已切换到版本 " + current);
+        return current;
+    }
+
+    @Override
+    public long sweep(CacheNamespaceEnum namespace) {
+        long version = version(namespace);
+        if (version == 0) {
+            return 0;
+        }
+        String current = versionPrefix(namespace, version);
+        ScanOptions options = ScanOptions.scanOptions()
+                .match(namespace.getPrefix() + "*")
+                .count(CACHE_SWEEP_BATCH_SIZE)
+                .build();
+        Long swept = stringRedisTemplate.execute((RedisCallback<Long>) connection -> {
+            long count = 0;
+            List<String> staleKeys = new ArrayList<>(CACHE_SWEEP_BATCH_SIZE);
+            try (Cursor<byte[]> cursor = connection.scan(options)) {
+                while (cursor.hasNext()) {
+                    String key = new String(cursor.next(), StandardCharsets.UTF_8);
+                    if (key.startsWith(current)) {
+                        continue;
+                    }
+                    staleKeys.add(key);
+                    if (staleKeys.size() >= CACHE_SWEEP_BATCH_SIZE) {
+                        count += unlink(staleKeys);
+                    }
+                }
+            }
+            count += unlink(staleKeys);
+            return count;
+        });
+        return swept == null ? 0 : swept;
+    }
+
+    /**
+     * 非阻塞删除一批键并清空列表
+     *
+     * @param keys 键
+     * @return long
+     */
+    private long unlink(List<String> keys) {
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        Long count = stringRedisTemplate.unlink(keys);
+        keys.clear();
+        return count == null ? 0 : count;
+    }
+
+    private void cacheVersion(CacheNamespaceEnum namespace, long version, long loadedAt) {
+        synchronized (localVersions) {
+            LocalVersion localVersion = localVersions.get(namespace);
+            // 版本号只增不减，避免并发读取时旧值覆盖新值
+            if (localVersion == null || localVersion.version <= version) {
+                localVersions.put(namespace, new LocalVersion(version, loadedAt));
+            }
+        }
+    }
+
+    /**
+     * 版本号为 0 时沿用原有的键，升级后已有数据不失效
+     *
+     * @param namespace 命名空间
+     * @param version   版本号
+     * @return {@link String}
+     */
+    private static String versionPrefix(CacheNamespaceEnum namespace, long version) {
+        if (version == 0) {
+            return namespace.getPrefix();
+        }
+        return namespace.getPrefix() + "v" + version + ":";
+    }
+
+    /**
+     * 本地缓存的版本号
+     */
+    private static class LocalVersion {
+        private final long version;
+        private final long loadedAt;
+
+        LocalVersion(long version, long loadedAt) {
+            this.version = version;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
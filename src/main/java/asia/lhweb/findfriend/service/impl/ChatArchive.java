@@ -0,0 +1,151 @@
+package asia.lhweb.findfriend.service.impl;
+
+import asia.lhweb.findfriend.constants.ChatConstant;
+import asia.lhweb.findfriend.mapper.ChatMapper;
+import asia.lhweb.findfriend.model.domain.Chat;
+import asia.lhweb.findfriend.properties.FindFriendProperties;
+import asia.lhweb.findfriend.utils.ChatArchiveSegment;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 聊天记录归档
+ * 超过保留天数的消息按id顺序分批移出 chat 表，按会话追加到归档目录下的压缩段文件（见 {@link ChatArchiveSegment}），
+ * 写入落盘后再从数据库物理删除；中途失败时下次重新归档，已在段文件中的部分按id跳过。
+ * 历史记录查到数据库中最早一条后，继续从同一会话的归档中往前读取
+ *
+ * @author 罗汉
+ * @date 2024/05/28
+ */
+@Component
+@Log4j2
+public class ChatArchive {
+    /**
+     * 每批从数据库取出的消息数
+     */
+    private static final int ARCHIVE_BATCH_SIZE = 1000;
+
+    @Resource
+    private ChatMapper chatMapper;
+
+    @Resource
+    private FindFriendProperties findFriendProperties;
+
+    /**
+     * 归档超过保留天数的消息
+     *
+     * @return 归档的消息数
+     * @throws IOException IOException
+     */
+    public long archive() throws IOException {
+        long cutoff = System.currentTimeMillis()
+                - TimeUnit.DAYS.toMillis(findFriendProperties.getChatArchiveRetentionDays());
+        Path dir = dir();
+        long archived = 0;
+        long afterId = 0;
+        while (true) {
+            List<Chat> batch = chatMapper.selectArchiveBatch(afterId, ARCHIVE_BATCH_SIZE);
+            // id按发送顺序分配，遇到第一条未过期的消息即停止
+            List<Chat> expired = new ArrayList<>(batch.size());
+            for (Chat chat : batch) {
+                if (chat.getCreateTime() == null || chat.getCreateTime().getTime() >= cutoff) {
+                    break;
+                }
+                expired.add(chat);
+            }
+            if (expired.isEmpty()) {
+                break;
+            }
+            Map<String, List<Chat>> conversations = new LinkedHashMap<>();
+            List<Long> ids = new ArrayList<>(expired.size());
+            for (Chat chat : expired) {
+                ids.add(chat.getId());
+                // 已删除的消息不归档，直接删除
+                if (chat.getIsDelete() == null || chat.getIsDelete() == 0) {
+                    conversations.computeIfAbsent(name(chat), key -> new ArrayList<>()).add(chat);
+                }
+            }
+            for (Map.Entry<String, List<Chat>> conversation : conversations.entrySet()) {
+                archived += ChatArchiveSegment.append(dir, conversation.getKey(), conversation.getValue());
+            }
+            chatMapper.deleteArchived(ids);
+            afterId = ids.get(ids.size() - 1);
+            if (expired.size() < batch.size()) {
+                break;
+            }
+        }
+        return archived;
+    }
+
+    /**
+     * 会话归档中id小于 beforeId 的消息，按id倒序
+     *
+     * @param name     会话名
+     * @param beforeId 只返回id小于该值的消息，为空时从最新一条开始
+     * @param limit    条数
+     * @return {@link List}<{@link Chat}>
+     */
+    public List<Chat> before(String name, Long beforeId, int limit) {
+        try {
+            return ChatArchiveSegment.readBefore(dir(), name, beforeId, limit);
+        } catch (IOException e) {
+            log.error("读取聊天归档失败", e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * 大厅的会话名
+     *
+     * @return {@link String}
+     */
+    public static String hallName() {
+        return "hall";
+    }
+
+    /**
+     * 队伍的会话名
+     *
+     * @param teamId 队伍id
+     * @return {@link String}
+     */
+    public static String teamName(long teamId) {
+        return "team-" + teamId;
+    }
+
+    /**
+     * 两人私聊的会话名，与方向无关
+     *
+     * @param userId 用户id
+     * @param toId   对方id
+     * @return {@link String}
+     */
+    public static String privateName(long userId, long toId) {
+        return "private-" + Math.min(userId, toId) + "-" + Math.max(userId, toId);
+    }
+
+    private static String name(Chat chat) {
+        if (chat.getChatType() == ChatConstant.TEAM_CHAT && chat.getTeamId() != null) {
+            return teamName(chat.getTeamId());
+        }
+        if (chat.getChatType() == ChatConstant.PRIVATE_CHAT && chat.getToId() != null) {
+            return privateName(chat.getFromId(), chat.getToId());
+        }
+        return hallName();
+    }
+
+    private Path dir() {
+        return Paths.get(findFriendProperties.getChatArchiveDir());
+    }
+}
@@ -0,0 +1,128 @@
+package asia.lhweb.findfriend.service.impl;
+
+import asia.lhweb.findfriend.constants.ChatConstant;
+import asia.lhweb.findfriend.mapper.ChatMapper;
+import lombok.extern.log4j.Log4j2;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import static asia.lhweb.findfriend.constants.RedisConstants.CHAT_CONVERSATION_BACKFILL_KEY;
+import static asia.lhweb.findfriend.constants.RedissonConstant.CHAT_CONVERSATION_BACKFILL_LOCK;
+
+/**
+ * 私聊会话键
+ * 私聊消息写入时带上与方向无关的会话键，按 (conversation_key, id) 索引分页。
+ * 升级前的消息由持有锁的节点在后台按id分段回填，进度记在 Redis 中，重启后继续；
+ * 回填完成前私聊记录仍按两个方向分别查询
+ *
+ * @author 罗汉
+ * @date 2024/05/28
+ */
+@Component
+@Log4j2
+public class ChatConversationKey {
+    /**
+     * 每次回填的id范围
+     */
+    private static final long BACKFILL_BATCH_SIZE = 1000;
+
+    private static final String DONE = "done";
+
+    @Resource
+    private ChatMapper chatMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    private volatile boolean backfilled;
+
+    private volatile boolean running;
+
+    private Thread backfiller;
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        backfiller = new Thread(this::backfill, "chat-conversation-backfill");
+        backfiller.setDaemon(true);
+        backfiller.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        backfiller.join(1000);
+    }
+
+    /**
+     * 两人私聊的会话键
+     *
+     * @param userId 用户id
+     * @param toId   对方id
+     * @return {@link String}
+     */
+    public static String of(long userId, long toId) {
+        return Math.min(userId, toId) + ":" + Math.max(userId, toId);
+    }
+
+    /**
+     * 历史消息是否都已有会话键，完成后不再查询 Redis
+     *
+     * @return boolean
+     */
+    public boolean isBackfilled() {
+        if (!backfilled) {
+            backfilled = DONE.equals(stringRedisTemplate.opsForValue().get(CHAT_CONVERSATION_BACKFILL_KEY));
+        }
+        return backfilled;
+    }
+
+    private void backfill() {
+        if (isBackfilled()) {
+            return;
+        }
+        // 同一时间只有一个节点回填，其他节点等回填完成的标记
+        RLock lock = redissonClient.getLock(CHAT_CONVERSATION_BACKFILL_LOCK);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            String progress = stringRedisTemplate.opsForValue().get(CHAT_CONVERSATION_BACKFILL_KEY);
+            if (DONE.equals(progress)) {
+                return;
+            }
+            long afterId = progress == null ? 0 : Long.parseLong(progress);
+            long updated = 0;
+            long begin = System.currentTimeMillis();
+            // 每批重新读取最大id，覆盖回填期间旧版本节点写入的消息
+            Long maxId = chatMapper.selectMaxId();
+            while (running && maxId != null && afterId < maxId) {
+                long untilId = Math.min(afterId + BACKFILL_BATCH_SIZE, maxId);
+                updated += chatMapper.backfillConversationKey(afterId, untilId, ChatConstant.PRIVATE_CHAT);
+                afterId = untilId;
+                stringRedisTemplate.opsForValue().set(CHAT_CONVERSATION_BACKFILL_KEY, String.valueOf(afterId));
+                maxId = chatMapper.selectMaxId();
+            }
+            if (running) {
+                stringRedisTemplate.opsForValue().set(CHAT_CONVERSATION_BACKFILL_KEY, DONE);
+                backfilled = true;
+                log.info("回填私聊会话键结束，更新 " + updated + " 条，耗时" + (System.currentTimeMillis() - begin));
+            }
+        } catch (Exception e) {
+            log.error("回填私聊会话键失败，下次启动继续", e);
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package asia.lhweb.findfriend.service.impl;
+
+import asia.lhweb.findfriend.constants.ChatConstant;
+import asia.lhweb.findfriend.model.domain.Chat;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static asia.lhweb.findfriend.constants.RedisConstants.CHAT_RECENT_KEY;
+import static asia.lhweb.findfriend.constants.RedisConstants.CHAT_RECENT_SIZE;
+import static asia.lhweb.findfriend.constants.RedisConstants.CHAT_RECENT_TTL;
+
+/**
+ * 会话最近消息
+ * 每个会话在 Redis 有序集合中保留最近 {@link asia.lhweb.findfriend.constants.RedisConstants#CHAT_RECENT_SIZE} 条消息，
+ * 以消息id为分数，发送时加入并按排名移除id最小的部分，读取不需要重建。多个节点乱序加入时，
+ * 被移除的总是id最小的消息，过期或加入失败时整体删除，因此始终是会话按id的一段连续后缀，
+ * 不足一页的部分从其中最早一条往前查数据库即可
+ *
+ * @author 罗汉
+ * @date 2024/05/25
+ */
+@Component
+@Log4j2
+public class ChatRecentBuffer {
+    private static final Gson GSON = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").create();
+
+    /**
+     * 加入、移除id最小的部分、续期
+     */
+    private static final DefaultRedisScript<Long> APPEND_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('ZADD', KEYS[1], ARGV[1], ARGV[2]) "
+                    + "redis.call('ZREMRANGEBYRANK', KEYS[1], 0, -tonumber(ARGV[3]) - 1) "
+                    + "redis.call('EXPIRE', KEYS[1], ARGV[4]) "
+                    + "return 1", Long.class);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 追加一条已分配id的消息
+     *
+     * @param chat 聊天
+     */
+    public void append(Chat chat) {
+        String key = key(chat);
+        try {
+            stringRedisTemplate.execute(APPEND_SCRIPT, Collections.singletonList(key), String.valueOf(chat.getId()),
+                    GSON.toJson(chat), String.valueOf(CHAT_RECENT_SIZE), String.valueOf(CHAT_RECENT_TTL));
+        } catch (Exception e) {
+            log.error("追加最近聊天记录失败", e);
+            // 缺了这条的集合不再是连续后缀，删除后从下一条重新开始
+            stringRedisTemplate.delete(key);
+        }
+    }
+
+    /**
+     * 最近消息中id小于 beforeId 的部分，按id倒序
+     *
+     * @param key      会话键
+     * @param beforeId 只返回id小于该值的消息，为空时从最新一条开始
+     * @param limit    条数
+     * @return {@link List}<{@link Chat}>
+     */
+    public List<Chat> recent(String key, Long beforeId, int limit) {
+        // id为整数，小于 beforeId 即分数不大于 beforeId - 1
+        double max = beforeId == null ? Long.MAX_VALUE : beforeId - 1;
+        Set<String> entries = stringRedisTemplate.opsForZSet().reverseRangeByScore(key, 0, max, 0, limit);
+        if (entries == null || entries.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return entries.stream()
+                .map(json -> GSON.fromJson(json, Chat.class))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 大厅的会话键
+     *
+     * @return {@link String}
+     */
+    public static String hallKey() {
+        return CHAT_RECENT_KEY + "hall";
+    }
+
+    /**
+     * 队伍的会话键
+     *
+     * @param teamId 队伍id
+     * @return {@link String}
+     */
+    public static String teamKey(long teamId) {
+        return CHAT_RECENT_KEY + "team:" + teamId;
+    }
+
+    /**
+     * 两人私聊的会话键，与方向无关
+     *
+     * @param userId 用户id
+     * @param toId   对方id
+     * @return {@link String}
+     */
+    public static String privateKey(long userId, long toId) {
+        return CHAT_RECENT_KEY + "private:" + ChatConversationKey.of(userId, toId);
+    }
+
+    private static String key(Chat chat) {
+        if (chat.getChatType() == ChatConstant.TEAM_CHAT) {
+            return teamKey(chat.getTeamId());
+        }
+        if (chat.getChatType() == ChatConstant.PRIVATE_CHAT) {
+            return privateKey(chat.getFromId(), chat.getToId());
+        }
+        return hallKey();
+    }
+}
@@ -2,32 +2,37 @@ package asia.lhweb.findfriend.service.impl;
 
 import asia.lhweb.findfriend.common.ErrorCode;
 import asia.lhweb.findfriend.constants.ChatConstant;
-import asia.lhweb.findfriend.constants.RedisConstants;
 import asia.lhweb.findfriend.constants.UserConstants;
 import asia.lhweb.findfriend.exception.BusinessException;
 import asia.lhweb.findfriend.mapper.ChatMapper;
 import asia.lhweb.findfriend.model.domain.Chat;
 import asia.lhweb.findfriend.model.domain.Team;
 import asia.lhweb.findfriend.model.domain.User;
+import asia.lhweb.findfriend.model.request.ChatReadRequest;
 import asia.lhweb.findfriend.model.request.ChatRequest;
 import asia.lhweb.findfriend.model.vo.ChatMessageVO;
+import asia.lhweb.findfriend.model.vo.ChatUnreadVO;
+import asia.lhweb.findfriend.model.vo.OnlineUserPageVO;
 import asia.lhweb.findfriend.model.vo.WebSocketVO;
 import asia.lhweb.findfriend.service.ChatService;
 import asia.lhweb.findfriend.service.TeamService;
 import asia.lhweb.findfriend.service.UserService;
+import asia.lhweb.findfriend.ws.ChatPresence;
 import cn.hutool.core.date.DateUtil;
-import cn.hutool.core.util.RandomUtil;
-import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import org.springframework.beans.BeanUtils;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
 /**
@@ -43,10 +48,25 @@ public class ChatServiceImpl extends ServiceImpl<ChatMapper, Chat>
         implements ChatService {
 
     @Resource
-    private RedisTemplate<String, Object> redisTemplate;
+    private UserService userService;
 
     @Resource
-    private UserService userService;
+    private ChatRecentBuffer chatRecentBuffer;
+
+    @Resource
+    private UserMembershipCache userMembershipCache;
+
+    @Resource
+    private ChatPresence chatPresence;
+
+    @Resource
+    private ChatUnreadCounter chatUnreadCounter;
+
+    @Resource
+    private ChatConversationKey chatConversationKey;
+
+    @Resource
+    private ChatArchive chatArchive;
 
     @Resource
     private TeamService teamService;
@@ -65,97 +85,14 @@ public class ChatServiceImpl extends ServiceImpl<ChatMapper, Chat>
         if (toId == null) {
             throw new BusinessException(ErrorCode.PARAMS_ERROR);
         }
-        List<ChatMessageVO> chatRecords = getCache(ChatConstant.CACHE_CHAT_PRIVATE, loginUser.getId() + String.valueOf(toId));
-        if (chatRecords != null) {
-            saveCache(ChatConstant.CACHE_CHAT_PRIVATE, loginUser.getId() + String.valueOf(toId), chatRecords);
-            return chatRecords;
-        }
-        LambdaQueryWrapper<Chat> chatLambdaQueryWrapper = new LambdaQueryWrapper<>();
-        chatLambdaQueryWrapper.
-                and(privateChat -> privateChat.eq(Chat::getFromId, loginUser.getId()).eq(Chat::getToId, toId)
-                        .or().
-                        eq(Chat::getToId, loginUser.getId()).eq(Chat::getFromId, toId)
-                ).eq(Chat::getChatType, chatType);
-        // 两方共有聊天
-        List<Chat> list = this.list(chatLambdaQueryWrapper);
-        List<ChatMessageVO> chatMessageVOList = list.stream().map(chat -> {
-            ChatMessageVO chatMessageVo = chatResult(loginUser.getId(),
-                    toId, chat.getText(), chatType,
-                    chat.getCreateTime());
-            if (chat.getFromId().equals(loginUser.getId())) {
-                chatMessageVo.setIsMy(true);
-            }
-            return chatMessageVo;
-        }).collect(Collectors.toList());
-        saveCache(ChatConstant.CACHE_CHAT_PRIVATE, loginUser.getId() + String.valueOf(toId), chatMessageVOList);
-        return chatMessageVOList;
-    }
-
-    /**
-     * 获取缓存
-     *
-     * @param redisKey redis键
-     * @param id       id
-     * @return {@link List}<{@link ChatMessageVO}>
-     */
-    @Override
-    public List<ChatMessageVO> getCache(String redisKey, String id) {
-        ValueOperations<String, Object> valueOperations = redisTemplate.opsForValue();
-        List<ChatMessageVO> chatRecords;
-        if (redisKey.equals(ChatConstant.CACHE_CHAT_HALL)) {
-            chatRecords = (List<ChatMessageVO>) valueOperations.get(redisKey);
-        } else {
-            chatRecords = (List<ChatMessageVO>) valueOperations.get(redisKey + id);
-        }
-        return chatRecords;
-    }
-
-    /**
-     * 保存缓存
-     *
-     * @param redisKey       redis键
-     * @param id             id
-     * @param chatMessageVOS 聊天消息vos
-     */
-    @Override
-    public void saveCache(String redisKey, String id, List<ChatMessageVO> chatMessageVOS) {
-        try {
-            ValueOperations<String, Object> valueOperations = redisTemplate.opsForValue();
-            // 解决缓存雪崩
-            int i = RandomUtil.randomInt(RedisConstants.MINIMUM_CACHE_RANDOM_TIME, RedisConstants.MAXIMUM_CACHE_RANDOM_TIME);
-            if (redisKey.equals(ChatConstant.CACHE_CHAT_HALL)) {
-                valueOperations.set(
-                        redisKey,
-                        chatMessageVOS,
-                        RedisConstants.MINIMUM_CACHE_RANDOM_TIME + i / RedisConstants.CACHE_TIME_OFFSET,
-                        TimeUnit.MINUTES);
-            } else {
-                valueOperations.set(
-                        redisKey + id,
-                        chatMessageVOS,
-                        RedisConstants.MINIMUM_CACHE_RANDOM_TIME + i / RedisConstants.CACHE_TIME_OFFSET,
-                        TimeUnit.MINUTES);
-            }
-        } catch (Exception e) {
-            log.error("redis set key error");
-        }
-    }
-
-    /**
-     * 聊天结果
-     *
-     * @param userId 用户id
-     * @param text   文本
-     * @return {@link ChatMessageVO}
-     */
-    private ChatMessageVO chatResult(Long userId, String text) {
-        ChatMessageVO chatMessageVo = new ChatMessageVO();
-        User fromUser = userService.getById(userId);
-        WebSocketVO fromWebSocketVo = new WebSocketVO();
-        BeanUtils.copyProperties(fromUser, fromWebSocketVo);
-        chatMessageVo.setFromUser(fromWebSocketVo);
-        chatMessageVo.setText(text);
-        return chatMessageVo;
+        // 两方共有聊天，会话键回填完成后走 (conversation_key, id) 索引
+        String conversationKey = ChatConversationKey.of(loginUser.getId(), toId);
+        boolean backfilled = chatConversationKey.isBackfilled();
+        return history(ChatRecentBuffer.privateKey(loginUser.getId(), toId),
+                ChatArchive.privateName(loginUser.getId(), toId), chatRequest, loginUser, null,
+                (beforeId, limit) -> backfilled
+                        ? baseMapper.selectConversationBefore(conversationKey, beforeId, limit)
+                        : baseMapper.selectPrivateBefore(loginUser.getId(), toId, chatType, beforeId, limit));
     }
 
     /**
@@ -185,21 +122,6 @@ public class ChatServiceImpl extends ServiceImpl<ChatMapper, Chat>
         return chatMessageVo;
     }
 
-    /**
-     * 删除密钥
-     *
-     * @param key 钥匙
-     * @param id  id
-     */
-    @Override
-    public void deleteKey(String key, String id) {
-        if (key.equals(ChatConstant.CACHE_CHAT_HALL)) {
-            redisTemplate.delete(key);
-        } else {
-            redisTemplate.delete(key + id);
-        }
-    }
-
     /**
      * 获取团队聊天
      *
@@ -214,87 +136,182 @@ public class ChatServiceImpl extends ServiceImpl<ChatMapper, Chat>
         if (teamId == null) {
             throw new BusinessException(ErrorCode.PARAMS_ERROR, "请求有误");
         }
-        List<ChatMessageVO> chatRecords = getCache(ChatConstant.CACHE_CHAT_TEAM, String.valueOf(teamId));
-        if (chatRecords != null) {
-            List<ChatMessageVO> chatMessageVOS = checkIsMyMessage(loginUser, chatRecords);
-            saveCache(ChatConstant.CACHE_CHAT_TEAM, String.valueOf(teamId), chatMessageVOS);
-            return chatMessageVOS;
-        }
         Team team = teamService.getById(teamId);
-        LambdaQueryWrapper<Chat> chatLambdaQueryWrapper = new LambdaQueryWrapper<>();
-        chatLambdaQueryWrapper.eq(Chat::getChatType, chatType).eq(Chat::getTeamId, teamId);
-        List<ChatMessageVO> chatMessageVOS = returnMessage(loginUser, team.getUserId(), chatLambdaQueryWrapper);
-        saveCache(ChatConstant.CACHE_CHAT_TEAM, String.valueOf(teamId), chatMessageVOS);
-        return chatMessageVOS;
+        if (team == null) {
+            throw new BusinessException(ErrorCode.NULL_ERROR, "队伍不存在");
+        }
+        return history(ChatRecentBuffer.teamKey(teamId), ChatArchive.teamName(teamId), chatRequest, loginUser,
+                team.getUserId(),
+                (beforeId, limit) -> baseMapper.selectTeamBefore(teamId, chatType, beforeId, limit));
     }
 
     /**
      * 获得大厅聊天
      *
-     * @param chatType  聊天类型
-     * @param loginUser 登录用户
+     * @param chatRequest 聊天请求
+     * @param chatType    聊天类型
+     * @param loginUser   登录用户
      * @return {@link List}<{@link ChatMessageVO}>
      */
     @Override
-    public List<ChatMessageVO> getHallChat(int chatType, User loginUser) {
-        List<ChatMessageVO> chatRecords = getCache(ChatConstant.CACHE_CHAT_HALL, String.valueOf(loginUser.getId()));
-        if (chatRecords != null) {
-            List<ChatMessageVO> chatMessageVOS = checkIsMyMessage(loginUser, chatRecords);
-            saveCache(ChatConstant.CACHE_CHAT_HALL, String.valueOf(loginUser.getId()), chatMessageVOS);
-            return chatMessageVOS;
+    public List<ChatMessageVO> getHallChat(ChatRequest chatRequest, int chatType, User loginUser) {
+        return history(ChatRecentBuffer.hallKey(), ChatArchive.hallName(), chatRequest, loginUser, null,
+                (beforeId, limit) -> baseMapper.selectHallBefore(chatType, beforeId, limit));
+    }
+
+    /**
+     * 在线用户快照，队伍房间只有成员可以查看
+     *
+     * @param teamId    队伍id，大厅为空
+     * @param cursor    上一页的游标，第一页为 0
+     * @param pageSize  每页条数
+     * @param loginUser 登录用户
+     * @return {@link OnlineUserPageVO}
+     */
+    @Override
+    public OnlineUserPageVO listOnlineUsers(Long teamId, long cursor, Integer pageSize, User loginUser) {
+        if (teamId != null && !userMembershipCache.get(loginUser.getId()).hasJoined(teamId)) {
+            throw new BusinessException(ErrorCode.NO_AUTH, "未加入队伍");
         }
-        LambdaQueryWrapper<Chat> chatLambdaQueryWrapper = new LambdaQueryWrapper<>();
-        chatLambdaQueryWrapper.eq(Chat::getChatType, chatType);
-        List<ChatMessageVO> chatMessageVOS = returnMessage(loginUser, null, chatLambdaQueryWrapper);
-        saveCache(ChatConstant.CACHE_CHAT_HALL, String.valueOf(loginUser.getId()), chatMessageVOS);
-        return chatMessageVOS;
+        int limit = pageSize == null || pageSize <= 0 ? ChatConstant.CHAT_ONLINE_PAGE_SIZE
+                : Math.min(pageSize, ChatConstant.CHAT_ONLINE_MAX_PAGE_SIZE);
+        return chatPresence.page(teamId, Math.max(cursor, 0), limit);
     }
 
     /**
-     * 支票是我信息
+     * 全部会话的未读数
      *
-     * @param loginUser   登录用户
-     * @param chatRecords 聊天记录
-     * @return {@link List}<{@link ChatMessageVO}>
+     * @param loginUser 登录用户
+     * @return {@link List}<{@link ChatUnreadVO}>
      */
-    private List<ChatMessageVO> checkIsMyMessage(User loginUser, List<ChatMessageVO> chatRecords) {
-        return chatRecords.stream().peek(chat -> {
-            if (chat.getFromUser().getId() != loginUser.getId() && chat.getIsMy()) {
-                chat.setIsMy(false);
-            }
-            if (chat.getFromUser().getId() == loginUser.getId() && !chat.getIsMy()) {
-                chat.setIsMy(true);
+    @Override
+    public List<ChatUnreadVO> listUnread(User loginUser) {
+        Set<Long> teamIds = userMembershipCache.get(loginUser.getId()).getJoinedTeamIds();
+        return chatUnreadCounter.unread(loginUser.getId(), teamIds == null ? Collections.emptySet() : teamIds);
+    }
+
+    /**
+     * 会话已读
+     *
+     * @param chatReadRequest 已读请求
+     * @param loginUser       登录用户
+     */
+    @Override
+    public void markRead(ChatReadRequest chatReadRequest, User loginUser) {
+        Integer chatType = chatReadRequest.getChatType();
+        if (chatType == null) {
+            throw new BusinessException(ErrorCode.PARAMS_ERROR, "聊天类型为空");
+        }
+        Long targetId;
+        if (chatType == ChatConstant.PRIVATE_CHAT) {
+            targetId = chatReadRequest.getToId();
+        } else if (chatType == ChatConstant.TEAM_CHAT) {
+            targetId = chatReadRequest.getTeamId();
+            if (targetId != null && !userMembershipCache.get(loginUser.getId()).hasJoined(targetId)) {
+                throw new BusinessException(ErrorCode.NO_AUTH, "未加入队伍");
             }
-        }).collect(Collectors.toList());
+        } else if (chatType == ChatConstant.HALL_CHAT) {
+            targetId = null;
+        } else {
+            throw new BusinessException(ErrorCode.PARAMS_ERROR, "聊天类型有误");
+        }
+        if (chatType != ChatConstant.HALL_CHAT && targetId == null) {
+            throw new BusinessException(ErrorCode.PARAMS_ERROR);
+        }
+        chatUnreadCounter.markRead(loginUser.getId(), chatType, targetId);
+    }
+
+    /**
+     * 按id倒序分页的聊天记录，先取会话最近消息，不足一页时从其中最早一条往前查数据库，
+     * 数据库也不足时再往前读归档
+     *
+     * @param key         会话键
+     * @param archiveName 归档会话名
+     * @param chatRequest 聊天请求
+     * @param loginUser   登录用户
+     * @param captainId   队长id，非队伍聊天为空
+     * @param query       按（beforeId, 条数）倒序查询数据库
+     * @return {@link List}<{@link ChatMessageVO}>，按时间正序
+     */
+    private List<ChatMessageVO> history(String key,
+                                        String archiveName,
+                                        ChatRequest chatRequest,
+                                        User loginUser,
+                                        Long captainId,
+                                        BiFunction<Long, Integer, List<Chat>> query) {
+        Long beforeId = chatRequest.getBeforeId();
+        Integer pageSize = chatRequest.getPageSize();
+        int limit = pageSize == null || pageSize <= 0 ? ChatConstant.CHAT_HISTORY_PAGE_SIZE
+                : Math.min(pageSize, ChatConstant.CHAT_HISTORY_MAX_PAGE_SIZE);
+        List<Chat> chatList = new ArrayList<>(chatRecentBuffer.recent(key, beforeId, limit));
+        if (chatList.size() < limit) {
+            Long olderThan = chatList.isEmpty() ? beforeId : chatList.get(chatList.size() - 1).getId();
+            chatList.addAll(query.apply(olderThan, limit - chatList.size()));
+        }
+        if (chatList.size() < limit) {
+            // 归档的消息都早于数据库中剩余的消息
+            Long olderThan = chatList.isEmpty() ? beforeId : chatList.get(chatList.size() - 1).getId();
+            chatList.addAll(chatArchive.before(archiveName, olderThan, limit - chatList.size()));
+        }
+        return returnMessage(loginUser, captainId, chatList);
     }
 
     /**
      * 返回消息
+     * 发送者和接收者一次批量查出，发送者已注销的消息不返回
      *
-     * @param loginUser              登录用户
-     * @param userId                 用户id
-     * @param chatLambdaQueryWrapper 聊天lambda查询包装器
-     * @return {@link List}<{@link ChatMessageVO}>
+     * @param loginUser 登录用户
+     * @param captainId 队长id
+     * @param chatList  按id倒序的聊天记录
+     * @return {@link List}<{@link ChatMessageVO}>，按时间正序
      */
-    private List<ChatMessageVO> returnMessage(User loginUser,
-                                              Long userId,
-                                              LambdaQueryWrapper<Chat> chatLambdaQueryWrapper) {
-        List<Chat> chatList = this.list(chatLambdaQueryWrapper);
-        return chatList.stream().map(chat -> {
-            ChatMessageVO chatMessageVo = chatResult(chat.getFromId(), chat.getText());
-            boolean isCaptain = userId != null && userId.equals(chat.getFromId());
-            if (userService.getById(chat.getFromId()).getRole() == UserConstants.ADMIN_ROLE || isCaptain) {
-                chatMessageVo.setIsAdmin(true);
+    private List<ChatMessageVO> returnMessage(User loginUser, Long captainId, List<Chat> chatList) {
+        Set<Long> userIds = new HashSet<>();
+        for (Chat chat : chatList) {
+            userIds.add(chat.getFromId());
+            if (chat.getToId() != null) {
+                userIds.add(chat.getToId());
             }
+        }
+        Map<Long, User> userMap = userIds.isEmpty() ? Collections.emptyMap()
+                : userService.listByIds(userIds).stream().collect(Collectors.toMap(User::getId, user -> user));
+        List<ChatMessageVO> chatMessageVOS = new ArrayList<>(chatList.size());
+        for (int i = chatList.size() - 1; i >= 0; i--) {
+            Chat chat = chatList.get(i);
+            User fromUser = userMap.get(chat.getFromId());
+            if (fromUser == null) {
+                continue;
+            }
+            ChatMessageVO chatMessageVo = new ChatMessageVO();
+            chatMessageVo.setId(chat.getId());
+            chatMessageVo.setFromUser(toWebSocketVO(fromUser));
+            User toUser = chat.getToId() == null ? null : userMap.get(chat.getToId());
+            if (toUser != null) {
+                chatMessageVo.setToUser(toWebSocketVO(toUser));
+            }
+            chatMessageVo.setTeamId(chat.getTeamId());
+            chatMessageVo.setText(chat.getText());
+            chatMessageVo.setChatType(chat.getChatType());
             if (chat.getFromId().equals(loginUser.getId())) {
                 chatMessageVo.setIsMy(true);
             }
-            chatMessageVo.setCreateTime(DateUtil.format(chat.getCreateTime(), "yyyy年MM月dd日 HH:mm:ss"));
-            return chatMessageVo;
-        }).collect(Collectors.toList());
+            if (chat.getChatType() == ChatConstant.PRIVATE_CHAT) {
+                chatMessageVo.setCreateTime(DateUtil.format(chat.getCreateTime(), "yyyy-MM-dd HH:mm:ss"));
+            } else {
+                boolean isCaptain = captainId != null && captainId.equals(chat.getFromId());
+                if (Objects.equals(fromUser.getRole(), UserConstants.ADMIN_ROLE) || isCaptain) {
+                    chatMessageVo.setIsAdmin(true);
+                }
+                chatMessageVo.setCreateTime(DateUtil.format(chat.getCreateTime(), "yyyy年MM月dd日 HH:mm:ss"));
+            }
+            chatMessageVOS.add(chatMessageVo);
+        }
+        return chatMessageVOS;
     }
-}
-
-
-
 
+    private static WebSocketVO toWebSocketVO(User user) {
+        WebSocketVO webSocketVo = new WebSocketVO();
+        BeanUtils.copyProperties(user, webSocketVo);
+        return webSocketVo;
+    }
+}
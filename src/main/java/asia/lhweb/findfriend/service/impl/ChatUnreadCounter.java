@@ -0,0 +1,172 @@
+package asia.lhweb.findfriend.service.impl;
+
+import asia.lhweb.findfriend.constants.ChatConstant;
+import asia.lhweb.findfriend.model.domain.Chat;
+import asia.lhweb.findfriend.model.vo.ChatUnreadVO;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static asia.lhweb.findfriend.constants.RedisConstants.CHAT_UNREAD_KEY;
+import static asia.lhweb.findfriend.constants.RedisConstants.CHAT_UNREAD_SEQ_KEY;
+
+/**
+ * 会话未读计数
+ * 每个用户一个 Redis 哈希，一次读取即可得到全部会话的未读数。
+ * 私聊发送时给对方的字段加一；大厅和队伍人数多，发送时只给会话序号加一，
+ * 用户哈希中记录已读到的序号，两者之差即未读数，不必逐个成员累加。
+ * 发送者自己的会话视为已读
+ *
+ * @author 罗汉
+ * @date 2024/05/28
+ */
+@Component
+@Log4j2
+public class ChatUnreadCounter {
+    private static final String HALL = "hall";
+
+    private static final String TEAM = "team:";
+
+    private static final String PRIVATE = "private:";
+
+    /**
+     * 会话序号加一，发送者已读到最新
+     */
+    private static final DefaultRedisScript<Long> GROUP_SEND_SCRIPT = new DefaultRedisScript<>(
+            "local seq = redis.call('HINCRBY', KEYS[1], ARGV[1], 1) "
+                    + "redis.call('HSET', KEYS[2], ARGV[1], seq) "
+                    + "return seq", Long.class);
+
+    /**
+     * 已读到会话当前序号
+     */
+    private static final DefaultRedisScript<Long> GROUP_READ_SCRIPT = new DefaultRedisScript<>(
+            "local seq = redis.call('HGET', KEYS[1], ARGV[1]) or '0' "
+                    + "redis.call('HSET', KEYS[2], ARGV[1], seq) "
+                    + "return tonumber(seq)", Long.class);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 发送消息后计数，失败只记录日志，不影响发送
+     *
+     * @param chat 聊天
+     */
+    public void onSend(Chat chat) {
+        try {
+            if (chat.getChatType() == ChatConstant.PRIVATE_CHAT) {
+                String fromId = String.valueOf(chat.getFromId());
+                String toId = String.valueOf(chat.getToId());
+                // 对方未读加一，自己与对方的会话清零，一次往返
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection stringRedisConnection = (StringRedisConnection) connection;
+                    stringRedisConnection.hIncrBy(CHAT_UNREAD_KEY + toId, PRIVATE + fromId, 1);
+                    stringRedisConnection.hDel(CHAT_UNREAD_KEY + fromId, PRIVATE + toId);
+                    return null;
+                });
+                return;
+            }
+            String field = chat.getChatType() == ChatConstant.TEAM_CHAT ? TEAM + chat.getTeamId() : HALL;
+            stringRedisTemplate.execute(GROUP_SEND_SCRIPT,
+                    Arrays.asList(CHAT_UNREAD_SEQ_KEY, CHAT_UNREAD_KEY + chat.getFromId()), field);
+        } catch (Exception e) {
+            log.error("更新未读计数失败", e);
+        }
+    }
+
+    /**
+     * 用户全部会话的未读数，只返回有未读的会话
+     *
+     * @param userId  用户id
+     * @param teamIds 用户加入的队伍id
+     * @return {@link List}<{@link ChatUnreadVO}>
+     */
+    @SuppressWarnings("unchecked")
+    public List<ChatUnreadVO> unread(long userId, Collection<Long> teamIds) {
+        String userKey = CHAT_UNREAD_KEY + userId;
+        List<String> groupFields = new ArrayList<>(teamIds.size() + 1);
+        groupFields.add(HALL);
+        teamIds.forEach(teamId -> groupFields.add(TEAM + teamId));
+        // 用户哈希和会话序号一次往返读取
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringRedisConnection = (StringRedisConnection) connection;
+            stringRedisConnection.hGetAll(userKey);
+            stringRedisConnection.hMGet(CHAT_UNREAD_SEQ_KEY, groupFields.toArray(new String[0]));
+            return null;
+        });
+        Map<String, String> fields = results.get(0) == null ? Collections.emptyMap() : (Map<String, String>) results.get(0);
+        List<String> seqs = (List<String>) results.get(1);
+        List<ChatUnreadVO> unreadList = new ArrayList<>();
+        Map<String, String> firstSeen = new HashMap<>();
+        for (int i = 0; i < groupFields.size(); i++) {
+            String field = groupFields.get(i);
+            long seq = seqs == null || seqs.get(i) == null ? 0 : Long.parseLong(seqs.get(i));
+            String read = fields.get(field);
+            if (read == null) {
+                // 第一次查看的会话从现在开始计数，不把历史消息算作未读
+                firstSeen.put(field, String.valueOf(seq));
+                continue;
+            }
+            long unread = seq - Long.parseLong(read);
+            if (unread > 0) {
+                Long teamId = HALL.equals(field) ? null : Long.valueOf(field.substring(TEAM.length()));
+                unreadList.add(toUnreadVO(teamId == null ? ChatConstant.HALL_CHAT : ChatConstant.TEAM_CHAT,
+                        teamId, null, unread));
+            }
+        }
+        fields.forEach((field, value) -> {
+            long unread = Long.parseLong(value);
+            if (field.startsWith(PRIVATE) && unread > 0) {
+                unreadList.add(toUnreadVO(ChatConstant.PRIVATE_CHAT, null,
+                        Long.valueOf(field.substring(PRIVATE.length())), unread));
+            }
+        });
+        if (!firstSeen.isEmpty()) {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringRedisConnection = (StringRedisConnection) connection;
+                firstSeen.forEach((field, seq) -> stringRedisConnection.hSetNX(userKey, field, seq));
+                return null;
+            });
+        }
+        return unreadList;
+    }
+
+    /**
+     * 会话已读，未读数清零
+     *
+     * @param userId   用户id
+     * @param chatType 聊天类型
+     * @param targetId 私聊为对方id，队伍为队伍id，大厅为空
+     */
+    public void markRead(long userId, int chatType, Long targetId) {
+        String userKey = CHAT_UNREAD_KEY + userId;
+        if (chatType == ChatConstant.PRIVATE_CHAT) {
+            stringRedisTemplate.opsForHash().delete(userKey, PRIVATE + targetId);
+            return;
+        }
+        String field = chatType == ChatConstant.TEAM_CHAT ? TEAM + targetId : HALL;
+        stringRedisTemplate.execute(GROUP_READ_SCRIPT, Arrays.asList(CHAT_UNREAD_SEQ_KEY, userKey), field);
+    }
+
+    private static ChatUnreadVO toUnreadVO(int chatType, Long teamId, Long toId, long unread) {
+        ChatUnreadVO chatUnreadVO = new ChatUnreadVO();
+        chatUnreadVO.setChatType(chatType);
+        chatUnreadVO.setTeamId(teamId);
+        chatUnreadVO.setToId(toId);
+        chatUnreadVO.setUnread(unread);
+        return chatUnreadVO;
+    }
+}
@@ -0,0 +1,388 @@
+package asia.lhweb.findfriend.service.impl;
+
+import asia.lhweb.findfriend.constants.ChatConstant;
+import asia.lhweb.findfriend.mapper.ChatMapper;
+import asia.lhweb.findfriend.model.domain.Chat;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static asia.lhweb.findfriend.constants.RedisConstants.CHAT_CLAIM_IDLE;
+import static asia.lhweb.findfriend.constants.RedisConstants.CHAT_FLUSH_BATCH_SIZE;
+import static asia.lhweb.findfriend.constants.RedisConstants.CHAT_FLUSH_INTERVAL;
+import static asia.lhweb.findfriend.constants.RedisConstants.CHAT_ID_KEY;
+import static asia.lhweb.findfriend.constants.RedisConstants.CHAT_STREAM_GROUP;
+import static asia.lhweb.findfriend.constants.RedisConstants.CHAT_STREAM_KEY;
+
+/**
+ * 聊天消息延迟写入
+ * 消息先由 Redis 计数器分配id并追加到 Redis 流，后台线程按数量或时间阈值取出一批，用一条多行
+ * INSERT IGNORE 写入 chat 表后再确认。id 在追加时按发送顺序分配，各会话的顺序与写入批次无关；
+ * 未确认的消息在重启后由本节点重放，宕机节点的消息空闲超时后由其他节点接管，重复写入被主键忽略。
+ * 写入条数少于批次时核对已存在的行：内容相同是重放；内容不同说明计数器回退（Redis 数据丢失后重建），
+ * 记录错误日志，把计数器推进到已有的最大id之后，给冲突的消息重新分配id再写入，不丢消息
+ *
+ * @author 罗汉
+ * @date 2024/05/24
+ */
+@Component
+@Log4j2
+public class ChatWriteBehind {
+    /**
+     * 计数器小于给定值时推进到该值，不会回退
+     */
+    private static final DefaultRedisScript<Long> RESEED_SCRIPT = new DefaultRedisScript<>(
+            "local current = tonumber(redis.call('GET', KEYS[1]) or '0') "
+                    + "local seed = tonumber(ARGV[1]) "
+                    + "if current < seed then redis.call('SET', KEYS[1], ARGV[1]) return seed end "
+                    + "return current", Long.class);
+
+    @Resource
+    private ChatMapper chatMapper;
+
+    @Resource
+    private ChatRecentBuffer chatRecentBuffer;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${server.port}")
+    private String port;
+
+    /**
+     * 消费者名，同一台机器重启后不变，以便重放上次未确认的消息
+     */
+    private String consumerName;
+
+    private volatile boolean running;
+
+    private Thread flusher;
+
+    private long lastClaimTime;
+
+    @PostConstruct
+    public void start() {
+        consumerName = hostName() + ":" + port;
+        createGroup();
+        seedId();
+        running = true;
+        flusher = new Thread(this::run, "chat-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        flusher.join(CHAT_FLUSH_INTERVAL * 4);
+    }
+
+    /**
+     * 追加一条消息，分配id后立即返回，同时追加到会话最近消息
+     *
+     * @param chat 聊天
+     * @return 消息id
+     */
+    public long append(Chat chat) {
+        Long id = stringRedisTemplate.opsForValue().increment(CHAT_ID_KEY);
+        if (id == null) {
+            throw new IllegalStateException("分配聊天消息id失败");
+        }
+        chat.setId(id);
+        if (chat.getCreateTime() == null) {
+            chat.setCreateTime(new Date());
+        }
+        setConversationKey(chat);
+        Map<String, String> fields = new HashMap<>();
+        fields.put("id", String.valueOf(id));
+        fields.put("fromId", String.valueOf(chat.getFromId()));
+        fields.put("text", chat.getText());
+        fields.put("chatType", String.valueOf(chat.getChatType()));
+        fields.put("createTime", String.valueOf(chat.getCreateTime().getTime()));
+        if (chat.getToId() != null) {
+            fields.put("toId", String.valueOf(chat.getToId()));
+        }
+        if (chat.getTeamId() != null) {
+            fields.put("teamId", String.valueOf(chat.getTeamId()));
+        }
+        stringRedisTemplate.opsForStream().add(CHAT_STREAM_KEY, fields);
+        chatRecentBuffer.append(chat);
+        return id;
+    }
+
+    private void run() {
+        // 启动后先重放本节点上次未确认的消息
+        boolean replaying = true;
+        while (running) {
+            try {
+                if (replaying) {
+                    List<MapRecord<String, Object, Object>> pending = read(ReadOffset.from("0"),
+                            CHAT_FLUSH_BATCH_SIZE, null);
+                    if (!pending.isEmpty()) {
+                        flush(pending);
+                        continue;
+                    }
+                    replaying = false;
+                }
+                if (claimIdle()) {
+                    replaying = true;
+                    continue;
+                }
+                List<MapRecord<String, Object, Object>> batch = collect();
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                }
+            } catch (Exception e) {
+                log.error("聊天消息写入失败，稍后重试", e);
+                // 已读取未确认的消息下一轮重新读取
+                replaying = true;
+                createGroup();
+                sleep();
+            }
+        }
+    }
+
+    /**
+     * 读取新消息，满一批或第一条消息等待超过时间阈值时返回
+     *
+     * @return 消息
+     */
+    private List<MapRecord<String, Object, Object>> collect() {
+        List<MapRecord<String, Object, Object>> batch = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + CHAT_FLUSH_INTERVAL;
+        while (running && batch.size() < CHAT_FLUSH_BATCH_SIZE) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                break;
+            }
+            batch.addAll(read(ReadOffset.lastConsumed(), CHAT_FLUSH_BATCH_SIZE - batch.size(), Duration.ofMillis(wait)));
+        }
+        return batch;
+    }
+
+    /**
+     * 把其他节点空闲超时的未确认消息转到本节点，之后作为本节点的未确认消息重放
+     *
+     * @return 是否接管了消息
+     */
+    private boolean claimIdle() {
+        long now = System.currentTimeMillis();
+        if (now - lastClaimTime < CHAT_CLAIM_IDLE / 2) {
+            return false;
+        }
+        lastClaimTime = now;
+        PendingMessages pendingMessages = stringRedisTemplate.opsForStream().pending(CHAT_STREAM_KEY,
+                CHAT_STREAM_GROUP, Range.unbounded(), CHAT_FLUSH_BATCH_SIZE);
+        RecordId[] idleIds = pendingMessages.stream()
+                .filter(message -> !consumerName.equals(message.getConsumerName()))
+                .filter(message -> message.getElapsedTimeSinceLastDelivery().toMillis() > CHAT_CLAIM_IDLE)
+                .map(PendingMessage::getId)
+                .toArray(RecordId[]::new);
+        if (idleIds.length == 0) {
+            return false;
+        }
+        RedisStreamCommands.XClaimOptions claimOptions = RedisStreamCommands.XClaimOptions
+                .minIdleMs(CHAT_CLAIM_IDLE).ids(idleIds);
+        List<RecordId> claimed = stringRedisTemplate.execute((RedisCallback<List<RecordId>>) connection ->
+                connection.streamCommands().xClaimJustId(CHAT_STREAM_KEY.getBytes(StandardCharsets.UTF_8),
+                        CHAT_STREAM_GROUP, consumerName, claimOptions));
+        log.info("接管未确认的聊天消息 " + (claimed == null ? 0 : claimed.size()) + " 条");
+        return claimed != null && !claimed.isEmpty();
+    }
+
+    /**
+     * 按id顺序一条语句写入，写入成功后确认并从流中删除
+     *
+     * @param records 消息
+     */
+    private void flush(List<MapRecord<String, Object, Object>> records) {
+        List<Chat> chatList = records.stream()
+                .map(ChatWriteBehind::toChat)
+                .sorted(Comparator.comparing(Chat::getId))
+                .collect(Collectors.toList());
+        int inserted = chatMapper.insertIgnoreBatch(chatList);
+        if (inserted < chatList.size()) {
+            rewriteConflicts(chatList);
+        }
+        RecordId[] recordIds = records.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+        StreamOperations<String, Object, Object> streamOperations = stringRedisTemplate.opsForStream();
+        streamOperations.acknowledge(CHAT_STREAM_KEY, CHAT_STREAM_GROUP, recordIds);
+        streamOperations.delete(CHAT_STREAM_KEY, recordIds);
+    }
+
+    /**
+     * 核对被忽略的消息，与已有行内容不同的重新分配id后写入
+     *
+     * @param chatList 本批消息
+     */
+    private void rewriteConflicts(List<Chat> chatList) {
+        Map<Long, Chat> written = chatMapper.selectWrittenByIds(
+                        chatList.stream().map(Chat::getId).collect(Collectors.toList()))
+                .stream().collect(Collectors.toMap(Chat::getId, Function.identity()));
+        List<Chat> conflicts = new ArrayList<>();
+        for (Chat chat : chatList) {
+            Chat existing = written.get(chat.getId());
+            if (existing != null && !sameMessage(existing, chat)) {
+                conflicts.add(chat);
+            }
+        }
+        if (conflicts.isEmpty()) {
+            return;
+        }
+        log.error("聊天消息id与已有消息冲突 " + conflicts.size() + " 条，计数器已回退，重新分配id："
+                + conflicts.stream().map(Chat::getId).collect(Collectors.toList()));
+        Long seed = stringRedisTemplate.execute(RESEED_SCRIPT, Collections.singletonList(CHAT_ID_KEY),
+                String.valueOf(maxKnownId()));
+        log.error("聊天消息id计数器已推进到 " + seed);
+        for (Chat chat : conflicts) {
+            Long id = stringRedisTemplate.opsForValue().increment(CHAT_ID_KEY);
+            if (id == null) {
+                throw new IllegalStateException("分配聊天消息id失败");
+            }
+            chat.setId(id);
+        }
+        if (chatMapper.insertIgnoreBatch(conflicts) < conflicts.size()) {
+            throw new IllegalStateException("重新分配id后聊天消息仍写入失败");
+        }
+    }
+
+    private static boolean sameMessage(Chat existing, Chat chat) {
+        return Objects.equals(existing.getFromId(), chat.getFromId())
+                && Objects.equals(existing.getToId(), chat.getToId())
+                && Objects.equals(existing.getTeamId(), chat.getTeamId())
+                && Objects.equals(existing.getChatType(), chat.getChatType())
+                && Objects.equals(existing.getText(), chat.getText());
+    }
+
+    private List<MapRecord<String, Object, Object>> read(ReadOffset readOffset, int count, Duration block) {
+        StreamReadOptions readOptions = StreamReadOptions.empty().count(count);
+        if (block != null) {
+            readOptions = readOptions.block(block);
+        }
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                Consumer.from(CHAT_STREAM_GROUP, consumerName), readOptions,
+                StreamOffset.create(CHAT_STREAM_KEY, readOffset));
+        return records == null ? Collections.emptyList() : records;
+    }
+
+    /**
+     * 创建消费组，流不存在时一并创建
+     */
+    private void createGroup() {
+        try {
+            stringRedisTemplate.opsForStream().createGroup(CHAT_STREAM_KEY, ReadOffset.from("0"), CHAT_STREAM_GROUP);
+        } catch (Exception e) {
+            // 消费组已存在
+            if (e.getMessage() == null || !e.getMessage().contains("BUSYGROUP")) {
+                log.error("创建聊天消息消费组失败", e);
+            }
+        }
+    }
+
+    /**
+     * 计数器不存在时（首次启动或 Redis 数据丢失）从数据库和流中已有的最大id开始
+     */
+    private void seedId() {
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(CHAT_ID_KEY))) {
+            return;
+        }
+        stringRedisTemplate.opsForValue().setIfAbsent(CHAT_ID_KEY, String.valueOf(maxKnownId()));
+    }
+
+    /**
+     * 数据库和流中已有的最大id
+     *
+     * @return long
+     */
+    private long maxKnownId() {
+        Long maxId = chatMapper.selectMaxId();
+        long seed = maxId == null ? 0 : maxId;
+        List<MapRecord<String, Object, Object>> last = stringRedisTemplate.opsForStream().reverseRange(
+                CHAT_STREAM_KEY, Range.unbounded(), RedisZSetCommands.Limit.limit().count(1));
+        if (last != null && !last.isEmpty()) {
+            seed = Math.max(seed, Long.parseLong(String.valueOf(last.get(0).getValue().get("id"))));
+        }
+        return seed;
+    }
+
+    private static Chat toChat(MapRecord<String, Object, Object> record) {
+        Map<Object, Object> fields = record.getValue();
+        Chat chat = new Chat();
+        chat.setId(Long.parseLong(String.valueOf(fields.get("id"))));
+        chat.setFromId(Long.parseLong(String.valueOf(fields.get("fromId"))));
+        chat.setText((String) fields.get("text"));
+        chat.setChatType(Integer.parseInt(String.valueOf(fields.get("chatType"))));
+        Date createTime = new Date(Long.parseLong(String.valueOf(fields.get("createTime"))));
+        chat.setCreateTime(createTime);
+        chat.setUpdateTime(createTime);
+        if (fields.get("toId") != null) {
+            chat.setToId(Long.parseLong(String.valueOf(fields.get("toId"))));
+        }
+        if (fields.get("teamId") != null) {
+            chat.setTeamId(Long.parseLong(String.valueOf(fields.get("teamId"))));
+        }
+        setConversationKey(chat);
+        return chat;
+    }
+
+    /**
+     * 私聊消息由双方id得出会话键，不写入流
+     *
+     * @param chat 聊天
+     */
+    private static void setConversationKey(Chat chat) {
+        if (chat.getChatType() == ChatConstant.PRIVATE_CHAT && chat.getToId() != null) {
+            chat.setConversationKey(ChatConversationKey.of(chat.getFromId(), chat.getToId()));
+        }
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return UUID.randomUUID().toString();
+        }
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(CHAT_FLUSH_INTERVAL);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -7,6 +7,7 @@ import asia.lhweb.findfriend.exception.BusinessException;
 import asia.lhweb.findfriend.mapper.MessageMapper;
 import asia.lhweb.findfriend.model.domain.Message;
 import asia.lhweb.findfriend.model.domain.User;
+import asia.lhweb.findfriend.model.enums.CacheNamespaceEnum;
 import asia.lhweb.findfriend.model.enums.MessageTypeEnum;
 import asia.lhweb.findfriend.model.vo.BlogCommentsVO;
 import asia.lhweb.findfriend.model.vo.BlogVO;
@@ -14,6 +15,7 @@ import asia.lhweb.findfriend.model.vo.MessageVO;
 import asia.lhweb.findfriend.model.vo.UserVO;
 import asia.lhweb.findfriend.service.BlogCommentsService;
 import asia.lhweb.findfriend.service.BlogService;
+import asia.lhweb.findfriend.service.CacheNamespaceService;
 import asia.lhweb.findfriend.service.MessageService;
 import asia.lhweb.findfriend.service.UserService;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
@@ -57,6 +59,9 @@ public class MessageServiceImpl extends ServiceImpl<MessageMapper, Message>
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheNamespaceService cacheNamespaceService;
+
     @Override
     public long getMessageNum(Long userId) {
         LambdaQueryWrapper<Message> messageLambdaQueryWrapper = new LambdaQueryWrapper<>();
@@ -120,7 +125,7 @@ public class MessageServiceImpl extends ServiceImpl<MessageMapper, Message>
 
     @Override
     public List<BlogVO> getUserBlog(Long userId) {
-        String key = RedisConstants.BLOG_FEED_KEY + userId;
+        String key = cacheNamespaceService.key(CacheNamespaceEnum.FEED, String.valueOf(userId));
         Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet()
                 .reverseRangeByScoreWithScores(key, 0, System.currentTimeMillis(), 0, SystemConstants.PAGE_SIZE);
         if (typedTuples == null || typedTuples.isEmpty()) {
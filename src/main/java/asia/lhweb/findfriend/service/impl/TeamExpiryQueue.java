@@ -0,0 +1,175 @@
+package asia.lhweb.findfriend.service.impl;
+
+import asia.lhweb.findfriend.mapper.TeamMapper;
+import asia.lhweb.findfriend.model.domain.Team;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static asia.lhweb.findfriend.constants.RedisConstants.TEAM_EXPIRE_CLAIM_TTL;
+import static asia.lhweb.findfriend.constants.RedisConstants.TEAM_EXPIRE_KEY;
+import static asia.lhweb.findfriend.utils.TransactionUtils.afterCommit;
+
+/**
+ * 队伍到期队列
+ * Redis 有序集合，分值为到期时间；取出到期队伍时把分值推后 {@link asia.lhweb.findfriend.constants.RedisConstants#TEAM_EXPIRE_CLAIM_TTL} 毫秒作为租约，
+ * 解散成功后再删除，节点中途宕机时租约到期后会被重新取出
+ *
+ * @author 罗汉
+ * @date 2024/05/18
+ */
+@Component
+@Log4j2
+public class TeamExpiryQueue {
+    /**
+     * 补录时每批装载的队伍数
+     */
+    private static final int BACKFILL_BATCH_SIZE = 1000;
+
+    /**
+     * 取出到期队伍并续租
+     * ARGV: 当前时间、租约到期时间、数量
+     */
+    private static final DefaultRedisScript<List> CLAIM_SCRIPT = new DefaultRedisScript<>(
+            "local ids = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[3]) "
+                    + "for i = 1, #ids do redis.call('ZADD', KEYS[1], ARGV[2], ids[i]) end "
+                    + "return ids", List.class);
+
+    /**
+     * 删除仍处于本次租约的队伍，租约期间到期时间被修改的队伍保留
+     * ARGV: 租约到期时间、队伍id...
+     */
+    private static final DefaultRedisScript<Long> ACK_SCRIPT = new DefaultRedisScript<>(
+            "local count = 0 "
+                    + "for i = 2, #ARGV do "
+                    + "if tonumber(redis.call('ZSCORE', KEYS[1], ARGV[i])) == tonumber(ARGV[1]) then "
+                    + "count = count + redis.call('ZREM', KEYS[1], ARGV[i]) end "
+                    + "end return count", Long.class);
+
+    @Resource
+    private TeamMapper teamMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 队伍创建或到期时间修改后登记，到期时间为空时移出队列，在事务提交后执行
+     *
+     * @param teamId     队伍id
+     * @param expireTime 到期时间
+     */
+    public void schedule(long teamId, Date expireTime) {
+        afterCommit(() -> {
+            if (expireTime == null) {
+                stringRedisTemplate.opsForZSet().remove(TEAM_EXPIRE_KEY, String.valueOf(teamId));
+            } else {
+                stringRedisTemplate.opsForZSet().add(TEAM_EXPIRE_KEY, String.valueOf(teamId), expireTime.getTime());
+            }
+        });
+    }
+
+    /**
+     * 队伍删除后移出队列，在事务提交后执行
+     *
+     * @param teamId 队伍id
+     */
+    public void cancel(long teamId) {
+        afterCommit(() -> stringRedisTemplate.opsForZSet().remove(TEAM_EXPIRE_KEY, String.valueOf(teamId)));
+    }
+
+    /**
+     * 取出已到期的队伍
+     *
+     * @param now   当前时间
+     * @param limit 数量
+     * @return 本次租约，没有到期队伍时为空
+     */
+    public Claim claim(long now, int limit) {
+        long leaseUntil = now + TEAM_EXPIRE_CLAIM_TTL;
+        List<?> ids = stringRedisTemplate.execute(CLAIM_SCRIPT, Collections.singletonList(TEAM_EXPIRE_KEY),
+                String.valueOf(now), String.valueOf(leaseUntil), String.valueOf(limit));
+        if (ids == null || ids.isEmpty()) {
+            return null;
+        }
+        List<Long> teamIdList = ids.stream().map(id -> Long.parseLong(id.toString())).collect(Collectors.toList());
+        return new Claim(teamIdList, leaseUntil);
+    }
+
+    /**
+     * 处理完成后移出队列
+     *
+     * @param claim 租约
+     */
+    public void ack(Claim claim) {
+        List<String> args = new ArrayList<>(claim.teamIds.size() + 1);
+        args.add(String.valueOf(claim.leaseUntil));
+        claim.teamIds.forEach(teamId -> args.add(String.valueOf(teamId)));
+        stringRedisTemplate.execute(ACK_SCRIPT, Collections.singletonList(TEAM_EXPIRE_KEY), args.toArray());
+    }
+
+    /**
+     * 按 id 分批把设置了到期时间的队伍登记到队列，只在队列为空时执行
+     *
+     * @return 登记的队伍数
+     */
+    public long backfill() {
+        Long size = stringRedisTemplate.opsForZSet().zCard(TEAM_EXPIRE_KEY);
+        if (size != null && size > 0) {
+            return 0;
+        }
+        long count = 0;
+        long lastId = 0;
+        while (true) {
+            LambdaQueryWrapper<Team> teamLambdaQueryWrapper = new LambdaQueryWrapper<>();
+            teamLambdaQueryWrapper.select(Team::getId, Team::getExpireTime)
+                    .gt(Team::getId, lastId)
+                    .isNotNull(Team::getExpireTime)
+                    .orderByAsc(Team::getId)
+                    .last("limit " + BACKFILL_BATCH_SIZE);
+            List<Team> teamList = teamMapper.selectList(teamLambdaQueryWrapper);
+            if (teamList.isEmpty()) {
+                break;
+            }
+            Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(teamList.size());
+            for (Team team : teamList) {
+                tuples.add(new DefaultTypedTuple<>(
+                        String.valueOf(team.getId()), (double) team.getExpireTime().getTime()));
+            }
+            stringRedisTemplate.opsForZSet().add(TEAM_EXPIRE_KEY, tuples);
+            count += teamList.size();
+            lastId = teamList.get(teamList.size() - 1).getId();
+        }
+        log.info("登记到期队伍 " + count + " 个");
+        return count;
+    }
+
+    /**
+     * 一次取出的到期队伍
+     */
+    public static class Claim {
+        private final List<Long> teamIds;
+        private final long leaseUntil;
+
+        Claim(List<Long> teamIds, long leaseUntil) {
+            this.teamIds = teamIds;
+            this.leaseUntil = leaseUntil;
+        }
+
+        public List<Long> getTeamIds() {
+            return teamIds;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package asia.lhweb.findfriend.service.impl;
+
+import asia.lhweb.findfriend.mapper.TeamMapper;
+import asia.lhweb.findfriend.mapper.UserTeamMapper;
+import asia.lhweb.findfriend.model.domain.Team;
+import asia.lhweb.findfriend.model.vo.TeamMemberSummaryVO;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 队伍已加入人数计数器
+ * 以 team.join_num 为准，与关系表的增删在同一事务中条件更新；列表、详情等读取队伍时直接带出人数，不再单独统计
+ *
+ * @author 罗汉
+ * @date 2024/05/15
+ */
+@Component
+@Log4j2
+public class TeamMemberCounter {
+    /**
+     * 校正时每批队伍数
+     */
+    private static final int RECONCILE_BATCH_SIZE = 500;
+
+    @Resource
+    private TeamMapper teamMapper;
+
+    @Resource
+    private UserTeamMapper userTeamMapper;
+
+    /**
+     * 占用一个名额，队伍已满时返回 false
+     *
+     * @param teamId 队伍id
+     * @return boolean
+     */
+    public boolean increment(long teamId) {
+        return teamMapper.incrementJoinNum(teamId) > 0;
+    }
+
+    /**
+     * 释放一个名额
+     *
+     * @param teamId 队伍id
+     */
+    public void decrement(long teamId) {
+        teamMapper.decrementJoinNum(teamId);
+    }
+
+    /**
+     * 按 id 分批比对关系表，修正计数列
+     *
+     * @return 修正的队伍数
+     */
+    public long reconcile() {
+        long repaired = 0;
+        long lastId = 0;
+        while (true) {
+            LambdaQueryWrapper<Team> teamLambdaQueryWrapper = new LambdaQueryWrapper<>();
+            teamLambdaQueryWrapper.select(Team::getId, Team::getJoinNum)
+                    .gt(Team::getId, lastId)
+                    .orderByAsc(Team::getId)
+                    .last("limit " + RECONCILE_BATCH_SIZE);
+            List<Team> teamList = teamMapper.selectList(teamLambdaQueryWrapper);
+            if (teamList.isEmpty()) {
+                break;
+            }
+            List<Long> teamIdList = teamList.stream().map(Team::getId).collect(Collectors.toList());
+            Map<Long, Long> memberNumMap = userTeamMapper.countMembers(teamIdList).stream()
+                    .collect(Collectors.toMap(TeamMemberSummaryVO::getTeamId, TeamMemberSummaryVO::getMemberNum));
+            for (Team team : teamList) {
+                long joinNum = team.getJoinNum() == null ? 0 : team.getJoinNum();
+                if (joinNum != memberNumMap.getOrDefault(team.getId(), 0L)) {
+                    // 统计期间可能有人加入或退出，由数据库在一条语句中重新统计
+                    teamMapper.recountJoinNum(team.getId());
+                    Team current = teamMapper.selectById(team.getId());
+                    long recounted = current == null || current.getJoinNum() == null ? 0 : current.getJoinNum();
+                    log.warn("队伍 " + team.getId() + " 人数由 " + joinNum + " 校正为 " + recounted);
+                    repaired++;
+                }
+            }
+            lastId = teamIdList.get(teamIdList.size() - 1);
+        }
+        return repaired;
+    }
+}
@@ -0,0 +1,136 @@
+package asia.lhweb.findfriend.service.impl;
+
+import asia.lhweb.findfriend.constants.TeamConstants;
+import asia.lhweb.findfriend.mapper.UserTeamMapper;
+import asia.lhweb.findfriend.model.domain.Team;
+import asia.lhweb.findfriend.model.domain.User;
+import asia.lhweb.findfriend.model.vo.TeamMemberSummaryVO;
+import asia.lhweb.findfriend.model.vo.TeamVO;
+import asia.lhweb.findfriend.model.vo.UserVO;
+import asia.lhweb.findfriend.service.UserService;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.BeanUtils;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 队伍分页组装
+ * 一页队伍固定只需两次查询：最早加入的成员（一次 GROUP BY）、创建人和成员头像（一次 IN）；当前用户是否已加入取自用户队伍关系缓存
+ *
+ * @author 罗汉
+ * @date 2024/05/14
+ */
+@Component
+public class TeamPageAssembler {
+
+    @Resource
+    private UserService userService;
+
+    @Resource
+    private UserMembershipCache userMembershipCache;
+
+    @Resource
+    private UserTeamMapper userTeamMapper;
+
+    /**
+     * 组装分页
+     *
+     * @param teamPage    队伍分页
+     * @param loginUserId 登录用户id，为空时不查询是否已加入
+     * @return {@link Page}<{@link TeamVO}>
+     */
+    public Page<TeamVO> assemble(Page<Team> teamPage, Long loginUserId) {
+        Page<TeamVO> teamVoPage = new Page<>();
+        BeanUtils.copyProperties(teamPage, teamVoPage, "records");
+        teamVoPage.setRecords(assemble(teamPage.getRecords(), loginUserId));
+        return teamVoPage;
+    }
+
+    /**
+     * 组装队伍列表
+     *
+     * @param teamList    队伍列表
+     * @param loginUserId 登录用户id，为空时不查询是否已加入
+     * @return {@link List}<{@link TeamVO}>
+     */
+    public List<TeamVO> assemble(List<Team> teamList, Long loginUserId) {
+        List<Team> teams = teamList.stream()
+                .filter(team -> team.getUserId() != null)
+                .collect(Collectors.toList());
+        if (teams.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Long> teamIdList = teams.stream().map(Team::getId).collect(Collectors.toList());
+        // 最早加入的成员，人数直接取队伍的计数列
+        Map<Long, TeamMemberSummaryVO> summaryMap = userTeamMapper
+                .listMemberSummary(teamIdList, TeamConstants.MAXIMUM_JOINED_USER_AVATAR_NUM)
+                .stream()
+                .collect(Collectors.toMap(TeamMemberSummaryVO::getTeamId, Function.identity()));
+        Map<Long, List<Long>> avatarUserIdMap = new HashMap<>(summaryMap.size());
+        Set<Long> userIdSet = new LinkedHashSet<>();
+        teams.forEach(team -> userIdSet.add(team.getUserId()));
+        summaryMap.forEach((teamId, summary) -> {
+            List<Long> avatarUserIdList = parseUserIds(summary.getFirstUserIds());
+            avatarUserIdMap.put(teamId, avatarUserIdList);
+            userIdSet.addAll(avatarUserIdList);
+        });
+        // 创建人和成员头像
+        Map<Long, User> userMap = userService.listByIds(userIdSet).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+        // 当前用户已加入的队伍
+        Set<Long> joinedTeamIdSet = loginUserId == null
+                ? Collections.emptySet() : userMembershipCache.get(loginUserId).getJoinedTeamIds();
+        List<TeamVO> teamVOList = new ArrayList<>(teams.size());
+        for (Team team : teams) {
+            TeamVO teamVO = new TeamVO();
+            BeanUtils.copyProperties(team, teamVO);
+            User creator = userMap.get(team.getUserId());
+            // 脱敏用户信息
+            if (creator != null) {
+                UserVO userVO = new UserVO();
+                BeanUtils.copyProperties(creator, userVO);
+                teamVO.setCreateUser(userVO);
+                teamVO.setLeaderName(creator.getUsername());
+            }
+            teamVO.setHasJoinNum(team.getJoinNum() == null ? 0L : team.getJoinNum());
+            List<String> joinedUserAvatarList = avatarUserIdMap.getOrDefault(team.getId(), Collections.emptyList())
+                    .stream()
+                    .map(userMap::get)
+                    .filter(user -> user != null)
+                    .map(User::getAvatarUrl)
+                    .collect(Collectors.toList());
+            teamVO.setJoinedUserAvatars(joinedUserAvatarList);
+            teamVO.setHasJoin(joinedTeamIdSet.contains(team.getId()));
+            teamVOList.add(teamVO);
+        }
+        return teamVOList;
+    }
+
+    /**
+     * 解析逗号分隔的用户id
+     *
+     * @param userIds 用户id
+     * @return {@link List}<{@link Long}>
+     */
+    private List<Long> parseUserIds(String userIds) {
+        if (StringUtils.isBlank(userIds)) {
+            return Collections.emptyList();
+        }
+        List<Long> userIdList = new ArrayList<>();
+        for (String userId : userIds.split(",")) {
+            userIdList.add(Long.parseLong(userId.trim()));
+        }
+        return userIdList;
+    }
+}
@@ -0,0 +1,195 @@
+package asia.lhweb.findfriend.service.impl;
+
+import asia.lhweb.findfriend.model.request.TeamQueryRequest;
+import asia.lhweb.findfriend.model.vo.TeamVO;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+import static asia.lhweb.findfriend.constants.RedisConstants.TEAM_PAGE_CACHE_MAX_PAGES;
+import static asia.lhweb.findfriend.constants.RedisConstants.TEAM_PAGE_GENERATION_KEY;
+import static asia.lhweb.findfriend.constants.RedisConstants.TEAM_PAGE_INDEX_KEY;
+import static asia.lhweb.findfriend.constants.RedisConstants.TEAM_PAGE_KEY;
+import static asia.lhweb.findfriend.constants.RedisConstants.TEAM_PAGE_TTL;
+import static asia.lhweb.findfriend.utils.TransactionUtils.afterCommit;
+
+/**
+ * 公开队伍列表页缓存
+ * 只缓存默认条件（公开、无搜索条件）的前几页，页面内容不含当前用户是否已加入；
+ * 每个队伍记录其所在的页，队伍变化时只删除这些页，队伍被删除时再删除其后的页。
+ * 每次删除都会递增代数，代数在组装期间变化的页不写入，避免旧数据覆盖
+ *
+ * @author 罗汉
+ * @date 2024/05/20
+ */
+@Component
+public class TeamPageCache {
+    /**
+     * 日期带时区和毫秒，各节点读写一致
+     */
+    private static final Gson GSON = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").create();
+
+    private static final Type PAGE_TYPE = new TypeToken<Page<TeamVO>>() {
+    }.getType();
+
+    /**
+     * 写入页面并登记队伍所在的页，代数已变化时不写入
+     * KEYS: 代数、页、队伍所在页的登记键...；ARGV: 组装前的代数、过期秒数、页面内容
+     */
+    private static final DefaultRedisScript<Long> PUT_SCRIPT = new DefaultRedisScript<>(
+            "if (redis.call('GET', KEYS[1]) or '0') ~= ARGV[1] then return 0 end "
+                    + "redis.call('SET', KEYS[2], ARGV[3], 'EX', ARGV[2]) "
+                    + "for i = 3, #KEYS do "
+                    + "redis.call('SADD', KEYS[i], KEYS[2]) "
+                    + "redis.call('EXPIRE', KEYS[i], ARGV[2]) "
+                    + "end return 1", Long.class);
+
+    /**
+     * 删除队伍所在的页，shift 为 1 时同时删除其后的页；不知道队伍在哪一页时从第一页删起
+     * KEYS: 代数、队伍所在页的登记键、第 1 页到最后一页；ARGV: shift
+     */
+    private static final DefaultRedisScript<Long> INVALIDATE_TEAM_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('INCR', KEYS[1]) "
+                    + "local pages = redis.call('SMEMBERS', KEYS[2]) "
+                    + "local cached = {} "
+                    + "for i = 1, #pages do cached[pages[i]] = true end "
+                    + "local first = #KEYS + 1 "
+                    + "for i = 3, #KEYS do "
+                    + "if cached[KEYS[i]] then "
+                    + "redis.call('DEL', KEYS[i]) "
+                    + "if i < first then first = i end "
+                    + "end "
+                    + "end "
+                    + "if #pages == 0 then first = 3 end "
+                    + "if ARGV[1] == '1' then "
+                    + "for i = first, #KEYS do redis.call('DEL', KEYS[i]) end "
+                    + "end "
+                    + "redis.call('DEL', KEYS[2]) "
+                    + "return #pages", Long.class);
+
+    /**
+     * 删除全部页
+     * KEYS: 代数、页...
+     */
+    private static final DefaultRedisScript<Long> INVALIDATE_ALL_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('INCR', KEYS[1]) "
+                    + "local count = 0 "
+                    + "for i = 2, #KEYS do count = count + redis.call('DEL', KEYS[i]) end "
+                    + "return count", Long.class);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 是否可以使用缓存：前几页且除公开状态外没有其他条件
+     *
+     * @param currentPage 当前页
+     * @param teamQuery   查询条件
+     * @param status      解析后的状态
+     * @return boolean
+     */
+    public boolean isCacheable(long currentPage, TeamQueryRequest teamQuery, int status) {
+        if (currentPage < 1 || currentPage > TEAM_PAGE_CACHE_MAX_PAGES || teamQuery == null || status != 0) {
+            return false;
+        }
+        return (teamQuery.getId() == null || teamQuery.getId() <= 0)
+                && (teamQuery.getIdList() == null || teamQuery.getIdList().isEmpty())
+                && StringUtils.isAllBlank(teamQuery.getSearchText(), teamQuery.getName(), teamQuery.getDescription())
+                && (teamQuery.getMaxNum() == null || teamQuery.getMaxNum() <= 0)
+                && (teamQuery.getUserId() == null || teamQuery.getUserId() <= 0);
+    }
+
+    /**
+     * 当前代数，组装页面前读取
+     *
+     * @return {@link String}
+     */
+    public String generation() {
+        String generation = stringRedisTemplate.opsForValue().get(TEAM_PAGE_GENERATION_KEY);
+        return generation == null ? "0" : generation;
+    }
+
+    /**
+     * 读取缓存的页
+     *
+     * @param currentPage 当前页
+     * @return {@link Page}<{@link TeamVO}>，未缓存时为空
+     */
+    public Page<TeamVO> get(long currentPage) {
+        String json = stringRedisTemplate.opsForValue().get(TEAM_PAGE_KEY + currentPage);
+        return json == null ? null : GSON.fromJson(json, PAGE_TYPE);
+    }
+
+    /**
+     * 缓存页面
+     *
+     * @param currentPage 当前页
+     * @param teamVoPage  不含当前用户信息的页面
+     * @param generation  组装前读取的代数
+     */
+    public void put(long currentPage, Page<TeamVO> teamVoPage, String generation) {
+        List<String> keys = new ArrayList<>(teamVoPage.getRecords().size() + 2);
+        keys.add(TEAM_PAGE_GENERATION_KEY);
+        keys.add(TEAM_PAGE_KEY + currentPage);
+        teamVoPage.getRecords().forEach(teamVO -> keys.add(TEAM_PAGE_INDEX_KEY + teamVO.getId()));
+        stringRedisTemplate.execute(PUT_SCRIPT, keys,
+                generation, String.valueOf(TEAM_PAGE_TTL), GSON.toJson(teamVoPage));
+    }
+
+    /**
+     * 队伍信息或人数变化后删除其所在的页，在事务提交后执行
+     *
+     * @param teamId 队伍id
+     */
+    public void invalidateTeam(long teamId) {
+        invalidateTeam(teamId, false);
+    }
+
+    /**
+     * 队伍从列表中移除（删除、解散）后删除其所在的页及之后的页，在事务提交后执行
+     *
+     * @param teamId 队伍id
+     */
+    public void invalidateFrom(long teamId) {
+        invalidateTeam(teamId, true);
+    }
+
+    /**
+     * 列表顺序整体变化（新建公开队伍、修改状态或到期时间）后删除全部页，在事务提交后执行
+     */
+    public void invalidateAll() {
+        List<String> keys = new ArrayList<>(TEAM_PAGE_CACHE_MAX_PAGES + 1);
+        keys.add(TEAM_PAGE_GENERATION_KEY);
+        addPageKeys(keys);
+        afterCommit(() -> stringRedisTemplate.execute(INVALIDATE_ALL_SCRIPT, keys));
+    }
+
+    private void invalidateTeam(long teamId, boolean shift) {
+        List<String> keys = new ArrayList<>(TEAM_PAGE_CACHE_MAX_PAGES + 2);
+        keys.add(TEAM_PAGE_GENERATION_KEY);
+        keys.add(TEAM_PAGE_INDEX_KEY + teamId);
+        addPageKeys(keys);
+        afterCommit(() -> stringRedisTemplate.execute(INVALIDATE_TEAM_SCRIPT, keys, shift ? "1" : "0"));
+    }
+
+    /**
+     * 按页码顺序追加全部页键，脚本访问的键都经 KEYS 传入
+     *
+     * @param keys 键
+     */
+    private static void addPageKeys(List<String> keys) {
+        for (int i = 1; i <= TEAM_PAGE_CACHE_MAX_PAGES; i++) {
+            keys.add(TEAM_PAGE_KEY + i);
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package asia.lhweb.findfriend.service.impl;
+
+import asia.lhweb.findfriend.mapper.TeamMapper;
+import asia.lhweb.findfriend.mapper.UserMapper;
+import asia.lhweb.findfriend.mapper.UserTeamMapper;
+import asia.lhweb.findfriend.model.domain.Team;
+import asia.lhweb.findfriend.model.domain.User;
+import asia.lhweb.findfriend.model.domain.UserTeam;
+import asia.lhweb.findfriend.model.enums.TeamStatusEnum;
+import asia.lhweb.findfriend.utils.AlgorithmUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.StringUtils;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import static asia.lhweb.findfriend.constants.RedissonConstant.TEAM_RECOMMEND_INDEX_TOPIC;
+import static asia.lhweb.findfriend.constants.TeamConstants.TEAM_PROFILE_TAG_NUM;
+import static asia.lhweb.findfriend.utils.TransactionUtils.afterCommit;
+
+/**
+ * 队伍推荐索引
+ * 每个队伍在进程内维护成员标签计数，出现最多的几个标签作为队伍画像；队伍变化、成员加入退出和修改标签后，
+ * 事务提交后通过 Redis 主题通知各节点按 id 重新装载该队伍，重复或乱序的通知结果相同。
+ * 定时任务在各节点重新全量构建，修正错过通知的队伍。推荐时只对画像中含有用户标签的队伍打分，
+ * 打分与用户匹配相同，使用 {@link AlgorithmUtil#minDistance}
+ *
+ * @author 罗汉
+ * @date 2024/05/21
+ */
+@Component
+@Log4j2
+public class TeamRecommendIndex {
+    /**
+     * 构建时每批装载的队伍数
+     */
+    private static final int BUILD_BATCH_SIZE = 1000;
+
+    private static final Gson GSON = new Gson();
+
+    private static final Type TAG_LIST_TYPE = new TypeToken<List<String>>() {
+    }.getType();
+
+    @Resource
+    private TeamMapper teamMapper;
+
+    @Resource
+    private UserTeamMapper userTeamMapper;
+
+    @Resource
+    private UserMapper userMapper;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    private RTopic topic;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 索引是否可用，构建完成前推荐退化为公开队伍列表
+     */
+    private volatile boolean ready;
+
+    /**
+     * 当前使用的索引，重新构建完成后整体替换
+     */
+    private Index index = new Index();
+
+    /**
+     * 构建期间已按通知重新装载的队伍，替换索引后再装载一次；不在构建时为空
+     */
+    private Set<Long> reloadedDuringBuild;
+
+    @PostConstruct
+    public void subscribe() {
+        topic = redissonClient.getTopic(TEAM_RECOMMEND_INDEX_TOPIC);
+        topic.addListener(Long.class, (channel, teamId) -> apply(teamId));
+    }
+
+    /**
+     * 从数据库全量构建，按 id 分批装载队伍及其成员标签
+     * 新索引构建完成后替换当前索引，构建期间查询仍使用当前索引；期间收到通知的队伍在替换后重新装载
+     */
+    public synchronized void build() {
+        lock.writeLock().lock();
+        try {
+            reloadedDuringBuild = new HashSet<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        Index building = new Index();
+        long lastId = 0;
+        long count = 0;
+        while (true) {
+            LambdaQueryWrapper<Team> teamLambdaQueryWrapper = new LambdaQueryWrapper<>();
+            teamLambdaQueryWrapper.gt(Team::getId, lastId)
+                    .orderByAsc(Team::getId)
+                    .last("limit " + BUILD_BATCH_SIZE);
+            List<Team> teamList = teamMapper.selectList(teamLambdaQueryWrapper);
+            if (teamList.isEmpty()) {
+                break;
+            }
+            Map<Long, List<List<String>>> memberTagMap = loadMemberTags(
+                    teamList.stream().map(Team::getId).collect(Collectors.toList()));
+            for (Team team : teamList) {
+                building.put(team, memberTagMap.getOrDefault(team.getId(), Collections.emptyList()));
+            }
+            count += teamList.size();
+            lastId = teamList.get(teamList.size() - 1).getId();
+        }
+        Set<Long> replay;
+        lock.writeLock().lock();
+        try {
+            index = building;
+            replay = reloadedDuringBuild;
+            reloadedDuringBuild = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        replay.forEach(this::apply);
+        ready = true;
+        log.info("队伍推荐索引构建完成，共 " + count + " 个队伍");
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 队伍新增、修改、删除或成员变化后调用，事务提交后各节点按 id 重新装载队伍和成员标签
+     *
+     * @param teamId 队伍id
+     */
+    public void reload(long teamId) {
+        afterCommit(() -> topic.publish(teamId));
+    }
+
+    /**
+     * 用户修改标签后调用，重新装载其所在的队伍
+     *
+     * @param teamIds 用户加入的队伍
+     */
+    public void reload(Collection<Long> teamIds) {
+        teamIds.forEach(this::reload);
+    }
+
+    /**
+     * 推荐，返回当前页的队伍id（按相似度）和候选总数
+     * 候选为画像中至少含有一个用户标签、公开、未满、未过期且用户未加入的队伍
+     *
+     * @param tagList        用户标签
+     * @param joinedTeamIds  用户已加入的队伍
+     * @param currentPage    当前页
+     * @param pageSize       每页数量
+     * @return {@link Page}<{@link Long}>
+     */
+    public Page<Long> recommend(List<String> tagList, Set<Long> joinedTeamIds, long currentPage, long pageSize) {
+        long now = System.currentTimeMillis();
+        long from = Math.max(0, (currentPage - 1) * pageSize);
+        int limit = (int) Math.min(Integer.MAX_VALUE, from + pageSize);
+        // 距离最大的在堆顶，只保留前 limit 个
+        Comparator<Scored> order = Comparator.comparingInt((Scored scored) -> scored.distance)
+                .thenComparingInt(scored -> -scored.joinNum)
+                .thenComparingLong(scored -> -scored.teamId);
+        PriorityQueue<Scored> top = new PriorityQueue<>(order.reversed());
+        long total = 0;
+        lock.readLock().lock();
+        try {
+            Set<Long> candidates = new HashSet<>();
+            for (String tag : tagList) {
+                candidates.addAll(index.tagPostings.getOrDefault(tag, Collections.emptySet()));
+            }
+            for (Long teamId : candidates) {
+                Profile profile = index.profiles.get(teamId);
+                if (!profile.isOpen(now) || joinedTeamIds.contains(teamId)) {
+                    continue;
+                }
+                total++;
+                Scored scored = new Scored(teamId, profile.joinNum,
+                        AlgorithmUtil.minDistance(tagList, profile.topTags));
+                if (top.size() < limit) {
+                    top.add(scored);
+                } else if (order.compare(scored, top.peek()) < 0) {
+                    top.poll();
+                    top.add(scored);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Scored> ranked = new ArrayList<>(top);
+        ranked.sort(order);
+        Page<Long> page = new Page<>(currentPage, pageSize, total);
+        List<Long> teamIdList = new ArrayList<>();
+        for (long i = from; i < ranked.size(); i++) {
+            teamIdList.add(ranked.get((int) i).teamId);
+        }
+        page.setRecords(teamIdList);
+        return page;
+    }
+
+    /**
+     * 按 id 从数据库重新装载，已删除的队伍从索引移除
+     *
+     * @param teamId 队伍id
+     */
+    private void apply(long teamId) {
+        Team team = teamMapper.selectById(teamId);
+        List<List<String>> memberTags = team == null ? Collections.emptyList()
+                : loadMemberTags(Collections.singletonList(teamId)).getOrDefault(teamId, Collections.emptyList());
+        lock.writeLock().lock();
+        try {
+            if (reloadedDuringBuild != null) {
+                reloadedDuringBuild.add(teamId);
+            }
+            if (team == null) {
+                index.remove(teamId);
+            } else {
+                index.put(team, memberTags);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 一次查询关系表、一次查询用户表，得到各队伍成员的标签
+     *
+     * @param teamIds 队伍id
+     * @return 队伍id => 成员标签
+     */
+    private Map<Long, List<List<String>>> loadMemberTags(List<Long> teamIds) {
+        LambdaQueryWrapper<UserTeam> userTeamLambdaQueryWrapper = new LambdaQueryWrapper<>();
+        userTeamLambdaQueryWrapper.select(UserTeam::getTeamId, UserTeam::getUserId)
+                .in(UserTeam::getTeamId, teamIds);
+        List<UserTeam> userTeamList = userTeamMapper.selectList(userTeamLambdaQueryWrapper);
+        if (userTeamList.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        LambdaQueryWrapper<User> userLambdaQueryWrapper = new LambdaQueryWrapper<>();
+        userLambdaQueryWrapper.select(User::getId, User::getTags)
+                .in(User::getId, userTeamList.stream().map(UserTeam::getUserId).collect(Collectors.toSet()));
+        Map<Long, List<String>> userTagMap = new HashMap<>();
+        for (User user : userMapper.selectList(userLambdaQueryWrapper)) {
+            userTagMap.put(user.getId(), parseTags(user.getTags()));
+        }
+        return userTeamList.stream().collect(Collectors.groupingBy(UserTeam::getTeamId,
+                Collectors.mapping(userTeam -> userTagMap.getOrDefault(userTeam.getUserId(), Collections.emptyList()),
+                        Collectors.toList())));
+    }
+
+    private static List<String> parseTags(String tags) {
+        if (StringUtils.isBlank(tags)) {
+            return Collections.emptyList();
+        }
+        List<String> tagList = GSON.fromJson(tags, TAG_LIST_TYPE);
+        return tagList == null ? Collections.emptyList() : tagList;
+    }
+
+    /**
+     * 队伍画像和画像标签倒排表
+     */
+    private static class Index {
+        private final Map<Long, Profile> profiles = new HashMap<>();
+
+        /**
+         * 画像标签到队伍
+         */
+        private final Map<String, Set<Long>> tagPostings = new HashMap<>();
+
+        void put(Team team, List<List<String>> memberTags) {
+            Profile profile = profiles.computeIfAbsent(team.getId(), Profile::new);
+            profile.status = team.getStatus();
+            profile.maxNum = team.getMaxNum() == null ? 0 : team.getMaxNum();
+            profile.joinNum = team.getJoinNum() == null ? 0 : team.getJoinNum();
+            profile.expireTime = team.getExpireTime() == null ? null : team.getExpireTime().getTime();
+            profile.tagCounts.clear();
+            for (List<String> tags : memberTags) {
+                profile.count(tags);
+            }
+            index(profile);
+        }
+
+        void remove(long teamId) {
+            Profile profile = profiles.remove(teamId);
+            if (profile != null) {
+                unindex(profile);
+            }
+        }
+
+        /**
+         * 重新计算画像标签并更新倒排表
+         *
+         * @param profile 队伍画像
+         */
+        private void index(Profile profile) {
+            unindex(profile);
+            profile.topTags = profile.tagCounts.entrySet().stream()
+                    .sorted(Map.Entry.<String, Integer>comparingByValue().reversed()
+                            .thenComparing(Map.Entry.comparingByKey()))
+                    .limit(TEAM_PROFILE_TAG_NUM)
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toList());
+            for (String tag : profile.topTags) {
+                tagPostings.computeIfAbsent(tag, key -> new HashSet<>()).add(profile.teamId);
+            }
+        }
+
+        private void unindex(Profile profile) {
+            for (String tag : profile.topTags) {
+                Set<Long> posting = tagPostings.get(tag);
+                if (posting != null) {
+                    posting.remove(profile.teamId);
+                    if (posting.isEmpty()) {
+                        tagPostings.remove(tag);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 队伍画像
+     */
+    private static class Profile {
+        private final long teamId;
+        private Integer status;
+        private int maxNum;
+        private int joinNum;
+        private Long expireTime;
+        private final Map<String, Integer> tagCounts = new HashMap<>();
+        private List<String> topTags = Collections.emptyList();
+
+        Profile(long teamId) {
+            this.teamId = teamId;
+        }
+
+        /**
+         * 公开、未满且未过期
+         *
+         * @param now 当前时间
+         * @return boolean
+         */
+        boolean isOpen(long now) {
+            return Integer.valueOf(TeamStatusEnum.PUBLIC.getValue()).equals(status)
+                    && joinNum < maxNum
+                    && (expireTime == null || expireTime > now);
+        }
+
+        void count(List<String> tags) {
+            if (tags == null) {
+                return;
+            }
+            // 同一成员重复的标签只计一次
+            for (String tag : new HashSet<>(tags)) {
+                tagCounts.merge(tag, 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * 打分后的候选
+     */
+    private static class Scored {
+        private final long teamId;
+        private final int joinNum;
+        private final int distance;
+
+        Scored(long teamId, int joinNum, int distance) {
+            this.teamId = teamId;
+            this.joinNum = joinNum;
+            this.distance = distance;
+        }
+    }
+}
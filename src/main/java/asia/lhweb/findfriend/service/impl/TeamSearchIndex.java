@@ -0,0 +1,495 @@
+package asia.lhweb.findfriend.service.impl;
+
+import asia.lhweb.findfriend.mapper.TeamMapper;
+import asia.lhweb.findfriend.model.domain.Team;
+import asia.lhweb.findfriend.model.request.TeamQueryRequest;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.StringUtils;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static asia.lhweb.findfriend.constants.RedissonConstant.TEAM_SEARCH_INDEX_TOPIC;
+import static asia.lhweb.findfriend.utils.TransactionUtils.afterCommit;
+
+/**
+ * 队伍搜索索引
+ * 进程内倒排索引：队伍名和描述按单字和相邻两字切分（中文无需分词），查询取各片段的交集后再逐条确认包含关系，结果与 LIKE '%x%' 一致；
+ * 状态、最大人数、队长和过期日期维护位图，过滤只做位运算。队伍变更在事务提交后通过 Redis 主题通知各节点按 id 重新装载
+ *
+ * @author 罗汉
+ * @date 2024/05/17
+ */
+@Component
+@Log4j2
+public class TeamSearchIndex {
+    /**
+     * 构建时每批装载的队伍数
+     */
+    private static final int BUILD_BATCH_SIZE = 1000;
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    /**
+     * 按创建时间倒序，相同时 id 大的在前
+     */
+    private static final Comparator<Doc> NEWEST_FIRST = Comparator.<Doc>comparingLong(doc -> doc.createTime)
+            .thenComparingLong(doc -> doc.teamId)
+            .reversed();
+
+    @Resource
+    private TeamMapper teamMapper;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    private RTopic topic;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 索引是否可用，构建完成前查询走数据库
+     */
+    private volatile boolean ready;
+
+    /**
+     * 构建期间已按通知重新装载的队伍，批次中的旧数据不再覆盖；不在构建时为空
+     */
+    private Set<Long> reloadedDuringBuild;
+
+    /**
+     * 队伍id到文档号
+     */
+    private final Map<Long, Integer> docIds = new HashMap<>();
+    private final List<Doc> docs = new ArrayList<>();
+    /**
+     * 已删除队伍空出的文档号，新队伍优先复用
+     */
+    private final Deque<Integer> freeDocIds = new ArrayDeque<>();
+    private final BitSet live = new BitSet();
+
+    private final Map<String, BitSet> nameGrams = new HashMap<>();
+    private final Map<String, BitSet> descriptionGrams = new HashMap<>();
+    private final Map<Integer, BitSet> statusFacet = new HashMap<>();
+    private final Map<Integer, BitSet> maxNumFacet = new HashMap<>();
+    private final Map<Long, BitSet> userFacet = new HashMap<>();
+    /**
+     * 按过期日期分桶，key 为自 1970 年起的天数
+     */
+    private final NavigableMap<Long, BitSet> expireFacet = new TreeMap<>();
+    private final BitSet neverExpire = new BitSet();
+
+    @PostConstruct
+    public void subscribe() {
+        topic = redissonClient.getTopic(TEAM_SEARCH_INDEX_TOPIC);
+        // 构建期间的变更同样应用，并记下队伍id，之后装载的批次跳过这些队伍
+        topic.addListener(Long.class, (channel, teamId) -> reload(teamId));
+    }
+
+    /**
+     * 从数据库全量构建，按 id 分批装载
+     * 批次在锁外查询，期间收到通知重新装载的队伍以通知为准，批次中的数据可能更旧
+     */
+    public void build() {
+        lock.writeLock().lock();
+        try {
+            reloadedDuringBuild = new HashSet<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        long lastId = 0;
+        long count = 0;
+        while (true) {
+            LambdaQueryWrapper<Team> teamLambdaQueryWrapper = new LambdaQueryWrapper<>();
+            teamLambdaQueryWrapper.gt(Team::getId, lastId)
+                    .orderByAsc(Team::getId)
+                    .last("limit " + BUILD_BATCH_SIZE);
+            List<Team> teamList = teamMapper.selectList(teamLambdaQueryWrapper);
+            if (teamList.isEmpty()) {
+                break;
+            }
+            lock.writeLock().lock();
+            try {
+                for (Team team : teamList) {
+                    if (!reloadedDuringBuild.contains(team.getId())) {
+                        put(team);
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            count += teamList.size();
+            lastId = teamList.get(teamList.size() - 1).getId();
+        }
+        lock.writeLock().lock();
+        try {
+            reloadedDuringBuild = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        ready = true;
+        log.info("队伍搜索索引构建完成，共 " + count + " 个队伍");
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 队伍新增、修改或删除后调用，事务提交后通知所有节点重新装载该队伍
+     *
+     * @param teamId 队伍id
+     */
+    public void publish(long teamId) {
+        afterCommit(() -> topic.publish(teamId));
+    }
+
+    /**
+     * 搜索，返回当前页的队伍id（按创建时间倒序）和总数
+     *
+     * @param teamQuery   查询条件，为空时不过滤
+     * @param status      状态，为空时不过滤
+     * @param currentPage 当前页
+     * @param pageSize    每页数量
+     * @return {@link Page}<{@link Long}>
+     */
+    public Page<Long> search(TeamQueryRequest teamQuery, Integer status, long currentPage, long pageSize) {
+        long now = System.currentTimeMillis();
+        lock.readLock().lock();
+        try {
+            BitSet result = (BitSet) live.clone();
+            result.and(notExpired(now));
+            if (status != null) {
+                result.and(statusFacet.getOrDefault(status, new BitSet()));
+            }
+            String searchText = null;
+            String name = null;
+            String description = null;
+            if (teamQuery != null) {
+                filter(result, teamQuery);
+                searchText = normalize(teamQuery.getSearchText());
+                name = normalize(teamQuery.getName());
+                description = normalize(teamQuery.getDescription());
+            }
+            long from = Math.max(0, (currentPage - 1) * pageSize);
+            long limit = from + Math.max(0, pageSize);
+            // 只保留到当前页末尾为止最新的文档，堆顶是其中最旧的
+            PriorityQueue<Doc> newest = new PriorityQueue<>(NEWEST_FIRST.reversed());
+            long total = 0;
+            for (int docId = result.nextSetBit(0); docId >= 0; docId = result.nextSetBit(docId + 1)) {
+                Doc doc = docs.get(docId);
+                if (doc.expireTime != null && doc.expireTime <= now) {
+                    continue;
+                }
+                if (!contains(doc, searchText, name, description)) {
+                    continue;
+                }
+                total++;
+                if (newest.size() < limit) {
+                    newest.add(doc);
+                } else if (limit > 0 && NEWEST_FIRST.compare(doc, newest.peek()) < 0) {
+                    newest.poll();
+                    newest.add(doc);
+                }
+            }
+            Page<Long> page = new Page<>(currentPage, pageSize, total);
+            List<Long> teamIdList = new ArrayList<>();
+            // 从最旧的弹出，堆里剩下前 from 个时当前页已取完
+            while (newest.size() > from) {
+                teamIdList.add(newest.poll().teamId);
+            }
+            Collections.reverse(teamIdList);
+            page.setRecords(teamIdList);
+            return page;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 按 id 从数据库重新装载，已删除的队伍从索引移除
+     *
+     * @param teamId 队伍id
+     */
+    private void reload(long teamId) {
+        Team team = teamMapper.selectById(teamId);
+        lock.writeLock().lock();
+        try {
+            if (reloadedDuringBuild != null) {
+                reloadedDuringBuild.add(teamId);
+            }
+            if (team == null) {
+                remove(teamId);
+            } else {
+                put(team);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void filter(BitSet result, TeamQueryRequest teamQuery) {
+        Long id = teamQuery.getId();
+        List<Long> idList = teamQuery.getIdList();
+        if (id != null && id > 0) {
+            result.and(docsOf(Arrays.asList(id)));
+        }
+        if (idList != null && !idList.isEmpty()) {
+            result.and(docsOf(idList));
+        }
+        Integer maxNum = teamQuery.getMaxNum();
+        if (maxNum != null && maxNum > 0) {
+            result.and(maxNumFacet.getOrDefault(maxNum, new BitSet()));
+        }
+        Long userId = teamQuery.getUserId();
+        if (userId != null && userId > 0) {
+            result.and(userFacet.getOrDefault(userId, new BitSet()));
+        }
+        String searchText = normalize(teamQuery.getSearchText());
+        if (searchText != null) {
+            BitSet either = candidates(nameGrams, searchText);
+            either.or(candidates(descriptionGrams, searchText));
+            result.and(either);
+        }
+        String name = normalize(teamQuery.getName());
+        if (name != null) {
+            result.and(candidates(nameGrams, name));
+        }
+        String description = normalize(teamQuery.getDescription());
+        if (description != null) {
+            result.and(candidates(descriptionGrams, description));
+        }
+    }
+
+    /**
+     * 包含查询的所有片段的文档，还需逐条确认
+     *
+     * @param postings 倒排表
+     * @param text     查询文本
+     * @return {@link BitSet}
+     */
+    private BitSet candidates(Map<String, BitSet> postings, String text) {
+        Set<String> grams = text.length() == 1 ? new HashSet<>(Arrays.asList(text)) : bigrams(text);
+        BitSet candidates = null;
+        for (String gram : grams) {
+            BitSet posting = postings.get(gram);
+            if (posting == null) {
+                return new BitSet();
+            }
+            if (candidates == null) {
+                candidates = (BitSet) posting.clone();
+            } else {
+                candidates.and(posting);
+            }
+        }
+        return candidates == null ? new BitSet() : candidates;
+    }
+
+    private boolean contains(Doc doc, String searchText, String name, String description) {
+        if (searchText != null && !doc.name.contains(searchText) && !doc.description.contains(searchText)) {
+            return false;
+        }
+        if (name != null && !doc.name.contains(name)) {
+            return false;
+        }
+        return description == null || doc.description.contains(description);
+    }
+
+    /**
+     * 未过期的候选：永不过期、过期日期在今天之后，以及今天过期的（逐条确认）
+     *
+     * @param now 当前时间
+     * @return {@link BitSet}
+     */
+    private BitSet notExpired(long now) {
+        BitSet result = (BitSet) neverExpire.clone();
+        for (BitSet bucket : expireFacet.tailMap(now / DAY_MILLIS, true).values()) {
+            result.or(bucket);
+        }
+        return result;
+    }
+
+    private BitSet docsOf(Collection<Long> teamIds) {
+        BitSet result = new BitSet();
+        for (Long teamId : teamIds) {
+            Integer docId = docIds.get(teamId);
+            if (docId != null) {
+                result.set(docId);
+            }
+        }
+        return result;
+    }
+
+    private void put(Team team) {
+        Integer docId = docIds.get(team.getId());
+        if (docId == null) {
+            docId = freeDocIds.poll();
+            if (docId == null) {
+                docId = docs.size();
+                docs.add(null);
+            }
+            docIds.put(team.getId(), docId);
+        } else {
+            unindex(docId);
+        }
+        Doc doc = new Doc(team);
+        docs.set(docId, doc);
+        for (String gram : grams(doc.name)) {
+            nameGrams.computeIfAbsent(gram, key -> new BitSet()).set(docId);
+        }
+        for (String gram : grams(doc.description)) {
+            descriptionGrams.computeIfAbsent(gram, key -> new BitSet()).set(docId);
+        }
+        if (doc.status != null) {
+            statusFacet.computeIfAbsent(doc.status, key -> new BitSet()).set(docId);
+        }
+        if (doc.maxNum != null) {
+            maxNumFacet.computeIfAbsent(doc.maxNum, key -> new BitSet()).set(docId);
+        }
+        if (doc.userId != null) {
+            userFacet.computeIfAbsent(doc.userId, key -> new BitSet()).set(docId);
+        }
+        if (doc.expireTime == null) {
+            neverExpire.set(docId);
+        } else {
+            expireFacet.computeIfAbsent(doc.expireTime / DAY_MILLIS, key -> new BitSet()).set(docId);
+        }
+        live.set(docId);
+    }
+
+    private void remove(long teamId) {
+        Integer docId = docIds.remove(teamId);
+        if (docId != null) {
+            unindex(docId);
+            docs.set(docId, null);
+            freeDocIds.push(docId);
+        }
+    }
+
+    /**
+     * 清除文档在各倒排表和位图中的位
+     *
+     * @param docId 文档号
+     */
+    private void unindex(int docId) {
+        Doc doc = docs.get(docId);
+        live.clear(docId);
+        if (doc == null) {
+            return;
+        }
+        clear(nameGrams, grams(doc.name), docId);
+        clear(descriptionGrams, grams(doc.description), docId);
+        clear(statusFacet, doc.status, docId);
+        clear(maxNumFacet, doc.maxNum, docId);
+        clear(userFacet, doc.userId, docId);
+        if (doc.expireTime == null) {
+            neverExpire.clear(docId);
+        } else {
+            clear(expireFacet, doc.expireTime / DAY_MILLIS, docId);
+        }
+    }
+
+    private static <K> void clear(Map<K, BitSet> postings, Collection<K> keys, int docId) {
+        for (K key : keys) {
+            clear(postings, key, docId);
+        }
+    }
+
+    private static <K> void clear(Map<K, BitSet> postings, K key, int docId) {
+        if (key == null) {
+            return;
+        }
+        BitSet posting = postings.get(key);
+        if (posting == null) {
+            return;
+        }
+        posting.clear(docId);
+        if (posting.isEmpty()) {
+            postings.remove(key);
+        }
+    }
+
+    /**
+     * 单字和相邻两字
+     *
+     * @param text 规范化后的文本
+     * @return {@link Set}<{@link String}>
+     */
+    private static Set<String> grams(String text) {
+        Set<String> grams = bigrams(text);
+        for (int i = 0; i < text.length(); i++) {
+            grams.add(text.substring(i, i + 1));
+        }
+        return grams;
+    }
+
+    private static Set<String> bigrams(String text) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + 1 < text.length(); i++) {
+            grams.add(text.substring(i, i + 2));
+        }
+        return grams;
+    }
+
+    /**
+     * 与 MySQL 默认排序规则一致，不区分大小写
+     *
+     * @param text 文本
+     * @return {@link String}，为空时返回 null
+     */
+    private static String normalize(String text) {
+        if (StringUtils.isBlank(text)) {
+            return null;
+        }
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 索引中的队伍
+     */
+    private static class Doc {
+        private final long teamId;
+        private final String name;
+        private final String description;
+        private final Integer status;
+        private final Integer maxNum;
+        private final Long userId;
+        private final Long expireTime;
+        private final long createTime;
+
+        Doc(Team team) {
+            this.teamId = team.getId();
+            this.name = team.getName() == null ? "" : team.getName().toLowerCase(Locale.ROOT);
+            this.description = team.getDescription() == null ? "" : team.getDescription().toLowerCase(Locale.ROOT);
+            this.status = team.getStatus();
+            this.maxNum = team.getMaxNum();
+            this.userId = team.getUserId();
+            this.expireTime = team.getExpireTime() == null ? null : team.getExpireTime().getTime();
+            this.createTime = team.getCreateTime() == null ? 0 : team.getCreateTime().getTime();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package asia.lhweb.findfriend.service.impl;
+
+import asia.lhweb.findfriend.common.ErrorCode;
+import asia.lhweb.findfriend.constants.TeamConstants;
+import asia.lhweb.findfriend.exception.BusinessException;
+import asia.lhweb.findfriend.model.domain.Team;
+import asia.lhweb.findfriend.model.domain.UserTeam;
+import asia.lhweb.findfriend.service.UserTeamService;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static asia.lhweb.findfriend.constants.RedisConstants.TEAM_SEAT_KEY;
+import static asia.lhweb.findfriend.constants.RedisConstants.TEAM_SEAT_MEMBER_KEY;
+import static asia.lhweb.findfriend.constants.RedisConstants.TEAM_SEAT_TTL;
+import static asia.lhweb.findfriend.constants.RedisConstants.USER_JOINED_TEAM_KEY;
+import static asia.lhweb.findfriend.utils.TransactionUtils.afterCommit;
+
+/**
+ * 队伍名额预占
+ * 加入队伍的重复、名额、每人加入上限在一个 Lua 脚本中原子判断并占用，MySQL 只处理真正抢到名额的请求；
+ * 事务回滚时归还名额。Redis 中的状态按需从数据库装载，{@link asia.lhweb.findfriend.constants.RedisConstants#TEAM_SEAT_TTL} 秒后过期重新装载
+ *
+ * @author 罗汉
+ * @date 2024/05/16
+ */
+@Component
+@Log4j2
+public class TeamSeatReservation {
+    /**
+     * 用户已加入队伍集合中的占位成员，区分“未装载”和“没有加入任何队伍”
+     */
+    private static final String PLACEHOLDER = "-";
+
+    private static final long RESERVED = 0;
+    private static final long TEAM_NOT_LOADED = -1;
+    private static final long USER_NOT_LOADED = -2;
+    private static final long ALREADY_JOINED = 1;
+    private static final long QUOTA_EXCEEDED = 2;
+    private static final long TEAM_FULL = 3;
+
+    /**
+     * 预占名额
+     * KEYS: 队伍名额 hash、队伍成员集合、用户已加入队伍集合；ARGV: 用户id、队伍id、每人加入上限
+     */
+    private static final DefaultRedisScript<Long> RESERVE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 0 then return -1 end "
+                    + "if redis.call('EXISTS', KEYS[3]) == 0 then return -2 end "
+                    + "if redis.call('SISMEMBER', KEYS[2], ARGV[1]) == 1 then return 1 end "
+                    + "if redis.call('SCARD', KEYS[3]) - 1 >= tonumber(ARGV[3]) then return 2 end "
+                    + "if redis.call('SCARD', KEYS[2]) >= tonumber(redis.call('HGET', KEYS[1], 'max')) then return 3 end "
+                    + "redis.call('SADD', KEYS[2], ARGV[1]) "
+                    + "redis.call('SADD', KEYS[3], ARGV[2]) "
+                    + "return 0", Long.class);
+
+    /**
+     * 归还名额，状态未装载时不处理
+     * KEYS: 队伍成员集合、用户已加入队伍集合；ARGV: 用户id、队伍id
+     */
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('SREM', KEYS[2], ARGV[2]) "
+                    + "return redis.call('SREM', KEYS[1], ARGV[1])", Long.class);
+
+    /**
+     * 装载队伍名额，已存在则不覆盖
+     * KEYS: 队伍名额 hash、队伍成员集合；ARGV: 过期秒数、最大人数、成员id...
+     */
+    private static final DefaultRedisScript<Long> LOAD_TEAM_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 1 then return 0 end "
+                    + "redis.call('DEL', KEYS[2]) "
+                    + "for i = 3, #ARGV do redis.call('SADD', KEYS[2], ARGV[i]) end "
+                    + "redis.call('HSET', KEYS[1], 'max', ARGV[2]) "
+                    + "redis.call('EXPIRE', KEYS[1], ARGV[1]) "
+                    + "redis.call('EXPIRE', KEYS[2], ARGV[1]) "
+                    + "return 1", Long.class);
+
+    /**
+     * 装载用户已加入的队伍，已存在则不覆盖
+     * KEYS: 用户已加入队伍集合；ARGV: 过期秒数、占位成员、队伍id...
+     */
+    private static final DefaultRedisScript<Long> LOAD_USER_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 1 then return 0 end "
+                    + "for i = 2, #ARGV do redis.call('SADD', KEYS[1], ARGV[i]) end "
+                    + "redis.call('EXPIRE', KEYS[1], ARGV[1]) "
+                    + "return 1", Long.class);
+
+    @Resource
+    private UserTeamService userTeamService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 为用户预占队伍名额，失败时抛出对应的业务异常
+     * 必须在事务中调用，事务未提交时自动归还名额
+     *
+     * @param team   队伍
+     * @param userId 用户id
+     */
+    public void reserve(Team team, long userId) {
+        long teamId = team.getId();
+        long result = execute(teamId, userId);
+        if (result == TEAM_NOT_LOADED || result == USER_NOT_LOADED) {
+            loadTeam(team);
+            loadUser(userId);
+            result = execute(teamId, userId);
+        }
+        if (result == ALREADY_JOINED) {
+            throw new BusinessException(ErrorCode.PARAMS_ERROR, "用户已加入该队伍");
+        }
+        if (result == QUOTA_EXCEEDED) {
+            throw new BusinessException(ErrorCode.PARAMS_ERROR, "最多创建和加入 5 个队伍");
+        }
+        if (result == TEAM_FULL) {
+            throw new BusinessException(ErrorCode.PARAMS_ERROR, "队伍已满");
+        }
+        if (result != RESERVED) {
+            throw new BusinessException(ErrorCode.SYSTEM_ERROR, "加入队伍失败");
+        }
+        // 数据库写入失败或事务回滚时归还名额
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    release(teamId, userId);
+                }
+            }
+        });
+    }
+
+    /**
+     * 写入关系时违反唯一约束（Redis 状态与数据库不一致），事务回滚后清除队伍和用户的状态，下次预占时以数据库为准重新装载
+     * 在 {@link #reserve} 之后调用，回滚时先归还名额再清除
+     *
+     * @param teamId 队伍id
+     * @param userId 用户id
+     */
+    public void evictAfterRollback(long teamId, long userId) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    evictTeam(teamId);
+                    evictUser(userId);
+                }
+            }
+        });
+    }
+
+    /**
+     * 退出或被踢出后归还名额，在事务提交后执行
+     *
+     * @param teamId 队伍id
+     * @param userId 用户id
+     */
+    public void releaseAfterCommit(long teamId, long userId) {
+        afterCommit(() -> release(teamId, userId));
+    }
+
+    /**
+     * 队伍解散后清除名额和成员的已加入记录，在事务提交后执行
+     *
+     * @param teamId    队伍id
+     * @param memberIds 成员id
+     */
+    public void disbandAfterCommit(long teamId, Collection<Long> memberIds) {
+        afterCommit(() -> {
+            for (Long memberId : memberIds) {
+                stringRedisTemplate.opsForSet().remove(USER_JOINED_TEAM_KEY + memberId, String.valueOf(teamId));
+            }
+            evictTeam(teamId);
+        });
+    }
+
+    /**
+     * 用户加入记录变化后（如创建队伍）清除，下次预占时重新装载
+     *
+     * @param userId 用户id
+     */
+    public void evictUserAfterCommit(long userId) {
+        afterCommit(() -> evictUser(userId));
+    }
+
+    /**
+     * 队伍最大人数变化后清除，下次预占时重新装载
+     *
+     * @param teamId 队伍id
+     */
+    public void evictTeamAfterCommit(long teamId) {
+        afterCommit(() -> evictTeam(teamId));
+    }
+
+    private long execute(long teamId, long userId) {
+        Long result = stringRedisTemplate.execute(RESERVE_SCRIPT,
+                Arrays.asList(TEAM_SEAT_KEY + teamId, TEAM_SEAT_MEMBER_KEY + teamId, USER_JOINED_TEAM_KEY + userId),
+                String.valueOf(userId), String.valueOf(teamId), String.valueOf(TeamConstants.MAXIMUM_JOINED_TEAM));
+        return result == null ? TEAM_NOT_LOADED : result;
+    }
+
+    private void release(long teamId, long userId) {
+        stringRedisTemplate.execute(RELEASE_SCRIPT,
+                Arrays.asList(TEAM_SEAT_MEMBER_KEY + teamId, USER_JOINED_TEAM_KEY + userId),
+                String.valueOf(userId), String.valueOf(teamId));
+    }
+
+    private void loadTeam(Team team) {
+        LambdaQueryWrapper<UserTeam> userTeamLambdaQueryWrapper = new LambdaQueryWrapper<>();
+        userTeamLambdaQueryWrapper.select(UserTeam::getUserId).eq(UserTeam::getTeamId, team.getId());
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(TEAM_SEAT_TTL));
+        args.add(String.valueOf(team.getMaxNum()));
+        args.addAll(userTeamService.listObjs(userTeamLambdaQueryWrapper, String::valueOf));
+        stringRedisTemplate.execute(LOAD_TEAM_SCRIPT,
+                Arrays.asList(TEAM_SEAT_KEY + team.getId(), TEAM_SEAT_MEMBER_KEY + team.getId()), args.toArray());
+    }
+
+    private void loadUser(long userId) {
+        LambdaQueryWrapper<UserTeam> userTeamLambdaQueryWrapper = new LambdaQueryWrapper<>();
+        userTeamLambdaQueryWrapper.select(UserTeam::getTeamId).eq(UserTeam::getUserId, userId);
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(TEAM_SEAT_TTL));
+        args.add(PLACEHOLDER);
+        args.addAll(userTeamService.listObjs(userTeamLambdaQueryWrapper, String::valueOf));
+        stringRedisTemplate.execute(LOAD_USER_SCRIPT,
+                Arrays.asList(USER_JOINED_TEAM_KEY + userId), args.toArray());
+    }
+
+    private void evictTeam(long teamId) {
+        stringRedisTemplate.delete(Arrays.asList(TEAM_SEAT_KEY + teamId, TEAM_SEAT_MEMBER_KEY + teamId));
+    }
+
+    private void evictUser(long userId) {
+        stringRedisTemplate.delete(USER_JOINED_TEAM_KEY + userId);
+    }
+}
@@ -8,17 +8,22 @@ import asia.lhweb.findfriend.mapper.TeamMapper;
 import asia.lhweb.findfriend.model.domain.Team;
 import asia.lhweb.findfriend.model.domain.User;
 import asia.lhweb.findfriend.model.domain.UserTeam;
+import asia.lhweb.findfriend.model.enums.BloomFilterEnum;
 import asia.lhweb.findfriend.model.enums.TeamStatusEnum;
 import asia.lhweb.findfriend.model.vo.TeamVO;
 import asia.lhweb.findfriend.model.vo.UserVO;
 import asia.lhweb.findfriend.properties.FindFriendProperties;
+import asia.lhweb.findfriend.service.BloomFilterService;
 import asia.lhweb.findfriend.service.FollowService;
 import asia.lhweb.findfriend.utils.FileUtils;
+import asia.lhweb.findfriend.ws.ConnectionIdentity;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.core.toolkit.CollectionUtils;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
 import asia.lhweb.findfriend.model.request.TeamCoverUpdateRequest;
 import asia.lhweb.findfriend.model.request.TeamJoinRequest;
 import asia.lhweb.findfriend.model.request.TeamQueryRequest;
@@ -30,6 +35,8 @@ import asia.lhweb.findfriend.service.UserTeamService;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
@@ -37,13 +44,20 @@ import org.springframework.web.multipart.MultipartFile;
 import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static asia.lhweb.findfriend.constants.SystemConstants.PAGE_SIZE;
+import static asia.lhweb.findfriend.utils.TransactionUtils.afterCommit;
 
 /**
  * 团队服务impl
@@ -73,6 +87,67 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team> implements Te
     @Resource
     private FollowService followService;
 
+    /**
+     * 队伍分页组装
+     */
+    @Resource
+    private TeamPageAssembler teamPageAssembler;
+
+    /**
+     * 队伍人数计数器
+     */
+    @Resource
+    private TeamMemberCounter teamMemberCounter;
+
+    /**
+     * 队伍名额预占
+     */
+    @Resource
+    private TeamSeatReservation teamSeatReservation;
+
+    /**
+     * 队伍搜索索引
+     */
+    @Resource
+    private TeamSearchIndex teamSearchIndex;
+
+    /**
+     * 队伍到期队列
+     */
+    @Resource
+    private TeamExpiryQueue teamExpiryQueue;
+
+    /**
+     * 用户队伍关系缓存
+     */
+    @Resource
+    private UserMembershipCache userMembershipCache;
+
+    /**
+     * 公开队伍列表页缓存
+     */
+    @Resource
+    private TeamPageCache teamPageCache;
+
+    /**
+     * 队伍推荐索引
+     */
+    @Resource
+    private TeamRecommendIndex teamRecommendIndex;
+
+    /**
+     * 聊天连接身份
+     */
+    @Resource
+    private ConnectionIdentity connectionIdentity;
+
+    /**
+     * 布隆过滤器服务，其初始化依赖本服务
+     */
+    @Resource
+    @Lazy
+    private BloomFilterService bloomFilterService;
+
     @Value("${super.qiniu.url:null}")
     private String qiniuUrl;
 
@@ -120,6 +195,7 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team> implements Te
         // 8. 插入队伍信息到队伍表
         team.setId(null);
         team.setUserId(userId);
+        team.setJoinNum(1);
         boolean result = this.save(team);
         Long teamId = team.getId();
         if (!result || teamId == null) {
@@ -134,6 +210,16 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team> implements Te
         if (!result) {
             throw new BusinessException(ErrorCode.PARAMS_ERROR, "创建队伍失败");
         }
+        teamSeatReservation.evictUserAfterCommit(userId);
+        userMembershipCache.evictAfterCommit(Collections.singletonList(userId));
+        teamSearchIndex.publish(teamId);
+        teamRecommendIndex.reload(teamId);
+        if (team.getExpireTime() != null) {
+            teamExpiryQueue.schedule(teamId, team.getExpireTime());
+        }
+        if (team.getStatus() == null || TeamStatusEnum.PUBLIC.getValue() == team.getStatus()) {
+            teamPageCache.invalidateAll();
+        }
         return teamId;
     }
 
@@ -144,9 +230,7 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team> implements Te
      * @param team   团队
      */
     public void validateTeamParam(Long userId, Team team) {
-        QueryWrapper<Team> queryWrapper = new QueryWrapper<>();
-        queryWrapper.eq("user_id", userId);
-        long hasTeamNum = this.count(queryWrapper);
+        long hasTeamNum = userMembershipCache.get(userId).getCreatedNum();
         if (hasTeamNum >= TeamConstants.MAXIMUM_TEAM_NUM) {
             throw new BusinessException(ErrorCode.PARAMS_ERROR, "用户最多创建 5 个队伍");
         }
@@ -191,10 +275,11 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team> implements Te
      * @param currentPage 当前页面
      * @param teamQuery   团队查询
      * @param isAdmin     是管理
+     * @param loginUserId 登录用户id，未登录为空
      * @return {@link Page}<{@link TeamVO}>
      */
     @Override
-    public Page<TeamVO> listTeams(long currentPage, TeamQueryRequest teamQuery, boolean isAdmin) {
+    public Page<TeamVO> listTeams(long currentPage, TeamQueryRequest teamQuery, boolean isAdmin, Long loginUserId) {
         LambdaQueryWrapper<Team> teamLambdaQueryWrapper = new LambdaQueryWrapper<>();
         // 组合查询条件
         if (teamQuery != null) {
@@ -218,6 +303,12 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team> implements Te
             if (!isAdmin && statusEnum.equals(TeamStatusEnum.PRIVATE)) {
                 throw new BusinessException(ErrorCode.NO_AUTH);
             }
+            if (teamPageCache.isCacheable(currentPage, teamQuery, statusEnum.getValue())) {
+                return listPublicTeamByCache(currentPage, teamQuery, loginUserId);
+            }
+            if (teamSearchIndex.isReady()) {
+                return listTeamByIndex(currentPage, teamQuery, statusEnum.getValue(), loginUserId);
+            }
             teamLambdaQueryWrapper
                     .eq(id != null && id > 0, Team::getId, id)
                     .in(CollectionUtils.isNotEmpty(idList), Team::getId, idList)
@@ -233,9 +324,12 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team> implements Te
                     .eq(Team::getStatus, statusEnum.getValue())
                     .orderBy(true, false, Team::getCreateTime);
         }
+        if (teamQuery == null && teamSearchIndex.isReady()) {
+            return listTeamByIndex(currentPage, null, null, loginUserId);
+        }
         // 不展示已过期的队伍
         teamLambdaQueryWrapper.and(qw -> qw.gt(Team::getExpireTime, new Date()).or().isNull(Team::getExpireTime));
-        return listTeamByCondition(currentPage, teamLambdaQueryWrapper);
+        return listTeamByCondition(currentPage, teamLambdaQueryWrapper, loginUserId);
     }
 
     /**
@@ -270,7 +364,25 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team> implements Te
         }
         Team updateTeam = new Team();
         BeanUtils.copyProperties(teamUpdateRequest, updateTeam);
-        return this.updateById(updateTeam);
+        boolean result = this.updateById(updateTeam);
+        if (updateTeam.getMaxNum() != null && !updateTeam.getMaxNum().equals(oldTeam.getMaxNum())) {
+            teamSeatReservation.evictTeamAfterCommit(id);
+        }
+        if (updateTeam.getExpireTime() != null) {
+            teamExpiryQueue.schedule(id, updateTeam.getExpireTime());
+        }
+        teamSearchIndex.publish(id);
+        teamRecommendIndex.reload(id);
+        // 状态或到期时间变化会改变队伍是否出现在列表中
+        boolean statusChanged = updateTeam.getStatus() != null && !updateTeam.getStatus().equals(oldTeam.getStatus());
+        boolean expireTimeChanged = updateTeam.getExpireTime() != null
+                && !updateTeam.getExpireTime().equals(oldTeam.getExpireTime());
+        if (statusChanged || expireTimeChanged) {
+            teamPageCache.invalidateAll();
+        } else {
+            teamPageCache.invalidateTeam(id);
+        }
+        return result;
     }
 
     /**
@@ -281,6 +393,7 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team> implements Te
      * @return boolean
      */
     @Override
+    @Transactional(rollbackFor = Exception.class)
     public boolean joinTeam(TeamJoinRequest teamJoinRequest, User loginUser) {
         if (teamJoinRequest == null) {
             throw new BusinessException(ErrorCode.PARAMS_ERROR);
@@ -302,33 +415,30 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team> implements Te
                 throw new BusinessException(ErrorCode.PARAMS_ERROR, "密码错误");
             }
         }
-        // 该用户已加入的队伍数量
+        // 重复加入、每人加入上限和队伍名额在 Redis 中一次判断并占用，事务回滚时归还
         long userId = loginUser.getId();
-        QueryWrapper<UserTeam> userTeamQueryWrapper = new QueryWrapper<>();
-        userTeamQueryWrapper.eq("user_id", userId);
-        long hasJoinNum = userTeamService.count(userTeamQueryWrapper);
-        if (hasJoinNum > TeamConstants.MAXIMUM_JOINED_TEAM) {
-            throw new BusinessException(ErrorCode.PARAMS_ERROR, "最多创建和加入 5 个队伍");
-        }
-        // 不能重复加入已加入的队伍
-        userTeamQueryWrapper = new QueryWrapper<>();
-        userTeamQueryWrapper.eq("user_id", userId);
-        userTeamQueryWrapper.eq("team_id", teamId);
-        long hasUserJoinTeam = userTeamService.count(userTeamQueryWrapper);
-        if (hasUserJoinTeam > 0) {
-            throw new BusinessException(ErrorCode.PARAMS_ERROR, "用户已加入该队伍");
-        }
-        // 已加入队伍的人数
-        long teamHasJoinNum = this.countTeamUserByTeamId(teamId);
-        if (teamHasJoinNum >= team.getMaxNum()) {
+        teamSeatReservation.reserve(team, userId);
+        // 条件更新兜底，Redis 状态与数据库不一致时以数据库为准
+        if (!teamMemberCounter.increment(teamId)) {
+            // Redis 中的名额已过期，回滚后清除，下次按数据库重新加载
+            teamSeatReservation.evictAfterRollback(teamId, userId);
             throw new BusinessException(ErrorCode.PARAMS_ERROR, "队伍已满");
         }
+        userMembershipCache.evictAfterCommit(Collections.singletonList(userId));
+        teamPageCache.invalidateTeam(teamId);
+        teamRecommendIndex.reload(teamId);
         // 修改队伍信息
         UserTeam userTeam = new UserTeam();
         userTeam.setUserId(userId);
         userTeam.setTeamId(teamId);
         userTeam.setJoinTime(new Date());
-        return userTeamService.save(userTeam);
+        try {
+            return userTeamService.save(userTeam);
+        } catch (DuplicateKeyException e) {
+            // 重复提交由唯一约束兜底
+            teamSeatReservation.evictAfterRollback(teamId, userId);
+            throw new BusinessException(ErrorCode.PARAMS_ERROR, "用户已加入该队伍");
+        }
     }
 
     /**
@@ -345,7 +455,9 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team> implements Te
             throw new BusinessException(ErrorCode.PARAMS_ERROR);
         }
         Long teamId = teamQuitRequest.getTeamId();
-        Team team = getTeamById(teamId);
+        getTeamById(teamId);
+        // 锁住队伍行，同时退出的成员按顺序读到人数，避免都以为自己不是最后一人
+        Team team = this.getOne(new LambdaQueryWrapper<Team>().eq(Team::getId, teamId).last("for update"));
         long userId = loginUser.getId();
         UserTeam queryUserTeam = new UserTeam();
         queryUserTeam.setTeamId(teamId);
@@ -355,12 +467,23 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team> implements Te
         if (count == 0) {
             throw new BusinessException(ErrorCode.PARAMS_ERROR, "未加入队伍");
         }
-        long teamHasJoinNum = this.countTeamUserByTeamId(teamId);
         // 队伍只剩一人，解散
-        if (teamHasJoinNum == 1) {
+        if (team.getJoinNum() <= 1) {
             // 删除队伍
             this.removeById(teamId);
+            teamSeatReservation.disbandAfterCommit(teamId, Collections.singletonList(userId));
+            teamSearchIndex.publish(teamId);
+            teamExpiryQueue.cancel(teamId);
+            teamPageCache.invalidateFrom(teamId);
+            teamRecommendIndex.reload(teamId);
+            if (findFriendProperties.isEnableBloomFilter()) {
+                afterCommit(() -> bloomFilterService.remove(BloomFilterEnum.TEAM, teamId));
+            }
         } else {
+            teamMemberCounter.decrement(teamId);
+            teamSeatReservation.releaseAfterCommit(teamId, userId);
+            teamPageCache.invalidateTeam(teamId);
+            teamRecommendIndex.reload(teamId);
             // 队伍还剩至少两人
             // 是队长
             if (team.getUserId() == userId) {
@@ -383,8 +506,13 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team> implements Te
                 if (!result) {
                     throw new BusinessException(ErrorCode.SYSTEM_ERROR, "更新队伍队长失败");
                 }
+                teamSearchIndex.publish(teamId);
+                userMembershipCache.evictAfterCommit(Collections.singletonList(nextTeamLeaderId));
+                connectionIdentity.invalidateTeam(teamId);
             }
         }
+        userMembershipCache.evictAfterCommit(Collections.singletonList(userId));
+        connectionIdentity.invalidateMembers(teamId, Collections.singletonList(userId));
         // 移除关系
         return userTeamService.remove(queryWrapper);
     }
@@ -404,19 +532,13 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team> implements Te
         Team team = getTeamById(id);
         long teamId = team.getId();
         // 校验你是不是队伍的队长
-        if (isAdmin) {
-            // 移除所有加入队伍的关联信息
-            QueryWrapper<UserTeam> userTeamQueryWrapper = new QueryWrapper<>();
-            userTeamQueryWrapper.eq("team_id", teamId);
-            boolean result = userTeamService.remove(userTeamQueryWrapper);
-            if (!result) {
-                throw new BusinessException(ErrorCode.SYSTEM_ERROR, "删除队伍关联信息失败");
-            }
-            return this.removeById(teamId);
-        }
-        if (!team.getUserId().equals(loginUser.getId())) {
+        if (!isAdmin && !team.getUserId().equals(loginUser.getId())) {
             throw new BusinessException(ErrorCode.NO_AUTH, "无访问权限");
         }
+        LambdaQueryWrapper<UserTeam> memberLambdaQueryWrapper = new LambdaQueryWrapper<>();
+        memberLambdaQueryWrapper.select(UserTeam::getUserId).eq(UserTeam::getTeamId, teamId);
+        List<Long> memberIdList = userTeamService.listObjs(memberLambdaQueryWrapper,
+                userId -> Long.parseLong(String.valueOf(userId)));
         // 移除所有加入队伍的关联信息
         QueryWrapper<UserTeam> userTeamQueryWrapper = new QueryWrapper<>();
         userTeamQueryWrapper.eq("team_id", teamId);
@@ -424,10 +546,69 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team> implements Te
         if (!result) {
             throw new BusinessException(ErrorCode.SYSTEM_ERROR, "删除队伍关联信息失败");
         }
+        teamSeatReservation.disbandAfterCommit(teamId, memberIdList);
+        teamSearchIndex.publish(teamId);
+        List<Long> affectedUserIdList = new ArrayList<>(memberIdList);
+        affectedUserIdList.add(team.getUserId());
+        userMembershipCache.evictAfterCommit(affectedUserIdList);
+        connectionIdentity.invalidateMembers(teamId, affectedUserIdList);
+        teamExpiryQueue.cancel(teamId);
+        teamPageCache.invalidateFrom(teamId);
+        teamRecommendIndex.reload(teamId);
         // 删除队伍
         return this.removeById(teamId);
     }
 
+    /**
+     * 批量解散到期队伍
+     *
+     * @param teamIds 队伍id
+     * @return {@link List}<{@link Long}>
+     */
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public List<Long> disbandTeams(Collection<Long> teamIds) {
+        List<Long> expiredIdList = new ArrayList<>();
+        if (CollectionUtils.isEmpty(teamIds)) {
+            return expiredIdList;
+        }
+        Date now = new Date();
+        List<Long> affectedUserIdList = new ArrayList<>();
+        Map<Long, Long> captainIdMap = new HashMap<>();
+        for (Team team : this.listByIds(teamIds)) {
+            if (team.getExpireTime() != null && !team.getExpireTime().after(now)) {
+                expiredIdList.add(team.getId());
+                captainIdMap.put(team.getId(), team.getUserId());
+            } else {
+                // 到期时间已被修改，按数据库重新登记
+                teamExpiryQueue.schedule(team.getId(), team.getExpireTime());
+            }
+        }
+        if (expiredIdList.isEmpty()) {
+            return expiredIdList;
+        }
+        LambdaQueryWrapper<UserTeam> userTeamLambdaQueryWrapper = new LambdaQueryWrapper<>();
+        userTeamLambdaQueryWrapper.in(UserTeam::getTeamId, expiredIdList);
+        Map<Long, List<Long>> memberIdMap = userTeamService.list(userTeamLambdaQueryWrapper).stream()
+                .collect(Collectors.groupingBy(UserTeam::getTeamId,
+                        Collectors.mapping(UserTeam::getUserId, Collectors.toList())));
+        // 一条语句移除所有关联信息，一条语句删除所有队伍
+        userTeamService.remove(userTeamLambdaQueryWrapper);
+        this.removeByIds(expiredIdList);
+        for (Long teamId : expiredIdList) {
+            teamSeatReservation.disbandAfterCommit(teamId, memberIdMap.getOrDefault(teamId, Collections.emptyList()));
+            teamSearchIndex.publish(teamId);
+            teamPageCache.invalidateFrom(teamId);
+            teamRecommendIndex.reload(teamId);
+            List<Long> memberIdList = new ArrayList<>(memberIdMap.getOrDefault(teamId, Collections.emptyList()));
+            memberIdList.add(captainIdMap.get(teamId));
+            connectionIdentity.invalidateMembers(teamId, memberIdList);
+            affectedUserIdList.addAll(memberIdList);
+        }
+        userMembershipCache.evictAfterCommit(affectedUserIdList);
+        return expiredIdList;
+    }
+
     /**
      * 得到团队
      *
@@ -443,32 +624,106 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team> implements Te
         }
         TeamVO teamVO = new TeamVO();
         BeanUtils.copyProperties(team, teamVO);
-        LambdaQueryWrapper<UserTeam> userTeamLambdaQueryWrapper = new LambdaQueryWrapper<>();
-        userTeamLambdaQueryWrapper.eq(UserTeam::getTeamId, teamId);
-        long count = userTeamService.count(userTeamLambdaQueryWrapper);
-        teamVO.setHasJoinNum(count);
-        userTeamLambdaQueryWrapper.eq(UserTeam::getUserId, userId);
-        long userJoin = userTeamService.count(userTeamLambdaQueryWrapper);
-        teamVO.setHasJoin(userJoin > 0);
+        teamVO.setHasJoinNum(team.getJoinNum() == null ? 0L : team.getJoinNum());
+        teamVO.setHasJoin(userId != null && userMembershipCache.get(userId).hasJoined(teamId));
         User leader = userService.getById(team.getUserId());
         teamVO.setLeaderName(leader.getUsername());
 
         return teamVO;
     }
 
+    /**
+     * 公开队伍的默认列表前几页走缓存，缓存的页不含当前用户信息，取出后再补上是否已加入
+     *
+     * @param currentPage 当前页
+     * @param teamQuery   团队查询
+     * @param loginUserId 登录用户id，未登录为空
+     * @return {@link Page}<{@link TeamVO}>
+     */
+    private Page<TeamVO> listPublicTeamByCache(long currentPage, TeamQueryRequest teamQuery, Long loginUserId) {
+        Page<TeamVO> teamVoPage = teamPageCache.get(currentPage);
+        if (teamVoPage == null) {
+            // 先读代数，组装期间有队伍变化时不写入缓存
+            String generation = teamPageCache.generation();
+            teamVoPage = assemblePublicTeamPage(currentPage, teamQuery, TeamStatusEnum.PUBLIC.getValue());
+            teamPageCache.put(currentPage, teamVoPage, generation);
+        }
+        Set<Long> joinedTeamIds = loginUserId == null
+                ? Collections.emptySet() : userMembershipCache.get(loginUserId).getJoinedTeamIds();
+        teamVoPage.getRecords().forEach(teamVO -> teamVO.setHasJoin(joinedTeamIds.contains(teamVO.getId())));
+        return teamVoPage;
+    }
+
+    /**
+     * 不带当前用户信息组装公开队伍的一页
+     *
+     * @param currentPage 当前页
+     * @param teamQuery   团队查询
+     * @param status      状态
+     * @return {@link Page}<{@link TeamVO}>
+     */
+    private Page<TeamVO> assemblePublicTeamPage(long currentPage, TeamQueryRequest teamQuery, int status) {
+        if (teamSearchIndex.isReady()) {
+            return listTeamByIndex(currentPage, teamQuery, status, null);
+        }
+        LambdaQueryWrapper<Team> teamLambdaQueryWrapper = new LambdaQueryWrapper<>();
+        teamLambdaQueryWrapper.eq(Team::getStatus, status)
+                .and(qw -> qw.gt(Team::getExpireTime, new Date()).or().isNull(Team::getExpireTime))
+                .orderBy(true, false, Team::getCreateTime);
+        return listTeamByCondition(currentPage, teamLambdaQueryWrapper, null);
+    }
+
+    /**
+     * 由搜索索引得到当前页的队伍id，只查询这一页的队伍
+     *
+     * @param currentPage 当前页面
+     * @param teamQuery   团队查询
+     * @param status      状态
+     * @param loginUserId 登录用户id
+     * @return {@link Page}<{@link TeamVO}>
+     */
+    private Page<TeamVO> listTeamByIndex(long currentPage, TeamQueryRequest teamQuery, Integer status, Long loginUserId) {
+        Page<Long> idPage = teamSearchIndex.search(teamQuery, status, currentPage, PAGE_SIZE);
+        Page<Team> teamPage = new Page<>(currentPage, PAGE_SIZE, idPage.getTotal());
+        if (idPage.getRecords().isEmpty()) {
+            teamPage.setRecords(new ArrayList<>());
+            return teamPageAssembler.assemble(teamPage, loginUserId);
+        }
+        Map<Long, Team> teamMap = this.listByIds(idPage.getRecords()).stream()
+                .collect(Collectors.toMap(Team::getId, Function.identity()));
+        // 按索引的顺序返回，索引通知尚未到达时已删除的队伍跳过
+        teamPage.setRecords(idPage.getRecords().stream()
+                .map(teamMap::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList()));
+        return teamPageAssembler.assemble(teamPage, loginUserId);
+    }
+
     /**
      * 我加入列表
      *
      * @param currentPage 当前页面
      * @param teamQuery   团队查询
+     * @param loginUserId 登录用户id
      * @return {@link Page}<{@link TeamVO}>
      */
     @Override
-    public Page<TeamVO> listMyJoin(long currentPage, TeamQueryRequest teamQuery) {
+    public Page<TeamVO> listMyJoin(long currentPage, TeamQueryRequest teamQuery, Long loginUserId) {
         List<Long> idList = teamQuery.getIdList();
         LambdaQueryWrapper<Team> teamLambdaQueryWrapper = new LambdaQueryWrapper<>();
         teamLambdaQueryWrapper.in(Team::getId, idList);
-        return listTeamByCondition(currentPage, teamLambdaQueryWrapper);
+        return listTeamByCondition(currentPage, teamLambdaQueryWrapper, loginUserId);
+    }
+
+    /**
+     * 用户已加入（含创建）的队伍id
+     *
+     * @param userId 用户id
+     * @return {@link List}<{@link Long}>
+     */
+    @Override
+    public List<Long> listJoinedTeamIds(long userId) {
+        return new ArrayList<>(userMembershipCache.get(userId).getJoinedTeamIds());
     }
 
     /**
@@ -476,36 +731,17 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team> implements Te
      *
      * @param currentPage            当前页码
      * @param teamLambdaQueryWrapper 团队lambda查询包装器
+     * @param loginUserId            登录用户id，未登录为空
      * @return {@link Page}<{@link TeamVO}>
      */
-    public Page<TeamVO> listTeamByCondition(long currentPage, LambdaQueryWrapper<Team> teamLambdaQueryWrapper) {
+    public Page<TeamVO> listTeamByCondition(long currentPage, LambdaQueryWrapper<Team> teamLambdaQueryWrapper,
+                                            Long loginUserId) {
         Page<Team> teamPage = this.page(new Page<>(currentPage, PAGE_SIZE), teamLambdaQueryWrapper);
         if (CollectionUtils.isEmpty(teamPage.getRecords())) {
             return new Page<>();
         }
-        Page<TeamVO> teamVoPage = new Page<>();
-        // 关联查询创建人的用户信息
-        BeanUtils.copyProperties(teamPage, teamVoPage, "records");
-        List<Team> teamPageRecords = teamPage.getRecords();
-        ArrayList<TeamVO> teamUserVOList = new ArrayList<>();
-        for (Team team : teamPageRecords) {
-            Long userId = team.getUserId();
-            if (userId == null) {
-                continue;
-            }
-            User user = userService.getById(userId);
-            TeamVO teamUserVO = new TeamVO();
-            BeanUtils.copyProperties(team, teamUserVO);
-            // 脱敏用户信息
-            if (user != null) {
-                UserVO userVO = new UserVO();
-                BeanUtils.copyProperties(user, userVO);
-                teamUserVO.setCreateUser(userVO);
-            }
-            teamUserVOList.add(teamUserVO);
-        }
-        teamVoPage.setRecords(teamUserVOList);
-        return teamVoPage;
+        // 批量关联创建人、已加入人数、成员头像和是否已加入
+        return teamPageAssembler.assemble(teamPage, loginUserId);
     }
 
     /**
@@ -605,9 +841,11 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team> implements Te
             temp.setCoverImage(qiniuUrl + fileName);
             this.updateById(temp);
         }
+        teamPageCache.invalidateTeam(teamId);
     }
 
     @Override
+    @Transactional(rollbackFor = Exception.class)
     public void kickOut(Long teamId, Long userId, Long loginUserId, boolean admin) {
         if (userId.equals(loginUserId)) {
             throw new BusinessException(ErrorCode.PARAMS_ERROR, "不能将自己踢出");
@@ -621,7 +859,14 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team> implements Te
         }
         LambdaQueryWrapper<UserTeam> userTeamLambdaQueryWrapper = new LambdaQueryWrapper<>();
         userTeamLambdaQueryWrapper.eq(UserTeam::getTeamId, teamId).eq(UserTeam::getUserId, userId);
-        userTeamService.remove(userTeamLambdaQueryWrapper);
+        if (userTeamService.remove(userTeamLambdaQueryWrapper)) {
+            teamMemberCounter.decrement(teamId);
+            teamSeatReservation.releaseAfterCommit(teamId, userId);
+            userMembershipCache.evictAfterCommit(Collections.singletonList(userId));
+            teamPageCache.invalidateTeam(teamId);
+            teamRecommendIndex.reload(teamId);
+            connectionIdentity.invalidateMembers(teamId, Collections.singletonList(userId));
+        }
     }
 
     @Override
@@ -629,31 +874,7 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team> implements Te
         LambdaQueryWrapper<Team> teamLambdaQueryWrapper = new LambdaQueryWrapper<>();
         teamLambdaQueryWrapper.eq(Team::getUserId, userId);
         Page<Team> teamPage = this.page(new Page<>(currentPage, PAGE_SIZE), teamLambdaQueryWrapper);
-        List<TeamVO> teamVOList = teamPage.getRecords()
-                .stream().map((team) -> this.getTeam(team.getId(), userId))
-                .collect(Collectors.toList());
-        Page<TeamVO> teamVOPage = new Page<>();
-        BeanUtils.copyProperties(teamPage, teamVOPage);
-        teamVOPage.setRecords(teamVOList);
-        return teamVOPage;
-    }
-
-    @Override
-    public Page<TeamVO> getJoinedUserAvatar(Page<TeamVO> teamVoPage) {
-        teamVoPage.getRecords().forEach((item) -> {
-            Long teamId = item.getId();
-            LambdaQueryWrapper<UserTeam> userTeamLambdaQueryWrapper = new LambdaQueryWrapper<>();
-            userTeamLambdaQueryWrapper.eq(UserTeam::getTeamId, teamId);
-            List<Long> joinedUserIdList = userTeamService.list(userTeamLambdaQueryWrapper)
-                    .stream().map((UserTeam::getUserId))
-                    .limit(TeamConstants.MAXIMUM_JOINED_USER_AVATAR_NUM)
-                    .collect(Collectors.toList());
-            List<String> joinedUserAvatarList = userService.listByIds(joinedUserIdList)
-                    .stream().map((User::getAvatarUrl))
-                    .collect(Collectors.toList());
-            item.setJoinedUserAvatars(joinedUserAvatarList);
-        });
-        return teamVoPage;
+        return teamPageAssembler.assemble(teamPage, userId);
     }
 
 
@@ -674,20 +895,39 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team> implements Te
         return team;
     }
 
+
     /**
-     * 获取某队伍当前人数
+     * 按标签相似度推荐队伍，标签为空或索引未就绪时返回公开队伍列表
      *
-     * @param teamId 团队id
-     * @return long
+     * @param currentPage 当前页码
+     * @param loginUser   登录用户
+     * @return {@link Page}<{@link TeamVO}>
      */
-    private long countTeamUserByTeamId(long teamId) {
-        QueryWrapper<UserTeam> userTeamQueryWrapper = new QueryWrapper<>();
-        userTeamQueryWrapper.eq("team_id", teamId);
-        return userTeamService.count(userTeamQueryWrapper);
+    @Override
+    public Page<TeamVO> recommendTeams(long currentPage, User loginUser) {
+        long loginUserId = loginUser.getId();
+        String tags = loginUser.getTags();
+        List<String> tagList = StringUtils.isBlank(tags) ? null : new Gson().fromJson(tags,
+                new TypeToken<List<String>>() {
+                }.getType());
+        if (CollectionUtils.isEmpty(tagList) || !teamRecommendIndex.isReady()) {
+            return listTeams(currentPage, new TeamQueryRequest(), false, loginUserId);
+        }
+        Page<Long> idPage = teamRecommendIndex.recommend(tagList,
+                userMembershipCache.get(loginUserId).getJoinedTeamIds(), currentPage, PAGE_SIZE);
+        Page<Team> teamPage = new Page<>(currentPage, PAGE_SIZE, idPage.getTotal());
+        if (idPage.getRecords().isEmpty()) {
+            teamPage.setRecords(new ArrayList<>());
+            return teamPageAssembler.assemble(teamPage, loginUserId);
+        }
+        Map<Long, Team> teamMap = this.listByIds(idPage.getRecords()).stream()
+                .collect(Collectors.toMap(Team::getId, Function.identity()));
+        // 按相似度的顺序返回，通知尚未到达时已删除或已满的队伍跳过
+        teamPage.setRecords(idPage.getRecords().stream()
+                .map(teamMap::get)
+                .filter(Objects::nonNull)
+                .filter(team -> team.getJoinNum() < team.getMaxNum())
+                .collect(Collectors.toList()));
+        return teamPageAssembler.assemble(teamPage, loginUserId);
     }
-
 }
-
-
-
-
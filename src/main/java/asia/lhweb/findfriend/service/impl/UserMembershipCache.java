@@ -0,0 +1,113 @@
+package asia.lhweb.findfriend.service.impl;
+
+import asia.lhweb.findfriend.mapper.TeamMapper;
+import asia.lhweb.findfriend.model.domain.Team;
+import asia.lhweb.findfriend.model.domain.UserTeam;
+import asia.lhweb.findfriend.model.vo.UserTeamMembershipVO;
+import asia.lhweb.findfriend.service.UserTeamService;
+import cn.hutool.core.util.IdUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import org.redisson.api.RMapCache;
+import org.redisson.api.RedissonClient;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static asia.lhweb.findfriend.constants.RedisConstants.USER_MEMBERSHIP_KEY;
+import static asia.lhweb.findfriend.constants.RedisConstants.USER_MEMBERSHIP_TTL;
+import static asia.lhweb.findfriend.utils.TransactionUtils.afterCommit;
+
+/**
+ * 用户队伍关系缓存
+ * 存在 Redis 中，每条记录写入后到期删除，缓存大小随活跃用户而不是全部用户增长；缺失时从数据库装载。
+ * 加入、退出、踢出、创建、解散在事务提交后把相关用户的记录替换为清除标记，而不是直接删除：
+ * 装载结果只在记录仍是装载前读到的那个值时写入，装载期间发生的清除会使写入失败，旧数据不会写回缓存。
+ * 清除标记的过期时间远大于一次装载的耗时，装载期间不会因标记到期而失效
+ *
+ * @author 罗汉
+ * @date 2024/05/19
+ */
+@Component
+public class UserMembershipCache {
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private UserTeamService userTeamService;
+
+    @Resource
+    private TeamMapper teamMapper;
+
+    private RMapCache<Long, UserTeamMembershipVO> membershipMap;
+
+    @PostConstruct
+    public void init() {
+        membershipMap = redissonClient.getMapCache(USER_MEMBERSHIP_KEY);
+    }
+
+    /**
+     * 获取用户的队伍关系
+     *
+     * @param userId 用户id
+     * @return {@link UserTeamMembershipVO}
+     */
+    public UserTeamMembershipVO get(long userId) {
+        UserTeamMembershipVO cached = membershipMap.get(userId);
+        if (cached != null && cached.getTombstone() == null) {
+            return cached;
+        }
+        UserTeamMembershipVO membership = load(userId);
+        if (cached == null) {
+            membershipMap.fastPutIfAbsent(userId, membership, USER_MEMBERSHIP_TTL, TimeUnit.SECONDS);
+        } else {
+            // 沿用清除标记剩余的过期时间
+            membershipMap.replace(userId, cached, membership);
+        }
+        return membership;
+    }
+
+    /**
+     * 事务提交后写入清除标记，没有事务时立即写入
+     *
+     * @param userIds 用户id
+     */
+    public void evictAfterCommit(Collection<Long> userIds) {
+        Set<Long> userIdSet = new HashSet<>(userIds);
+        userIdSet.remove(null);
+        if (userIdSet.isEmpty()) {
+            return;
+        }
+        afterCommit(() -> {
+            Map<Long, UserTeamMembershipVO> tombstones = new HashMap<>(userIdSet.size());
+            for (Long userId : userIdSet) {
+                UserTeamMembershipVO tombstone = new UserTeamMembershipVO();
+                tombstone.setTombstone(IdUtil.fastSimpleUUID());
+                tombstones.put(userId, tombstone);
+            }
+            membershipMap.putAll(tombstones, USER_MEMBERSHIP_TTL, TimeUnit.SECONDS);
+        });
+    }
+
+    private UserTeamMembershipVO load(long userId) {
+        LambdaQueryWrapper<UserTeam> userTeamLambdaQueryWrapper = new LambdaQueryWrapper<>();
+        userTeamLambdaQueryWrapper.select(UserTeam::getTeamId)
+                .eq(UserTeam::getUserId, userId)
+                .orderByAsc(UserTeam::getId);
+        LambdaQueryWrapper<Team> teamLambdaQueryWrapper = new LambdaQueryWrapper<>();
+        teamLambdaQueryWrapper.eq(Team::getUserId, userId);
+        UserTeamMembershipVO membership = new UserTeamMembershipVO();
+        membership.setJoinedTeamIds(new LinkedHashSet<>(userTeamService.listObjs(userTeamLambdaQueryWrapper,
+                teamId -> Long.parseLong(String.valueOf(teamId)))));
+        membership.setCreatedNum(teamMapper.selectCount(teamLambdaQueryWrapper));
+        return membership;
+    }
+}
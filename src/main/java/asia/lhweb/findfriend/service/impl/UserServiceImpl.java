@@ -6,13 +6,16 @@ import asia.lhweb.findfriend.exception.BusinessException;
 import asia.lhweb.findfriend.mapper.UserMapper;
 import asia.lhweb.findfriend.model.domain.Follow;
 import asia.lhweb.findfriend.model.domain.User;
+import asia.lhweb.findfriend.model.enums.CacheNamespaceEnum;
 import asia.lhweb.findfriend.model.request.UserRegisterRequest;
 import asia.lhweb.findfriend.model.request.UserUpdateRequest;
 import asia.lhweb.findfriend.model.vo.UserVO;
 import asia.lhweb.findfriend.properties.FindFriendProperties;
+import asia.lhweb.findfriend.service.CacheNamespaceService;
 import asia.lhweb.findfriend.service.FollowService;
 import asia.lhweb.findfriend.service.UserService;
 import asia.lhweb.findfriend.utils.AlgorithmUtil;
+import asia.lhweb.findfriend.ws.ConnectionIdentity;
 import cn.hutool.core.lang.Pair;
 import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.StrUtil;
@@ -48,7 +51,6 @@ import static asia.lhweb.findfriend.constants.RedisConstants.LOGIN_USER_KEY;
 import static asia.lhweb.findfriend.constants.RedisConstants.LOGIN_USER_TTL;
 import static asia.lhweb.findfriend.constants.RedisConstants.REGISTER_CODE_KEY;
 import static asia.lhweb.findfriend.constants.RedisConstants.USER_FORGET_PASSWORD_KEY;
-import static asia.lhweb.findfriend.constants.RedisConstants.USER_RECOMMEND_KEY;
 import static asia.lhweb.findfriend.constants.RedisConstants.USER_UPDATE_EMAIL_KEY;
 import static asia.lhweb.findfriend.constants.RedisConstants.USER_UPDATE_PHONE_KEY;
 import static asia.lhweb.findfriend.constants.SystemConstants.MAXIMUM_LOGIN_IDLE_TIME;
@@ -86,7 +88,30 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements Us
     private FollowService followService;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheNamespaceService cacheNamespaceService;
+    @Resource
+    private UserMembershipCache userMembershipCache;
+    @Resource
+    private TeamRecommendIndex teamRecommendIndex;
+    @Resource
+    private ConnectionIdentity connectionIdentity;
 
+    /**
+     * 按id更新用户
+     * 昵称、头像和角色的修改都经过这里，修改后通知聊天连接刷新身份
+     *
+     * @param entity 用户
+     * @return boolean
+     */
+    @Override
+    public boolean updateById(User entity) {
+        boolean result = super.updateById(entity);
+        if (result && entity.getId() != null) {
+            connectionIdentity.invalidateUser(entity.getId());
+        }
+        return result;
+    }
 
     /**
      * 用户登记
@@ -571,6 +596,8 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements Us
         user.setId(userId);
         user.setTags(tagsJson);
         this.updateById(user);
+        // 所在队伍的画像按新标签重新装载
+        teamRecommendIndex.reload(userMembershipCache.get(userId).getJoinedTeamIds());
     }
 
     /**
@@ -701,7 +728,7 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements Us
         Gson gson = new Gson();
         // 用户已登录
         if (loginUser != null) {
-            String key = USER_RECOMMEND_KEY + loginUser.getId() + ":" + currentPage;
+            String key = cacheNamespaceService.key(CacheNamespaceEnum.RECOMMEND, loginUser.getId() + ":" + currentPage);
             Page<UserVO> userVOPage;
             if (StringUtils.isNotBlank(username)) { // 填写了用户名,模糊查询
                 userVOPage = getUserPageByUsername(currentPage, username, loginUser);
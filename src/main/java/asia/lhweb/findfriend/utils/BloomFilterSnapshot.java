@@ -0,0 +1,173 @@
+package asia.lhweb.findfriend.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 布隆过滤器快照
+ * 文件格式：魔数 | 参数个数 | (参数名, 参数值)... | 位数组长度 | 位数组，读写都通过内存映射完成，不经过堆内大数组
+ * Redis 中的过滤器丢失时（如 Redis 重启且未持久化）从快照恢复，再按水位线补齐之后新增的 id
+ *
+ * @author 罗汉
+ * @date 2024/05/10
+ */
+public class BloomFilterSnapshot {
+    /**
+     * 魔数 "BLM1"
+     */
+    private static final int MAGIC = 0x424C4D31;
+
+    /**
+     * 与 Redis 之间每次传输的字节数
+     */
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    /**
+     * 参数
+     */
+    private final Map<String, String> config;
+
+    /**
+     * 位数组
+     */
+    private final ByteBuffer data;
+
+    private BloomFilterSnapshot(Map<String, String> config, ByteBuffer data) {
+        this.config = config;
+        this.data = data;
+    }
+
+    /**
+     * 保存快照，先写临时文件再原子替换，避免中途退出留下损坏的快照
+     * 先读参数再读位数组，快照中的位数组至少包含水位线及之前的所有 id
+     *
+     * @param filter 过滤器
+     * @param file   快照文件
+     * @throws IOException IOException
+     */
+    public static void save(RedisBloomFilter filter, Path file) throws IOException {
+        Map<String, String> config = filter.getConfig();
+        config.remove("shadow");
+        config.remove("shadowCount");
+        long length = filter.byteLength();
+        byte[][] header = new byte[config.size() * 2][];
+        long headerLength = Integer.BYTES * 2 + Long.BYTES;
+        int i = 0;
+        for (Map.Entry<String, String> entry : config.entrySet()) {
+            header[i] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            header[i + 1] = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            headerLength += Integer.BYTES * 2 + header[i].length + header[i + 1].length;
+            i += 2;
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = parent.resolve(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, headerLength + length);
+            buffer.putInt(MAGIC);
+            buffer.putInt(config.size());
+            for (byte[] bytes : header) {
+                buffer.putInt(bytes.length);
+                buffer.put(bytes);
+            }
+            buffer.putLong(length);
+            for (long start = 0; start < length; start += CHUNK_SIZE) {
+                long end = Math.min(start + CHUNK_SIZE, length);
+                byte[] bytes = filter.getRange(start, end - 1);
+                // 读取期间位数组被替换而变短时，剩余部分保持为 0
+                buffer.put(bytes, 0, (int) Math.min(bytes.length, end - start));
+                buffer.position((int) (headerLength + end));
+            }
+            buffer.force();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读取快照，文件不存在或格式不正确时返回 null
+     *
+     * @param file 快照文件
+     * @return {@link BloomFilterSnapshot}
+     * @throws IOException IOException
+     */
+    public static BloomFilterSnapshot load(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < Integer.BYTES * 2 || buffer.getInt() != MAGIC) {
+                return null;
+            }
+            int fields = buffer.getInt();
+            Map<String, String> config = new LinkedHashMap<>();
+            for (int i = 0; i < fields; i++) {
+                config.put(readString(buffer), readString(buffer));
+            }
+            long length = buffer.getLong();
+            if (length != buffer.remaining()) {
+                return null;
+            }
+            return new BloomFilterSnapshot(config, buffer.slice());
+        }
+    }
+
+    /**
+     * 快照参数是否与当前配置一致
+     *
+     * @param filterType         过滤器类型
+     * @param expectedInsertions 预期元素数量
+     * @param falseProbability   期望误判率
+     * @return boolean
+     */
+    public boolean matches(String filterType, long expectedInsertions, double falseProbability) {
+        return filterType.equals(config.get("type"))
+                && String.valueOf(expectedInsertions).equals(config.get("expectedInsertions"))
+                && String.valueOf(falseProbability).equals(config.get("falseProbability"));
+    }
+
+    /**
+     * 写回 Redis
+     * 先写位数组再写参数，参数写入前其他节点读不到过滤器，补齐水位线之后的 id 前未标记装载完成，查询直接放行
+     *
+     * @param filter 过滤器
+     */
+    public void restoreTo(RedisBloomFilter filter) {
+        filter.delete();
+        ByteBuffer buffer = data.duplicate();
+        long offset = 0;
+        while (buffer.hasRemaining()) {
+            byte[] bytes = new byte[Math.min(CHUNK_SIZE, buffer.remaining())];
+            buffer.get(bytes);
+            filter.setRange(bytes, offset);
+            offset += bytes.length;
+        }
+        filter.restoreConfig(config);
+    }
+
+    /**
+     * 水位线
+     *
+     * @return long
+     */
+    public long getWatermark() {
+        String watermark = config.get("watermark");
+        return watermark == null ? 0 : Long.parseLong(watermark);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,211 @@
+package asia.lhweb.findfriend.utils;
+
+import asia.lhweb.findfriend.model.domain.Chat;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 聊天归档段文件
+ * 每个会话两个只追加的文件：{会话}.seg 依次存放压缩块，每块是按id升序的一批消息的 JSON 数组经 Deflate 压缩；
+ * {会话}.idx 每块一条定长记录：块偏移 | 块长度 | 条数 | 最小id | 最大id | 最早时间 | 最晚时间。
+ * 先写块再写索引，索引只指向已落盘的块；读取通过内存映射索引定位块，再映射块所在区间解压
+ *
+ * @author 罗汉
+ * @date 2024/05/28
+ */
+public final class ChatArchiveSegment {
+    private static final Gson GSON = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").create();
+
+    /**
+     * 索引记录长度
+     */
+    private static final int INDEX_RECORD_SIZE = Long.BYTES + Integer.BYTES * 2 + Long.BYTES * 4;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private ChatArchiveSegment() {
+    }
+
+    /**
+     * 追加一批消息，id不大于已归档最大id的跳过（上次归档后未来得及从数据库删除）
+     *
+     * @param dir      归档目录
+     * @param name     会话名
+     * @param chatList 同一会话按id升序的消息
+     * @return 实际追加的条数
+     * @throws IOException IOException
+     */
+    public static int append(Path dir, String name, List<Chat> chatList) throws IOException {
+        Files.createDirectories(dir);
+        try (FileChannel index = FileChannel.open(dir.resolve(name + INDEX_SUFFIX), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileChannel segment = FileChannel.open(dir.resolve(name + SEGMENT_SUFFIX), StandardOpenOption.CREATE,
+                     StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // 上次中途退出时丢弃不完整的索引记录和没有索引的块
+            long records = index.size() / INDEX_RECORD_SIZE;
+            index.truncate(records * INDEX_RECORD_SIZE);
+            long segmentEnd = 0;
+            long archivedMaxId = 0;
+            if (records > 0) {
+                ByteBuffer last = ByteBuffer.allocate(INDEX_RECORD_SIZE);
+                index.read(last, (records - 1) * INDEX_RECORD_SIZE);
+                last.flip();
+                IndexRecord record = IndexRecord.read(last);
+                segmentEnd = record.offset + record.length;
+                archivedMaxId = record.maxId;
+            }
+            segment.truncate(segmentEnd);
+            List<Chat> pending = new ArrayList<>(chatList.size());
+            for (Chat chat : chatList) {
+                if (chat.getId() > archivedMaxId) {
+                    pending.add(chat);
+                }
+            }
+            if (pending.isEmpty()) {
+                return 0;
+            }
+            byte[] block = deflate(GSON.toJson(pending).getBytes(StandardCharsets.UTF_8));
+            segment.write(ByteBuffer.wrap(block), segmentEnd);
+            segment.force(false);
+            Chat first = pending.get(0);
+            Chat last = pending.get(pending.size() - 1);
+            ByteBuffer record = ByteBuffer.allocate(INDEX_RECORD_SIZE);
+            record.putLong(segmentEnd)
+                    .putInt(block.length)
+                    .putInt(pending.size())
+                    .putLong(first.getId())
+                    .putLong(last.getId())
+                    .putLong(first.getCreateTime().getTime())
+                    .putLong(last.getCreateTime().getTime())
+                    .flip();
+            index.write(record, records * INDEX_RECORD_SIZE);
+            index.force(false);
+            return pending.size();
+        }
+    }
+
+    /**
+     * 按id倒序读取id小于 beforeId 的消息
+     *
+     * @param dir      归档目录
+     * @param name     会话名
+     * @param beforeId 只返回id小于该值的消息，为空时从最新一条开始
+     * @param limit    条数
+     * @return {@link List}<{@link Chat}>
+     * @throws IOException IOException
+     */
+    public static List<Chat> readBefore(Path dir, String name, Long beforeId, int limit) throws IOException {
+        Path indexFile = dir.resolve(name + INDEX_SUFFIX);
+        if (!Files.isRegularFile(indexFile) || limit <= 0) {
+            return Collections.emptyList();
+        }
+        List<Chat> result = new ArrayList<>(limit);
+        try (FileChannel index = FileChannel.open(indexFile, StandardOpenOption.READ);
+             FileChannel segment = FileChannel.open(dir.resolve(name + SEGMENT_SUFFIX), StandardOpenOption.READ)) {
+            long records = index.size() / INDEX_RECORD_SIZE;
+            if (records == 0) {
+                return result;
+            }
+            MappedByteBuffer indexBuffer = index.map(FileChannel.MapMode.READ_ONLY, 0, records * INDEX_RECORD_SIZE);
+            for (long i = records - 1; i >= 0 && result.size() < limit; i--) {
+                indexBuffer.position((int) (i * INDEX_RECORD_SIZE));
+                IndexRecord record = IndexRecord.read(indexBuffer);
+                if (beforeId != null && record.minId >= beforeId) {
+                    continue;
+                }
+                MappedByteBuffer blockBuffer = segment.map(FileChannel.MapMode.READ_ONLY, record.offset, record.length);
+                byte[] block = new byte[record.length];
+                blockBuffer.get(block);
+                List<Chat> chatList = GSON.fromJson(new String(inflate(block), StandardCharsets.UTF_8),
+                        new TypeToken<List<Chat>>() {
+                        }.getType());
+                for (int j = chatList.size() - 1; j >= 0 && result.size() < limit; j--) {
+                    Chat chat = chatList.get(j);
+                    if (beforeId == null || chat.getId() < beforeId) {
+                        result.add(chat);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] bytes) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(buffer);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("归档块不完整");
+                }
+                out.write(buffer, 0, inflated);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("归档块已损坏", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 索引记录
+     */
+    private static class IndexRecord {
+        private long offset;
+        private int length;
+        private long minId;
+        private long maxId;
+
+        static IndexRecord read(ByteBuffer buffer) {
+            IndexRecord record = new IndexRecord();
+            record.offset = buffer.getLong();
+            record.length = buffer.getInt();
+            // 读取消息只需要块位置和id范围
+            buffer.getInt();
+            record.minId = buffer.getLong();
+            record.maxId = buffer.getLong();
+            buffer.getLong();
+            buffer.getLong();
+            return record;
+        }
+    }
+}
@@ -0,0 +1,538 @@
+package asia.lhweb.findfriend.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import cn.hutool.core.util.IdUtil;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static asia.lhweb.findfriend.constants.BloomFilterConstants.BLOOM_CONFIG_SUFFIX;
+
+/**
+ * Redis 布隆过滤器
+ * 位数组保存在 Redis 字符串中，所有节点共享；大小和散列次数保存在 {key}:config 中，保证各节点计算出相同的位下标。
+ * 每次创建或从快照恢复都会生成新的 epoch，读写脚本先比对本节点加载参数时的 epoch，不一致时重新加载参数再执行；
+ * 未完成装载（ready 不为 1）时查询一律放行
+ *
+ * @author 罗汉
+ * @date 2024/05/06
+ */
+public class RedisBloomFilter {
+    /**
+     * 初始化参数，已存在则不覆盖
+     */
+    private static final DefaultRedisScript<Long> INIT_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 1 then return 0 end "
+                    + "redis.call('HSET', KEYS[1], 'size', ARGV[1], 'hashIterations', ARGV[2], "
+                    + "'expectedInsertions', ARGV[3], 'falseProbability', ARGV[4], 'type', ARGV[5], "
+                    + "'count', '0', 'watermark', '0', 'ready', '0', 'epoch', ARGV[6]) "
+                    + "return 1", Long.class);
+
+    /**
+     * 批量置位，ARGV[1] 为 epoch，不一致时返回 -1
+     */
+    private static final DefaultRedisScript<Long> ADD_SCRIPT = new DefaultRedisScript<>(
+            "if (redis.call('HGET', KEYS[2], 'epoch') or '') ~= ARGV[1] then return -1 end "
+                    + "for i = 2, #ARGV do redis.call('SETBIT', KEYS[1], ARGV[i], 1) end "
+                    + "return #ARGV - 1", Long.class);
+
+    /**
+     * 判断所有位是否都已置位，ARGV[1] 为 epoch，不一致时返回 -1，未完成装载时返回 1
+     */
+    private static final DefaultRedisScript<Long> CONTAINS_SCRIPT = new DefaultRedisScript<>(
+            "local state = redis.call('HMGET', KEYS[2], 'ready', 'epoch') "
+                    + "if (state[2] or '') ~= ARGV[1] then return -1 end "
+                    + "if state[1] ~= '1' then return 1 end "
+                    + "for i = 2, #ARGV do "
+                    + "if redis.call('GETBIT', KEYS[1], ARGV[i]) == 0 then return 0 end "
+                    + "end return 1", Long.class);
+
+    /**
+     * 脚本返回值：本节点参数已过期
+     */
+    protected static final long STALE = -1;
+
+    /**
+     * 推进已装载的最大 id，只增不减
+     */
+    private static final DefaultRedisScript<Long> WATERMARK_SCRIPT = new DefaultRedisScript<>(
+            "local current = tonumber(redis.call('HGET', KEYS[1], 'watermark') or '0') "
+                    + "if tonumber(ARGV[1]) > current then redis.call('HSET', KEYS[1], 'watermark', ARGV[1]) return 1 end "
+                    + "return 0", Long.class);
+
+    protected final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 位数组键
+     */
+    protected final String key;
+
+    /**
+     * 参数键
+     */
+    protected final String configKey;
+
+    /**
+     * 位数组大小
+     */
+    private volatile long size;
+
+    /**
+     * 散列次数
+     */
+    private volatile int hashIterations;
+
+    /**
+     * 预期元素数量
+     */
+    private volatile long expectedInsertions;
+
+    /**
+     * 期望误判率
+     */
+    private volatile double falseProbability;
+
+    /**
+     * Redis 中记录的过滤器类型
+     */
+    private volatile String storedType;
+
+    /**
+     * 加载参数时 Redis 中的 epoch，最后写入，读到它之后读取的参数不早于它
+     */
+    private volatile String epoch = "";
+
+    /**
+     * Redis 布隆过滤器
+     *
+     * @param stringRedisTemplate 字符串redis模板
+     * @param key                 键
+     */
+    public RedisBloomFilter(StringRedisTemplate stringRedisTemplate, String key) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.key = key;
+        this.configKey = key + BLOOM_CONFIG_SUFFIX;
+    }
+
+    /**
+     * 按预期元素数量和误判率创建过滤器，已存在时返回 false 并沿用已有参数
+     *
+     * @param expectedInsertions 预期元素数量
+     * @param falseProbability   期望误判率
+     * @return boolean
+     */
+    public boolean tryInit(long expectedInsertions, double falseProbability) {
+        if (expectedInsertions <= 0 || falseProbability <= 0 || falseProbability >= 1) {
+            throw new IllegalArgumentException("布隆过滤器参数不合法");
+        }
+        long bits = optimalNumOfBits(expectedInsertions, falseProbability);
+        int hashes = optimalNumOfHashFunctions(expectedInsertions, bits);
+        Long created = stringRedisTemplate.execute(INIT_SCRIPT,
+                Collections.singletonList(configKey),
+                String.valueOf(bits), String.valueOf(hashes),
+                String.valueOf(expectedInsertions), String.valueOf(falseProbability), getFilterType(), newEpoch());
+        load();
+        return created != null && created == 1;
+    }
+
+    /**
+     * 从 Redis 读取参数
+     *
+     * @return 过滤器是否存在
+     */
+    public boolean load() {
+        Map<Object, Object> config = stringRedisTemplate.opsForHash().entries(configKey);
+        if (config.isEmpty()) {
+            this.size = 0;
+            this.epoch = "";
+            return false;
+        }
+        this.hashIterations = Integer.parseInt(String.valueOf(config.get("hashIterations")));
+        this.expectedInsertions = Long.parseLong(String.valueOf(config.get("expectedInsertions")));
+        this.falseProbability = Double.parseDouble(String.valueOf(config.get("falseProbability")));
+        this.storedType = String.valueOf(config.get("type"));
+        this.size = Long.parseLong(String.valueOf(config.get("size")));
+        Object storedEpoch = config.get("epoch");
+        this.epoch = storedEpoch == null ? "" : String.valueOf(storedEpoch);
+        return true;
+    }
+
+    /**
+     * 过滤器类型，用于识别 Redis 中的数据格式
+     *
+     * @return {@link String}
+     */
+    public String getFilterType() {
+        return "bloom";
+    }
+
+    /**
+     * Redis 中的数据格式是否与当前实现一致
+     *
+     * @return boolean
+     */
+    public boolean isSameType() {
+        return getFilterType().equals(storedType);
+    }
+
+    /**
+     * 是否已完成数据装载
+     *
+     * @return boolean
+     */
+    public boolean isReady() {
+        return "1".equals(stringRedisTemplate.opsForHash().get(configKey, "ready"));
+    }
+
+    /**
+     * 标记数据装载完成
+     */
+    public void markReady() {
+        stringRedisTemplate.opsForHash().put(configKey, "ready", "1");
+    }
+
+    /**
+     * 已从数据库装载的最大 id，启动时只需补齐大于它的 id
+     *
+     * @return long
+     */
+    public long getWatermark() {
+        Object watermark = stringRedisTemplate.opsForHash().get(configKey, "watermark");
+        return watermark == null ? 0 : Long.parseLong(String.valueOf(watermark));
+    }
+
+    /**
+     * 推进水位线
+     *
+     * @param id 已装载的最大 id
+     */
+    public void advanceWatermark(long id) {
+        stringRedisTemplate.execute(WATERMARK_SCRIPT, Collections.singletonList(configKey), String.valueOf(id));
+    }
+
+    /**
+     * 读取全部参数
+     *
+     * @return {@link Map}<{@link String}, {@link String}>
+     */
+    public Map<String, String> getConfig() {
+        Map<String, String> config = new LinkedHashMap<>();
+        stringRedisTemplate.opsForHash().entries(configKey)
+                .forEach((field, value) -> config.put(String.valueOf(field), String.valueOf(value)));
+        return config;
+    }
+
+    /**
+     * 写入全部参数并重新加载，用于从快照恢复
+     * 恢复后使用新的 epoch，补齐数据后由调用方标记装载完成
+     *
+     * @param config 参数
+     */
+    public void restoreConfig(Map<String, String> config) {
+        Map<String, String> restored = new LinkedHashMap<>(config);
+        restored.put("ready", "0");
+        restored.put("epoch", newEpoch());
+        stringRedisTemplate.opsForHash().putAll(configKey, restored);
+        load();
+    }
+
+    /**
+     * 位数组在 Redis 中的字节数
+     *
+     * @return long
+     */
+    public long byteLength() {
+        Long length = stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.strLen(key.getBytes(StandardCharsets.UTF_8)));
+        return length == null ? 0 : length;
+    }
+
+    /**
+     * 读取位数组的一段字节
+     *
+     * @param start 起始下标
+     * @param end   结束下标（包含）
+     * @return byte[]
+     */
+    public byte[] getRange(long start, long end) {
+        byte[] bytes = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.getRange(key.getBytes(StandardCharsets.UTF_8), start, end));
+        return bytes == null ? new byte[0] : bytes;
+    }
+
+    /**
+     * 写入位数组的一段字节
+     *
+     * @param value  字节
+     * @param offset 起始下标
+     */
+    public void setRange(byte[] value, long offset) {
+        stringRedisTemplate.execute((RedisCallback<Void>) connection -> {
+            connection.setRange(key.getBytes(StandardCharsets.UTF_8), value, offset);
+            return null;
+        });
+    }
+
+    /**
+     * 删除过滤器
+     */
+    public void delete() {
+        stringRedisTemplate.delete(key);
+        stringRedisTemplate.delete(configKey);
+        this.size = 0;
+        this.epoch = "";
+    }
+
+    /**
+     * 是否已加载参数
+     *
+     * @return boolean
+     */
+    public boolean isInitialized() {
+        return size > 0;
+    }
+
+    /**
+     * 添加
+     *
+     * @param id id
+     */
+    public void add(long id) {
+        add(Collections.singletonList(id));
+    }
+
+    /**
+     * 批量添加，一次脚本调用完成；参数已过期时重新加载后再写一次
+     *
+     * @param ids id列表
+     */
+    public void add(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < 2 && isInitialized(); i++) {
+            String current = epoch;
+            if (doAdd(current, offsets(ids)) != STALE || !load()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 写入位下标
+     *
+     * @param epoch   计算位下标时的 epoch
+     * @param offsets 位下标
+     * @return 脚本返回值，参数已过期时为 {@link #STALE}
+     */
+    protected long doAdd(String epoch, List<String> offsets) {
+        return execute(ADD_SCRIPT, Arrays.asList(key, configKey), withEpoch(epoch, offsets));
+    }
+
+    /**
+     * 是否可能包含
+     * 过滤器不存在或未完成装载时放行；参数已过期时重新加载后再查一次
+     *
+     * @param id id
+     * @return boolean
+     */
+    public boolean contains(long id) {
+        for (int i = 0; i < 2 && isInitialized(); i++) {
+            String current = epoch;
+            long result = doContains(current, offsets(Collections.singletonList(id)));
+            if (result != STALE) {
+                return result == 1;
+            }
+            if (!load()) {
+                return true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 判断位下标是否都已置位
+     *
+     * @param epoch   计算位下标时的 epoch
+     * @param offsets 位下标
+     * @return 脚本返回值，1 为可能包含，参数已过期时为 {@link #STALE}
+     */
+    protected long doContains(String epoch, List<String> offsets) {
+        return execute(CONTAINS_SCRIPT, Arrays.asList(key, configKey), withEpoch(epoch, offsets));
+    }
+
+    /**
+     * 执行脚本，没有返回值时视为参数已过期
+     *
+     * @param script 脚本
+     * @param keys   键
+     * @param args   参数
+     * @return long
+     */
+    protected long execute(DefaultRedisScript<Long> script, List<String> keys, List<String> args) {
+        Long result = stringRedisTemplate.execute(script, keys, args.toArray());
+        return result == null ? STALE : result;
+    }
+
+    /**
+     * 在位下标前加上 epoch
+     *
+     * @param epoch   epoch
+     * @param offsets 位下标
+     * @return {@link List}<{@link String}>
+     */
+    protected static List<String> withEpoch(String epoch, List<String> offsets) {
+        List<String> args = new ArrayList<>(offsets.size() + 1);
+        args.add(epoch);
+        args.addAll(offsets);
+        return args;
+    }
+
+    /**
+     * 当前加载的 epoch，需在计算位下标之前读取
+     *
+     * @return {@link String}
+     */
+    protected String getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * 生成新的 epoch
+     *
+     * @return {@link String}
+     */
+    private static String newEpoch() {
+        return IdUtil.fastSimpleUUID();
+    }
+
+    /**
+     * 按 id 顺序展开所有位下标，每个 id 占 hashIterations 个
+     *
+     * @param ids id列表
+     * @return {@link List}<{@link String}>
+     */
+    protected List<String> offsets(Collection<Long> ids) {
+        List<String> offsets = new ArrayList<>(ids.size() * hashIterations);
+        for (Long id : ids) {
+            for (long index : indexes(id)) {
+                offsets.add(String.valueOf(index));
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * 已置位数量
+     *
+     * @return long
+     */
+    public long bitCount() {
+        Long count = stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.bitCount(key.getBytes(StandardCharsets.UTF_8)));
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * 填充率
+     *
+     * @return double
+     */
+    public double fillRatio() {
+        return (double) bitCount() / size;
+    }
+
+    /**
+     * 估算元素数量，位数组已满时返回 -1
+     *
+     * @return long
+     */
+    public long approximateCount() {
+        double fillRatio = fillRatio();
+        if (fillRatio >= 1) {
+            return -1;
+        }
+        return Math.round(-(double) size / hashIterations * Math.log(1 - fillRatio));
+    }
+
+    /**
+     * 计算 id 对应的位下标（双重散列）
+     *
+     * @param id id
+     * @return long[]
+     */
+    public long[] indexes(long id) {
+        return indexes(id, size, hashIterations);
+    }
+
+    /**
+     * 计算 id 对应的位下标（双重散列）
+     *
+     * @param id             id
+     * @param size           位数组大小
+     * @param hashIterations 散列次数
+     * @return long[]
+     */
+    public static long[] indexes(long id, long size, int hashIterations) {
+        long[] hash = MurmurHash.hash128(ByteBuffer.allocate(Long.BYTES).putLong(id).array());
+        long[] indexes = new long[hashIterations];
+        long combined = hash[0];
+        for (int i = 0; i < hashIterations; i++) {
+            indexes[i] = (combined & Long.MAX_VALUE) % size;
+            combined += hash[1];
+        }
+        return indexes;
+    }
+
+    /**
+     * 最佳位数组大小
+     *
+     * @param n 预期元素数量
+     * @param p 误判率
+     * @return long
+     */
+    public static long optimalNumOfBits(long n, double p) {
+        return (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+    }
+
+    /**
+     * 最佳散列次数
+     *
+     * @param n 预期元素数量
+     * @param m 位数组大小
+     * @return int
+     */
+    public static int optimalNumOfHashFunctions(long n, long m) {
+        return Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getHashIterations() {
+        return hashIterations;
+    }
+
+    public long getExpectedInsertions() {
+        return expectedInsertions;
+    }
+
+    public double getFalseProbability() {
+        return falseProbability;
+    }
+}
@@ -0,0 +1,302 @@
+package asia.lhweb.findfriend.utils;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static asia.lhweb.findfriend.constants.BloomFilterConstants.BLOOM_SHADOW_SUFFIX;
+
+/**
+ * Redis 计数布隆过滤器
+ * 每个位置是 4 位饱和计数器（BITFIELD u4），支持删除；计数器达到 15 后不再递减，避免误删其他元素
+ * 重建期间 {key}:config 的 shadow 字段为 1，增删会同时写入影子计数器，重建完成后影子原子替换正式数据。
+ * 影子只在装载进度 shadowCursor 之内删除：尚未装载的 id 在影子中还没有计数，此时非零的计数器属于其他元素；
+ * 新增总是写入影子，之后装载到同一 id 时会重复计数，只会多判存在，下次重建时修正
+ *
+ * @author 罗汉
+ * @date 2024/05/08
+ */
+public class RedisCountingBloomFilter extends RedisBloomFilter {
+    /**
+     * 计数器加一，ARGV[1] 为 epoch，不一致时返回 -1，ARGV[2] 为每个元素的下标个数
+     */
+    private static final DefaultRedisScript<Long> ADD_SCRIPT = new DefaultRedisScript<>(
+            "local state = redis.call('HMGET', KEYS[2], 'epoch', 'shadow') "
+                    + "if (state[1] or '') ~= ARGV[1] then return -1 end "
+                    + "local k = tonumber(ARGV[2]) "
+                    + "local shadow = state[2] == '1' "
+                    + "local added, shadowAdded = 0, 0 "
+                    + "for i = 3, #ARGV, k do "
+                    + "  local fresh, shadowFresh = 0, 0 "
+                    + "  for j = i, i + k - 1 do "
+                    + "    local offset = '#' .. ARGV[j] "
+                    + "    if redis.call('BITFIELD', KEYS[1], 'OVERFLOW', 'SAT', 'INCRBY', 'u4', offset, 1)[1] == 1 then fresh = 1 end "
+                    + "    if shadow and redis.call('BITFIELD', KEYS[3], 'OVERFLOW', 'SAT', 'INCRBY', 'u4', offset, 1)[1] == 1 then shadowFresh = 1 end "
+                    + "  end "
+                    + "  added = added + fresh "
+                    + "  shadowAdded = shadowAdded + shadowFresh "
+                    + "end "
+                    + "redis.call('HINCRBY', KEYS[2], 'count', added) "
+                    + "if shadow then redis.call('HINCRBY', KEYS[2], 'shadowCount', shadowAdded) end "
+                    + "return added", Long.class);
+
+    /**
+     * 计数器减一，只删除所有计数器都大于 0 的元素
+     * ARGV[1] 为 epoch，不一致时返回 -1，ARGV[2] 为每个元素的下标个数，之后每个元素依次是 id 和它的下标
+     */
+    private static final DefaultRedisScript<Long> REMOVE_SCRIPT = new DefaultRedisScript<>(
+            "local state = redis.call('HMGET', KEYS[2], 'epoch', 'shadow', 'shadowCursor') "
+                    + "if (state[1] or '') ~= ARGV[1] then return -1 end "
+                    + "local k = tonumber(ARGV[2]) "
+                    + "local function present(key, i) "
+                    + "  for j = i, i + k - 1 do "
+                    + "    if redis.call('BITFIELD', key, 'GET', 'u4', '#' .. ARGV[j])[1] == 0 then return false end "
+                    + "  end "
+                    + "  return true "
+                    + "end "
+                    + "local function decrease(key, i) "
+                    + "  for j = i, i + k - 1 do "
+                    + "    local offset = '#' .. ARGV[j] "
+                    + "    if redis.call('BITFIELD', key, 'GET', 'u4', offset)[1] < 15 then "
+                    + "      redis.call('BITFIELD', key, 'INCRBY', 'u4', offset, -1) "
+                    + "    end "
+                    + "  end "
+                    + "end "
+                    + "local shadow = state[2] == '1' "
+                    + "local cursor = tonumber(state[3] or '0') "
+                    + "local removed, shadowRemoved = 0, 0 "
+                    + "for i = 3, #ARGV, k + 1 do "
+                    + "  if present(KEYS[1], i + 1) then decrease(KEYS[1], i + 1) removed = removed + 1 end "
+                    + "  if shadow and tonumber(ARGV[i]) <= cursor and present(KEYS[3], i + 1) then "
+                    + "    decrease(KEYS[3], i + 1) shadowRemoved = shadowRemoved + 1 "
+                    + "  end "
+                    + "end "
+                    + "redis.call('HINCRBY', KEYS[2], 'count', -removed) "
+                    + "if shadow then redis.call('HINCRBY', KEYS[2], 'shadowCount', -shadowRemoved) end "
+                    + "return removed", Long.class);
+
+    /**
+     * 判断所有计数器是否都大于 0，ARGV[1] 为 epoch，不一致时返回 -1，未完成装载时返回 1
+     */
+    private static final DefaultRedisScript<Long> CONTAINS_SCRIPT = new DefaultRedisScript<>(
+            "local state = redis.call('HMGET', KEYS[2], 'ready', 'epoch') "
+                    + "if (state[2] or '') ~= ARGV[1] then return -1 end "
+                    + "if state[1] ~= '1' then return 1 end "
+                    + "for i = 2, #ARGV do "
+                    + "if redis.call('BITFIELD', KEYS[1], 'GET', 'u4', '#' .. ARGV[i])[1] == 0 then return 0 end "
+                    + "end return 1", Long.class);
+
+    /**
+     * 开始重建：清空影子计数器并开启双写
+     */
+    private static final DefaultRedisScript<Long> BEGIN_REBUILD_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('DEL', KEYS[3]) "
+                    + "redis.call('HSET', KEYS[2], 'shadow', '1', 'shadowCount', '0', 'shadowCursor', '0') "
+                    + "return 1", Long.class);
+
+    /**
+     * 只写入影子计数器并推进装载进度，ARGV[1] 为 epoch，不一致时返回 -1，ARGV[2] 为每个元素的下标个数，
+     * ARGV[3] 为本批最大 id
+     */
+    private static final DefaultRedisScript<Long> FILL_SHADOW_SCRIPT = new DefaultRedisScript<>(
+            "if (redis.call('HGET', KEYS[2], 'epoch') or '') ~= ARGV[1] then return -1 end "
+                    + "local k = tonumber(ARGV[2]) "
+                    + "local added = 0 "
+                    + "for i = 4, #ARGV, k do "
+                    + "  local fresh = 0 "
+                    + "  for j = i, i + k - 1 do "
+                    + "    if redis.call('BITFIELD', KEYS[3], 'OVERFLOW', 'SAT', 'INCRBY', 'u4', '#' .. ARGV[j], 1)[1] == 1 then fresh = 1 end "
+                    + "  end "
+                    + "  added = added + fresh "
+                    + "end "
+                    + "redis.call('HINCRBY', KEYS[2], 'shadowCount', added) "
+                    + "redis.call('HSET', KEYS[2], 'shadowCursor', ARGV[3]) "
+                    + "return added", Long.class);
+
+    /**
+     * 结束重建：影子替换正式数据并关闭双写
+     */
+    private static final DefaultRedisScript<Long> FINISH_REBUILD_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[3]) == 1 then redis.call('RENAME', KEYS[3], KEYS[1]) "
+                    + "else redis.call('DEL', KEYS[1]) end "
+                    + "local count = redis.call('HGET', KEYS[2], 'shadowCount') or '0' "
+                    + "redis.call('HSET', KEYS[2], 'count', count, 'shadow', '0', 'shadowCount', '0', 'shadowCursor', '0') "
+                    + "return tonumber(count)", Long.class);
+
+    /**
+     * 影子计数器键
+     */
+    private final String shadowKey;
+
+    /**
+     * Redis 计数布隆过滤器
+     *
+     * @param stringRedisTemplate 字符串redis模板
+     * @param key                 键
+     */
+    public RedisCountingBloomFilter(StringRedisTemplate stringRedisTemplate, String key) {
+        super(stringRedisTemplate, key);
+        this.shadowKey = key + BLOOM_SHADOW_SUFFIX;
+    }
+
+    @Override
+    public String getFilterType() {
+        return "counting";
+    }
+
+    @Override
+    public void delete() {
+        stringRedisTemplate.delete(shadowKey);
+        super.delete();
+    }
+
+    @Override
+    protected long doAdd(String epoch, List<String> offsets) {
+        return execute(ADD_SCRIPT, keys(), withHashIterations(epoch, offsets));
+    }
+
+    @Override
+    protected long doContains(String epoch, List<String> offsets) {
+        return execute(CONTAINS_SCRIPT, Arrays.asList(key, configKey), withEpoch(epoch, offsets));
+    }
+
+    /**
+     * 删除
+     *
+     * @param id id
+     */
+    public void remove(long id) {
+        remove(Collections.singletonList(id));
+    }
+
+    /**
+     * 批量删除，参数已过期时重新加载后再删一次
+     *
+     * @param ids id列表
+     */
+    public void remove(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < 2 && isInitialized(); i++) {
+            String epoch = getEpoch();
+            if (execute(REMOVE_SCRIPT, keys(), withHashIterations(epoch, withIds(ids, offsets(ids)))) != STALE
+                    || !load()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 开始重建
+     */
+    public void beginRebuild() {
+        stringRedisTemplate.execute(BEGIN_REBUILD_SCRIPT, keys());
+    }
+
+    /**
+     * 向影子计数器写入数据库中的 id，并把装载进度推进到本批最大 id
+     * 重建期间过滤器被重新创建时参数已过期，中止本次重建
+     *
+     * @param ids 按 id 升序装载的一批 id
+     */
+    public void fillShadow(Collection<Long> ids) {
+        if (!isInitialized() || ids.isEmpty()) {
+            return;
+        }
+        String epoch = getEpoch();
+        List<String> args = new ArrayList<>(offsets(ids));
+        args.add(0, String.valueOf(Collections.max(ids)));
+        if (execute(FILL_SHADOW_SCRIPT, keys(), withHashIterations(epoch, args)) == STALE) {
+            throw new IllegalStateException("布隆过滤器已重新创建，中止重建");
+        }
+    }
+
+    /**
+     * 结束重建
+     *
+     * @return 重建后的元素数量
+     */
+    public long finishRebuild() {
+        Long count = stringRedisTemplate.execute(FINISH_REBUILD_SCRIPT, keys());
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * 元素数量
+     *
+     * @return long
+     */
+    public long count() {
+        Object count = stringRedisTemplate.opsForHash().get(configKey, "count");
+        return count == null ? 0 : Long.parseLong(String.valueOf(count));
+    }
+
+    /**
+     * 计数器无法用 BITCOUNT 统计，按元素数量估算非零计数器个数
+     *
+     * @return long
+     */
+    @Override
+    public long bitCount() {
+        return Math.round(fillRatio() * getSize());
+    }
+
+    @Override
+    public double fillRatio() {
+        return 1 - Math.exp(-(double) getHashIterations() * count() / getSize());
+    }
+
+    @Override
+    public long approximateCount() {
+        return count();
+    }
+
+    /**
+     * 脚本使用的键
+     *
+     * @return {@link List}<{@link String}>
+     */
+    private List<String> keys() {
+        return Arrays.asList(key, configKey, shadowKey);
+    }
+
+    /**
+     * 每个元素的下标前加上它的 id
+     *
+     * @param ids     id列表
+     * @param offsets 按 id 顺序排列的位下标
+     * @return {@link List}<{@link String}>
+     */
+    private List<String> withIds(Collection<Long> ids, List<String> offsets) {
+        int k = getHashIterations();
+        List<String> args = new ArrayList<>(offsets.size() + ids.size());
+        int i = 0;
+        for (Long id : ids) {
+            args.add(String.valueOf(id));
+            args.addAll(offsets.subList(i, i + k));
+            i += k;
+        }
+        return args;
+    }
+
+    /**
+     * 在位下标前加上 epoch 和散列次数
+     *
+     * @param epoch   计算位下标时的 epoch
+     * @param offsets 位下标
+     * @return {@link List}<{@link String}>
+     */
+    private List<String> withHashIterations(String epoch, List<String> offsets) {
+        List<String> args = new ArrayList<>(offsets.size() + 2);
+        args.add(epoch);
+        args.add(String.valueOf(getHashIterations()));
+        args.addAll(offsets);
+        return args;
+    }
+}
@@ -0,0 +1,34 @@
+package asia.lhweb.findfriend.utils;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * 事务工具
+ *
+ * @author 罗汉
+ * @date 2024/05/29
+ */
+public final class TransactionUtils {
+    private TransactionUtils() {
+    }
+
+    /**
+     * 事务提交后执行，不在事务中时立即执行
+     * 用于写 Redis、发通知等不能随事务回滚的动作，避免其他节点读到未提交的数据
+     *
+     * @param action 动作
+     */
+    public static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
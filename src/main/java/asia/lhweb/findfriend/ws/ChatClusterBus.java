@@ -0,0 +1,228 @@
+package asia.lhweb.findfriend.ws;
+
+import com.google.gson.Gson;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import static asia.lhweb.findfriend.constants.ChatConstant.CHAT_BUS_BATCH_SIZE;
+import static asia.lhweb.findfriend.constants.ChatConstant.CHAT_BUS_QUEUE_CAPACITY;
+import static asia.lhweb.findfriend.constants.RedissonConstant.CHAT_BUS_HALL_TOPIC;
+import static asia.lhweb.findfriend.constants.RedissonConstant.CHAT_BUS_ROOM_TOPIC;
+import static asia.lhweb.findfriend.constants.RedissonConstant.CHAT_BUS_USER_TOPIC;
+
+/**
+ * 聊天集群总线
+ * 消息先投递给本节点的连接，再经 Redis 主题发给其他节点，各节点只投递给自己的连接。
+ * 大厅主题所有节点订阅，队伍房间和用户主题在本节点有对应连接时才订阅。
+ * 发布由单个线程执行，队列中已积攒的消息按主题合并为一条发布，同一主题的消息保持顺序
+ *
+ * @author 罗汉
+ * @date 2024/05/25
+ */
+@Component
+@Slf4j
+public class ChatClusterBus {
+    private static final Gson GSON = new Gson();
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private RoomRegistry roomRegistry;
+
+    /**
+     * 节点id，收到自己发布的消息时忽略
+     */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final BlockingQueue<Outgoing> outgoing = new LinkedBlockingQueue<>(CHAT_BUS_QUEUE_CAPACITY);
+
+    /**
+     * 队伍房间主题 => 监听器id
+     */
+    private final Map<String, Integer> roomListeners = new ConcurrentHashMap<>();
+
+    /**
+     * 用户主题 => 监听器id
+     */
+    private final Map<String, Integer> userListeners = new ConcurrentHashMap<>();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean running;
+
+    private Thread publisher;
+
+    @PostConstruct
+    public void start() {
+        redissonClient.getTopic(CHAT_BUS_HALL_TOPIC).addListener(String.class,
+                (channel, message) -> receive(message, roomRegistry::broadcastHall));
+        running = true;
+        publisher = new Thread(this::run, "chat-cluster-bus");
+        publisher.setDaemon(true);
+        publisher.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        publisher.interrupt();
+        publisher.join(1000);
+    }
+
+    /**
+     * 大厅群发
+     *
+     * @param message 消息
+     */
+    public void publishHall(String message) {
+        roomRegistry.broadcastHall(message);
+        enqueue(CHAT_BUS_HALL_TOPIC, message);
+    }
+
+    /**
+     * 队伍内群发
+     *
+     * @param teamId  队伍id
+     * @param message 消息
+     */
+    public void publishRoom(String teamId, String message) {
+        roomRegistry.broadcastRoom(teamId, message);
+        enqueue(CHAT_BUS_ROOM_TOPIC + teamId, message);
+    }
+
+    /**
+     * 发给某个用户的大厅连接
+     *
+     * @param userId  用户id
+     * @param message 消息
+     */
+    public void publishUser(String userId, String message) {
+        roomRegistry.sendToUser(userId, message);
+        enqueue(CHAT_BUS_USER_TOPIC + userId, message);
+    }
+
+    /**
+     * 连接加入或离开房间后调用，按本节点是否还有该房间的连接订阅或退订
+     *
+     * @param teamId 队伍id
+     */
+    public void syncRoom(String teamId) {
+        sync(roomListeners, CHAT_BUS_ROOM_TOPIC + teamId, () -> roomRegistry.hasRoom(teamId),
+                message -> roomRegistry.broadcastRoom(teamId, message));
+    }
+
+    /**
+     * 连接进入或离开大厅后调用，按本节点是否还有该用户的大厅连接订阅或退订
+     *
+     * @param userId 用户id
+     */
+    public void syncUser(String userId) {
+        sync(userListeners, CHAT_BUS_USER_TOPIC + userId, () -> roomRegistry.getHallConnection(userId) != null,
+                message -> roomRegistry.sendToUser(userId, message));
+    }
+
+    /**
+     * 同一主题的订阅和退订串行执行，并在执行时读取连接状态，并发的加入和离开最终与连接状态一致
+     *
+     * @param listeners 主题 => 监听器id
+     * @param topicName 主题
+     * @param local     本节点是否有对应的连接
+     * @param deliver   投递给本节点的连接
+     */
+    private void sync(Map<String, Integer> listeners, String topicName, BooleanSupplier local, Consumer<String> deliver) {
+        listeners.compute(topicName, (key, listenerId) -> {
+            boolean subscribed = local.getAsBoolean();
+            RTopic topic = redissonClient.getTopic(topicName);
+            if (subscribed && listenerId == null) {
+                return topic.addListener(String.class, (channel, message) -> receive(message, deliver));
+            }
+            if (!subscribed && listenerId != null) {
+                topic.removeListener(listenerId);
+                return null;
+            }
+            return listenerId;
+        });
+    }
+
+    private void enqueue(String topic, String message) {
+        if (!outgoing.offer(new Outgoing(topic, message))) {
+            long droppedNum = dropped.incrementAndGet();
+            if (droppedNum % CHAT_BUS_BATCH_SIZE == 1) {
+                log.warn("聊天消息发布积压，已丢弃 " + droppedNum + " 条");
+            }
+        }
+    }
+
+    private void receive(String json, Consumer<String> deliver) {
+        Envelope envelope = GSON.fromJson(json, Envelope.class);
+        if (nodeId.equals(envelope.node)) {
+            return;
+        }
+        envelope.messages.forEach(deliver);
+    }
+
+    private void run() {
+        List<Outgoing> batch = new ArrayList<>(CHAT_BUS_BATCH_SIZE);
+        while (running) {
+            try {
+                batch.add(outgoing.take());
+                outgoing.drainTo(batch, CHAT_BUS_BATCH_SIZE - 1);
+                Map<String, List<String>> topicMessages = new LinkedHashMap<>();
+                for (Outgoing message : batch) {
+                    topicMessages.computeIfAbsent(message.topic, key -> new ArrayList<>()).add(message.message);
+                }
+                // 同步发布，同一主题的前后两批不会乱序
+                topicMessages.forEach((topic, messages) ->
+                        redissonClient.getTopic(topic).publish(GSON.toJson(new Envelope(nodeId, messages))));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("exception message", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private static class Outgoing {
+        private final String topic;
+        private final String message;
+
+        Outgoing(String topic, String message) {
+            this.topic = topic;
+            this.message = message;
+        }
+    }
+
+    /**
+     * 一次发布的内容
+     */
+    private static class Envelope {
+        private String node;
+        private List<String> messages;
+
+        Envelope(String node, List<String> messages) {
+            this.node = node;
+            this.messages = messages;
+        }
+    }
+}
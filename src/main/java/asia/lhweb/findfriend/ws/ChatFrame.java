@@ -0,0 +1,141 @@
+package asia.lhweb.findfriend.ws;
+
+import asia.lhweb.findfriend.model.vo.ChatMessageVO;
+import asia.lhweb.findfriend.model.vo.PresenceVO;
+import asia.lhweb.findfriend.model.vo.WebSocketVO;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一次投递的消息
+ * 同一条消息发给多个连接时只创建一次：原 JSON 直接复用，精简格式在第一个精简协议的连接需要时编码一次，之后复用。
+ * 精简格式为 JSON 数组，用户只以id引用，资料另用用户帧发送：
+ * <ul>
+ *     <li>聊天 ["m", 聊天类型, 发送者id, 接收者id, 队伍id, 正文, 创建时间, 是否管理员, 消息id]</li>
+ *     <li>上下线 ["p", join 或 leave, 队伍id, 用户id]</li>
+ *     <li>用户 ["u", 用户id, 昵称, 账号, 头像]</li>
+ * </ul>
+ * 其他消息两种协议相同
+ *
+ * @author 罗汉
+ * @date 2024/05/27
+ */
+public class ChatFrame {
+    private static final Gson GSON = new Gson();
+
+    private final String json;
+
+    private volatile Compact compact;
+
+    private ChatFrame(String json) {
+        this.json = json;
+    }
+
+    /**
+     * 包装一条 JSON 消息
+     *
+     * @param json 消息
+     * @return {@link ChatFrame}
+     */
+    public static ChatFrame of(String json) {
+        return new ChatFrame(json);
+    }
+
+    /**
+     * 原 JSON 格式
+     *
+     * @return {@link String}
+     */
+    public String json() {
+        return json;
+    }
+
+    /**
+     * 精简格式，第一次调用时编码
+     *
+     * @return {@link Compact}
+     */
+    public Compact compact() {
+        Compact result = compact;
+        if (result == null) {
+            // 并发时可能重复编码，结果相同
+            result = encode(json);
+            compact = result;
+        }
+        return result;
+    }
+
+    private static Compact encode(String json) {
+        JsonObject object;
+        try {
+            object = json.startsWith("{") ? JsonParser.parseString(json).getAsJsonObject() : null;
+        } catch (JsonSyntaxException | IllegalStateException e) {
+            object = null;
+        }
+        if (object != null && object.has("presence")) {
+            PresenceVO presenceVO = GSON.fromJson(object, PresenceVO.class);
+            WebSocketVO user = presenceVO.getUser();
+            Map<Long, String> users = PresenceVO.JOIN.equals(presenceVO.getPresence())
+                    ? userFrames(Collections.singletonList(user)) : Collections.emptyMap();
+            return new Compact(GSON.toJson(new Object[]{"p", presenceVO.getPresence(), presenceVO.getTeamId(),
+                    user.getId()}), users);
+        }
+        if (object != null && object.has("chatType") && object.has("fromUser")) {
+            ChatMessageVO chatMessageVO = GSON.fromJson(object, ChatMessageVO.class);
+            List<WebSocketVO> referenced = new ArrayList<>(2);
+            referenced.add(chatMessageVO.getFromUser());
+            if (chatMessageVO.getToUser() != null) {
+                referenced.add(chatMessageVO.getToUser());
+            }
+            return new Compact(GSON.toJson(new Object[]{"m", chatMessageVO.getChatType(),
+                    chatMessageVO.getFromUser().getId(),
+                    chatMessageVO.getToUser() == null ? null : chatMessageVO.getToUser().getId(),
+                    chatMessageVO.getTeamId(), chatMessageVO.getText(), chatMessageVO.getCreateTime(),
+                    Boolean.TRUE.equals(chatMessageVO.getIsAdmin()) ? 1 : 0, chatMessageVO.getId()}),
+                    userFrames(referenced));
+        }
+        return new Compact(json, Collections.emptyMap());
+    }
+
+    private static Map<Long, String> userFrames(List<WebSocketVO> users) {
+        Map<Long, String> frames = new LinkedHashMap<>();
+        for (WebSocketVO user : users) {
+            frames.put(user.getId(), GSON.toJson(new Object[]{"u", user.getId(), user.getUsername(),
+                    user.getUserAccount(), user.getAvatarUrl()}));
+        }
+        return frames;
+    }
+
+    /**
+     * 精简格式的消息和它引用的用户帧
+     */
+    public static class Compact {
+        private final String frame;
+
+        /**
+         * 用户id => 用户帧
+         */
+        private final Map<Long, String> users;
+
+        Compact(String frame, Map<Long, String> users) {
+            this.frame = frame;
+            this.users = users;
+        }
+
+        public String getFrame() {
+            return frame;
+        }
+
+        public Map<Long, String> getUsers() {
+            return users;
+        }
+    }
+}
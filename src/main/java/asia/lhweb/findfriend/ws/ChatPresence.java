@@ -0,0 +1,290 @@
+package asia.lhweb.findfriend.ws;
+
+import asia.lhweb.findfriend.mapper.UserMapper;
+import asia.lhweb.findfriend.model.domain.User;
+import asia.lhweb.findfriend.model.vo.OnlineUserPageVO;
+import asia.lhweb.findfriend.model.vo.PresenceVO;
+import asia.lhweb.findfriend.model.vo.WebSocketVO;
+import com.google.gson.Gson;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static asia.lhweb.findfriend.constants.RedisConstants.CHAT_PRESENCE_HEARTBEAT;
+import static asia.lhweb.findfriend.constants.RedisConstants.CHAT_PRESENCE_KEY;
+import static asia.lhweb.findfriend.constants.RedisConstants.CHAT_PRESENCE_NODES_KEY;
+import static asia.lhweb.findfriend.constants.RedisConstants.CHAT_PRESENCE_SEEN_KEY;
+import static asia.lhweb.findfriend.constants.RedisConstants.CHAT_PRESENCE_TTL;
+
+/**
+ * 在线状态
+ * 大厅和每个队伍房间在 Redis 中各有一个在线用户有序集合，分数为用户id，按id游标分页。
+ * 上线、下线只推送变化的一个用户，不再每次推送完整列表；新连接按页拉取快照。
+ * 同一用户可能同时连在多个节点，每个范围记录用户有连接的节点，最后一个节点离开时才移除并推送下线。
+ * 各节点定时刷新本节点在线用户的心跳，超时未刷新的（所在节点宕机）由任一节点移除该节点，同样最后一个才推送下线
+ *
+ * @author 罗汉
+ * @date 2024/05/26
+ */
+@Component
+@Slf4j
+public class ChatPresence {
+    private static final Gson GSON = new Gson();
+
+    private static final String HALL = "hall";
+
+    private static final String TEAM = "team:";
+
+    private static final String MEMBER_SEPARATOR = "|";
+
+    /**
+     * 单次清理的最大数量
+     */
+    private static final int SWEEP_BATCH_SIZE = 100;
+
+    /**
+     * 记录本节点和心跳并加入在线集合，返回是否新加入
+     */
+    private static final DefaultRedisScript<Long> JOIN_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('SADD', KEYS[3], ARGV[4]) "
+                    + "redis.call('ZADD', KEYS[2], ARGV[3], ARGV[2]) "
+                    + "return redis.call('ZADD', KEYS[1], ARGV[1], ARGV[1])", Long.class);
+
+    /**
+     * 移除本节点，没有其他节点时才从在线集合移除，返回是否移除
+     */
+    private static final DefaultRedisScript<Long> LEAVE_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('ZREM', KEYS[2], ARGV[2]) "
+                    + "redis.call('SREM', KEYS[3], ARGV[3]) "
+                    + "if redis.call('SCARD', KEYS[3]) > 0 then return 0 end "
+                    + "return redis.call('ZREM', KEYS[1], ARGV[1])", Long.class);
+
+    /**
+     * 心跳仍然超时才移除该节点，避免移除清理期间刚重新上线的用户；没有其他节点时才从在线集合移除
+     */
+    private static final DefaultRedisScript<Long> SWEEP_SCRIPT = new DefaultRedisScript<>(
+            "local seen = redis.call('ZSCORE', KEYS[2], ARGV[2]) "
+                    + "if seen and tonumber(seen) > tonumber(ARGV[3]) then return 0 end "
+                    + "redis.call('ZREM', KEYS[2], ARGV[2]) "
+                    + "redis.call('SREM', KEYS[3], ARGV[4]) "
+                    + "if redis.call('SCARD', KEYS[3]) > 0 then return 0 end "
+                    + "return redis.call('ZREM', KEYS[1], ARGV[1])", Long.class);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ChatClusterBus chatClusterBus;
+
+    @Resource
+    private UserMapper userMapper;
+
+    /**
+     * 节点id，每次启动重新生成，宕机前的记录由心跳超时清理
+     */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    /**
+     * 本节点的在线成员，{范围}|{用户id}
+     */
+    private final Set<String> localMembers = ConcurrentHashMap.newKeySet();
+
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chat-presence");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void start() {
+        heartbeat.scheduleWithFixedDelay(this::heartbeat, CHAT_PRESENCE_HEARTBEAT, CHAT_PRESENCE_HEARTBEAT,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        heartbeat.shutdownNow();
+    }
+
+    /**
+     * 上线，新加入时向同一范围推送
+     *
+     * @param teamId 队伍id，大厅为空
+     * @param user   用户
+     */
+    public void join(Long teamId, WebSocketVO user) {
+        String scope = scope(teamId);
+        String member = scope + MEMBER_SEPARATOR + user.getId();
+        localMembers.add(member);
+        Long added = stringRedisTemplate.execute(JOIN_SCRIPT,
+                Arrays.asList(CHAT_PRESENCE_KEY + scope, CHAT_PRESENCE_SEEN_KEY, nodesKey(scope, user.getId())),
+                String.valueOf(user.getId()), seenMember(member), String.valueOf(System.currentTimeMillis()), nodeId);
+        if (added != null && added > 0) {
+            publish(teamId, PresenceVO.JOIN, user);
+        }
+    }
+
+    /**
+     * 下线，本节点已没有该用户在该范围的连接时调用；其他节点仍有该用户的连接时不推送
+     *
+     * @param teamId 队伍id，大厅为空
+     * @param userId 用户id
+     */
+    public void leave(Long teamId, long userId) {
+        String scope = scope(teamId);
+        String member = scope + MEMBER_SEPARATOR + userId;
+        localMembers.remove(member);
+        Long removed = stringRedisTemplate.execute(LEAVE_SCRIPT,
+                Arrays.asList(CHAT_PRESENCE_KEY + scope, CHAT_PRESENCE_SEEN_KEY, nodesKey(scope, userId)),
+                String.valueOf(userId), seenMember(member), nodeId);
+        if (removed != null && removed > 0) {
+            publish(teamId, PresenceVO.LEAVE, idOnly(userId));
+        }
+    }
+
+    /**
+     * 在线用户快照，按用户id升序分页
+     *
+     * @param teamId   队伍id，大厅为空
+     * @param cursor   上一页的游标，第一页为 0
+     * @param pageSize 每页条数
+     * @return {@link OnlineUserPageVO}
+     */
+    public OnlineUserPageVO page(Long teamId, long cursor, int pageSize) {
+        String key = CHAT_PRESENCE_KEY + scope(teamId);
+        ZSetOperations<String, String> zSetOperations = stringRedisTemplate.opsForZSet();
+        Set<String> userIds = zSetOperations.rangeByScore(key, cursor + 1, Double.POSITIVE_INFINITY, 0, pageSize);
+        Long total = zSetOperations.zCard(key);
+        OnlineUserPageVO onlineUserPageVO = new OnlineUserPageVO();
+        onlineUserPageVO.setTotal(total == null ? 0 : total);
+        if (userIds == null || userIds.isEmpty()) {
+            onlineUserPageVO.setUsers(Collections.emptyList());
+            return onlineUserPageVO;
+        }
+        List<Long> ids = userIds.stream().map(Long::valueOf).collect(Collectors.toList());
+        Map<Long, User> userMap = userMapper.selectBatchIds(ids).stream()
+                .collect(Collectors.toMap(User::getId, user -> user));
+        onlineUserPageVO.setUsers(ids.stream()
+                .map(userMap::get)
+                .filter(Objects::nonNull)
+                .map(ChatPresence::toWebSocketVO)
+                .collect(Collectors.toList()));
+        if (ids.size() == pageSize) {
+            onlineUserPageVO.setCursor(ids.get(ids.size() - 1));
+        }
+        return onlineUserPageVO;
+    }
+
+    /**
+     * 刷新本节点在线用户的心跳，再清理心跳超时的用户
+     */
+    private void heartbeat() {
+        try {
+            touch();
+            sweep();
+        } catch (Exception e) {
+            log.error("exception message", e);
+        }
+    }
+
+    private void touch() {
+        if (localMembers.isEmpty()) {
+            return;
+        }
+        double now = System.currentTimeMillis();
+        // 被误清理的用户和节点重新加入，不推送
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringRedisConnection = (StringRedisConnection) connection;
+            for (String member : localMembers) {
+                int separator = member.lastIndexOf(MEMBER_SEPARATOR);
+                String scope = member.substring(0, separator);
+                String userId = member.substring(separator + 1);
+                stringRedisConnection.zAdd(CHAT_PRESENCE_SEEN_KEY, now, seenMember(member));
+                stringRedisConnection.sAdd(nodesKey(scope, Long.parseLong(userId)), nodeId);
+                stringRedisConnection.zAdd(CHAT_PRESENCE_KEY + scope, Double.parseDouble(userId), userId);
+            }
+            return null;
+        });
+    }
+
+    private void sweep() {
+        long threshold = System.currentTimeMillis() - CHAT_PRESENCE_TTL;
+        Set<String> expired = stringRedisTemplate.opsForZSet().rangeByScore(CHAT_PRESENCE_SEEN_KEY,
+                Double.NEGATIVE_INFINITY, threshold, 0, SWEEP_BATCH_SIZE);
+        if (expired == null) {
+            return;
+        }
+        for (String member : expired) {
+            // {范围}|{用户id}|{节点id}
+            String[] parts = member.split("\\" + MEMBER_SEPARATOR);
+            String scope = parts[0];
+            long userId = Long.parseLong(parts[1]);
+            String node = parts[2];
+            Long removed = stringRedisTemplate.execute(SWEEP_SCRIPT,
+                    Arrays.asList(CHAT_PRESENCE_KEY + scope, CHAT_PRESENCE_SEEN_KEY, nodesKey(scope, userId)),
+                    String.valueOf(userId), member, String.valueOf(threshold), node);
+            if (removed != null && removed > 0) {
+                Long teamId = HALL.equals(scope) ? null : Long.valueOf(scope.substring(TEAM.length()));
+                publish(teamId, PresenceVO.LEAVE, idOnly(userId));
+            }
+        }
+    }
+
+    private void publish(Long teamId, String presence, WebSocketVO user) {
+        PresenceVO presenceVO = new PresenceVO();
+        presenceVO.setPresence(presence);
+        presenceVO.setTeamId(teamId);
+        presenceVO.setUser(user);
+        String message = GSON.toJson(presenceVO);
+        if (teamId == null) {
+            chatClusterBus.publishHall(message);
+        } else {
+            chatClusterBus.publishRoom(String.valueOf(teamId), message);
+        }
+    }
+
+    private static String scope(Long teamId) {
+        return teamId == null ? HALL : TEAM + teamId;
+    }
+
+    private static String nodesKey(String scope, long userId) {
+        return CHAT_PRESENCE_NODES_KEY + scope + ":" + userId;
+    }
+
+    private String seenMember(String member) {
+        return member + MEMBER_SEPARATOR + nodeId;
+    }
+
+    private static WebSocketVO idOnly(long userId) {
+        WebSocketVO webSocketVO = new WebSocketVO();
+        webSocketVO.setId(userId);
+        return webSocketVO;
+    }
+
+    private static WebSocketVO toWebSocketVO(User user) {
+        WebSocketVO webSocketVO = new WebSocketVO();
+        BeanUtils.copyProperties(user, webSocketVO);
+        return webSocketVO;
+    }
+}
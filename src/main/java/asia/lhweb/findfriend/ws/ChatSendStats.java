@@ -0,0 +1,77 @@
+package asia.lhweb.findfriend.ws;
+
+import asia.lhweb.findfriend.model.vo.ChatSendStatsVO;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 聊天发送统计
+ * 记录本节点每次发送的帧包含的消息数，用于观察合并发送的效果
+ *
+ * @author 罗汉
+ * @date 2024/05/27
+ */
+@Component
+public class ChatSendStats {
+    /**
+     * 每帧消息数分布的区间上限
+     */
+    private static final int[] BUCKET_BOUNDS = {1, 4, 16, 64};
+
+    private final LongAdder frames = new LongAdder();
+
+    private final LongAdder messages = new LongAdder();
+
+    /**
+     * 最后一个区间为超过最大上限的帧
+     */
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS.length + 1];
+
+    public ChatSendStats() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * 记录发送了一帧
+     *
+     * @param batchSize 帧内的消息数
+     */
+    public void record(int batchSize) {
+        frames.increment();
+        messages.add(batchSize);
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS.length && batchSize > BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+    }
+
+    /**
+     * 当前统计
+     *
+     * @return {@link ChatSendStatsVO}
+     */
+    public ChatSendStatsVO snapshot() {
+        ChatSendStatsVO chatSendStatsVO = new ChatSendStatsVO();
+        long frameNum = frames.sum();
+        long messageNum = messages.sum();
+        chatSendStatsVO.setFrames(frameNum);
+        chatSendStatsVO.setMessages(messageNum);
+        chatSendStatsVO.setAverageBatchSize(frameNum == 0 ? 0 : (double) messageNum / frameNum);
+        Map<String, Long> batchSizes = new LinkedHashMap<>();
+        int lower = 1;
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            String range = lower == BUCKET_BOUNDS[i] ? String.valueOf(lower) : lower + "-" + BUCKET_BOUNDS[i];
+            batchSizes.put(range, buckets[i].sum());
+            lower = BUCKET_BOUNDS[i] + 1;
+        }
+        batchSizes.put(lower + "+", buckets[BUCKET_BOUNDS.length].sum());
+        chatSendStatsVO.setBatchSizes(batchSizes);
+        return chatSendStatsVO;
+    }
+}
@@ -0,0 +1,104 @@
+package asia.lhweb.findfriend.ws;
+
+import asia.lhweb.findfriend.model.vo.WebSocketVO;
+
+/**
+ * 连接上下文
+ * 发送者身份、角色和所在队伍在建立连接时解析一次，保存在会话的 userProperties 中；
+ * 收到失效通知后标记为过期，下一条消息到达时重新解析
+ *
+ * @author 罗汉
+ * @date 2024/05/23
+ */
+public class ConnectionContext {
+    /**
+     * 保存在 {@link javax.websocket.Session#getUserProperties()} 中的键
+     */
+    public static final String KEY = ConnectionContext.class.getName();
+
+    private final long userId;
+
+    /**
+     * 队伍房间的队伍id，大厅连接为空
+     */
+    private final Long teamId;
+
+    private volatile WebSocketVO user;
+
+    private volatile boolean admin;
+
+    /**
+     * 队长id，大厅连接为空
+     */
+    private volatile Long teamLeaderId;
+
+    /**
+     * 是否仍是队伍成员，大厅连接为 true
+     */
+    private volatile boolean member = true;
+
+    private volatile boolean stale;
+
+    public ConnectionContext(long userId, Long teamId) {
+        this.userId = userId;
+        this.teamId = teamId;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public Long getTeamId() {
+        return teamId;
+    }
+
+    public WebSocketVO getUser() {
+        return user;
+    }
+
+    public boolean isAdmin() {
+        return admin;
+    }
+
+    public Long getTeamLeaderId() {
+        return teamLeaderId;
+    }
+
+    public boolean isMember() {
+        return member;
+    }
+
+    public boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * 标记过期，下一条消息到达时重新解析
+     */
+    public void markStale() {
+        this.stale = true;
+    }
+
+    /**
+     * 是否为队长或管理员
+     *
+     * @return boolean
+     */
+    public boolean isTeamAdmin() {
+        return admin || (teamLeaderId != null && teamLeaderId == userId);
+    }
+
+    void refreshUser(WebSocketVO user, boolean admin) {
+        this.user = user;
+        this.admin = admin;
+    }
+
+    void refreshTeam(Long teamLeaderId, boolean member) {
+        this.teamLeaderId = teamLeaderId;
+        this.member = member;
+    }
+
+    void markFresh() {
+        this.stale = false;
+    }
+}
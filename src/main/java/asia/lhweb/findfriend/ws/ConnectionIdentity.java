@@ -0,0 +1,187 @@
+package asia.lhweb.findfriend.ws;
+
+import asia.lhweb.findfriend.constants.UserConstants;
+import asia.lhweb.findfriend.mapper.TeamMapper;
+import asia.lhweb.findfriend.mapper.UserMapper;
+import asia.lhweb.findfriend.mapper.UserTeamMapper;
+import asia.lhweb.findfriend.model.domain.Team;
+import asia.lhweb.findfriend.model.domain.User;
+import asia.lhweb.findfriend.model.domain.UserTeam;
+import asia.lhweb.findfriend.model.vo.WebSocketVO;
+import asia.lhweb.findfriend.service.impl.UserMembershipCache;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.BeanUtils;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.websocket.CloseReason;
+import javax.websocket.Session;
+import java.util.Collection;
+import java.util.Objects;
+
+import static asia.lhweb.findfriend.constants.RedissonConstant.CHAT_IDENTITY_TOPIC;
+import static asia.lhweb.findfriend.utils.TransactionUtils.afterCommit;
+
+/**
+ * 连接身份
+ * 建立连接时解析发送者和队伍信息，之后每条消息只读上下文；用户资料或队伍成员变化时在事务提交后
+ * 通过 Redis 主题通知各节点：用户变化把其连接标记为过期；队伍队长变化把房间内的连接标记为过期；
+ * 成员退出、被踢出或队伍删除时只检查该成员在房间内的连接，直接查询数据库中的关系，已不在队伍中即断开。
+ * 不读成员缓存，与缓存失效通知的先后无关
+ *
+ * @author 罗汉
+ * @date 2024/05/23
+ */
+@Component
+public class ConnectionIdentity {
+    private static final String USER_PREFIX = "user:";
+    private static final String TEAM_PREFIX = "team:";
+    private static final String SEPARATOR = ":";
+
+    @Resource
+    private UserMapper userMapper;
+
+    @Resource
+    private TeamMapper teamMapper;
+
+    @Resource
+    private UserTeamMapper userTeamMapper;
+
+    @Resource
+    private UserMembershipCache userMembershipCache;
+
+    @Resource
+    private RoomRegistry roomRegistry;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    private RTopic topic;
+
+    @PostConstruct
+    public void subscribe() {
+        topic = redissonClient.getTopic(CHAT_IDENTITY_TOPIC);
+        topic.addListener(String.class, (channel, message) -> {
+            if (message.startsWith(USER_PREFIX)) {
+                roomRegistry.forEachUserConnection(message.substring(USER_PREFIX.length()), ConnectionIdentity::markStale);
+            } else if (message.startsWith(TEAM_PREFIX)) {
+                String[] parts = message.substring(TEAM_PREFIX.length()).split(SEPARATOR);
+                if (parts.length == 1) {
+                    roomRegistry.forEachRoomConnection(parts[0], ConnectionIdentity::markStale);
+                } else {
+                    // 成员变化立即检查，已不在队伍中的连接不再收到队伍消息
+                    revalidate(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+                }
+            }
+        });
+    }
+
+    /**
+     * 建立连接时解析上下文并保存到会话
+     *
+     * @param session 会话
+     * @param userId  用户id
+     * @param teamId  队伍id，大厅连接为空
+     * @return {@link ConnectionContext}
+     */
+    public ConnectionContext open(Session session, long userId, Long teamId) {
+        ConnectionContext context = new ConnectionContext(userId, teamId);
+        refresh(context);
+        session.getUserProperties().put(ConnectionContext.KEY, context);
+        return context;
+    }
+
+    /**
+     * 取出连接上下文，收到失效通知后重新解析
+     *
+     * @param session 会话
+     * @return {@link ConnectionContext}，未建立时为空
+     */
+    public ConnectionContext current(Session session) {
+        ConnectionContext context = (ConnectionContext) session.getUserProperties().get(ConnectionContext.KEY);
+        if (context != null && context.isStale()) {
+            refresh(context);
+        }
+        return context;
+    }
+
+    /**
+     * 用户资料或角色变化后调用，在事务提交后通知
+     *
+     * @param userId 用户id
+     */
+    public void invalidateUser(long userId) {
+        publish(USER_PREFIX + userId);
+    }
+
+    /**
+     * 队伍队长变化后调用，在事务提交后通知
+     *
+     * @param teamId 队伍id
+     */
+    public void invalidateTeam(long teamId) {
+        publish(TEAM_PREFIX + teamId);
+    }
+
+    /**
+     * 成员退出、被踢出或队伍删除后调用，在事务提交后通知
+     *
+     * @param teamId  队伍id
+     * @param userIds 离开队伍的用户id
+     */
+    public void invalidateMembers(long teamId, Collection<Long> userIds) {
+        for (Long userId : userIds) {
+            publish(TEAM_PREFIX + teamId + SEPARATOR + userId);
+        }
+    }
+
+    private void refresh(ConnectionContext context) {
+        // 先清除标记，解析期间到达的通知会再次标记
+        context.markFresh();
+        User user = userMapper.selectById(context.getUserId());
+        if (user != null) {
+            WebSocketVO webSocketVO = new WebSocketVO();
+            BeanUtils.copyProperties(user, webSocketVO);
+            context.refreshUser(webSocketVO, Objects.equals(user.getRole(), UserConstants.ADMIN_ROLE));
+        }
+        if (context.getTeamId() != null) {
+            Team team = teamMapper.selectById(context.getTeamId());
+            boolean member = team != null
+                    && userMembershipCache.get(context.getUserId()).hasJoined(context.getTeamId());
+            context.refreshTeam(team == null ? null : team.getUserId(), member);
+        }
+    }
+
+    private void publish(String message) {
+        afterCommit(() -> topic.publish(message));
+    }
+
+    private void revalidate(long teamId, long userId) {
+        SessionSender sender = roomRegistry.getRoomConnection(String.valueOf(teamId), String.valueOf(userId));
+        if (sender == null) {
+            return;
+        }
+        Object context = sender.getSession().getUserProperties().get(ConnectionContext.KEY);
+        if (!(context instanceof ConnectionContext)) {
+            return;
+        }
+        // 队伍删除时关系一并删除，只需查关系表
+        LambdaQueryWrapper<UserTeam> userTeamLambdaQueryWrapper = new LambdaQueryWrapper<>();
+        userTeamLambdaQueryWrapper.eq(UserTeam::getTeamId, teamId).eq(UserTeam::getUserId, userId);
+        if (userTeamMapper.selectCount(userTeamLambdaQueryWrapper) == 0) {
+            ConnectionContext connectionContext = (ConnectionContext) context;
+            connectionContext.refreshTeam(connectionContext.getTeamLeaderId(), false);
+            sender.close(new CloseReason(CloseReason.CloseCodes.VIOLATED_POLICY, "未加入队伍"));
+        }
+    }
+
+    private static void markStale(SessionSender sender) {
+        Object context = sender.getSession().getUserProperties().get(ConnectionContext.KEY);
+        if (context instanceof ConnectionContext) {
+            ((ConnectionContext) context).markStale();
+        }
+    }
+}
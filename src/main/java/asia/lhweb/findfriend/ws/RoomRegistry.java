@@ -0,0 +1,251 @@
+package asia.lhweb.findfriend.ws;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 房间注册表
+ * 队伍房间和大厅的在线连接，按用户id登记；加入和离开都是原子操作，房间最后一人离开时移除房间。
+ * 离开时只移除仍是本连接的登记，同一用户重连后旧连接的关闭不会影响新连接。
+ * 在线连接数用 {@link LongAdder} 计数，各房间人数即房间内连接表的大小
+ *
+ * @author 罗汉
+ * @date 2024/05/22
+ */
+@Component
+public class RoomRegistry {
+    /**
+     * 队伍id => 用户id => 连接
+     */
+    private final Map<String, Map<String, SessionSender>> rooms = new ConcurrentHashMap<>();
+
+    /**
+     * 大厅，用户id => 连接，私聊也从这里找到对方
+     */
+    private final Map<String, SessionSender> hall = new ConcurrentHashMap<>();
+
+    /**
+     * 所有房间的连接数
+     */
+    private final LongAdder roomConnections = new LongAdder();
+
+    /**
+     * 大厅的连接数
+     */
+    private final LongAdder hallConnections = new LongAdder();
+
+    /**
+     * 加入队伍房间，同一用户已有连接时替换
+     *
+     * @param teamId 队伍id
+     * @param userId 用户id
+     * @param sender 连接
+     * @return 被替换的连接，没有时为空
+     */
+    public SessionSender joinRoom(String teamId, String userId, SessionSender sender) {
+        SessionSender[] replaced = new SessionSender[1];
+        rooms.compute(teamId, (key, room) -> {
+            Map<String, SessionSender> members = room == null ? new ConcurrentHashMap<>() : room;
+            replaced[0] = members.put(userId, sender);
+            return members;
+        });
+        if (replaced[0] == null) {
+            roomConnections.increment();
+        }
+        return replaced[0];
+    }
+
+    /**
+     * 离开队伍房间，房间为空时移除
+     *
+     * @param teamId 队伍id
+     * @param userId 用户id
+     * @param sender 连接
+     * @return 是否移除了登记
+     */
+    public boolean leaveRoom(String teamId, String userId, SessionSender sender) {
+        boolean[] removed = new boolean[1];
+        rooms.computeIfPresent(teamId, (key, members) -> {
+            removed[0] = members.remove(userId, sender);
+            return members.isEmpty() ? null : members;
+        });
+        if (removed[0]) {
+            roomConnections.decrement();
+        }
+        return removed[0];
+    }
+
+    /**
+     * 进入大厅，同一用户已有连接时替换
+     *
+     * @param userId 用户id
+     * @param sender 连接
+     * @return 被替换的连接，没有时为空
+     */
+    public SessionSender joinHall(String userId, SessionSender sender) {
+        SessionSender replaced = hall.put(userId, sender);
+        if (replaced == null) {
+            hallConnections.increment();
+        }
+        return replaced;
+    }
+
+    /**
+     * 离开大厅
+     *
+     * @param userId 用户id
+     * @param sender 连接
+     * @return 是否移除了登记
+     */
+    public boolean leaveHall(String userId, SessionSender sender) {
+        boolean removed = hall.remove(userId, sender);
+        if (removed) {
+            hallConnections.decrement();
+        }
+        return removed;
+    }
+
+    /**
+     * 队伍内群发，消息按两种协议各编码一次后复用
+     *
+     * @param teamId  队伍id
+     * @param message 消息
+     */
+    public void broadcastRoom(String teamId, String message) {
+        Map<String, SessionSender> members = rooms.get(teamId);
+        if (members != null) {
+            ChatFrame frame = ChatFrame.of(message);
+            members.values().forEach(sender -> sender.offer(frame));
+        }
+    }
+
+    /**
+     * 大厅群发
+     *
+     * @param message 消息
+     */
+    public void broadcastHall(String message) {
+        ChatFrame frame = ChatFrame.of(message);
+        hall.values().forEach(sender -> sender.offer(frame));
+    }
+
+    /**
+     * 发给大厅中的某个用户
+     *
+     * @param userId  用户id
+     * @param message 消息
+     * @return 用户是否在线
+     */
+    public boolean sendToUser(String userId, String message) {
+        SessionSender sender = hall.get(userId);
+        return sender != null && sender.offer(ChatFrame.of(message));
+    }
+
+    /**
+     * 用户在大厅的连接
+     *
+     * @param userId 用户id
+     * @return {@link SessionSender}，不在线时为空
+     */
+    public SessionSender getHallConnection(String userId) {
+        return hall.get(userId);
+    }
+
+    /**
+     * 用户在队伍房间的连接
+     *
+     * @param teamId 队伍id
+     * @param userId 用户id
+     * @return {@link SessionSender}，不在线时为空
+     */
+    public SessionSender getRoomConnection(String teamId, String userId) {
+        Map<String, SessionSender> members = rooms.get(teamId);
+        return members == null ? null : members.get(userId);
+    }
+
+    /**
+     * 本节点是否有该队伍房间的连接
+     *
+     * @param teamId 队伍id
+     * @return boolean
+     */
+    public boolean hasRoom(String teamId) {
+        return rooms.containsKey(teamId);
+    }
+
+    /**
+     * 大厅在线用户
+     *
+     * @return {@link Set}<{@link String}>
+     */
+    public Set<String> hallUserIds() {
+        return Collections.unmodifiableSet(hall.keySet());
+    }
+
+    /**
+     * 遍历用户在大厅和各房间的连接
+     *
+     * @param userId 用户id
+     * @param action 动作
+     */
+    public void forEachUserConnection(String userId, Consumer<SessionSender> action) {
+        SessionSender sender = hall.get(userId);
+        if (sender != null) {
+            action.accept(sender);
+        }
+        for (Map<String, SessionSender> members : rooms.values()) {
+            sender = members.get(userId);
+            if (sender != null) {
+                action.accept(sender);
+            }
+        }
+    }
+
+    /**
+     * 遍历队伍房间的连接
+     *
+     * @param teamId 队伍id
+     * @param action 动作
+     */
+    public void forEachRoomConnection(String teamId, Consumer<SessionSender> action) {
+        Map<String, SessionSender> members = rooms.get(teamId);
+        if (members != null) {
+            members.values().forEach(action);
+        }
+    }
+
+    /**
+     * 所有房间的在线人数
+     *
+     * @return long
+     */
+    public long roomOnlineCount() {
+        return roomConnections.sum();
+    }
+
+    /**
+     * 某个房间的在线人数
+     *
+     * @param teamId 队伍id
+     * @return int
+     */
+    public int roomOnlineCount(String teamId) {
+        Map<String, SessionSender> members = rooms.get(teamId);
+        return members == null ? 0 : members.size();
+    }
+
+    /**
+     * 大厅的在线人数
+     *
+     * @return long
+     */
+    public long hallOnlineCount() {
+        return hallConnections.sum();
+    }
+}
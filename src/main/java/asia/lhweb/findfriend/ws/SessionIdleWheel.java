@@ -0,0 +1,245 @@
+package asia.lhweb.findfriend.ws;
+
+import asia.lhweb.findfriend.model.vo.ChatSessionStatsVO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.websocket.CloseReason;
+import javax.websocket.Session;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static asia.lhweb.findfriend.constants.ChatConstant.CHAT_BLOCKING_SEND_TIMEOUT;
+import static asia.lhweb.findfriend.constants.ChatConstant.CHAT_HEARTBEAT_INTERVAL;
+import static asia.lhweb.findfriend.constants.ChatConstant.CHAT_IDLE_TIMEOUT;
+import static asia.lhweb.findfriend.constants.ChatConstant.CHAT_WHEEL_SIZE;
+import static asia.lhweb.findfriend.constants.ChatConstant.CHAT_WHEEL_TICK;
+
+/**
+ * 连接空闲检查
+ * 每个连接在哈希时间轮上登记一个到期时间，收到消息或 pong 时只更新最近活跃时间，不移动登记。
+ * 到期时按最近活跃时间判断：仍在活跃的重新登记到下一个检查时间，空闲超过心跳间隔的发送 ping，
+ * 空闲超过超时时间的视为半开连接，清理房间和在线状态后关闭。
+ * 发送 ping 和关闭连接可能阻塞，在单独的线程执行，时间轮线程只做判断
+ *
+ * @author 罗汉
+ * @date 2024/05/28
+ */
+@Component
+@Slf4j
+public class SessionIdleWheel {
+    private static final long MASK = CHAT_WHEEL_SIZE - 1;
+
+    /**
+     * Tomcat 读取会话属性中的阻塞发送超时时间，心跳和关闭帧按此超时
+     */
+    private static final String BLOCKING_SEND_TIMEOUT_PROPERTY = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+
+    private static final ByteBuffer PING = ByteBuffer.allocate(0);
+
+    @SuppressWarnings("unchecked")
+    private final Queue<Tracked>[] buckets = new Queue[CHAT_WHEEL_SIZE];
+
+    /**
+     * 时间轮已经走过的格数，只由时间轮线程修改
+     */
+    private volatile long currentTick;
+
+    private final ScheduledExecutorService wheel = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chat-idle-wheel");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ExecutorService heartbeat = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chat-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder liveSessions = new LongAdder();
+
+    private final LongAdder heartbeats = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    public SessionIdleWheel() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        wheel.scheduleAtFixedRate(this::advance, CHAT_WHEEL_TICK, CHAT_WHEEL_TICK, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        wheel.shutdownNow();
+        heartbeat.shutdownNow();
+    }
+
+    /**
+     * 开始跟踪连接
+     *
+     * @param sender  连接
+     * @param onEvict 空闲超时时的清理，与连接正常关闭时的清理相同
+     * @return {@link Tracked}，收到消息时调用 {@link Tracked#touch()}，连接关闭时调用 {@link Tracked#cancel()}
+     */
+    public Tracked track(SessionSender sender, Runnable onEvict) {
+        sender.getSession().getUserProperties().put(BLOCKING_SEND_TIMEOUT_PROPERTY, CHAT_BLOCKING_SEND_TIMEOUT);
+        Tracked tracked = new Tracked(sender, onEvict);
+        liveSessions.increment();
+        schedule(tracked, tracked.lastActive + CHAT_HEARTBEAT_INTERVAL);
+        return tracked;
+    }
+
+    /**
+     * 当前统计
+     *
+     * @return {@link ChatSessionStatsVO}
+     */
+    public ChatSessionStatsVO snapshot() {
+        ChatSessionStatsVO chatSessionStatsVO = new ChatSessionStatsVO();
+        chatSessionStatsVO.setLiveSessions(liveSessions.sum());
+        chatSessionStatsVO.setHeartbeats(heartbeats.sum());
+        chatSessionStatsVO.setEvictions(evictions.sum());
+        return chatSessionStatsVO;
+    }
+
+    /**
+     * 登记到期时间所在的格，超过一圈的记下目标格数，转到时再判断
+     *
+     * @param tracked  连接
+     * @param deadline 到期时间
+     */
+    private void schedule(Tracked tracked, long deadline) {
+        long delay = deadline - System.currentTimeMillis();
+        long ticks = Math.max((delay + CHAT_WHEEL_TICK - 1) / CHAT_WHEEL_TICK, 1);
+        long target = currentTick + ticks;
+        tracked.targetTick = target;
+        buckets[(int) (target & MASK)].offer(tracked);
+    }
+
+    /**
+     * 前进一格，处理这一格中到期的连接
+     */
+    private void advance() {
+        try {
+            long tick = currentTick + 1;
+            currentTick = tick;
+            Queue<Tracked> bucket = buckets[(int) (tick & MASK)];
+            // 只处理本轮开始时已有的登记，本轮重新登记到同一格的留到下一圈
+            for (int remaining = bucket.size(); remaining > 0; remaining--) {
+                Tracked tracked = bucket.poll();
+                if (tracked == null) {
+                    break;
+                }
+                if (tracked.cancelled.get()) {
+                    continue;
+                }
+                if (tracked.targetTick > tick) {
+                    bucket.offer(tracked);
+                    continue;
+                }
+                expire(tracked);
+            }
+        } catch (Exception e) {
+            log.error("exception message", e);
+        }
+    }
+
+    private void expire(Tracked tracked) {
+        long now = System.currentTimeMillis();
+        long idle = now - tracked.lastActive;
+        if (idle >= CHAT_IDLE_TIMEOUT || !tracked.sender.getSession().isOpen()) {
+            if (tracked.cancel()) {
+                evictions.increment();
+                heartbeat.execute(() -> evict(tracked));
+            }
+            return;
+        }
+        if (idle >= CHAT_HEARTBEAT_INTERVAL) {
+            heartbeats.increment();
+            heartbeat.execute(() -> ping(tracked));
+            schedule(tracked, Math.min(now + CHAT_HEARTBEAT_INTERVAL, tracked.lastActive + CHAT_IDLE_TIMEOUT));
+            return;
+        }
+        schedule(tracked, tracked.lastActive + CHAT_HEARTBEAT_INTERVAL);
+    }
+
+    private void ping(Tracked tracked) {
+        Session session = tracked.sender.getSession();
+        try {
+            if (session.isOpen()) {
+                session.getAsyncRemote().sendPing(PING.duplicate());
+            }
+        } catch (Exception e) {
+            // 发送失败的连接不再活跃，到期后清理
+            log.debug("会话 " + session.getId() + " 发送心跳失败", e);
+        }
+    }
+
+    private void evict(Tracked tracked) {
+        log.info("会话 " + tracked.sender.getSession().getId() + " 空闲超时，断开连接");
+        try {
+            tracked.onEvict.run();
+        } catch (Exception e) {
+            log.error("exception message", e);
+        }
+        tracked.sender.close(new CloseReason(CloseReason.CloseCodes.GOING_AWAY, "心跳超时"));
+    }
+
+    /**
+     * 时间轮上的一个连接
+     */
+    public class Tracked {
+        private final SessionSender sender;
+
+        private final Runnable onEvict;
+
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        private volatile long lastActive = System.currentTimeMillis();
+
+        /**
+         * 到期的格数，只由登记它的线程写入
+         */
+        private volatile long targetTick;
+
+        Tracked(SessionSender sender, Runnable onEvict) {
+            this.sender = sender;
+            this.onEvict = onEvict;
+        }
+
+        /**
+         * 连接有活动，只更新时间，到期时再重新登记
+         */
+        public void touch() {
+            lastActive = System.currentTimeMillis();
+        }
+
+        /**
+         * 停止跟踪，登记在轮到时丢弃
+         *
+         * @return 是否由本次调用停止
+         */
+        public boolean cancel() {
+            if (cancelled.compareAndSet(false, true)) {
+                liveSessions.decrement();
+                return true;
+            }
+            return false;
+        }
+    }
+}
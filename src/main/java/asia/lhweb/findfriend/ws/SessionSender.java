@@ -0,0 +1,247 @@
+package asia.lhweb.findfriend.ws;
+
+import com.google.gson.Gson;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.websocket.CloseReason;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static asia.lhweb.findfriend.constants.ChatConstant.CHAT_BATCH_MAX_MESSAGES;
+import static asia.lhweb.findfriend.constants.ChatConstant.COMPACT_PROTOCOL;
+import static asia.lhweb.findfriend.constants.ChatConstant.SESSION_SEND_QUEUE_CAPACITY;
+import static asia.lhweb.findfriend.constants.ChatConstant.SESSION_SEND_TIMEOUT;
+import static asia.lhweb.findfriend.constants.ChatConstant.SLOW_CONSUMER_TIMEOUT;
+
+/**
+ * 会话发送队列
+ * 每个连接一个有界队列，调用方只入队不等待；队列由异步发送逐条排空，同一时刻只有一条消息在发送。
+ * 队列满时丢弃新消息，持续 {@link asia.lhweb.findfriend.constants.ChatConstant#SLOW_CONSUMER_TIMEOUT} 毫秒没有发送进展则断开连接。
+ * 握手时协商了精简协议的连接记录已发送过的用户资料，资料只在第一次引用或变化时发送。
+ * 合并发送的连接在队列由空变为非空后等待一个时间窗口，把窗口内和上一帧发送期间积攒的消息合并为一个 JSON 数组帧，
+ * 这类连接收到的每一帧都是消息数组
+ *
+ * @author 罗汉
+ * @date 2024/05/22
+ */
+@Slf4j
+public class SessionSender {
+    private static final Gson GSON = new Gson();
+
+    /**
+     * 合并发送的定时器，所有连接共用
+     */
+    private static final ScheduledExecutorService BATCH_TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chat-batch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Session session;
+
+    private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(SESSION_SEND_QUEUE_CAPACITY);
+
+    /**
+     * 是否有消息正在发送
+     */
+    private final AtomicBoolean sending = new AtomicBoolean();
+
+    /**
+     * 最近一次发送完成（或队列由空变为非空）的时间
+     */
+    private volatile long lastProgress = System.currentTimeMillis();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * 是否使用精简协议
+     */
+    private final boolean compact;
+
+    /**
+     * 已发送的用户id => 用户帧
+     */
+    private final Map<Long, String> sentUsers = new HashMap<>();
+
+    /**
+     * 合并发送的时间窗口（毫秒），0 为逐条发送
+     */
+    private final long batchWindow;
+
+    private final ChatSendStats stats;
+
+    public SessionSender(Session session, long batchWindow, ChatSendStats stats) {
+        this.session = session;
+        this.compact = COMPACT_PROTOCOL.equals(session.getNegotiatedSubprotocol());
+        this.batchWindow = batchWindow;
+        this.stats = stats;
+        session.getAsyncRemote().setSendTimeout(SESSION_SEND_TIMEOUT);
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    /**
+     * 消息入队，连接已关闭或队列已满时丢弃
+     *
+     * @param message 消息
+     * @return 是否入队
+     */
+    public boolean offer(String message) {
+        if (!session.isOpen()) {
+            return false;
+        }
+        if (queue.isEmpty()) {
+            lastProgress = System.currentTimeMillis();
+        }
+        if (!queue.offer(message)) {
+            long droppedNum = dropped.incrementAndGet();
+            if (System.currentTimeMillis() - lastProgress > SLOW_CONSUMER_TIMEOUT) {
+                log.warn("会话 " + session.getId() + " 消息积压，已丢弃 " + droppedNum + " 条，断开连接");
+                close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "消息积压"));
+            }
+            return false;
+        }
+        drain();
+        return true;
+    }
+
+    /**
+     * 按连接的协议入队，精简协议先补发未发送过或已变化的用户资料
+     *
+     * @param frame 消息
+     * @return 是否入队
+     */
+    public boolean offer(ChatFrame frame) {
+        if (!compact) {
+            return offer(frame.json());
+        }
+        ChatFrame.Compact compactFrame = frame.compact();
+        // 同一连接串行入队，用户帧总在引用它的消息之前
+        synchronized (sentUsers) {
+            for (Map.Entry<Long, String> user : compactFrame.getUsers().entrySet()) {
+                if (!user.getValue().equals(sentUsers.get(user.getKey())) && offer(user.getValue())) {
+                    sentUsers.put(user.getKey(), user.getValue());
+                }
+            }
+            return offer(compactFrame.getFrame());
+        }
+    }
+
+    /**
+     * 关闭连接，队列中未发送的消息丢弃
+     *
+     * @param reason 原因
+     */
+    public void close(CloseReason reason) {
+        queue.clear();
+        try {
+            if (session.isOpen()) {
+                session.close(reason);
+            }
+        } catch (IOException e) {
+            log.error("exception message", e);
+        }
+    }
+
+    /**
+     * 没有消息在发送时开始发送，合并发送的连接等待一个时间窗口后再发送
+     */
+    private void drain() {
+        while (sending.compareAndSet(false, true)) {
+            if (queue.isEmpty()) {
+                sending.set(false);
+                // 释放标记前可能有新消息入队
+                if (queue.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            if (batchWindow > 0) {
+                BATCH_TIMER.schedule(this::sendNext, batchWindow, TimeUnit.MILLISECONDS);
+            } else {
+                sendNext();
+            }
+            return;
+        }
+    }
+
+    /**
+     * 持有发送标记时调用，发送下一帧，发送完成后在回调中继续
+     */
+    private void sendNext() {
+        String frame = nextFrame();
+        if (frame == null) {
+            sending.set(false);
+            drain();
+            return;
+        }
+        try {
+            session.getAsyncRemote().sendText(frame, this::onSent);
+        } catch (RuntimeException e) {
+            log.error("exception message", e);
+            close(new CloseReason(CloseReason.CloseCodes.UNEXPECTED_CONDITION, "发送失败"));
+            sending.set(false);
+        }
+    }
+
+    /**
+     * 逐条发送的连接取一条，合并发送的连接取出队列中的消息组成数组
+     *
+     * @return 帧，队列为空时为空
+     */
+    private String nextFrame() {
+        if (batchWindow <= 0) {
+            String message = queue.poll();
+            if (message != null) {
+                stats.record(1);
+            }
+            return message;
+        }
+        List<String> messages = new ArrayList<>();
+        queue.drainTo(messages, CHAT_BATCH_MAX_MESSAGES);
+        if (messages.isEmpty()) {
+            return null;
+        }
+        stats.record(messages.size());
+        StringBuilder frame = new StringBuilder("[");
+        for (String message : messages) {
+            if (frame.length() > 1) {
+                frame.append(',');
+            }
+            // JSON 对象和数组直接拼接，pong 等纯文本作为字符串
+            frame.append(message.startsWith("{") || message.startsWith("[") ? message : GSON.toJson(message));
+        }
+        return frame.append(']').toString();
+    }
+
+    private void onSent(SendResult result) {
+        if (!result.isOK()) {
+            log.warn("会话 " + session.getId() + " 发送失败，断开连接", result.getException());
+            close(new CloseReason(CloseReason.CloseCodes.UNEXPECTED_CONDITION, "发送失败"));
+            sending.set(false);
+            return;
+        }
+        lastProgress = System.currentTimeMillis();
+        if (batchWindow > 0 && !queue.isEmpty()) {
+            // 上一帧发送期间积攒的消息已经等待过，直接发送
+            sendNext();
+            return;
+        }
+        sending.set(false);
+        drain();
+    }
+}
@@ -5,17 +5,15 @@ import asia.lhweb.findfriend.config.HttpSessionConfig;
 import asia.lhweb.findfriend.constants.ChatConstant;
 import asia.lhweb.findfriend.constants.UserConstants;
 import asia.lhweb.findfriend.model.domain.Chat;
-import asia.lhweb.findfriend.model.domain.Team;
 import asia.lhweb.findfriend.model.domain.User;
 import asia.lhweb.findfriend.model.request.MessageRequest;
 import asia.lhweb.findfriend.model.vo.ChatMessageVO;
 import asia.lhweb.findfriend.model.vo.WebSocketVO;
-import asia.lhweb.findfriend.service.ChatService;
-import asia.lhweb.findfriend.service.TeamService;
-import asia.lhweb.findfriend.service.UserService;
+import asia.lhweb.findfriend.properties.FindFriendProperties;
+import asia.lhweb.findfriend.service.impl.ChatUnreadCounter;
+import asia.lhweb.findfriend.service.impl.ChatWriteBehind;
 import cn.hutool.core.date.DateUtil;
 import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import com.google.gson.Gson;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
@@ -24,23 +22,18 @@ import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
+import javax.websocket.CloseReason;
 import javax.websocket.EndpointConfig;
 import javax.websocket.OnClose;
 import javax.websocket.OnMessage;
 import javax.websocket.OnOpen;
+import javax.websocket.PongMessage;
 import javax.websocket.Session;
 import javax.websocket.server.PathParam;
 import javax.websocket.server.ServerEndpoint;
-import java.io.IOException;
-import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
 
 
 /**
@@ -51,39 +44,47 @@ import java.util.concurrent.CopyOnWriteArraySet;
  */
 @Component
 @Slf4j
-@ServerEndpoint(value = "/websocket/{userId}/{teamId}", configurator = HttpSessionConfig.class)
+@ServerEndpoint(value = "/websocket/{userId}/{teamId}", configurator = HttpSessionConfig.class,
+        subprotocols = ChatConstant.COMPACT_PROTOCOL)
 public class WebSocket {
     /**
-     * 保存队伍的连接信息
+     * 房间注册表，队伍房间和大厅的连接
      */
-    private static final Map<String, ConcurrentHashMap<String, WebSocket>> ROOMS = new HashMap<>();
-
+    private static RoomRegistry roomRegistry;
     /**
-     * 线程安全的无序的集合
+     * 聊天消息延迟写入
      */
-    private static final CopyOnWriteArraySet<Session> SESSIONS = new CopyOnWriteArraySet<>();
-
+    private static ChatWriteBehind chatWriteBehind;
     /**
-     * 会话池
+     * 会话未读计数
      */
-    private static final Map<String, Session> SESSION_POOL = new HashMap<>(0);
+    private static ChatUnreadCounter chatUnreadCounter;
     /**
-     * 用户服务
+     * 连接身份
      */
-    private static UserService userService;
+    private static ConnectionIdentity connectionIdentity;
     /**
-     * 聊天服务
+     * 聊天集群总线
      */
-    private static ChatService chatService;
+    private static ChatClusterBus chatClusterBus;
     /**
-     * 团队服务
+     * 在线状态
      */
-    private static TeamService teamService;
-
+    private static ChatPresence chatPresence;
+    /**
+     * 聊天发送统计
+     */
+    private static ChatSendStats chatSendStats;
+    /**
+     * 配置
+     */
+    private static FindFriendProperties findFriendProperties;
     /**
-     * 房间在线人数
+     * 连接空闲检查
      */
-    private static int onlineCount = 0;
+    private static SessionIdleWheel sessionIdleWheel;
+
+    private static final Gson GSON = new Gson();
 
     /**
      * 当前信息
@@ -91,91 +92,133 @@ public class WebSocket {
     private Session session;
 
     /**
-     * http会话
+     * 当前连接的发送队列
+     */
+    private SessionSender sender;
+
+    /**
+     * 当前连接在空闲检查时间轮上的登记
      */
-    private HttpSession httpSession;
+    private SessionIdleWheel.Tracked idle;
 
     /**
      * 上网数
      *
-     * @return int
+     * @return long
      */
-    public static synchronized int getOnlineCount() {
-        return onlineCount;
+    public static long getOnlineCount() {
+        return roomRegistry.roomOnlineCount();
     }
 
     /**
-     * 添加在线计数
+     * 房间注册表
+     *
+     * @param roomRegistry 房间注册表
      */
-    public static synchronized void addOnlineCount() {
-        WebSocket.onlineCount++;
+    @Resource
+    public void setRoomRegistry(RoomRegistry roomRegistry) {
+        WebSocket.roomRegistry = roomRegistry;
     }
 
     /**
-     * 子在线计数
+     * 聊天消息延迟写入
+     *
+     * @param chatWriteBehind 聊天消息延迟写入
      */
-    public static synchronized void subOnlineCount() {
-        WebSocket.onlineCount--;
+    @Resource
+    public void setChatWriteBehind(ChatWriteBehind chatWriteBehind) {
+        WebSocket.chatWriteBehind = chatWriteBehind;
     }
 
     /**
-     * 集热地图服务
+     * 会话未读计数
      *
-     * @param userService 用户服务
+     * @param chatUnreadCounter 会话未读计数
      */
     @Resource
-    public void setHeatMapService(UserService userService) {
-        WebSocket.userService = userService;
+    public void setChatUnreadCounter(ChatUnreadCounter chatUnreadCounter) {
+        WebSocket.chatUnreadCounter = chatUnreadCounter;
     }
 
     /**
-     * 集热地图服务
+     * 连接身份
      *
-     * @param chatService 聊天服务
+     * @param connectionIdentity 连接身份
      */
     @Resource
-    public void setHeatMapService(ChatService chatService) {
-        WebSocket.chatService = chatService;
+    public void setConnectionIdentity(ConnectionIdentity connectionIdentity) {
+        WebSocket.connectionIdentity = connectionIdentity;
     }
 
     /**
-     * 集热地图服务
+     * 聊天集群总线
      *
-     * @param teamService 团队服务
+     * @param chatClusterBus 聊天集群总线
      */
     @Resource
-    public void setHeatMapService(TeamService teamService) {
-        WebSocket.teamService = teamService;
+    public void setChatClusterBus(ChatClusterBus chatClusterBus) {
+        WebSocket.chatClusterBus = chatClusterBus;
     }
 
+    /**
+     * 在线状态
+     *
+     * @param chatPresence 在线状态
+     */
+    @Resource
+    public void setChatPresence(ChatPresence chatPresence) {
+        WebSocket.chatPresence = chatPresence;
+    }
 
     /**
-     * 队伍内群发消息
+     * 聊天发送统计
+     *
+     * @param chatSendStats 聊天发送统计
+     */
+    @Resource
+    public void setChatSendStats(ChatSendStats chatSendStats) {
+        WebSocket.chatSendStats = chatSendStats;
+    }
+
+    /**
+     * 配置
+     *
+     * @param findFriendProperties 配置
+     */
+    @Resource
+    public void setFindFriendProperties(FindFriendProperties findFriendProperties) {
+        WebSocket.findFriendProperties = findFriendProperties;
+    }
+
+    /**
+     * 连接空闲检查
+     *
+     * @param sessionIdleWheel 连接空闲检查
+     */
+    @Resource
+    public void setSessionIdleWheel(SessionIdleWheel sessionIdleWheel) {
+        WebSocket.sessionIdleWheel = sessionIdleWheel;
+    }
+
+
+    /**
+     * 队伍内群发消息，包括其他节点上的连接
      *
      * @param teamId 团队id
      * @param msg    消息
      */
     public static void broadcast(String teamId, String msg) {
-        ConcurrentHashMap<String, WebSocket> map = ROOMS.get(teamId);
-        // keySet获取map集合key的集合  然后在遍历key即可
-        for (String key : map.keySet()) {
-            try {
-                WebSocket webSocket = map.get(key);
-                webSocket.sendMessage(msg);
-            } catch (Exception e) {
-                log.error("exception message", e);
-            }
-        }
+        // 只入队，慢连接不影响房间内其他人
+        chatClusterBus.publishRoom(teamId, msg);
     }
 
     /**
      * 发送消息
      *
      * @param message 消息
-     * @throws IOException ioexception
      */
-    public void sendMessage(String message) throws IOException {
-        this.session.getBasicRemote().sendText(message);
+    public void sendMessage(String message) {
+        this.sender.offer(message);
     }
 
     /**
@@ -198,34 +241,65 @@ public class WebSocket {
             }
             HttpSession userHttpSession = (HttpSession) config.getUserProperties().get(HttpSession.class.getName());
             User user = (User) userHttpSession.getAttribute(UserConstants.USER_LOGIN_STATE);
-            if (user != null) {
-                this.session = session;
-                this.httpSession = userHttpSession;
+            if (user == null) {
+                return;
+            }
+            // 只允许以登录用户的身份连接
+            if (!userId.equals(String.valueOf(user.getId()))) {
+                session.close(new CloseReason(CloseReason.CloseCodes.VIOLATED_POLICY, "用户不一致"));
+                return;
+            }
+            Long roomTeamId = "NaN".equals(teamId) ? null : Long.valueOf(teamId);
+            // 身份、角色和队伍只在这里解析一次
+            ConnectionContext context = connectionIdentity.open(session, user.getId(), roomTeamId);
+            if (roomTeamId != null && !context.isMember()) {
+                session.close(new CloseReason(CloseReason.CloseCodes.VIOLATED_POLICY, "未加入队伍"));
+                return;
+            }
+            this.session = session;
+            this.sender = new SessionSender(session, batchWindow(session), chatSendStats);
+            SessionSender replaced;
+            WebSocketVO onlineUser = context.getUser();
+            if (onlineUser == null) {
+                onlineUser = new WebSocketVO();
+                BeanUtils.copyProperties(user, onlineUser);
             }
-            if (!"NaN".equals(teamId)) {
-                if (!ROOMS.containsKey(teamId)) {
-                    ConcurrentHashMap<String, WebSocket> room = new ConcurrentHashMap<>(0);
-                    room.put(userId, this);
-                    ROOMS.put(String.valueOf(teamId), room);
-                    // 在线数加1
-                    addOnlineCount();
-                } else {
-                    if (!ROOMS.get(teamId).containsKey(userId)) {
-                        ROOMS.get(teamId).put(userId, this);
-                        // 在线数加1
-                        addOnlineCount();
-                    }
-                }
+            if (roomTeamId != null) {
+                replaced = roomRegistry.joinRoom(teamId, userId, sender);
+                chatClusterBus.syncRoom(teamId);
+                chatPresence.join(roomTeamId, onlineUser);
             } else {
-                SESSIONS.add(session);
-                SESSION_POOL.put(userId, session);
-                sendAllUsers();
+                replaced = roomRegistry.joinHall(userId, sender);
+                chatClusterBus.syncUser(userId);
+                chatPresence.join(null, onlineUser);
+                // 新连接先拉取第一页在线用户，之后只接收上下线变化
+                sendMessage(GSON.toJson(chatPresence.page(null, 0, ChatConstant.CHAT_ONLINE_PAGE_SIZE)));
+            }
+            // 半开连接收不到关闭事件，空闲超时后按关闭同样清理
+            SessionSender current = sender;
+            this.idle = sessionIdleWheel.track(current, () -> release(userId, teamId, current));
+            // 同一用户重复连接时关闭旧连接
+            if (replaced != null) {
+                replaced.close(new CloseReason(CloseReason.CloseCodes.NORMAL_CLOSURE, "重复连接"));
             }
         } catch (Exception e) {
             log.error("exception message", e);
         }
     }
 
+    /**
+     * 握手时请求了合并发送的连接使用配置的时间窗口
+     *
+     * @param session 会话
+     * @return long
+     */
+    private static long batchWindow(Session session) {
+        List<String> values = session.getRequestParameterMap().get(ChatConstant.CHAT_BATCH_PARAM);
+        boolean requested = values != null
+                && values.stream().anyMatch(value -> "1".equals(value) || "true".equalsIgnoreCase(value));
+        return requested ? Math.max(findFriendProperties.getChatBatchWindow(), 0) : 0;
+    }
+
     /**
      * 关闭
      *
@@ -238,148 +312,182 @@ public class WebSocket {
                         @PathParam(value = "teamId") String teamId,
                         Session session) {
         try {
-            if (!"NaN".equals(teamId)) {
-                ROOMS.get(teamId).remove(userId);
-                if (getOnlineCount() > 0) {
-                    subOnlineCount();
-                }
-            } else {
-                if (!SESSION_POOL.isEmpty()) {
-                    SESSION_POOL.remove(userId);
-                    SESSIONS.remove(session);
-                }
-                sendAllUsers();
+            if (sender == null) {
+                return;
+            }
+            if (idle != null) {
+                idle.cancel();
             }
+            release(userId, teamId, sender);
         } catch (Exception e) {
             log.error("exception message", e);
         }
     }
 
+    /**
+     * 移除连接的登记和在线状态，关闭和空闲超时都会调用，只有第一次生效
+     *
+     * @param userId 用户id
+     * @param teamId 团队id
+     * @param sender 连接
+     */
+    private static void release(String userId, String teamId, SessionSender sender) {
+        if (!"NaN".equals(teamId)) {
+            if (roomRegistry.leaveRoom(teamId, userId, sender)) {
+                chatClusterBus.syncRoom(teamId);
+                chatPresence.leave(Long.valueOf(teamId), Long.parseLong(userId));
+            }
+        } else if (roomRegistry.leaveHall(userId, sender)) {
+            chatClusterBus.syncUser(userId);
+            chatPresence.leave(null, Long.parseLong(userId));
+        }
+    }
+
+    /**
+     * 心跳响应
+     *
+     * @param pongMessage pong
+     */
+    @OnMessage
+    public void onPong(PongMessage pongMessage) {
+        if (idle != null) {
+            idle.touch();
+        }
+    }
+
     /**
      * 消息
+     * 发送者和队伍信息取自连接上下文，不查询数据库
      *
      * @param message 消息
-     * @param userId  用户id
      */
     @OnMessage
-    public void onMessage(String message, @PathParam("userId") String userId) {
+    public void onMessage(String message) {
+        if (idle != null) {
+            idle.touch();
+        }
+        // 兼容客户端心跳，回复只入队不阻塞；服务端另有 ping 检测连接
         if ("PING".equals(message)) {
-            sendOneMessage(userId, "pong");
+            sendMessage("pong");
             return;
         }
-        MessageRequest messageRequest = new Gson().fromJson(message, MessageRequest.class);
+        ConnectionContext context = connectionIdentity.current(session);
+        if (context == null || context.getUser() == null) {
+            return;
+        }
+        MessageRequest messageRequest = GSON.fromJson(message, MessageRequest.class);
         Long toId = messageRequest.getToId();
         Long teamId = messageRequest.getTeamId();
         String text = messageRequest.getText();
         Integer chatType = messageRequest.getChatType();
-        User fromUser = userService.getById(userId);
-        Team team = teamService.getById(teamId);
         if (chatType == ChatConstant.PRIVATE_CHAT) {
             // 私聊
-            privateChat(fromUser, toId, text, chatType);
+            privateChat(context, toId, text, chatType);
         } else if (chatType == ChatConstant.TEAM_CHAT) {
-            // 队伍内聊天
-            teamChat(fromUser, text, team, chatType);
+            // 队伍内聊天，只能发到本连接所在的队伍
+            if (!Objects.equals(teamId, context.getTeamId())) {
+                sendError("队伍不一致");
+                return;
+            }
+            if (!context.isMember()) {
+                sender.close(new CloseReason(CloseReason.CloseCodes.VIOLATED_POLICY, "未加入队伍"));
+                return;
+            }
+            teamChat(context, text, chatType);
         } else {
             // 群聊
-            hallChat(fromUser, text, chatType);
+            hallChat(context, text, chatType);
         }
     }
 
     /**
      * 队伍聊天
      *
-     * @param user     用户
+     * @param context  连接上下文
      * @param text     文本
-     * @param team     团队
      * @param chatType 聊天类型
      */
-    private void teamChat(User user, String text, Team team, Integer chatType) {
+    private void teamChat(ConnectionContext context, String text, Integer chatType) {
+        Long teamId = context.getTeamId();
         ChatMessageVO chatMessageVo = new ChatMessageVO();
-        WebSocketVO fromWebSocketVO = new WebSocketVO();
-        BeanUtils.copyProperties(user, fromWebSocketVO);
-        chatMessageVo.setFromUser(fromWebSocketVO);
+        chatMessageVo.setFromUser(context.getUser());
         chatMessageVo.setText(text);
-        chatMessageVo.setTeamId(team.getId());
+        chatMessageVo.setTeamId(teamId);
         chatMessageVo.setChatType(chatType);
         chatMessageVo.setCreateTime(DateUtil.format(new Date(), "yyyy-MM-dd HH:mm:ss"));
-        if (Objects.equals(user.getId(), team.getUserId()) || user.getRole() == UserConstants.ADMIN_ROLE) {
+        if (context.isTeamAdmin()) {
             chatMessageVo.setIsAdmin(true);
         }
-        User loginUser = (User) this.httpSession.getAttribute(UserConstants.USER_LOGIN_STATE);
-        if (Objects.equals(loginUser.getId(), user.getId())) {
-            chatMessageVo.setIsMy(true);
-        }
-        String toJson = new Gson().toJson(chatMessageVo);
-        try {
-            broadcast(String.valueOf(team.getId()), toJson);
-            saveChat(user.getId(), null, text, team.getId(), chatType);
-            chatService.deleteKey(ChatConstant.CACHE_CHAT_TEAM, String.valueOf(team.getId()));
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        chatMessageVo.setIsMy(true);
+        chatMessageVo.setId(saveChat(context.getUserId(), null, text, teamId, chatType));
+        String toJson = GSON.toJson(chatMessageVo);
+        broadcast(String.valueOf(teamId), toJson);
     }
 
     /**
      * 大厅聊天
      *
-     * @param user     用户
+     * @param context  连接上下文
      * @param text     文本
      * @param chatType 聊天类型
      */
-    private void hallChat(User user, String text, Integer chatType) {
+    private void hallChat(ConnectionContext context, String text, Integer chatType) {
         ChatMessageVO chatMessageVo = new ChatMessageVO();
-        WebSocketVO fromWebSocketVO = new WebSocketVO();
-        BeanUtils.copyProperties(user, fromWebSocketVO);
-        chatMessageVo.setFromUser(fromWebSocketVO);
+        chatMessageVo.setFromUser(context.getUser());
         chatMessageVo.setText(text);
         chatMessageVo.setChatType(chatType);
         chatMessageVo.setCreateTime(DateUtil.format(new Date(), "yyyy年MM月dd日 HH:mm:ss"));
-        if (user.getRole() == UserConstants.ADMIN_ROLE) {
+        if (context.isAdmin()) {
             chatMessageVo.setIsAdmin(true);
         }
-        User loginUser = (User) this.httpSession.getAttribute(UserConstants.USER_LOGIN_STATE);
-        if (Objects.equals(loginUser.getId(), user.getId())) {
-            chatMessageVo.setIsMy(true);
-        }
-        String toJson = new Gson().toJson(chatMessageVo);
+        chatMessageVo.setIsMy(true);
+        chatMessageVo.setId(saveChat(context.getUserId(), null, text, null, chatType));
+        String toJson = GSON.toJson(chatMessageVo);
         sendAllMessage(toJson);
-        saveChat(user.getId(), null, text, null, chatType);
-        chatService.deleteKey(ChatConstant.CACHE_CHAT_HALL, String.valueOf(user.getId()));
     }
 
     /**
      * 私聊
+     * 对方在本节点时资料取自其连接上下文，否则只带对方id经集群总线发给对方所在节点，不查询数据库
      *
-     * @param user     用户
+     * @param context  连接上下文
      * @param toId     为id
      * @param text     文本
      * @param chatType 聊天类型
      */
-    private void privateChat(User user, Long toId, String text, Integer chatType) {
-        ChatMessageVO chatMessageVo = chatService
-                .chatResult(user.getId(), toId, text, chatType, DateUtil.date(System.currentTimeMillis()));
-        User loginUser = (User) this.httpSession.getAttribute(UserConstants.USER_LOGIN_STATE);
-        if (Objects.equals(loginUser.getId(), user.getId())) {
-            chatMessageVo.setIsMy(true);
+    private void privateChat(ConnectionContext context, Long toId, String text, Integer chatType) {
+        SessionSender toSender = roomRegistry.getHallConnection(toId.toString());
+        ConnectionContext toContext = toSender == null ? null
+                : (ConnectionContext) toSender.getSession().getUserProperties().get(ConnectionContext.KEY);
+        WebSocketVO toUser = toContext == null ? null : toContext.getUser();
+        if (toUser == null) {
+            // 接收方就是对方本人，只需要id
+            toUser = new WebSocketVO();
+            toUser.setId(toId);
         }
-        String toJson = new Gson().toJson(chatMessageVo);
-        sendOneMessage(toId.toString(), toJson);
-        saveChat(user.getId(), toId, text, null, chatType);
-        chatService.deleteKey(ChatConstant.CACHE_CHAT_PRIVATE, user.getId() + "" + toId);
-        chatService.deleteKey(ChatConstant.CACHE_CHAT_PRIVATE, toId + "" + user.getId());
+        ChatMessageVO chatMessageVo = new ChatMessageVO();
+        chatMessageVo.setFromUser(context.getUser());
+        chatMessageVo.setToUser(toUser);
+        chatMessageVo.setChatType(chatType);
+        chatMessageVo.setText(text);
+        chatMessageVo.setCreateTime(DateUtil.format(new Date(), "yyyy-MM-dd HH:mm:ss"));
+        chatMessageVo.setIsMy(true);
+        chatMessageVo.setId(saveChat(context.getUserId(), toId, text, null, chatType));
+        sendOneMessage(toId.toString(), GSON.toJson(chatMessageVo));
     }
 
     /**
-     * 保存聊天
+     * 保存聊天，追加到写入缓冲后由后台批量写入数据库，并更新未读计数
+     * 推送前调用，推送的消息带上分配的id
      *
      * @param userId   用户id
      * @param toId     为id
      * @param text     文本
      * @param teamId   团队id
      * @param chatType 聊天类型
+     * @return long 聊天消息id
      */
-    private void saveChat(Long userId, Long toId, String text, Long teamId, Integer chatType) {
+    private long saveChat(Long userId, Long toId, String text, Long teamId, Integer chatType) {
 //        if (chatType == PRIVATE_CHAT) {
 //            User user = userService.getById(userId);
 //            Set<Long> userIds = stringJsonListToLongSet(user.getFriendIds());
@@ -399,7 +507,9 @@ public class WebSocket {
         if (teamId != null && teamId > 0) {
             chat.setTeamId(teamId);
         }
-        chatService.save(chat);
+        long id = chatWriteBehind.append(chat);
+        chatUnreadCounter.onSend(chat);
+        return id;
     }
 
     /**
@@ -415,57 +525,33 @@ public class WebSocket {
     }
 
     /**
-     * 广播消息
+     * 向当前连接发送错误
+     *
+     * @param errorMessage 错误消息
+     */
+    private void sendError(String errorMessage) {
+        JSONObject obj = new JSONObject();
+        obj.set("error", errorMessage);
+        sendMessage(obj.toString());
+    }
+
+    /**
+     * 广播消息，包括其他节点上的连接
      *
      * @param message 消息
      */
     public void sendAllMessage(String message) {
-        for (Session userSession : SESSIONS) {
-            try {
-                if (userSession.isOpen()) {
-                    synchronized (userSession) {
-                        userSession.getBasicRemote().sendText(message);
-                    }
-                }
-            } catch (Exception e) {
-                log.error("exception message", e);
-            }
-        }
+        chatClusterBus.publishHall(message);
     }
 
 
     /**
-     * 发送一个消息
+     * 发送一个消息，用户在其他节点时经集群总线送达
      *
      * @param userId  用户编号
      * @param message 消息
      */
     public void sendOneMessage(String userId, String message) {
-        Session userSession = SESSION_POOL.get(userId);
-        if (userSession != null && userSession.isOpen()) {
-            try {
-                synchronized (userSession) {
-                    userSession.getBasicRemote().sendText(message);
-                }
-            } catch (Exception e) {
-                log.error("exception message", e);
-            }
-        }
-    }
-
-    /**
-     * 给所有用户
-     */
-    public void sendAllUsers() {
-        HashMap<String, List<WebSocketVO>> stringListHashMap = new HashMap<>(0);
-        List<WebSocketVO> webSocketVos = new ArrayList<>();
-        stringListHashMap.put("users", webSocketVos);
-        for (Serializable key : SESSION_POOL.keySet()) {
-            User user = userService.getById(key);
-            WebSocketVO webSocketVO = new WebSocketVO();
-            BeanUtils.copyProperties(user, webSocketVO);
-            webSocketVos.add(webSocketVO);
-        }
-        sendAllMessage(JSONUtil.toJsonStr(stringListHashMap));
+        chatClusterBus.publishUser(userId, message);
     }
 }
@@ -0,0 +1,158 @@
+package asia.lhweb.findfriend.service.impl;
+
+import asia.lhweb.findfriend.constants.TeamConstants;
+import asia.lhweb.findfriend.mapper.UserTeamMapper;
+import asia.lhweb.findfriend.model.domain.Team;
+import asia.lhweb.findfriend.model.domain.User;
+import asia.lhweb.findfriend.model.vo.TeamMemberSummaryVO;
+import asia.lhweb.findfriend.model.vo.TeamVO;
+import asia.lhweb.findfriend.model.vo.UserTeamMembershipVO;
+import asia.lhweb.findfriend.service.UserService;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static asia.lhweb.findfriend.constants.SystemConstants.PAGE_SIZE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * 队伍分页组装测试，校验一页队伍的查询次数固定
+ *
+ * @author 罗汉
+ * @date 2024/05/14
+ */
+@ExtendWith(MockitoExtension.class)
+class TeamPageAssemblerTest {
+
+    @Mock
+    private UserService userService;
+
+    @Mock
+    private UserMembershipCache userMembershipCache;
+
+    @Mock
+    private UserTeamMapper userTeamMapper;
+
+    @InjectMocks
+    private TeamPageAssembler teamPageAssembler;
+
+    @Test
+    void fullPageUsesTwoQueries() {
+        List<Team> teams = new ArrayList<>();
+        List<TeamMemberSummaryVO> summaries = new ArrayList<>();
+        List<User> users = new ArrayList<>();
+        for (long i = 1; i <= PAGE_SIZE; i++) {
+            teams.add(team(i, 100 + i, 5));
+            users.add(user(100 + i));
+            users.add(user(200 + i));
+            summaries.add(summary(i, 5, (100 + i) + "," + (200 + i)));
+        }
+        when(userTeamMapper.listMemberSummary(anyCollection(), eq(TeamConstants.MAXIMUM_JOINED_USER_AVATAR_NUM)))
+                .thenReturn(summaries);
+        when(userService.listByIds(anyCollection())).thenReturn(users);
+        UserTeamMembershipVO membership = new UserTeamMembershipVO();
+        membership.setJoinedTeamIds(new HashSet<>(Arrays.asList(2L, 5L)));
+        membership.setCreatedNum(0L);
+        when(userMembershipCache.get(102L)).thenReturn(membership);
+
+        Page<Team> teamPage = new Page<>(1, PAGE_SIZE, 20);
+        teamPage.setRecords(teams);
+        Page<TeamVO> teamVoPage = teamPageAssembler.assemble(teamPage, 102L);
+
+        verify(userTeamMapper, times(1)).listMemberSummary(anyCollection(), anyInt());
+        verify(userService, times(1)).listByIds(anyCollection());
+        verify(userMembershipCache, times(1)).get(102L);
+        verifyNoMoreInteractions(userTeamMapper, userService, userMembershipCache);
+
+        assertEquals(20, teamVoPage.getTotal());
+        assertEquals(PAGE_SIZE, teamVoPage.getRecords().size());
+        TeamVO first = teamVoPage.getRecords().get(0);
+        assertEquals(101L, first.getCreateUser().getId());
+        assertEquals("user101", first.getLeaderName());
+        assertEquals(5L, first.getHasJoinNum());
+        assertEquals(Arrays.asList("avatar101", "avatar201"), first.getJoinedUserAvatars());
+        assertFalse(first.isHasJoin());
+        assertTrue(teamVoPage.getRecords().get(1).isHasJoin());
+        assertTrue(teamVoPage.getRecords().get(4).isHasJoin());
+    }
+
+    @Test
+    void anonymousUserSkipsJoinedQuery() {
+        when(userTeamMapper.listMemberSummary(anyCollection(), anyInt()))
+                .thenReturn(Collections.singletonList(summary(1, 1, "101")));
+        when(userService.listByIds(anyCollection())).thenReturn(Collections.singletonList(user(101)));
+
+        List<TeamVO> teamVOList = teamPageAssembler.assemble(Collections.singletonList(team(1, 101, 1)), null);
+
+        verify(userTeamMapper, times(1)).listMemberSummary(anyCollection(), anyInt());
+        verify(userService, times(1)).listByIds(anyCollection());
+        verifyNoInteractions(userMembershipCache);
+        assertEquals(1L, teamVOList.get(0).getHasJoinNum());
+        assertFalse(teamVOList.get(0).isHasJoin());
+    }
+
+    @Test
+    void teamWithoutMembersOrCreator() {
+        when(userTeamMapper.listMemberSummary(anyCollection(), anyInt())).thenReturn(Collections.emptyList());
+        when(userService.listByIds(anyCollection())).thenReturn(Collections.emptyList());
+
+        List<TeamVO> teamVOList = teamPageAssembler.assemble(Collections.singletonList(team(1, 101, 0)), null);
+
+        assertEquals(0L, teamVOList.get(0).getHasJoinNum());
+        assertTrue(teamVOList.get(0).getJoinedUserAvatars().isEmpty());
+        assertNull(teamVOList.get(0).getCreateUser());
+    }
+
+    @Test
+    void emptyPageRunsNoQuery() {
+        List<TeamVO> teamVOList = teamPageAssembler.assemble(Collections.emptyList(), 1L);
+
+        assertTrue(teamVOList.isEmpty());
+        verifyNoInteractions(userTeamMapper, userService, userMembershipCache);
+    }
+
+    private static Team team(long id, long userId, int joinNum) {
+        Team team = new Team();
+        team.setId(id);
+        team.setName("team" + id);
+        team.setUserId(userId);
+        team.setJoinNum(joinNum);
+        return team;
+    }
+
+    private static User user(long id) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername("user" + id);
+        user.setAvatarUrl("avatar" + id);
+        return user;
+    }
+
+    private static TeamMemberSummaryVO summary(long teamId, long memberNum, String firstUserIds) {
+        TeamMemberSummaryVO summary = new TeamMemberSummaryVO();
+        summary.setTeamId(teamId);
+        summary.setMemberNum(memberNum);
+        summary.setFirstUserIds(firstUserIds);
+        return summary;
+    }
+}
@@ -0,0 +1,180 @@
+package asia.lhweb.findfriend.utils;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 计数布隆过滤器测试，在 Redis 中执行脚本，校验增删、重建期间的删除和 epoch 变更
+ * 连接 redis.host / redis.port / redis.password 系统属性指定的 Redis，默认与 application.yml 相同，连接不上时跳过
+ *
+ * @author 罗汉
+ * @date 2024/05/30
+ */
+class RedisCountingBloomFilterTest {
+    private static LettuceConnectionFactory connectionFactory;
+
+    private static StringRedisTemplate stringRedisTemplate;
+
+    private String key;
+
+    private RedisCountingBloomFilter filter;
+
+    @BeforeAll
+    static void connect() {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+                System.getProperty("redis.host", "localhost"), Integer.getInteger("redis.port", 6379));
+        configuration.setPassword(RedisPassword.of(System.getProperty("redis.password", "root")));
+        connectionFactory = new LettuceConnectionFactory(configuration,
+                LettuceClientConfiguration.builder().commandTimeout(Duration.ofSeconds(2)).build());
+        connectionFactory.afterPropertiesSet();
+        boolean available;
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            available = "PONG".equals(connection.ping());
+        } catch (Exception e) {
+            available = false;
+        }
+        assumeTrue(available, "Redis 不可用，跳过");
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void disconnect() {
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+    }
+
+    @BeforeEach
+    void createFilter() {
+        key = "test:bloom:" + UUID.randomUUID();
+        filter = new RedisCountingBloomFilter(stringRedisTemplate, key);
+    }
+
+    @AfterEach
+    void deleteFilter() {
+        filter.delete();
+    }
+
+    @Test
+    void removedIdIsNoLongerContained() {
+        filter.tryInit(1000, 0.01);
+        filter.markReady();
+        List<Long> ids = range(1, 50);
+        filter.add(ids);
+        ids.forEach(id -> assertTrue(filter.contains(id)));
+        assertEquals(50, filter.count());
+
+        filter.remove(7L);
+
+        assertFalse(filter.contains(7L));
+        assertEquals(49, filter.count());
+        ids.stream().filter(id -> id != 7L).forEach(id -> assertTrue(filter.contains(id)));
+    }
+
+    @Test
+    void removeOfUnknownIdLeavesCountersAlone() {
+        filter.tryInit(1000, 0.01);
+        filter.markReady();
+        filter.add(range(1, 10));
+
+        filter.remove(100L);
+
+        assertEquals(10, filter.count());
+        range(1, 10).forEach(id -> assertTrue(filter.contains(id)));
+    }
+
+    @Test
+    void removeDuringRebuildOnlyTouchesFilledIds() {
+        // 位数组很小，未装载的 id 的计数器很可能都已被其他元素占用
+        filter.tryInit(10, 0.5);
+        filter.markReady();
+        List<Long> live = range(1, 40);
+        filter.add(live);
+        filter.beginRebuild();
+        filter.fillShadow(range(1, 20));
+        long unfilled = coveredId(range(1, 20), 21);
+        long shadowCount = shadowCount();
+
+        // 尚未装载到的 id 不能减影子计数器
+        filter.remove(unfilled);
+        assertEquals(shadowCount, shadowCount());
+
+        // 已装载的 id 同时从影子中删除
+        filter.remove(5L);
+        assertTrue(shadowCount() < shadowCount || shadowCount == 0);
+
+        List<Long> rest = live.stream().filter(id -> id > 20 && id != unfilled).collect(Collectors.toList());
+        filter.fillShadow(rest);
+        filter.finishRebuild();
+
+        live.stream().filter(id -> id != 5L && id != unfilled).forEach(id -> assertTrue(filter.contains(id)));
+    }
+
+    @Test
+    void staleEpochReloadsAndRetries() {
+        filter.tryInit(1000, 0.01);
+        filter.markReady();
+        filter.add(1L);
+
+        // 另一个节点删除并重新创建过滤器
+        RedisCountingBloomFilter other = new RedisCountingBloomFilter(stringRedisTemplate, key);
+        other.delete();
+        other.tryInit(2000, 0.01);
+        other.markReady();
+
+        filter.add(2L);
+
+        assertTrue(other.contains(2L));
+        assertFalse(other.contains(1L));
+        assertEquals(other.getSize(), filter.getSize());
+    }
+
+    private long shadowCount() {
+        return Long.parseLong(filter.getConfig().getOrDefault("shadowCount", "0"));
+    }
+
+    /**
+     * 找一个不小于 fromId、所有下标都已被 filled 占用的 id
+     *
+     * @param filled 已装载的 id
+     * @param fromId 起始 id
+     * @return long
+     */
+    private long coveredId(List<Long> filled, long fromId) {
+        Set<Long> occupied = new HashSet<>();
+        filled.forEach(id -> Arrays.stream(filter.indexes(id)).forEach(occupied::add));
+        for (long id = fromId; ; id++) {
+            if (Arrays.stream(filter.indexes(id)).allMatch(occupied::contains)) {
+                return id;
+            }
+        }
+    }
+
+    private static List<Long> range(long from, long to) {
+        return LongStream.rangeClosed(from, to).boxed().collect(Collectors.toCollection(ArrayList::new));
+    }
+}